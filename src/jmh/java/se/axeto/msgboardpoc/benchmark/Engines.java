@@ -0,0 +1,78 @@
+package se.axeto.msgboardpoc.benchmark;
+
+import se.axeto.msgboardpoc.persistence.Snapshots;
+import se.axeto.msgboardpoc.persistence.WriteAheadLog;
+import se.axeto.msgboardpoc.service.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Creates the <code>MessageService</code> implementations by the same names as
+ * the <code>msgboard.store</code> property, so that every benchmark can be run
+ * against every engine.
+ */
+final class Engines {
+
+    static final String INMEMORY = "inmemory";
+    static final String CONCURRENT = "concurrent";
+    static final String OFFHEAP = "offheap";
+    static final String PERSISTENT = "persistent";
+
+    private Engines() {
+    }
+
+    /**
+     * An engine and whatever has to be cleaned up after it.
+     */
+    static final class Engine implements Closeable {
+        final MessageService messageService;
+        private final Path directory;
+
+        private Engine(MessageService messageService, Path directory) {
+            this.messageService = messageService;
+            this.directory = directory;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (messageService instanceof PersistentMessageServiceImpl) {
+                ((PersistentMessageServiceImpl) messageService).close();
+            }
+            if (directory != null) {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    List<Path> paths = files.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+                    for (Path path : paths) {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+    }
+
+    static Engine create(String name) throws IOException {
+        switch (name) {
+            case INMEMORY:
+                return new Engine(new InMemoryMessageServiceImpl(new HashMap<>()), null);
+            case CONCURRENT:
+                return new Engine(new ConcurrentMessageServiceImpl(), null);
+            case OFFHEAP:
+                return new Engine(new OffHeapMessageServiceImpl(), null);
+            case PERSISTENT:
+                // Forces every write to disk, as with the default configuration
+                Path directory = Files.createTempDirectory("msgboard-jmh");
+                WriteAheadLog log = new WriteAheadLog(directory.resolve("wal"), 64 << 20, 10);
+                return new Engine(new PersistentMessageServiceImpl(log,
+                        new Snapshots(directory.resolve("snapshot")), true, 0), directory);
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + name);
+        }
+    }
+}
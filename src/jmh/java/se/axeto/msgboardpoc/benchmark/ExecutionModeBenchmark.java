@@ -0,0 +1,94 @@
+package se.axeto.msgboardpoc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import se.axeto.msgboardpoc.execution.VirtualThreads;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compares the request execution modes of <code>msgboard.execution.mode</code>
+ * at high concurrency.
+ *
+ * <p>
+ * An invocation is a burst of <code>concurrency</code> requests arriving at
+ * once, each one creates a message, and measures the time until all of them
+ * are done. <code>platform</code> runs them on a pool of 200 threads, the
+ * default size of Tomcat's pool, <code>virtual</code> runs each one on a new
+ * virtual thread. With the <code>persistent</code> engine a create blocks
+ * until the log has been forced, which is where the thread pool becomes the
+ * limit. The <code>virtual</code> mode needs Java 21 or later.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx12g"})
+public class ExecutionModeBenchmark {
+
+    static final String PLATFORM = "platform";
+    static final String VIRTUAL = "virtual";
+    // server.tomcat.max-threads
+    static final int PLATFORM_THREADS = 200;
+
+    @Param({PLATFORM, VIRTUAL})
+    public String mode;
+
+    @Param({Engines.CONCURRENT, Engines.PERSISTENT})
+    public String engine;
+
+    @Param({"200", "2000", "10000"})
+    public int concurrency;
+
+    private Engines.Engine store;
+    private MessageService messageService;
+    private ExecutorService executor;
+    private long burst;
+
+    @Setup
+    public void setUp() throws Exception {
+        store = Engines.create(engine);
+        messageService = store.messageService;
+        executor = VIRTUAL.equals(mode)
+                ? VirtualThreads.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        store.close();
+    }
+
+    @Benchmark
+    public void createBurst() throws Exception {
+        String messageId = "burst" + burst++;
+        CountDownLatch done = new CountDownLatch(concurrency);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        for (int r = 0; r < concurrency; r++) {
+            String userId = "user" + r;
+            executor.execute(() -> {
+                try {
+                    messageService.createMessage(new MessageImpl(userId, messageId, "a message from " + userId));
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package se.axeto.msgboardpoc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the <code>MessageService</code> hot paths.
+ *
+ * <p>
+ * The store is filled with <code>storeSize</code> messages spread evenly over
+ * <code>storeSize / MESSAGES_PER_USER</code> users before the measurement.
+ * Operations pick their user with the <code>skew</code> distribution and a
+ * message of that user uniformly. Run with <code>-t</code> to vary the number
+ * of threads, <code>inmemory</code> is not thread safe and only gives valid
+ * results with one thread.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx12g", "-XX:MaxDirectMemorySize=12g"})
+public class MessageServiceBenchmark {
+
+    static final int MESSAGES_PER_USER = 100;
+    static final int BATCH_SIZE = 1000;
+
+    @Param({Engines.INMEMORY, Engines.CONCURRENT, Engines.OFFHEAP, Engines.PERSISTENT})
+    public String engine;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int storeSize;
+
+    @Param({UserPicker.UNIFORM, UserPicker.ZIPFIAN})
+    public String skew;
+
+    private Engines.Engine store;
+    private MessageService messageService;
+    private UserPicker picker;
+    private String[] userIds;
+    private String[] messageIds;
+
+    @Setup
+    public void setUp() throws Exception {
+        store = Engines.create(engine);
+        messageService = store.messageService;
+
+        int users = Math.max(1, storeSize / MESSAGES_PER_USER);
+        picker = new UserPicker(skew, users);
+        userIds = new String[users];
+        for (int u = 0; u < users; u++) {
+            userIds[u] = "user" + u;
+        }
+        messageIds = new String[Math.min(storeSize, MESSAGES_PER_USER)];
+        for (int m = 0; m < messageIds.length; m++) {
+            messageIds[m] = "msg" + m;
+        }
+
+        for (int m = 0; m < messageIds.length; m++) {
+            for (int u = 0; u < users; u++) {
+                messageService.createMessage(new MessageImpl(userIds[u], messageIds[m], text(u, m)));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    /**
+     * Ids of the messages created by one benchmark thread, unique across threads.
+     */
+    @State(Scope.Thread)
+    public static class CreatedIds {
+        private String prefix;
+        private long next;
+
+        @Setup
+        public void setUp(ThreadParams thread) {
+            prefix = "created-" + thread.getThreadIndex() + "-";
+        }
+
+        String next() {
+            return prefix + next++;
+        }
+    }
+
+    /**
+     * Creates a new message each time, the store grows by the created messages
+     * during the run.
+     */
+    @Benchmark
+    public void createMessage(CreatedIds ids) throws Exception {
+        messageService.createMessage(new MessageImpl(randomUser(), ids.next(), "A new message"));
+    }
+
+    /**
+     * Creates the same number of messages as <code>createMessage</code> makes
+     * in <code>BATCH_SIZE</code> calls, with one call.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<BatchResult> createMessageBatch(CreatedIds ids) {
+        List<BatchOperation> operations = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            operations.add(new BatchOperation(BatchOperation.Type.CREATE, randomUser(), ids.next(), "A new message"));
+        }
+        return messageService.applyBatch(operations);
+    }
+
+    @Benchmark
+    public void updateMessage() throws Exception {
+        messageService.updateMessage(new MessageImpl(randomUser(), randomMessageId(), "An updated message"));
+    }
+
+    @Benchmark
+    public Message getMessage() throws Exception {
+        return messageService.getMessage(new MessageImpl(randomUser(), randomMessageId(), ""));
+    }
+
+    @Benchmark
+    public Map<String, Message> getUserMessages() throws Exception {
+        return messageService.getUserMessages(randomUser());
+    }
+
+    @Benchmark
+    public void getAllMessages(Blackhole blackhole) {
+        for (Message message : messageService.getAllMessages()) {
+            blackhole.consume(message);
+        }
+    }
+
+    private String randomUser() {
+        return userIds[picker.next()];
+    }
+
+    private String randomMessageId() {
+        return messageIds[ThreadLocalRandom.current().nextInt(messageIds.length)];
+    }
+
+    private static String text(int user, int message) {
+        return "Message " + message + " from user " + user + " on the message board";
+    }
+}
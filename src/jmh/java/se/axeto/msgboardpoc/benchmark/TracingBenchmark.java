@@ -0,0 +1,70 @@
+package se.axeto.msgboardpoc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.tracing.OperationTracer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of entry and exit tracing around a message lookup when tracing is
+ * off, the level set by <code>src/jmh/resources/logback.xml</code>. Compares
+ * the debug logging the in-memory store used to do on every call with
+ * <code>OperationTracer</code>. Run with <code>-prof gc</code> to see the
+ * allocations per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TracingBenchmark {
+
+    private static final Logger LEGACY_LOGGER = LoggerFactory.getLogger(TracingBenchmark.class);
+    private static final String ENTER = "Enter";
+    private static final String EXIT = "Exit";
+
+    private static final OperationTracer TRACER = OperationTracer.forOperation("getMessage");
+
+    private final Map<String, Message> messages = new HashMap<>();
+    private Message key;
+
+    @Setup
+    public void setUp() {
+        for (int m = 0; m < 1000; m++) {
+            messages.put("msg" + m, new MessageImpl("user", "msg" + m, "Message number " + m));
+        }
+        key = new MessageImpl("user", "msg500", "");
+    }
+
+    @Benchmark
+    public Message untraced() {
+        return messages.get(key.getMessageId());
+    }
+
+    /**
+     * As every call of the in-memory store did before <code>OperationTracer</code>.
+     */
+    @Benchmark
+    public Message legacyDebugLogging() {
+        final String METHOD_NAME = "getMessage";
+        LEGACY_LOGGER.debug(ENTER, METHOD_NAME, key);
+        Message message = messages.get(key.getMessageId());
+        LEGACY_LOGGER.debug(EXIT, METHOD_NAME, message);
+        return message;
+    }
+
+    @Benchmark
+    public Message operationTracer() {
+        TRACER.enter(key);
+        Message message = messages.get(key.getMessageId());
+        TRACER.exit(message);
+        return message;
+    }
+}
@@ -0,0 +1,52 @@
+package se.axeto.msgboardpoc.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks user indexes either uniformly or following a Zipfian distribution,
+ * where the user of rank k is picked with a probability proportional to
+ * 1 / k^exponent. A few users then get most of the traffic, as on a real board.
+ */
+final class UserPicker {
+
+    static final String UNIFORM = "uniform";
+    static final String ZIPFIAN = "zipfian";
+
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    private final int users;
+    // Cumulative probabilities, null for the uniform distribution
+    private final double[] cdf;
+
+    UserPicker(String skew, int users) {
+        this.users = users;
+        switch (skew) {
+            case UNIFORM:
+                cdf = null;
+                break;
+            case ZIPFIAN:
+                cdf = new double[users];
+                double sum = 0;
+                for (int k = 0; k < users; k++) {
+                    sum += 1 / Math.pow(k + 1, ZIPF_EXPONENT);
+                    cdf[k] = sum;
+                }
+                for (int k = 0; k < users; k++) {
+                    cdf[k] /= sum;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown skew: " + skew);
+        }
+    }
+
+    int next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (cdf == null) {
+            return random.nextInt(users);
+        }
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(users - 1, index >= 0 ? index : -index - 1);
+    }
+}
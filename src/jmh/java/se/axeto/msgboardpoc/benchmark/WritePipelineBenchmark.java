@@ -0,0 +1,102 @@
+package se.axeto.msgboardpoc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.pipeline.AckMode;
+import se.axeto.msgboardpoc.pipeline.WritePipeline;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing to the store directly with writing through the
+ * <code>WritePipeline</code>, answered once applied or once durable.
+ *
+ * <p>
+ * Every invocation creates a message and waits for it to be answered, the
+ * throughput is the writes per millisecond of all threads together and the
+ * sampled time their latency with percentiles. The pipeline only has batches
+ * to make when many writes arrive at once, so it runs on 32 threads unless
+ * told otherwise with <code>-PjmhThreads</code>. With the
+ * <code>persistent</code> engine a <code>direct</code> write waits for the
+ * log to be forced, as with the default configuration, a <code>durable</code>
+ * one waits for its batch to be forced and an <code>applied</code> one not
+ * at all.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx12g"})
+public class WritePipelineBenchmark {
+
+    static final String DIRECT = "direct";
+    static final String APPLIED = "applied";
+    static final String DURABLE = "durable";
+
+    @Param({DIRECT, APPLIED, DURABLE})
+    public String mode;
+
+    @Param({Engines.CONCURRENT, Engines.PERSISTENT})
+    public String engine;
+
+    private Engines.Engine store;
+    private WritePipeline pipeline;
+
+    @Setup
+    public void setUp() throws Exception {
+        store = Engines.create(engine);
+        if (!DIRECT.equals(mode)) {
+            pipeline = new WritePipeline(store.messageService, 65536, 1024, 1000);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        store.close();
+    }
+
+    /**
+     * The messages of one thread, spread over 100 users of its own.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        String userPrefix;
+        long written;
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            userPrefix = "user" + threadParams.getThreadIndex() + "-";
+        }
+
+        String nextUser() {
+            return userPrefix + (written % 100);
+        }
+    }
+
+    @Benchmark
+    public void create(Writer writer) throws Exception {
+        String userId = writer.nextUser();
+        String messageId = "m" + writer.written++;
+        String text = "a message from " + userId;
+        if (pipeline == null) {
+            store.messageService.createMessage(new MessageImpl(userId, messageId, text));
+            return;
+        }
+        AckMode ack = DURABLE.equals(mode) ? AckMode.DURABLE : AckMode.APPLIED;
+        BatchResult result = pipeline.submit(new BatchOperation(BatchOperation.Type.CREATE, userId, messageId,
+                text), ack).get();
+        if (result.getStatus() != 200) {
+            throw new IllegalStateException("Write failed: " + result);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package se.axeto.msgboardpoc.admission;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Puts the admission control in front of the message API. The event stream
+ * is left out, a subscription is long lived and would hold a permit for as
+ * long as it is open.
+ */
+@Configuration
+public class AdmissionConfiguration implements WebMvcConfigurer {
+
+    private final ConcurrencyLimitInterceptor concurrencyLimit;
+
+    @Autowired
+    public AdmissionConfiguration(ConcurrencyLimitInterceptor concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(concurrencyLimit)
+                .addPathPatterns("/api/v1/message/**")
+                .excludePathPatterns("/api/v1/message/events");
+    }
+}
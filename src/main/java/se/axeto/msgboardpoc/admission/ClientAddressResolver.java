@@ -0,0 +1,113 @@
+package se.axeto.msgboardpoc.admission;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.*;
+
+/**
+ * Tells the address of the client that sent a request, for the rate limit.
+ *
+ * <p>
+ * Behind a reverse proxy every request comes from the address of the proxy.
+ * With <code>msgboard.ratelimit.client-address-header</code> set, e.g. to
+ * <code>X-Forwarded-For</code> or <code>Forwarded</code>, the addresses a
+ * request has been forwarded for are read from that header, but only when it
+ * comes from one of <code>msgboard.ratelimit.trusted-proxies</code>. Each
+ * proxy appends the address it got the request from, so the header is read
+ * from the end and the first address that isn't a trusted proxy is the
+ * client, whatever a client put in the header itself.
+ * </p>
+ *
+ * <p>
+ * Addresses are compared as the servlet container reports them, without
+ * resolving names. Without a header the client is the remote address.
+ * </p>
+ */
+@Component
+public class ClientAddressResolver {
+
+    // null if the remote address is the client
+    private final String header;
+    private final Set<String> trustedProxies;
+
+    /**
+     * @param header the header the trusted proxies add the client address to, <code>null</code> or empty for none.
+     * @param trustedProxies the addresses of the proxies, required with a header.
+     */
+    public ClientAddressResolver(String header, Collection<String> trustedProxies) {
+        this.header = header == null || header.trim().isEmpty() ? null : header.trim();
+        this.trustedProxies = new HashSet<>();
+        for (String proxy : trustedProxies) {
+            if (!proxy.trim().isEmpty()) {
+                this.trustedProxies.add(proxy.trim());
+            }
+        }
+        if (this.header != null && this.trustedProxies.isEmpty()) {
+            throw new IllegalArgumentException("A client address header needs trusted proxies, set " +
+                    "msgboard.ratelimit.trusted-proxies or unset msgboard.ratelimit.client-address-header");
+        }
+    }
+
+    @Autowired
+    public ClientAddressResolver(@Value("${msgboard.ratelimit.client-address-header:}") String header,
+                                 @Value("${msgboard.ratelimit.trusted-proxies:}") String[] trustedProxies) {
+        this(header, Arrays.asList(trustedProxies));
+    }
+
+    /**
+     * @param request the request to find the client of.
+     * @return The address of the client.
+     */
+    public String resolve(HttpServletRequest request) {
+        String address = request.getRemoteAddr();
+        if (header == null || !trustedProxies.contains(address)) {
+            return address;
+        }
+        List<String> hops = new ArrayList<>();
+        for (Enumeration<String> values = request.getHeaders(header); values.hasMoreElements(); ) {
+            for (String element : values.nextElement().split(",")) {
+                String hop = header.equalsIgnoreCase("Forwarded") ? forwardedFor(element) : element.trim();
+                if (hop != null && !hop.isEmpty()) {
+                    hops.add(hop);
+                }
+            }
+        }
+        // The last hop was added by the proxy the request came from
+        for (int i = hops.size() - 1; i >= 0; i--) {
+            address = hops.get(i);
+            if (!trustedProxies.contains(address)) {
+                break;
+            }
+        }
+        return address;
+    }
+
+    /**
+     * @return The address of the <code>for</code> parameter of an element of
+     * a <code>Forwarded</code> header (RFC 7239), without its port,
+     * <code>null</code> if it has none.
+     */
+    private static String forwardedFor(String element) {
+        for (String pair : element.split(";")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0 || !pair.substring(0, equals).trim().equalsIgnoreCase("for")) {
+                continue;
+            }
+            String node = pair.substring(equals + 1).trim();
+            if (node.length() > 1 && node.startsWith("\"") && node.endsWith("\"")) {
+                node = node.substring(1, node.length() - 1);
+            }
+            if (node.startsWith("[")) {
+                // An IPv6 address, maybe with a port after the bracket
+                int end = node.indexOf(']');
+                return end < 0 ? node.substring(1) : node.substring(1, end);
+            }
+            int colon = node.indexOf(':');
+            return colon < 0 ? node : node.substring(0, colon);
+        }
+        return null;
+    }
+}
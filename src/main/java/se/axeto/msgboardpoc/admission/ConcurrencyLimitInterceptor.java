@@ -0,0 +1,129 @@
+package se.axeto.msgboardpoc.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control, limits the number of requests that are handled at the
+ * same time and sheds the rest.
+ *
+ * <p>
+ * A request waits at most <code>maxWaitMillis</code> for one of
+ * <code>maxConcurrentRequests</code> permits, otherwise it is answered right
+ * away with 429 Too Many Requests and <code>Retry-After: 1</code>. Keeping the
+ * limit below the size of the request thread pool leaves threads for the
+ * requests that are admitted, their latency stays the same under overload
+ * instead of every request queueing for a thread.
+ * </p>
+ *
+ * <p>
+ * A permit is held until the handler returns. The body of a streamed
+ * response is written after that, its async dispatch is not counted again.
+ * </p>
+ */
+@Component
+public class ConcurrencyLimitInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String PERMIT = ConcurrencyLimitInterceptor.class.getName() + ".permit";
+
+    private final Semaphore permits;
+    private final int maxConcurrentRequests;
+    private final long maxWaitNanos;
+    private Counter rejected;
+
+    /**
+     * @param maxConcurrentRequests the number of requests that are handled at the same time.
+     * @param maxWaitMillis how long a request may wait to be handled before it is rejected.
+     */
+    public ConcurrencyLimitInterceptor(int maxConcurrentRequests, long maxWaitMillis) {
+        if (maxConcurrentRequests < 1 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Invalid admission limits: " + maxConcurrentRequests + ", " +
+                    maxWaitMillis);
+        }
+        this.permits = new Semaphore(maxConcurrentRequests);
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    @Autowired
+    public ConcurrencyLimitInterceptor(@Value("${msgboard.admission.max-concurrent-requests:150}") int maxConcurrentRequests,
+                                       @Value("${msgboard.admission.max-wait-ms:100}") long maxWaitMillis,
+                                       MeterRegistry meterRegistry) {
+        this(maxConcurrentRequests, maxWaitMillis);
+        this.rejected = Counter.builder("msgboard.admission.rejected")
+                .description("Requests rejected with 429 Too Many Requests")
+                .tag("reason", "overload")
+                .register(meterRegistry);
+        Gauge.builder("msgboard.admission.in.flight", this, ConcurrencyLimitInterceptor::inFlight)
+                .description("Requests being handled")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            // Was admitted before the handler started the async processing
+            return true;
+        }
+        if (tryAcquire()) {
+            request.setAttribute(PERMIT, Boolean.TRUE);
+            return true;
+        }
+        if (rejected != null) {
+            rejected.increment();
+        }
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "The service is overloaded, try again later.");
+        return false;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        release(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        release(request);
+    }
+
+    /**
+     * @return The number of requests being handled.
+     */
+    public int inFlight() {
+        return maxConcurrentRequests - permits.availablePermits();
+    }
+
+    boolean tryAcquire() {
+        try {
+            return permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void release(HttpServletRequest request) {
+        if (request.getAttribute(PERMIT) != null) {
+            request.removeAttribute(PERMIT);
+            permits.release();
+        }
+    }
+}
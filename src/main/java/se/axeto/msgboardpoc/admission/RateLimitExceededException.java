@@ -0,0 +1,29 @@
+package se.axeto.msgboardpoc.admission;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exception to throw when a request is rejected to protect the service, it
+ * is answered with 429 Too Many Requests and a <code>Retry-After</code> header.
+ */
+public class RateLimitExceededException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public RateLimitExceededException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return The number of seconds the client should wait before trying again, at least 1.
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    static long toRetryAfterSeconds(long waitNanos) {
+        // Retry-After is in whole seconds, round up so that the client doesn't come back too early
+        return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+}
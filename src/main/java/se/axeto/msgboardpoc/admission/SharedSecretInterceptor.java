@@ -0,0 +1,59 @@
+package se.axeto.msgboardpoc.admission;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Lets a request through only if it has the secret shared by the nodes in
+ * <code>X-Msgboard-Secret</code>, for the APIs the nodes call on each other.
+ *
+ * <p>
+ * Every other request is answered with 403 Forbidden before it reaches a
+ * handler. The secret is compared in constant time. It is sent in the clear,
+ * the nodes should talk to each other over a network the clients can't
+ * listen on.
+ * </p>
+ */
+public class SharedSecretInterceptor implements HandlerInterceptor {
+
+    public static final String SECRET_HEADER = "X-Msgboard-Secret";
+
+    private final byte[] secret;
+
+    /**
+     * @param property the property the secret is set by, for the error if it isn't.
+     * @param secret the secret, must not be empty.
+     */
+    public SharedSecretInterceptor(String property, String secret) {
+        this.secret = requireSecret(property, secret).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The secret, if it is set.
+     * @throws IllegalArgumentException if it is <code>null</code> or empty.
+     */
+    public static String requireSecret(String property, String secret) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException(property + " must be set, the same on every node, " +
+                    "the nodes authenticate their calls to each other with it");
+        }
+        return secret;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        String given = request.getHeader(SECRET_HEADER);
+        if (given != null && MessageDigest.isEqual(secret, given.getBytes(StandardCharsets.UTF_8))) {
+            return true;
+        }
+        response.sendError(HttpStatus.FORBIDDEN.value(), "Only for the nodes of the board.");
+        return false;
+    }
+}
@@ -0,0 +1,118 @@
+package se.axeto.msgboardpoc.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate of requests per key, e.g. per client address, with a token bucket.
+ *
+ * <p>
+ * Each key may make <code>burst</code> requests at once, then
+ * <code>requestsPerSecond</code> on average. A bucket is kept as the single
+ * time at which it will be full again (the generic cell rate algorithm): a
+ * request is allowed if taking a token doesn't push that time more than
+ * <code>burst</code> tokens into the future.
+ * </p>
+ *
+ * <p>
+ * The buckets are a fixed size array of longs updated by compare and set, so
+ * memory is bounded whatever the number of keys and no lock is taken. A key
+ * is hashed to a bucket, keys that happen to share a bucket share its rate.
+ * With many more buckets than active keys that is rare, and it only ever
+ * makes the limit stricter.
+ * </p>
+ */
+@Component
+public class TokenBucketRateLimiter {
+
+    private final AtomicLongArray buckets;
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final LongSupplier nanoClock;
+    private final long origin;
+    private Counter rejected;
+
+    /**
+     * @param requestsPerSecond the rate at which tokens are added to a bucket.
+     * @param burst the number of tokens in a full bucket.
+     * @param bucketCount the number of buckets, rounded up to a power of two.
+     * @param nanoClock a clock in nanoseconds, like <code>System::nanoTime</code>.
+     */
+    public TokenBucketRateLimiter(double requestsPerSecond, int burst, int bucketCount, LongSupplier nanoClock) {
+        if (requestsPerSecond <= 0 || burst < 1 || bucketCount < 1) {
+            throw new IllegalArgumentException("Rate, burst and bucket count must be positive: " +
+                    requestsPerSecond + ", " + burst + ", " + bucketCount);
+        }
+        this.buckets = new AtomicLongArray(Math.max(1, Integer.highestOneBit(bucketCount - 1) << 1));
+        this.nanosPerToken = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond));
+        this.burstNanos = burst * nanosPerToken;
+        this.nanoClock = Objects.requireNonNull(nanoClock, "Clock must not be null");
+        this.origin = nanoClock.getAsLong();
+    }
+
+    @Autowired
+    public TokenBucketRateLimiter(@Value("${msgboard.ratelimit.requests-per-second:50}") double requestsPerSecond,
+                                  @Value("${msgboard.ratelimit.burst:100}") int burst,
+                                  @Value("${msgboard.ratelimit.buckets:65536}") int bucketCount,
+                                  MeterRegistry meterRegistry) {
+        this(requestsPerSecond, burst, bucketCount, System::nanoTime);
+        this.rejected = Counter.builder("msgboard.admission.rejected")
+                .description("Requests rejected with 429 Too Many Requests")
+                .tag("reason", "rate")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Take a token from the bucket of a key.
+     *
+     * @param key the key to limit the rate of.
+     * @throws RateLimitExceededException if the bucket is empty.
+     */
+    public void acquire(String key) {
+        long waitNanos = tryAcquire(key);
+        if (waitNanos > 0) {
+            if (rejected != null) {
+                rejected.increment();
+            }
+            throw new RateLimitExceededException("Too many requests, retry in " +
+                    TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms.",
+                    RateLimitExceededException.toRetryAfterSeconds(waitNanos));
+        }
+    }
+
+    /**
+     * Take a token from the bucket of a key, if there is one.
+     *
+     * @param key the key to limit the rate of.
+     * @return 0 if a token was taken, otherwise the nanoseconds until there is one.
+     */
+    public long tryAcquire(String key) {
+        Objects.requireNonNull(key, "Key must not be null");
+        int bucket = bucketIndex(key);
+        // Never 0 or less, 0 is an unused bucket which is full
+        long now = nanoClock.getAsLong() - origin + 1;
+        while (true) {
+            long full = buckets.get(bucket);
+            long next = Math.max(full, now) + nanosPerToken;
+            if (next - now > burstNanos) {
+                return next - now - burstNanos;
+            }
+            if (buckets.compareAndSet(bucket, full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private int bucketIndex(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (buckets.length() - 1);
+    }
+}
@@ -0,0 +1,115 @@
+package se.axeto.msgboardpoc.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies a newline delimited JSON (NDJSON) stream, or a CBOR sequence, of
+ * batch operations and streams back one result per operation in the same
+ * encoding.
+ *
+ * <p>
+ * Operations are read and applied in chunks, so a batch of any size is
+ * applied with bounded memory. An operation that can't be parsed ends the
+ * batch with a result with status 400 for it, the operations before it have
+ * been applied.
+ * </p>
+ */
+class BatchStreamProcessor {
+
+    static final int CHUNK_SIZE = 1000;
+
+    private final MessageService messageService;
+    private final ObjectMapper objectMapper;
+    private final boolean newlineDelimited;
+    private final MediaType mediaType;
+
+    private BatchStreamProcessor(MessageService messageService, ObjectMapper objectMapper,
+                                 boolean newlineDelimited, MediaType mediaType) {
+        this.messageService = messageService;
+        this.objectMapper = objectMapper;
+        this.newlineDelimited = newlineDelimited;
+        this.mediaType = mediaType;
+    }
+
+    static BatchStreamProcessor ndjson(MessageService messageService, ObjectMapper objectMapper) {
+        return new BatchStreamProcessor(messageService, objectMapper, true,
+                MediaType.valueOf(MessageStreamWriter.NDJSON_VALUE));
+    }
+
+    /**
+     * @param cborMapper an <code>ObjectMapper</code> with a <code>CBORFactory</code>.
+     */
+    static BatchStreamProcessor cborSequence(MessageService messageService, ObjectMapper cborMapper) {
+        return new BatchStreamProcessor(messageService, cborMapper, false,
+                MediaType.valueOf(MessageStreamWriter.CBOR_SEQ_VALUE));
+    }
+
+    /**
+     * @return A response with the content type of the stream, a body that is
+     * returned as is gets none.
+     */
+    ResponseEntity<StreamingResponseBody> process(InputStream operations) {
+        return ResponseEntity.ok().contentType(mediaType).body(outputStream -> {
+            try (MappingIterator<BatchOperation> iterator =
+                         objectMapper.readerFor(BatchOperation.class).readValues(operations);
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                // The servlet container owns the response stream
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+                List<BatchOperation> chunk = new ArrayList<>(CHUNK_SIZE);
+                int offset = 0;
+                try {
+                    while (iterator.hasNextValue()) {
+                        chunk.add(iterator.nextValue());
+                        if (chunk.size() == CHUNK_SIZE) {
+                            offset = apply(chunk, offset, generator);
+                        }
+                    }
+                } catch (JsonProcessingException e) {
+                    offset = apply(chunk, offset, generator);
+                    write(new BatchResult(offset, 400, "Malformed operation: " + e.getOriginalMessage()), generator);
+                }
+                apply(chunk, offset, generator);
+            }
+        });
+    }
+
+    /**
+     * Apply and clear a chunk of operations.
+     *
+     * @return The offset of the next chunk.
+     */
+    private int apply(List<BatchOperation> chunk, int offset, JsonGenerator generator) throws IOException {
+        if (chunk.isEmpty()) {
+            return offset;
+        }
+        for (BatchResult result : messageService.applyBatch(chunk)) {
+            write(new BatchResult(offset + result.getIndex(), result.getStatus(), result.getError()), generator);
+        }
+        generator.flush();
+        int next = offset + chunk.size();
+        chunk.clear();
+        return next;
+    }
+
+    private void write(BatchResult result, JsonGenerator generator) throws IOException {
+        generator.writeObject(result);
+        if (newlineDelimited) {
+            generator.writeRaw('\n');
+        }
+    }
+}
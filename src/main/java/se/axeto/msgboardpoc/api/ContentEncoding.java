@@ -0,0 +1,55 @@
+package se.axeto.msgboardpoc.api;
+
+/**
+ * Negotiation of the compression of a response from the
+ * <code>Accept-Encoding</code> header of the request.
+ *
+ * <p>
+ * Only gzip is offered, it is the one compression that comes with the JDK and
+ * that every client understands.
+ * </p>
+ */
+public final class ContentEncoding {
+
+    public static final String GZIP = "gzip";
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * @param acceptEncoding the <code>Accept-Encoding</code> header, or <code>null</code>.
+     * @return <code>true</code> if gzip, or any encoding, is accepted with a quality above 0.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean accepted = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim();
+            if (name.equalsIgnoreCase(GZIP)) {
+                // An explicit gzip;q=0 wins over *
+                return quality(parameters) > 0;
+            }
+            if (name.equals("*")) {
+                accepted = quality(parameters) > 0;
+            }
+        }
+        return accepted;
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,242 @@
+package se.axeto.msgboardpoc.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.stereotype.Component;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.service.MessageService;
+import se.axeto.msgboardpoc.service.MessageStoreListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache of the encoded responses of the all messages and user messages
+ * views, so that the messages are only serialized again after a write. Each
+ * <code>WireFormat</code> of a view is cached on its own, and so is its gzip
+ * compressed form, which is compressed once per version of the view however
+ * many clients ask for it.
+ *
+ * <p>
+ * A view is cached together with the store version it was read at, see
+ * <code>MessageService.getVersion</code>, and is only served for that version.
+ * Writes also remove the views of the written user and of all messages right
+ * away, so outdated views don't take up space until they are evicted. The
+ * cache is bounded by the size of the encoded views, views that are seldom
+ * requested are evicted first.
+ * </p>
+ *
+ * <p>
+ * Hits and misses, evictions and the size are reported by the
+ * <code>cache.*</code> metrics tagged <code>cache=msgboard.views</code>.
+ * </p>
+ */
+@Component
+public class EncodedViewCache implements MessageStoreListener {
+
+    /**
+     * The key of the view of all messages, the view of a user is keyed by its user id.
+     */
+    public static final Object ALL_MESSAGES = new Object() {
+        @Override
+        public String toString() {
+            return "all messages";
+        }
+    };
+
+    // Object headers and fields of an entry, its key and its value
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper cborMapper;
+    private final Cache<ViewKey, EncodedView> cache;
+
+    /**
+     * @param cborMapper an <code>ObjectMapper</code> with a <code>CBORFactory</code>.
+     * @param maxBytes the maximum size of the cached views.
+     */
+    public EncodedViewCache(ObjectMapper jsonMapper, ObjectMapper cborMapper, long maxBytes) {
+        this.jsonMapper = jsonMapper;
+        this.cborMapper = cborMapper;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((ViewKey view, EncodedView encoded) -> ENTRY_OVERHEAD_BYTES + encoded.bytes.length)
+                .recordStats()
+                .build();
+    }
+
+    @Autowired
+    public EncodedViewCache(ObjectMapper objectMapper, MappingJackson2CborHttpMessageConverter cborConverter,
+                            MeterRegistry meterRegistry,
+                            @Value("${msgboard.cache.max-bytes:67108864}") long maxBytes) {
+        this(objectMapper, cborConverter.getObjectMapper(), maxBytes);
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "msgboard.views");
+    }
+
+    /**
+     * A read of a view from the store.
+     *
+     * @param <E> the exception thrown by the read.
+     */
+    @FunctionalInterface
+    public interface View<E extends Exception> {
+        Object read() throws E;
+    }
+
+    /**
+     * Get the JSON encoding of a view, see <code>get(Object, WireFormat, long, View)</code>.
+     */
+    public <E extends Exception> byte[] get(Object key, long version, View<E> view) throws E {
+        return get(key, WireFormat.JSON, version, view);
+    }
+
+    /**
+     * Get the encoding of a view, read and encoded only if the cached
+     * encoding is not of the given version.
+     *
+     * @param key the user id of the view, or <code>ALL_MESSAGES</code>.
+     * @param format the encoding.
+     * @param version the version of the view, must be read from the store before the view.
+     *                A view of <code>NO_VERSION</code> is never cached.
+     * @param view reads the view.
+     * @return The encoded view, not to be modified.
+     */
+    public <E extends Exception> byte[] get(Object key, WireFormat format, long version, View<E> view) throws E {
+        ViewKey viewKey = new ViewKey(key, format, false);
+        byte[] cached = getIfCurrent(viewKey, version);
+        return cached != null ? cached : put(viewKey, version, encode(viewKey, view.read()));
+    }
+
+    /**
+     * Get the gzip compressed form of an encoded view, compressed only if the
+     * cached one is not of the given version.
+     *
+     * @param key the user id of the view, or <code>ALL_MESSAGES</code>.
+     * @param format the encoding.
+     * @param version the version of the view, as passed to <code>get</code>.
+     * @param encoded the encoded view returned by <code>get</code>.
+     * @return The compressed view, not to be modified.
+     */
+    public byte[] getGzipped(Object key, WireFormat format, long version, byte[] encoded) {
+        ViewKey viewKey = new ViewKey(key, format, true);
+        byte[] cached = getIfCurrent(viewKey, version);
+        return cached != null ? cached : put(viewKey, version, gzip(encoded));
+    }
+
+    private byte[] getIfCurrent(ViewKey viewKey, long version) {
+        if (version == MessageService.NO_VERSION) {
+            return null;
+        }
+        EncodedView cached = cache.getIfPresent(viewKey);
+        return cached != null && cached.version == version ? cached.bytes : null;
+    }
+
+    private byte[] put(ViewKey viewKey, long version, byte[] bytes) {
+        if (version != MessageService.NO_VERSION) {
+            // A slower read of an older version must not replace a newer one
+            cache.asMap().merge(viewKey, new EncodedView(version, bytes),
+                    (cached, fresh) -> cached.version > fresh.version ? cached : fresh);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The approximate number of cached views.
+     */
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    @Override
+    public void onCreate(Message message) {
+        invalidate(message);
+    }
+
+    @Override
+    public void onUpdate(Message message) {
+        invalidate(message);
+    }
+
+    @Override
+    public void onDelete(Message message) {
+        invalidate(message);
+    }
+
+    private void invalidate(Message message) {
+        // Called before the write is applied, a view read in between is cached with an outdated version
+        for (WireFormat format : WireFormat.values()) {
+            for (boolean gzipped : new boolean[]{false, true}) {
+                cache.invalidate(new ViewKey(message.getUserId(), format, gzipped));
+                cache.invalidate(new ViewKey(ALL_MESSAGES, format, gzipped));
+            }
+        }
+    }
+
+    private byte[] encode(ViewKey key, Object view) {
+        try {
+            // Written to a buffer recycled by Jackson and copied out once
+            return (key.format == WireFormat.CBOR ? cborMapper : jsonMapper).writeValueAsBytes(view);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode the view of " + key.key + " as " + key.format, e);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        // Text compresses to a fraction, start small
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 1 << 13)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not compress a view", e);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static final class ViewKey {
+        final Object key;
+        final WireFormat format;
+        final boolean gzipped;
+
+        ViewKey(Object key, WireFormat format, boolean gzipped) {
+            this.key = key;
+            this.format = format;
+            this.gzipped = gzipped;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ViewKey)) {
+                return false;
+            }
+            ViewKey other = (ViewKey) o;
+            return key.equals(other.key) && format == other.format && gzipped == other.gzipped;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * key.hashCode() + format.hashCode()) + Boolean.hashCode(gzipped);
+        }
+    }
+
+    private static final class EncodedView {
+        final long version;
+        final byte[] bytes;
+
+        EncodedView(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+}
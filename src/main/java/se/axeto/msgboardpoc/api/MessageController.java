@@ -1,20 +1,47 @@
 package se.axeto.msgboardpoc.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import org.springframework.lang.NonNull;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import se.axeto.msgboardpoc.admission.ClientAddressResolver;
+import se.axeto.msgboardpoc.admission.RateLimitExceededException;
+import se.axeto.msgboardpoc.admission.TokenBucketRateLimiter;
 import se.axeto.msgboardpoc.exceptions.MessageExistException;
 import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
 import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
 import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageIdPage;
 import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.model.MessagePage;
+import se.axeto.msgboardpoc.pipeline.AckMode;
+import se.axeto.msgboardpoc.pipeline.WritePipeline;
+import se.axeto.msgboardpoc.replication.ReplicationLeader;
+import se.axeto.msgboardpoc.replication.ReplicationLog;
+import se.axeto.msgboardpoc.search.MessageSearchIndex;
+import se.axeto.msgboardpoc.search.SearchHit;
 import se.axeto.msgboardpoc.service.MessageService;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
-import java.util.Collection;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Message controller that implements a RESTful API to serve as the backend for a public message board.
@@ -23,78 +50,446 @@ import java.util.Map;
  * - A client can modify their own messages
  * - A client can delete their own messages
  * - A client can view all messages in the service
+ *
+ * Every endpoint reads and writes JSON by default and CBOR, a compact binary
+ * encoding of the same data, when the request is sent as or accepts
+ * <code>application/cbor</code>. The bulk read endpoints also stream newline
+ * delimited JSON when the client accepts <code>application/x-ndjson</code>,
+ * or a CBOR sequence for <code>application/cbor-seq</code>. Writes can be
+ * sent in batches, as an array or as a stream.
+ *
+ * The messages of a user and single messages are sent with a strong ETag made
+ * from their version in the store and the media type, a request with a matching
+ * <code>If-None-Match</code> is answered with 304 without reading the messages.
+ * The JSON of all messages and of the messages of a user is cached until the
+ * next write, see <code>EncodedViewCache</code>, a client that accepts gzip
+ * gets it compressed once and cached alongside, unless it is smaller than
+ * <code>msgboard.compression.min-bytes</code>. Messages can be searched by
+ * their text, see <code>MessageSearchIndex</code>.
+ *
+ * The bulk reads and the batches are rate limited per client address, the
+ * creates, modifies and deletes per user and client address, see
+ * <code>TokenBucketRateLimiter</code> and <code>ClientAddressResolver</code>.
+ * A request over the limit is answered with 429 and a
+ * <code>Retry-After</code> header.
+ *
+ * On the leader of a replicated board a write is answered with its version
+ * token in <code>X-Msgboard-Version</code>, which a follower waits for before
+ * it serves a read with the token in <code>X-Msgboard-Min-Version</code>, see
+ * <code>ReplicaRequestInterceptor</code>. A streamed batch has no token.
+ *
+ * With <code>msgboard.pipeline.enabled</code> a create, modify or delete is
+ * queued to be applied in a batch with others, see <code>WritePipeline</code>,
+ * and answered without holding on to the request thread once it has been
+ * applied, or once it is also on disk, as the client asks in
+ * <code>X-Msgboard-Ack</code>. A failed write is answered with the status
+ * it would get in a batch. Without the pipeline a write is applied and
+ * answered on the request thread, the request is not handled asynchronously.
  */
 
 @RequestMapping("api/v1/message")
 @RestController
 public class MessageController {
 
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_BATCH_SIZE = 10_000;
+    static final int MAX_SEARCH_LIMIT = 100;
+
     private final MessageService messageService;
+    private final MessageStreamWriter ndjsonWriter;
+    private final MessageStreamWriter cborSequenceWriter;
+    private final BatchStreamProcessor ndjsonBatchProcessor;
+    private final BatchStreamProcessor cborSequenceBatchProcessor;
+    private final EncodedViewCache viewCache;
+    private final MessageSearchIndex searchIndex;
+    private final TokenBucketRateLimiter rateLimiter;
+    private final ClientAddressResolver clientAddresses;
+    private final int compressionMinBytes;
+    // null unless this node is the leader of a replicated board
+    private final ReplicationLog replicationLog;
+    // null unless the single writes go through a pipeline
+    private final WritePipeline writePipeline;
+    // Versions start over when the store is restarted, tells the ETags of different runs apart
+    private final String etagPrefix = Long.toString(System.currentTimeMillis(), 36) + "-";
 
     @Autowired
-    public MessageController(MessageService messageService) {
+    public MessageController(MessageService messageService, ObjectMapper objectMapper,
+                             MappingJackson2CborHttpMessageConverter cborConverter,
+                             EncodedViewCache viewCache, MessageSearchIndex searchIndex,
+                             TokenBucketRateLimiter rateLimiter, ClientAddressResolver clientAddresses,
+                             ObjectProvider<ReplicationLeader> replicationLeader,
+                             ObjectProvider<WritePipeline> writePipeline,
+                             @Value("${msgboard.compression.min-bytes:1024}") int compressionMinBytes) {
         this.messageService = messageService;
+        this.viewCache = viewCache;
+        this.searchIndex = searchIndex;
+        this.rateLimiter = rateLimiter;
+        this.clientAddresses = clientAddresses;
+        this.compressionMinBytes = compressionMinBytes;
+        ReplicationLeader leader = replicationLeader.getIfAvailable();
+        this.replicationLog = leader == null ? null : leader.getLog();
+        this.writePipeline = writePipeline.getIfAvailable();
+        ObjectMapper cborMapper = cborConverter.getObjectMapper();
+        this.ndjsonWriter = MessageStreamWriter.ndjson(objectMapper);
+        this.cborSequenceWriter = MessageStreamWriter.cborSequence(cborMapper);
+        this.ndjsonBatchProcessor = BatchStreamProcessor.ndjson(messageService, objectMapper);
+        this.cborSequenceBatchProcessor = BatchStreamProcessor.cborSequence(messageService, cborMapper);
     }
 
     @GetMapping(path = "all")
-    public Collection<Message> getAllMessages() {
-        return messageService.getAllMessages();
+    public ResponseEntity<byte[]> getAllMessages(HttpServletRequest request) {
+        return allMessages(WireFormat.JSON, request);
+    }
+
+    @GetMapping(path = "all", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public ResponseEntity<byte[]> getAllMessagesCbor(HttpServletRequest request) {
+        return allMessages(WireFormat.CBOR, request);
+    }
+
+    @GetMapping(path = "all", produces = MessageStreamWriter.NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllMessages(HttpServletRequest request) {
+        rateLimiter.acquire(clientKey(request));
+        return ndjsonWriter.stream(messageService.iterateAllMessages());
+    }
+
+    @GetMapping(path = "all", produces = MessageStreamWriter.CBOR_SEQ_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllMessagesCbor(HttpServletRequest request) {
+        rateLimiter.acquire(clientKey(request));
+        return cborSequenceWriter.stream(messageService.iterateAllMessages());
     }
 
+    @GetMapping(path = "all", params = "limit")
+    public MessagePage getMessagePage(@RequestParam(value = "cursor", required = false) String cursor,
+                                      @RequestParam("limit") int limit, HttpServletRequest request) {
+        rateLimiter.acquire(clientKey(request));
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "The limit must be between 1 and " + MAX_PAGE_SIZE + ".");
+        }
+        try {
+            return messageService.getMessages(cursor, limit);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    @GetMapping(path = "search")
+    public List<Message> search(@RequestParam("q") String query,
+                                @RequestParam(value = "limit", defaultValue = "20") int limit,
+                                HttpServletRequest request) {
+        rateLimiter.acquire(clientKey(request));
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "The limit must be between 1 and " + MAX_SEARCH_LIMIT + ".");
+        }
+        List<Message> messages = new ArrayList<>();
+        for (SearchHit hit : searchIndex.search(query, limit)) {
+            try {
+                messages.add(messageService.getMessage(new MessageImpl(hit.getUserId(), hit.getMessageId(), "")));
+            } catch (UserNotFoundException | MessageNotFoundException e) {
+                // Deleted since it was found
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return A future of the pipelined write, only then is the request
+     * handled asynchronously, or the response of the applied write. The
+     * return value is handled by its class, not by the declared type.
+     */
     @PostMapping
-    public void addMessage(@Valid @NonNull @RequestBody MessageImpl message) throws MessageExistException {
+    public Object addMessage(@Valid @NonNull @RequestBody MessageImpl message,
+                             @RequestHeader(value = WritePipeline.ACK_HEADER, required = false) String ack,
+                             HttpServletRequest request, HttpServletResponse response)
+            throws MessageExistException {
+        rateLimiter.acquire(writerKey(message, request));
+        if (writePipeline != null) {
+            return pipelined(BatchOperation.Type.CREATE, message, ack, response);
+        }
         messageService.createMessage(message);
+        setVersionToken(response);
+        return ResponseEntity.ok().build();
     }
 
+    /**
+     * @return See <code>addMessage</code>.
+     */
     @PutMapping
-    public void updateMessage(@Valid @NonNull @RequestBody MessageImpl message) throws UserNotFoundException, MessageNotFoundException {
+    public Object updateMessage(@Valid @NonNull @RequestBody MessageImpl message,
+                                @RequestHeader(value = WritePipeline.ACK_HEADER, required = false) String ack,
+                                HttpServletRequest request, HttpServletResponse response)
+            throws UserNotFoundException, MessageNotFoundException {
+        rateLimiter.acquire(writerKey(message, request));
+        if (writePipeline != null) {
+            return pipelined(BatchOperation.Type.UPDATE, message, ack, response);
+        }
         messageService.updateMessage(message);
+        setVersionToken(response);
+        return ResponseEntity.ok().build();
+    }
+
+    @PostMapping(path = "batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public List<BatchResult> applyBatch(@NonNull @RequestBody List<BatchOperation> operations,
+                                        HttpServletRequest request, HttpServletResponse response) {
+        rateLimiter.acquire(clientKey(request));
+        if (operations.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "A batch can have at most " + MAX_BATCH_SIZE + " operations, stream larger batches as " +
+                            MessageStreamWriter.NDJSON_VALUE + " or " + MessageStreamWriter.CBOR_SEQ_VALUE + ".");
+        }
+        List<BatchResult> results = messageService.applyBatch(operations);
+        setVersionToken(response);
+        return results;
+    }
+
+    @PostMapping(path = "batch", consumes = MessageStreamWriter.NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> applyBatchStream(InputStream operations,
+                                                                  HttpServletRequest request) {
+        rateLimiter.acquire(clientKey(request));
+        return ndjsonBatchProcessor.process(operations);
     }
 
+    @PostMapping(path = "batch", consumes = MessageStreamWriter.CBOR_SEQ_VALUE,
+            produces = MessageStreamWriter.CBOR_SEQ_VALUE)
+    public ResponseEntity<StreamingResponseBody> applyBatchStreamCbor(InputStream operations,
+                                                                      HttpServletRequest request) {
+        rateLimiter.acquire(clientKey(request));
+        return cborSequenceBatchProcessor.process(operations);
+    }
+
+    /**
+     * @return See <code>addMessage</code>.
+     */
     @DeleteMapping
-    public void deleteMessage(@RequestBody MessageImpl message) throws UserNotFoundException, MessageNotFoundException {
+    public Object deleteMessage(@RequestBody MessageImpl message,
+                                @RequestHeader(value = WritePipeline.ACK_HEADER, required = false) String ack,
+                                HttpServletRequest request, HttpServletResponse response)
+            throws UserNotFoundException, MessageNotFoundException {
+        rateLimiter.acquire(writerKey(message, request));
+        if (writePipeline != null) {
+            return pipelined(BatchOperation.Type.DELETE, message, ack, response);
+        }
         messageService.deleteMessage(message);
+        setVersionToken(response);
+        return ResponseEntity.ok().build();
     }
 
     @GetMapping(path = "{user}")
-    public Map<String, Message> getUserMessages(@PathVariable("user") String userId) throws UserNotFoundException {
-        Map<String, Message> result;
+    public ResponseEntity<byte[]> getUserMessages(@PathVariable("user") String userId, NativeWebRequest request) {
+        return userMessages(userId, WireFormat.JSON, request);
+    }
+
+    @GetMapping(path = "{user}", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public ResponseEntity<byte[]> getUserMessagesCbor(@PathVariable("user") String userId, NativeWebRequest request) {
+        return userMessages(userId, WireFormat.CBOR, request);
+    }
+
+    @GetMapping(path = "{user}", produces = MessageStreamWriter.NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamUserMessages(@PathVariable("user") String userId,
+                                                                    NativeWebRequest request) {
+        return streamUserMessages(userId, ndjsonWriter, request);
+    }
+
+    @GetMapping(path = "{user}", produces = MessageStreamWriter.CBOR_SEQ_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamUserMessagesCbor(@PathVariable("user") String userId,
+                                                                        NativeWebRequest request) {
+        return streamUserMessages(userId, cborSequenceWriter, request);
+    }
+
+    @GetMapping(path = "{user}/{messageId}")
+    public ResponseEntity<Message> getMessage(@PathVariable("user")  String userId,
+                                              @PathVariable("messageId") String messageId,
+                                              NativeWebRequest request)
+            throws UserNotFoundException, MessageNotFoundException {
+        return message(userId, messageId, WireFormat.JSON, request);
+    }
+
+    @GetMapping(path = "{user}/{messageId}", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public ResponseEntity<Message> getMessageCbor(@PathVariable("user")  String userId,
+                                                  @PathVariable("messageId") String messageId,
+                                                  NativeWebRequest request)
+            throws UserNotFoundException, MessageNotFoundException {
+        return message(userId, messageId, WireFormat.CBOR, request);
+    }
+
+    @GetMapping(path = "ids/{user}")
+    public MessageIdPage getUserMessageIds(@PathVariable("user")  String userId,
+                                           @RequestParam(value = "prefix", required = false) String prefix,
+                                           @RequestParam(value = "cursor", required = false) String cursor,
+                                           @RequestParam(value = "limit", defaultValue = "1000") int limit,
+                                           HttpServletRequest request) {
+        rateLimiter.acquire(clientKey(request));
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "The limit must be between 1 and " + MAX_PAGE_SIZE + ".");
+        }
         try {
-            result = messageService.getUserMessages(userId);
+            return messageService.getUserMessageIds(userId, prefix, cursor, limit);
         } catch (UserNotFoundException e) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND,
-                                              "The user " + userId + " doesn't exist.", e);
+                "The user " + userId + " doesn't exist.", e);
         }
-        return result;
     }
 
-    @GetMapping(path = "{user}/{messageId}")
-    public Message getMessage(@PathVariable("user")  String userId, @PathVariable("messageId") String messageId)
-            throws UserNotFoundException, MessageNotFoundException {
-        return messageService.getMessage(new MessageImpl(userId, messageId, ""));
+    @ExceptionHandler(RateLimitExceededException.class)
+    public void rateLimitExceeded(RateLimitExceededException e, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), e.getMessage());
     }
 
-    @GetMapping(path = "ids/{user}")
-    public Collection<String> getUserMessageIds(@PathVariable("user")  String userId) {
-        Collection<String> userMessageIds;
-        //Respond with a not implemented status
-        throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED,
-                "The endpoint to get a list of " +
-                "the message ids for a user is yet to be implemented");
+    /**
+     * The position of the replication log after the write is at least the
+     * position of the write, a follower that has applied it has the write.
+     */
+    private void setVersionToken(HttpServletResponse response) {
+        if (replicationLog != null) {
+            response.setHeader(ReplicationLeader.VERSION_HEADER, Long.toString(replicationLog.position()));
+        }
+    }
 
-//        //TODO: implement getUserMessageIds
-//        try {
-//            userMessageIds = messageService.getUserMessageIds(userId);
-//        }
-//        catch (UserNotFoundException e) {
-//            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
-//                "The user " + userId + " doesn't exist.", e);
-//        }
+    /**
+     * Queue a write in the pipeline, the response is sent when the future
+     * completes, on a thread of the pipeline.
+     */
+    private CompletableFuture<Void> pipelined(BatchOperation.Type type, Message message, String ack,
+                                              HttpServletResponse response) {
+        AckMode mode;
+        BatchOperation operation;
+        try {
+            mode = ack == null ? writePipeline.getDefaultAck() : AckMode.parse(ack);
+            operation = new BatchOperation(type, message.getUserId(), message.getMessageId(), message.getMessage(),
+                    message.getTtlSeconds());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+        return writePipeline.submit(operation, mode).thenApply(result -> {
+            if (result.getStatus() != HttpStatus.OK.value()) {
+                throw new ResponseStatusException(HttpStatus.valueOf(result.getStatus()), result.getError());
+            }
+            setVersionToken(response);
+            return null;
+        });
+    }
 
-        //return userMessageIds;
+    /**
+     * A client is limited by its address, whichever users it reads, so that it
+     * can't get a bucket of its own by naming another user.
+     */
+    private String clientKey(HttpServletRequest request) {
+        return "client " + clientAddresses.resolve(request);
     }
 
-}
+    private String clientKey(NativeWebRequest request) {
+        return clientKey(request.getNativeRequest(HttpServletRequest.class));
+    }
+
+    /**
+     * The writes of a user are limited per client, the clients behind one
+     * address still share a bucket but only while they write the same user.
+     */
+    private String writerKey(Message message, HttpServletRequest request) {
+        return "user " + message.getUserId() + " client " + clientAddresses.resolve(request);
+    }
+
+    private ResponseEntity<byte[]> allMessages(WireFormat format, HttpServletRequest request) {
+        rateLimiter.acquire(clientKey(request));
+        // The version is read before the messages, see MessageService.getVersion
+        long version = messageService.getVersion();
+        byte[] result = viewCache.get(EncodedViewCache.ALL_MESSAGES, format, version, messageService::getAllMessages);
+        return encoded(EncodedViewCache.ALL_MESSAGES, format, version, result,
+                request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    private ResponseEntity<byte[]> userMessages(String userId, WireFormat format, NativeWebRequest request) {
+        rateLimiter.acquire(clientKey(request));
+        byte[] result;
+        long version;
+        try {
+            // The version is read before the messages, a write in between can only make the ETag stale
+            version = messageService.getUserVersion(userId);
+            if (notModified(request, version, format.getMediaType())) {
+                return null;
+            }
+            result = viewCache.get(userId, format, version, () -> messageService.getUserMessages(userId));
+        } catch (UserNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                                              "The user " + userId + " doesn't exist.", e);
+        }
+        return encoded(userId, format, version, result, request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamUserMessages(String userId, MessageStreamWriter writer,
+                                                                     NativeWebRequest request) {
+        rateLimiter.acquire(clientKey(request));
+        try {
+            if (notModified(request, messageService.getUserVersion(userId), writer.getMediaType())) {
+                return null;
+            }
+            // Resolve the user before streaming starts, the status can't be changed afterwards
+            return writer.stream(messageService.getUserMessages(userId).values().iterator());
+        } catch (UserNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                                              "The user " + userId + " doesn't exist.", e);
+        }
+    }
 
+    private ResponseEntity<Message> message(String userId, String messageId, WireFormat format,
+                                            NativeWebRequest request)
+            throws UserNotFoundException, MessageNotFoundException {
+        Message message = new MessageImpl(userId, messageId, "");
+        if (notModified(request, messageService.getMessageVersion(message), format.getMediaType())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .body(messageService.getMessage(message));
+    }
 
+    /**
+     * An encoded view is written as is, without going through Jackson again,
+     * or compressed if the client accepts gzip and it is large enough to gain
+     * from it.
+     */
+    private ResponseEntity<byte[]> encoded(Object key, WireFormat format, long version, byte[] body,
+                                           String acceptEncoding) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (body.length >= compressionMinBytes && ContentEncoding.acceptsGzip(acceptEncoding)) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, ContentEncoding.GZIP)
+                    .body(viewCache.getGzipped(key, format, version, body));
+        }
+        return response.body(body);
+    }
 
+    /**
+     * Set the ETag of the response and check it against the
+     * <code>If-None-Match</code> header of the request. The JSON and the CBOR
+     * of a version are different bodies, the media type is part of the ETag,
+     * and so is <code>-gzip</code> for a client that accepts gzip. Whether a
+     * response is compressed, here or by Tomcat, depends on the size of the
+     * body, which isn't known until it has been read, so a body too small to
+     * be compressed gets <code>-gzip</code> too.
+     *
+     * @param mediaType the media type of the response.
+     * @return <code>true</code> if the client has the current version, the response is then a 304.
+     */
+    private boolean notModified(NativeWebRequest request, long version, MediaType mediaType) {
+        if (version == MessageService.NO_VERSION) {
+            return false;
+        }
+        String etag = etagPrefix + version + "-" + mediaType.getSubtype();
+        if (ContentEncoding.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            etag += "-" + ContentEncoding.GZIP;
+        }
+        if (!request.checkNotModified(etag)) {
+            return false;
+        }
+        // As the response it stands for
+        request.getNativeResponse(HttpServletResponse.class)
+                .setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+        return true;
+    }
+}
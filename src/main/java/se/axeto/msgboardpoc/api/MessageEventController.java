@@ -0,0 +1,48 @@
+package se.axeto.msgboardpoc.api;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import se.axeto.msgboardpoc.push.MessageEventBroadcaster;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the creates, updates and deletes of messages to clients as
+ * server-sent events, so that they don't have to poll for new messages.
+ *
+ * <p>
+ * Each event carries a JSON array of <code>MessageEvent</code>. A client
+ * should subscribe before it fetches the messages, and fetch them again
+ * whenever it has to reconnect.
+ * </p>
+ */
+
+@RequestMapping("api/v1/message")
+@RestController
+public class MessageEventController {
+
+    private final MessageEventBroadcaster broadcaster;
+    private final long timeoutMillis;
+
+    @Autowired
+    public MessageEventController(MessageEventBroadcaster broadcaster,
+                                  @Value("${msgboard.push.timeout-minutes:30}") long timeoutMinutes) {
+        this.broadcaster = broadcaster;
+        this.timeoutMillis = TimeUnit.MINUTES.toMillis(timeoutMinutes);
+    }
+
+    @GetMapping(path = "events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        MessageEventBroadcaster.Subscription subscription = broadcaster.subscribe(new SseEventSink(emitter));
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+}
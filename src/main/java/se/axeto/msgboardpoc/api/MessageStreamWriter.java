@@ -0,0 +1,84 @@
+package se.axeto.msgboardpoc.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import se.axeto.msgboardpoc.model.Message;
+
+import java.util.Iterator;
+
+/**
+ * Writes messages as newline delimited JSON (NDJSON), one message per line,
+ * or as a CBOR sequence, one CBOR item per message.
+ *
+ * <p>
+ * Messages are pulled from an iterator and serialized one at a time straight
+ * into the response, so the whole result is never held in memory.
+ * </p>
+ */
+class MessageStreamWriter {
+
+    static final String NDJSON_VALUE = "application/x-ndjson";
+    // RFC 8742, concatenated CBOR items
+    static final String CBOR_SEQ_VALUE = "application/cbor-seq";
+
+    // Flush regularly so that clients get the first bytes early
+    private static final int FLUSH_INTERVAL = 256;
+
+    private final ObjectMapper objectMapper;
+    private final boolean newlineDelimited;
+    private final MediaType mediaType;
+
+    private MessageStreamWriter(ObjectMapper objectMapper, boolean newlineDelimited, MediaType mediaType) {
+        this.objectMapper = objectMapper;
+        this.newlineDelimited = newlineDelimited;
+        this.mediaType = mediaType;
+    }
+
+    static MessageStreamWriter ndjson(ObjectMapper objectMapper) {
+        return new MessageStreamWriter(objectMapper, true, MediaType.valueOf(NDJSON_VALUE));
+    }
+
+    /**
+     * @param cborMapper an <code>ObjectMapper</code> with a <code>CBORFactory</code>.
+     */
+    static MessageStreamWriter cborSequence(ObjectMapper cborMapper) {
+        return new MessageStreamWriter(cborMapper, false, MediaType.valueOf(CBOR_SEQ_VALUE));
+    }
+
+    MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @return A response with the content type of the stream, a body that is
+     * returned as is gets none. The same resource is also sent as JSON or CBOR,
+     * the response varies with <code>Accept</code>.
+     */
+    ResponseEntity<StreamingResponseBody> stream(Iterator<? extends Message> messages) {
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                // The servlet container owns the response stream
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+                int written = 0;
+                while (messages.hasNext()) {
+                    generator.writeObject(messages.next());
+                    if (newlineDelimited) {
+                        generator.writeRaw('\n');
+                    }
+                    if (++written % FLUSH_INTERVAL == 1) {
+                        generator.flush();
+                    }
+                }
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .body(body);
+    }
+}
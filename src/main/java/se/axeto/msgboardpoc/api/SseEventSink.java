@@ -0,0 +1,44 @@
+package se.axeto.msgboardpoc.api;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import se.axeto.msgboardpoc.push.EventSink;
+
+import java.io.IOException;
+
+/**
+ * Sends batches of events as server-sent events named <code>messages</code>,
+ * with the sequence of the last event of the batch as the event id.
+ */
+class SseEventSink implements EventSink {
+
+    static final String EVENT_NAME = "messages";
+
+    private final SseEmitter emitter;
+
+    SseEventSink(SseEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void send(long lastSequence, String events) throws IOException {
+        emitter.send(SseEmitter.event()
+                .id(Long.toString(lastSequence))
+                .name(EVENT_NAME)
+                .data(events, MediaType.APPLICATION_JSON));
+    }
+
+    @Override
+    public void heartbeat() throws IOException {
+        emitter.send(SseEmitter.event().comment(""));
+    }
+
+    @Override
+    public void close() {
+        try {
+            emitter.complete();
+        } catch (IllegalStateException e) {
+            // The request has already completed
+        }
+    }
+}
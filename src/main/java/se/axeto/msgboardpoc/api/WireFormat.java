@@ -0,0 +1,23 @@
+package se.axeto.msgboardpoc.api;
+
+import org.springframework.http.MediaType;
+
+/**
+ * The encodings of the API, selected by the <code>Accept</code> and
+ * <code>Content-Type</code> headers. JSON is the default, CBOR is the same
+ * data in a compact binary form that is cheaper to encode and parse.
+ */
+public enum WireFormat {
+    JSON(MediaType.APPLICATION_JSON),
+    CBOR(MediaType.APPLICATION_CBOR);
+
+    private final MediaType mediaType;
+
+    WireFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+}
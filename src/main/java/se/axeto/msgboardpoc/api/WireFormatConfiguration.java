@@ -0,0 +1,25 @@
+package se.axeto.msgboardpoc.api;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Reads and writes request and response bodies as CBOR, next to JSON.
+ *
+ * <p>
+ * The CBOR mapper is made by the same builder as the application's JSON
+ * mapper, so both encode the messages the same way. It is not registered as
+ * an <code>ObjectMapper</code> bean, that would replace the JSON mapper.
+ * </p>
+ */
+@Configuration
+public class WireFormatConfiguration {
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+}
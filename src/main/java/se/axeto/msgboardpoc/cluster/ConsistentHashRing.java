@@ -0,0 +1,107 @@
+package se.axeto.msgboardpoc.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assigns users to the nodes of a cluster by consistent hashing.
+ *
+ * <p>
+ * Each node is placed on a ring of 64 bit hashes at <code>virtualNodes</code>
+ * points, a user belongs to the node of the first point at or after the hash
+ * of its user id. The many points even out the share of each node, and when a
+ * node is added or removed only the users between its points and the ones
+ * before them move, about 1/n of them, the rest stay where they are.
+ * </p>
+ *
+ * <p>
+ * The ring is immutable, every node of a cluster must be configured with the
+ * same nodes to agree on where a user belongs.
+ * </p>
+ */
+public final class ConsistentHashRing {
+
+    private final List<String> nodes;
+    // Sorted hashes of the points and the node of each, looked up by binary search
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param nodes the ids of the nodes, in the order used by <code>getNodes</code>.
+     * @param virtualNodes the number of points of each node on the ring.
+     */
+    public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs nodes and points: " + nodes + ", " + virtualNodes);
+        }
+        LinkedHashSet<String> distinct = new LinkedHashSet<>(nodes);
+        if (distinct.size() != nodes.size()) {
+            throw new IllegalArgumentException("Duplicate node ids: " + nodes);
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(distinct));
+
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // A collision keeps the point of the first node, both rings then agree on it
+                ring.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i] = point.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * @param userId a user id.
+     * @return The id of the node that the user belongs to.
+     */
+    public String nodeFor(String userId) {
+        int i = Arrays.binarySearch(points, hash(userId));
+        if (i < 0) {
+            // The insertion point, the first point after the hash, wrapping around
+            i = -i - 1;
+            if (i == points.length) {
+                i = 0;
+            }
+        }
+        return owners[i];
+    }
+
+    /**
+     * @return The ids of the nodes, in configuration order.
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * 64 bit FNV-1a of the UTF-8 bytes followed by the MurmurHash3 finalizer,
+     * FNV alone leaves similar strings such as <code>node#1</code> and
+     * <code>node#2</code> close together on the ring.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,23 @@
+package se.axeto.msgboardpoc.cluster;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a node of the cluster can't be reached or fails a request
+ * forwarded to it.
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE, reason = "A node of the cluster is unavailable.")
+public class NodeUnavailableException extends RuntimeException {
+
+    private final String nodeId;
+
+    public NodeUnavailableException(String nodeId, String message, Throwable cause) {
+        super(message, cause);
+        this.nodeId = nodeId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+}
@@ -0,0 +1,31 @@
+package se.axeto.msgboardpoc.cluster;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import se.axeto.msgboardpoc.admission.SharedSecretInterceptor;
+
+/**
+ * Puts a <code>SharedSecretInterceptor</code> with
+ * <code>msgboard.cluster.secret</code> in front of the partition API, which
+ * is served on the same port as the message API.
+ */
+@Configuration
+@ConditionalOnProperty(name = "msgboard.cluster.node-id")
+public class PartitionApiConfiguration implements WebMvcConfigurer {
+
+    private final SharedSecretInterceptor clusterSecret;
+
+    @Autowired
+    public PartitionApiConfiguration(@Value("${msgboard.cluster.secret:}") String secret) {
+        this.clusterSecret = new SharedSecretInterceptor("msgboard.cluster.secret", secret);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(clusterSecret).addPathPatterns(PartitionController.PATH + "/**");
+    }
+}
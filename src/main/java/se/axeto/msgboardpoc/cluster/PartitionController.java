@@ -0,0 +1,194 @@
+package se.axeto.msgboardpoc.cluster;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageIdPage;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.model.MessagePage;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The partition API, the operations of <code>MessageService</code> on the
+ * local store of this node, called by the <code>RemoteMessageService</code>
+ * of the other nodes.
+ *
+ * <p>
+ * Requests are not routed again, a node answers for the users it has even if
+ * its ring disagrees, so a misconfigured cluster can't forward a request in a
+ * loop. The API is meant for the nodes only, it is not rate limited and a
+ * request without the secret of the cluster is rejected, see
+ * <code>PartitionApiConfiguration</code>.
+ * </p>
+ *
+ * <p>
+ * The versions of a store start over when its node restarts, a user could
+ * get a version it had before with other messages. The versions are sent with
+ * the time this node started in their high bits, see <code>withEpoch</code>,
+ * so the ETags and the cached views of the other nodes change when it does.
+ * </p>
+ */
+@RequestMapping(PartitionController.PATH)
+@RestController
+@ConditionalOnProperty(name = "msgboard.cluster.node-id")
+public class PartitionController {
+
+    static final String PATH = "/internal/v1/partition";
+
+    /**
+     * The number of low bits of a version that are left to the store.
+     */
+    static final int EPOCH_SHIFT = 14;
+    // 2020-01-01, keeps the versions of many nodes far from overflowing when added up
+    private static final long EPOCH_ORIGIN_MILLIS = 1_577_836_800_000L;
+
+    private final PartitioningPostProcessor partitioning;
+    private final long epoch;
+
+    /**
+     * @param startMillis when this node started, in milliseconds since the epoch.
+     */
+    public PartitionController(PartitioningPostProcessor partitioning, long startMillis) {
+        this.partitioning = partitioning;
+        this.epoch = (startMillis - EPOCH_ORIGIN_MILLIS) << EPOCH_SHIFT;
+    }
+
+    @Autowired
+    public PartitionController(PartitioningPostProcessor partitioning) {
+        this(partitioning, System.currentTimeMillis());
+    }
+
+    @GetMapping(path = "messages", params = {"!user", "!limit"})
+    public Collection<Message> getAllMessages() {
+        return local().getAllMessages();
+    }
+
+    @GetMapping(path = "messages", params = "limit")
+    public MessagePage getMessages(@RequestParam(value = "cursor", required = false) String cursor,
+                                   @RequestParam("limit") int limit) {
+        return local().getMessages(cursor, limit);
+    }
+
+    @GetMapping(path = "messages", params = "user")
+    public Map<String, Message> getUserMessages(@RequestParam("user") String user) throws UserNotFoundException {
+        return local().getUserMessages(user);
+    }
+
+    @GetMapping(path = "message")
+    public Message getMessage(@RequestParam("user") String user, @RequestParam("id") String messageId)
+            throws UserNotFoundException, MessageNotFoundException {
+        return local().getMessage(new MessageImpl(user, messageId, ""));
+    }
+
+    @PostMapping(path = "message")
+    public void createMessage(@RequestBody MessageImpl message) throws MessageExistException {
+        local().createMessage(message);
+    }
+
+    @PutMapping(path = "message")
+    public void updateMessage(@RequestBody MessageImpl message)
+            throws UserNotFoundException, MessageNotFoundException {
+        local().updateMessage(message);
+    }
+
+    @DeleteMapping(path = "message")
+    public Message deleteMessage(@RequestBody MessageImpl message)
+            throws UserNotFoundException, MessageNotFoundException {
+        return local().deleteMessage(message);
+    }
+
+    @PostMapping(path = "batch")
+    public List<BatchResult> applyBatch(@RequestBody List<BatchOperation> operations) {
+        return local().applyBatch(operations);
+    }
+
+    @GetMapping(path = "users")
+    public Collection<String> getAllUsers() {
+        return local().getAllUsers();
+    }
+
+    @GetMapping(path = "data")
+    public Map<String, Map<String, String>> getData() {
+        return local().getData();
+    }
+
+    @GetMapping(path = "version", params = {"!user", "!id"})
+    public long getVersion() {
+        return withEpoch(local().getVersion());
+    }
+
+    @GetMapping(path = "version", params = {"user", "!id"})
+    public long getUserVersion(@RequestParam("user") String user) throws UserNotFoundException {
+        return withEpoch(local().getUserVersion(user));
+    }
+
+    @GetMapping(path = "version", params = "id")
+    public long getMessageVersion(@RequestParam("user") String user, @RequestParam("id") String messageId)
+            throws UserNotFoundException, MessageNotFoundException {
+        return withEpoch(local().getMessageVersion(new MessageImpl(user, messageId, "")));
+    }
+
+    @GetMapping(path = "ids", params = "!limit")
+    public Collection<String> getUserMessageIds(@RequestParam("user") String user) throws UserNotFoundException {
+        return local().getUserMessageIds(user);
+    }
+
+    @GetMapping(path = "ids", params = "limit")
+    public MessageIdPage getUserMessageIds(@RequestParam("user") String user,
+                                           @RequestParam(value = "prefix", required = false) String prefix,
+                                           @RequestParam(value = "cursor", required = false) String cursor,
+                                           @RequestParam("limit") int limit) throws UserNotFoundException {
+        return local().getUserMessageIds(user, prefix, cursor, limit);
+    }
+
+    @ExceptionHandler(UserNotFoundException.class)
+    public ResponseEntity<String> userNotFound(UserNotFoundException e) {
+        return error(HttpStatus.NOT_FOUND, RemoteMessageService.USER_NOT_FOUND, e);
+    }
+
+    @ExceptionHandler(MessageNotFoundException.class)
+    public ResponseEntity<String> messageNotFound(MessageNotFoundException e) {
+        return error(HttpStatus.NOT_FOUND, RemoteMessageService.MESSAGE_NOT_FOUND, e);
+    }
+
+    @ExceptionHandler(MessageExistException.class)
+    public ResponseEntity<String> messageExists(MessageExistException e) {
+        return error(HttpStatus.CONFLICT, "message-exists", e);
+    }
+
+    /**
+     * The start of this node added to a version of its store. A version is
+     * then higher than all the versions the node sent before it restarted, as
+     * long as its store made fewer than 2^<code>EPOCH_SHIFT</code> writes per
+     * millisecond on average while it was up.
+     *
+     * @return The version with the epoch, <code>NO_VERSION</code> if the store keeps no versions.
+     */
+    long withEpoch(long version) {
+        return version == MessageService.NO_VERSION ? version : epoch + version;
+    }
+
+    private MessageService local() {
+        return partitioning.getLocalStore();
+    }
+
+    private static ResponseEntity<String> error(HttpStatus status, String error, Exception e) {
+        return ResponseEntity.status(status)
+                .header(RemoteMessageService.ERROR_HEADER, error)
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage());
+    }
+}
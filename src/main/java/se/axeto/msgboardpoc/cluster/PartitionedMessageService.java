@@ -0,0 +1,297 @@
+package se.axeto.msgboardpoc.cluster;
+
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageIdPage;
+import se.axeto.msgboardpoc.model.MessagePage;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * A MessageService partitioned by user over the nodes of a cluster.
+ *
+ * <p>
+ * Every user belongs to one node, see <code>ConsistentHashRing</code>, and
+ * the operations on a user are forwarded to the <code>MessageService</code>
+ * of its node, the local store for this node and a
+ * <code>RemoteMessageService</code> for the others. The operations on all
+ * users are sent to every node in parallel and the results merged, in node
+ * order, so all messages are grouped by node and in creation order within a
+ * node. A batch is split by node and the parts applied in parallel.
+ * </p>
+ *
+ * <p>
+ * The versions of a user and of a message are the ones of its node, which
+ * include the time the node started for the other nodes. The version of all
+ * messages is the sum of the versions of the nodes, it changes with a write
+ * to any node and when one of the others restarts.
+ * </p>
+ */
+public class PartitionedMessageService implements MessageService {
+
+    private final ConsistentHashRing ring;
+    private final List<String> nodeIds;
+    private final Map<String, Integer> nodeIndexes = new HashMap<>();
+    private final MessageService[] nodes;
+    private final Executor scatterExecutor;
+
+    /**
+     * @param ring the ring that assigns users to nodes.
+     * @param nodes the MessageService of each node of the ring, by node id.
+     * @param scatterExecutor runs the requests to the nodes when all of them are asked.
+     */
+    public PartitionedMessageService(ConsistentHashRing ring, Map<String, MessageService> nodes,
+                                     Executor scatterExecutor) {
+        this.ring = ring;
+        this.nodeIds = ring.getNodes();
+        this.nodes = new MessageService[nodeIds.size()];
+        for (int i = 0; i < this.nodes.length; i++) {
+            this.nodes[i] = nodes.get(nodeIds.get(i));
+            this.nodeIndexes.put(nodeIds.get(i), i);
+            if (this.nodes[i] == null) {
+                throw new IllegalArgumentException("No MessageService for node " + nodeIds.get(i));
+            }
+        }
+        this.scatterExecutor = scatterExecutor;
+    }
+
+    /**
+     * @param userId a user id.
+     * @return The MessageService of the node that the user belongs to.
+     */
+    public MessageService nodeFor(String userId) {
+        return nodes[nodeIndex(userId)];
+    }
+
+    private int nodeIndex(String userId) {
+        return nodeIndexes.get(ring.nodeFor(userId));
+    }
+
+    @Override
+    public Collection<Message> getAllMessages() {
+        List<Message> allMessages = new ArrayList<>();
+        for (Collection<Message> messages : scatter(MessageService::getAllMessages)) {
+            allMessages.addAll(messages);
+        }
+        return Collections.unmodifiableList(allMessages);
+    }
+
+    /**
+     * Pages through the nodes one after another, the cursor is the index of
+     * the node and the cursor of its page. A page that ends a node is filled
+     * up from the next ones.
+     */
+    @Override
+    public MessagePage getMessages(String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        int node = 0;
+        String nodeCursor = null;
+        if (cursor != null) {
+            int separator = cursor.indexOf(':');
+            try {
+                node = Integer.parseInt(cursor.substring(0, Math.max(0, separator)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+            }
+            if (node < 0 || node >= nodes.length) {
+                throw new IllegalArgumentException("Malformed cursor: " + cursor);
+            }
+            if (separator + 1 < cursor.length()) {
+                nodeCursor = cursor.substring(separator + 1);
+            }
+        }
+
+        List<Message> messages = new ArrayList<>(limit);
+        for (; node < nodes.length; node++, nodeCursor = null) {
+            MessagePage page = nodes[node].getMessages(nodeCursor, limit - messages.size());
+            messages.addAll(page.getMessages());
+            if (page.getNextCursor() != null) {
+                return new MessagePage(messages, node + ":" + page.getNextCursor());
+            }
+            if (messages.size() == limit) {
+                return new MessagePage(messages, node + 1 < nodes.length ? (node + 1) + ":" : null);
+            }
+        }
+        return new MessagePage(messages, null);
+    }
+
+    @Override
+    public void createMessage(Message message) throws MessageExistException {
+        nodeFor(message.getUserId()).createMessage(message);
+    }
+
+    @Override
+    public void updateMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        nodeFor(message.getUserId()).updateMessage(message);
+    }
+
+    @Override
+    public Message deleteMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        return nodeFor(message.getUserId()).deleteMessage(message);
+    }
+
+    @Override
+    public Message deleteMessageIfUnchanged(Message message) throws UserNotFoundException, MessageNotFoundException {
+        return nodeFor(message.getUserId()).deleteMessageIfUnchanged(message);
+    }
+
+    @Override
+    public List<BatchResult> applyBatch(List<BatchOperation> operations) {
+        // The positions in the batch of the operations of each node
+        List<List<Integer>> positions = new ArrayList<>(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            positions.get(nodeIndex(operations.get(i).getUserId())).add(i);
+        }
+
+        List<CompletableFuture<List<BatchResult>>> parts = new ArrayList<>(nodes.length);
+        for (int node = 0; node < nodes.length; node++) {
+            List<BatchOperation> part = new ArrayList<>(positions.get(node).size());
+            for (int position : positions.get(node)) {
+                part.add(operations.get(position));
+            }
+            MessageService service = nodes[node];
+            parts.add(part.isEmpty()
+                    ? CompletableFuture.completedFuture(Collections.emptyList())
+                    : CompletableFuture.supplyAsync(() -> service.applyBatch(part), scatterExecutor));
+        }
+
+        BatchResult[] results = new BatchResult[operations.size()];
+        for (int node = 0; node < nodes.length; node++) {
+            List<Integer> nodePositions = positions.get(node);
+            List<BatchResult> nodeResults;
+            try {
+                nodeResults = join(parts.get(node));
+            } catch (RuntimeException e) {
+                // The other nodes have applied their parts, only this one failed
+                nodeResults = new ArrayList<>(nodePositions.size());
+                for (int i = 0; i < nodePositions.size(); i++) {
+                    nodeResults.add(BatchResult.failed(i, e));
+                }
+            }
+            for (BatchResult result : nodeResults) {
+                int position = nodePositions.get(result.getIndex());
+                results[position] = new BatchResult(position, result.getStatus(), result.getError());
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public Collection<String> getAllUsers() {
+        List<String> users = new ArrayList<>();
+        for (Collection<String> nodeUsers : scatter(MessageService::getAllUsers)) {
+            users.addAll(nodeUsers);
+        }
+        // Each node's users are sorted and no user is on two nodes
+        Collections.sort(users);
+        return users;
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getData() {
+        Map<String, Map<String, String>> data = new HashMap<>();
+        for (Map<String, Map<String, String>> nodeData : scatter(MessageService::getData)) {
+            data.putAll(nodeData);
+        }
+        return data;
+    }
+
+    @Override
+    public Map<String, Message> getUserMessages(String user) throws UserNotFoundException {
+        return nodeFor(user).getUserMessages(user);
+    }
+
+    @Override
+    public Message getMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        return nodeFor(message.getUserId()).getMessage(message);
+    }
+
+    /**
+     * The versions of all the nodes are read before any of their messages,
+     * see <code>MessageService.getVersion</code>.
+     *
+     * @return The sum of the versions of the nodes, <code>NO_VERSION</code> if one of them keeps none.
+     */
+    @Override
+    public long getVersion() {
+        long version = 0;
+        for (long nodeVersion : scatter(MessageService::getVersion)) {
+            if (nodeVersion == NO_VERSION) {
+                return NO_VERSION;
+            }
+            version += nodeVersion;
+        }
+        return version;
+    }
+
+    @Override
+    public long getUserVersion(String user) throws UserNotFoundException {
+        return nodeFor(user).getUserVersion(user);
+    }
+
+    @Override
+    public long getMessageVersion(Message message) throws UserNotFoundException, MessageNotFoundException {
+        return nodeFor(message.getUserId()).getMessageVersion(message);
+    }
+
+    @Override
+    public Collection<String> getUserMessageIds(String user) throws UserNotFoundException {
+        return nodeFor(user).getUserMessageIds(user);
+    }
+
+    @Override
+    public MessageIdPage getUserMessageIds(String user, String prefix, String cursor, int limit)
+            throws UserNotFoundException {
+        return nodeFor(user).getUserMessageIds(user, prefix, cursor, limit);
+    }
+
+    /**
+     * Ask every node in parallel, the first one on the calling thread.
+     *
+     * @return The result of each node, in node order.
+     */
+    private <T> List<T> scatter(Function<MessageService, T> read) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(nodes.length);
+        for (int i = 1; i < nodes.length; i++) {
+            MessageService node = nodes[i];
+            futures.add(CompletableFuture.supplyAsync(() -> read.apply(node), scatterExecutor));
+        }
+        List<T> results = new ArrayList<>(nodes.length);
+        results.add(read.apply(nodes[0]));
+        for (CompletableFuture<T> future : futures) {
+            results.add(join(future));
+        }
+        return results;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
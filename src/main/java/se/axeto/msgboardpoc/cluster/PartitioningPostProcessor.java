@@ -0,0 +1,139 @@
+package se.axeto.msgboardpoc.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import se.axeto.msgboardpoc.admission.SharedSecretInterceptor;
+import se.axeto.msgboardpoc.pipeline.WritePipeline;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Partitions the users over the nodes of a cluster, enabled by setting
+ * <code>msgboard.cluster.node-id</code>.
+ *
+ * <p>
+ * Wraps the MessageService bean, whichever storage engine is configured, in a
+ * <code>PartitionedMessageService</code> over this store and a
+ * <code>RemoteMessageService</code> for each of the other nodes in
+ * <code>msgboard.cluster.nodes</code>. It runs after the post processors
+ * that need the storage engine itself and before the metrics, which then
+ * measure the operations as routed.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "msgboard.cluster.node-id")
+public class PartitioningPostProcessor implements BeanPostProcessor, Ordered {
+    final Logger logger = LoggerFactory.getLogger(PartitioningPostProcessor.class);
+
+    /**
+     * Runs after <code>WritePipeline</code>, the first of the post processors
+     * to wrap the storage engine.
+     */
+    public static final int ORDER = WritePipeline.ORDER + 1;
+
+    private final String nodeId;
+    private final Map<String, URI> nodeUris;
+    private final ConsistentHashRing ring;
+    private final Duration timeout;
+    private final String secret;
+    // Looked up lazily, a post processor is created before the mapper
+    private final ObjectProvider<ObjectMapper> objectMapper;
+    private volatile MessageService localStore;
+
+    /**
+     * @param nodes the nodes of the cluster, this one included, as
+     *              <code>id=http://host:port</code> separated by commas.
+     * @param secret the secret the nodes call each other's partition API with.
+     */
+    public PartitioningPostProcessor(@Value("${msgboard.cluster.node-id}") String nodeId,
+                                     @Value("${msgboard.cluster.nodes}") String nodes,
+                                     @Value("${msgboard.cluster.virtual-nodes:128}") int virtualNodes,
+                                     @Value("${msgboard.cluster.timeout-ms:2000}") long timeoutMillis,
+                                     @Value("${msgboard.cluster.secret:}") String secret,
+                                     ObjectProvider<ObjectMapper> objectMapper) {
+        this.nodeId = nodeId;
+        this.nodeUris = parseNodes(nodes);
+        if (!nodeUris.containsKey(nodeId)) {
+            throw new IllegalArgumentException("This node, " + nodeId + ", is not one of the nodes " +
+                    nodeUris.keySet());
+        }
+        this.ring = new ConsistentHashRing(new ArrayList<>(nodeUris.keySet()), virtualNodes);
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.secret = SharedSecretInterceptor.requireSecret("msgboard.cluster.secret", secret);
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof MessageService) || bean instanceof PartitionedMessageService) {
+            return bean;
+        }
+        localStore = (MessageService) bean;
+
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+        Map<String, MessageService> nodes = new LinkedHashMap<>();
+        for (Map.Entry<String, URI> node : nodeUris.entrySet()) {
+            nodes.put(node.getKey(), node.getKey().equals(nodeId)
+                    ? localStore
+                    : new RemoteMessageService(node.getKey(), node.getValue(), httpClient, objectMapper.getObject(),
+                    timeout, secret));
+        }
+        logger.info("Node {} of the cluster {}", nodeId, nodeUris);
+        return new PartitionedMessageService(ring, nodes, newScatterExecutor());
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    /**
+     * @return The store of this node, without the routing.
+     */
+    public MessageService getLocalStore() {
+        return localStore;
+    }
+
+    private static ExecutorService newScatterExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        // The threads mostly wait for the other nodes
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "partition-scatter-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static Map<String, URI> parseNodes(String nodes) {
+        Map<String, URI> nodeUris = new LinkedHashMap<>();
+        for (String node : nodes.split(",")) {
+            String[] idAndUri = node.trim().split("=", 2);
+            if (idAndUri.length != 2 || idAndUri[0].isEmpty()) {
+                throw new IllegalArgumentException("Malformed node, expected id=http://host:port: " + node);
+            }
+            if (nodeUris.put(idAndUri[0], URI.create(idAndUri[1])) != null) {
+                throw new IllegalArgumentException("Duplicate node id: " + idAndUri[0]);
+            }
+        }
+        return nodeUris;
+    }
+}
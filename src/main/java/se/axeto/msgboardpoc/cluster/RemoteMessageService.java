@@ -0,0 +1,277 @@
+package se.axeto.msgboardpoc.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import se.axeto.msgboardpoc.admission.SharedSecretInterceptor;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageIdPage;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.model.MessagePage;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The MessageService of another node of the cluster, called over its
+ * partition API, see <code>PartitionController</code>.
+ *
+ * <p>
+ * The exceptions of the remote store are thrown again here. A node that
+ * can't be reached, times out or fails with an unexpected status throws
+ * <code>NodeUnavailableException</code>. The versions include the time the
+ * node started, see <code>PartitionController</code>. Every request has the
+ * secret of the cluster, see <code>PartitionApiConfiguration</code>.
+ * </p>
+ */
+public class RemoteMessageService implements MessageService {
+
+    /**
+     * Tells a user that is not found from a message that is not found.
+     */
+    static final String ERROR_HEADER = "X-Msgboard-Error";
+    static final String USER_NOT_FOUND = "user-not-found";
+    static final String MESSAGE_NOT_FOUND = "message-not-found";
+
+    private static final TypeReference<List<MessageImpl>> MESSAGE_LIST = new TypeReference<List<MessageImpl>>() {
+    };
+    private static final TypeReference<LinkedHashMap<String, MessageImpl>> MESSAGE_MAP =
+            new TypeReference<LinkedHashMap<String, MessageImpl>>() {
+            };
+    private static final TypeReference<List<String>> STRING_LIST = new TypeReference<List<String>>() {
+    };
+    private static final TypeReference<List<BatchResult>> BATCH_RESULTS = new TypeReference<List<BatchResult>>() {
+    };
+    private static final TypeReference<Map<String, Map<String, String>>> DATA =
+            new TypeReference<Map<String, Map<String, String>>>() {
+            };
+
+    private final String nodeId;
+    private final String baseUri;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final Duration timeout;
+    private final String secret;
+
+    /**
+     * @param nodeId the id of the node, for errors.
+     * @param baseUri the address of the node, e.g. <code>http://10.0.0.2:8080</code>.
+     * @param httpClient the client shared by the nodes.
+     * @param timeout how long to wait for a response.
+     * @param secret the secret shared by the nodes.
+     */
+    public RemoteMessageService(String nodeId, URI baseUri, HttpClient httpClient, ObjectMapper objectMapper,
+                                Duration timeout, String secret) {
+        this.nodeId = nodeId;
+        this.baseUri = baseUri.toString().replaceAll("/+$", "") + PartitionController.PATH + "/";
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.timeout = timeout;
+        this.secret = secret;
+    }
+
+    @Override
+    public Collection<Message> getAllMessages() {
+        return Collections.unmodifiableList(read(get("messages"), MESSAGE_LIST));
+    }
+
+    @Override
+    public MessagePage getMessages(String cursor, int limit) {
+        JsonNode page = read(get("messages", "cursor", cursor, "limit", Integer.toString(limit)), JsonNode.class);
+        List<Message> messages = new ArrayList<>(objectMapper.convertValue(page.get("messages"), MESSAGE_LIST));
+        JsonNode nextCursor = page.get("nextCursor");
+        return new MessagePage(messages, nextCursor == null || nextCursor.isNull() ? null : nextCursor.asText());
+    }
+
+    @Override
+    public void createMessage(Message message) throws MessageExistException {
+        HttpResponse<byte[]> response = send(withBody("POST", "message", message));
+        if (response.statusCode() == 409) {
+            throw new MessageExistException(message.getUserId(), message.getMessageId(), errorMessage(response));
+        }
+        expectOk(response);
+    }
+
+    @Override
+    public void updateMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        HttpResponse<byte[]> response = send(withBody("PUT", "message", message));
+        throwNotFound(response, message.getUserId(), message.getMessageId());
+        expectOk(response);
+    }
+
+    @Override
+    public Message deleteMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        HttpResponse<byte[]> response = send(withBody("DELETE", "message", message));
+        throwNotFound(response, message.getUserId(), message.getMessageId());
+        return read(response, MessageImpl.class);
+    }
+
+    @Override
+    public List<BatchResult> applyBatch(List<BatchOperation> operations) {
+        return read(send(withBody("POST", "batch", operations)), BATCH_RESULTS);
+    }
+
+    @Override
+    public Collection<String> getAllUsers() {
+        return read(get("users"), STRING_LIST);
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getData() {
+        return read(get("data"), DATA);
+    }
+
+    @Override
+    public Map<String, Message> getUserMessages(String user) throws UserNotFoundException {
+        HttpResponse<byte[]> response = get("messages", "user", user);
+        throwUserNotFound(response, user);
+        return Collections.unmodifiableMap(read(response, MESSAGE_MAP));
+    }
+
+    @Override
+    public Message getMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        HttpResponse<byte[]> response = get("message", "user", message.getUserId(), "id", message.getMessageId());
+        throwNotFound(response, message.getUserId(), message.getMessageId());
+        return read(response, MessageImpl.class);
+    }
+
+    @Override
+    public long getVersion() {
+        return read(get("version"), Long.class);
+    }
+
+    @Override
+    public long getUserVersion(String user) throws UserNotFoundException {
+        HttpResponse<byte[]> response = get("version", "user", user);
+        throwUserNotFound(response, user);
+        return read(response, Long.class);
+    }
+
+    @Override
+    public long getMessageVersion(Message message) throws UserNotFoundException, MessageNotFoundException {
+        HttpResponse<byte[]> response = get("version", "user", message.getUserId(), "id", message.getMessageId());
+        throwNotFound(response, message.getUserId(), message.getMessageId());
+        return read(response, Long.class);
+    }
+
+    @Override
+    public Collection<String> getUserMessageIds(String user) throws UserNotFoundException {
+        HttpResponse<byte[]> response = get("ids", "user", user);
+        throwUserNotFound(response, user);
+        return read(response, STRING_LIST);
+    }
+
+    @Override
+    public MessageIdPage getUserMessageIds(String user, String prefix, String cursor, int limit)
+            throws UserNotFoundException {
+        HttpResponse<byte[]> response = get("ids", "user", user, "prefix", prefix, "cursor", cursor,
+                "limit", Integer.toString(limit));
+        throwUserNotFound(response, user);
+        return read(response, MessageIdPage.class);
+    }
+
+    /**
+     * @param parameters names and values of query parameters, a <code>null</code> value is left out.
+     */
+    private HttpResponse<byte[]> get(String path, String... parameters) {
+        StringBuilder uri = new StringBuilder(baseUri).append(path);
+        char separator = '?';
+        for (int i = 0; i < parameters.length; i += 2) {
+            if (parameters[i + 1] != null) {
+                uri.append(separator).append(parameters[i]).append('=')
+                        .append(URLEncoder.encode(parameters[i + 1], StandardCharsets.UTF_8));
+                separator = '&';
+            }
+        }
+        return send(HttpRequest.newBuilder(URI.create(uri.toString())).GET());
+    }
+
+    private HttpRequest.Builder withBody(String method, String path, Object body) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not encode a request to node " + nodeId, e);
+        }
+        return HttpRequest.newBuilder(URI.create(baseUri + path))
+                .header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofByteArray(json));
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest.Builder request) {
+        try {
+            return httpClient.send(request.timeout(timeout).header("Accept", "application/json")
+                            .header(SharedSecretInterceptor.SECRET_HEADER, secret).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            throw new NodeUnavailableException(nodeId, "Node " + nodeId + " could not be reached", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeUnavailableException(nodeId, "Interrupted while waiting for node " + nodeId, e);
+        }
+    }
+
+    private static void throwUserNotFound(HttpResponse<byte[]> response, String user) throws UserNotFoundException {
+        if (response.statusCode() == 404) {
+            throw new UserNotFoundException(user, errorMessage(response));
+        }
+    }
+
+    private static void throwNotFound(HttpResponse<byte[]> response, String user, String messageId)
+            throws UserNotFoundException, MessageNotFoundException {
+        if (response.statusCode() == 404) {
+            if (USER_NOT_FOUND.equals(response.headers().firstValue(ERROR_HEADER).orElse(null))) {
+                throw new UserNotFoundException(user, errorMessage(response));
+            }
+            throw new MessageNotFoundException(user, messageId, errorMessage(response));
+        }
+    }
+
+    private void expectOk(HttpResponse<byte[]> response) {
+        if (response.statusCode() / 100 != 2) {
+            throw new NodeUnavailableException(nodeId, "Node " + nodeId + " answered " + response.statusCode() +
+                    ": " + errorMessage(response), null);
+        }
+    }
+
+    private <T> T read(HttpResponse<byte[]> response, TypeReference<T> type) {
+        expectOk(response);
+        try {
+            return objectMapper.readValue(response.body(), type);
+        } catch (IOException e) {
+            throw new NodeUnavailableException(nodeId, "Node " + nodeId + " sent a malformed response", e);
+        }
+    }
+
+    private <T> T read(HttpResponse<byte[]> response, Class<T> type) {
+        expectOk(response);
+        try {
+            return objectMapper.readValue(response.body(), type);
+        } catch (IOException e) {
+            throw new NodeUnavailableException(nodeId, "Node " + nodeId + " sent a malformed response", e);
+        }
+    }
+
+    private static String errorMessage(HttpResponse<byte[]> response) {
+        return new String(response.body(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,23 @@
+package se.axeto.msgboardpoc.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception to throw when a write would take a user, or the whole store,
+ * over its storage quota.
+ */
+@ResponseStatus(value = HttpStatus.INSUFFICIENT_STORAGE, reason = "Storage quota exceeded.")
+public class QuotaExceededException extends RuntimeException {
+
+    private final String user;
+
+    public QuotaExceededException(String user, String message) {
+        super(message);
+        this.user = user;
+    }
+
+    public String getUser() {
+        return user;
+    }
+}
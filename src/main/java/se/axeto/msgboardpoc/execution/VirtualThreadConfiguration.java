@@ -0,0 +1,63 @@
+package se.axeto.msgboardpoc.execution;
+
+import org.apache.coyote.AbstractProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Serves requests on virtual threads, selected with
+ * <code>msgboard.execution.mode=virtual</code>.
+ *
+ * <p>
+ * Tomcat runs every request on a new virtual thread instead of taking one
+ * from its pool of <code>server.tomcat.max-threads</code>, and the bodies of
+ * streamed responses are written on virtual threads too. A request that
+ * blocks, e.g. waiting for the write-ahead log to be forced, then only holds
+ * on to a few hundred bytes of stack rather than a platform thread, and the
+ * number of requests in progress is limited by the admission control instead
+ * of the size of the thread pool.
+ * </p>
+ *
+ * <p>
+ * Needs Java 21 or later at runtime, the application fails to start otherwise.
+ * The default, <code>platform</code>, keeps Tomcat's thread pool.
+ * </p>
+ */
+@Configuration
+@ConditionalOnProperty(name = "msgboard.execution.mode", havingValue = "virtual")
+public class VirtualThreadConfiguration implements WebMvcConfigurer {
+    final Logger logger = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+    private final ExecutorService executor;
+
+    public VirtualThreadConfiguration() {
+        this.executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        logger.info("Serving requests on virtual threads");
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<AbstractProtocol<?>> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new TaskExecutorAdapter(executor));
+    }
+
+    @PreDestroy
+    public void close() {
+        // Tomcat has stopped accepting requests by now, the ones in progress are not waited for
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,270 @@
+package se.axeto.msgboardpoc.expiry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.service.MessageService;
+import se.axeto.msgboardpoc.service.MessageStoreListener;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Deletes the messages that have a time to live when it runs out.
+ *
+ * <p>
+ * The store listener callbacks schedule a timer for every create or update of
+ * a message with a TTL in a <code>TimingWheel</code>, and cancel it when the
+ * message is updated without a TTL or deleted, which costs the same however
+ * many messages are scheduled. A ticker thread advances the wheel every
+ * <code>tickMillis</code> and deletes the messages that are due through
+ * <code>MessageService.deleteMessageIfUnchanged</code>, so the indexes,
+ * caches, logs and subscribers see an expiry like any other delete. No scan of
+ * the store is ever made.
+ * </p>
+ *
+ * <p>
+ * The TTL counts from the last write of the message. The messages that are
+ * already stored when the expiry is registered, e.g. the ones the
+ * <code>persistent</code> store restored on startup, expire at the wall
+ * clock time they were stored with. The messages of a replica don't expire
+ * on their own, the followers get the deletes of the leader. A timer keeps
+ * the message it was scheduled for, a message that is written again at the
+ * moment it expires is kept since its version is no longer that of the timer.
+ * </p>
+ */
+@Component
+public class MessageExpiry implements MessageStoreListener {
+    final Logger logger = LoggerFactory.getLogger(MessageExpiry.class);
+
+    private final Supplier<MessageService> store;
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private final TimingWheel<Message> wheel;
+    private final Map<Key, TimingWheel.Timer<Message>> scheduled = new HashMap<>();
+
+    private Thread ticker;
+    private volatile boolean running = true;
+    private Timer lag;
+    private Counter expired;
+
+    /**
+     * @param store where to delete the expired messages, looked up when the first one expires.
+     * @param tickMillis how often to look for expired messages.
+     * @param clock the current time in milliseconds, never going backwards.
+     */
+    public MessageExpiry(Supplier<MessageService> store, long tickMillis, LongSupplier clock) {
+        this.store = store;
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(tickMillis, clock.getAsLong());
+    }
+
+    @Autowired
+    public MessageExpiry(ObjectProvider<MessageService> store,
+                         @Value("${msgboard.expiry.tick-ms:100}") long tickMillis,
+                         MeterRegistry meterRegistry) {
+        // The store is looked up lazily, it depends on its listeners
+        this(store::getObject, tickMillis, monotonicClock());
+        this.lag = Timer.builder("msgboard.expiry.lag")
+                .description("The time from when a message is due to expire until it is deleted")
+                .register(meterRegistry);
+        this.expired = Counter.builder("msgboard.expiry.expired")
+                .description("Messages deleted when their time to live ran out")
+                .register(meterRegistry);
+        Gauge.builder("msgboard.expiry.scheduled", this, MessageExpiry::scheduledCount)
+                .description("Messages with a time to live")
+                .register(meterRegistry);
+
+        this.ticker = new Thread(() -> tick(tickMillis), "message-expiry");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    @Override
+    public void onRegister(Iterator<? extends Message> messages) {
+        long wallClock = System.currentTimeMillis();
+        long now = clock.getAsLong();
+        messages.forEachRemaining(message -> {
+            Long expiresAt = message.getExpiresAtMillis();
+            if (expiresAt == null) {
+                schedule(message);
+            } else {
+                // Due on the next tick if it expired while the store was restored
+                schedule(message, expiresAt <= wallClock ? now : deadline(now, expiresAt - wallClock));
+            }
+        });
+    }
+
+    @Override
+    public void onCreate(Message message) {
+        schedule(message);
+    }
+
+    @Override
+    public void onUpdate(Message message) {
+        schedule(message);
+    }
+
+    @Override
+    public void onDelete(Message message) {
+        Key key = new Key(message.getUserId(), message.getMessageId());
+        synchronized (this) {
+            TimingWheel.Timer<Message> timer = scheduled.remove(key);
+            if (timer != null) {
+                wheel.cancel(timer);
+            }
+        }
+    }
+
+    /**
+     * Delete the messages that are due.
+     *
+     * @return The number of messages deleted.
+     */
+    public int expire() {
+        List<TimingWheel.Timer<Message>> due = new ArrayList<>();
+        synchronized (this) {
+            wheel.advance(clock.getAsLong(), due::add);
+        }
+
+        int deleted = 0;
+        for (TimingWheel.Timer<Message> timer : due) {
+            Message message = timer.getValue();
+            Key key = new Key(message.getUserId(), message.getMessageId());
+            synchronized (this) {
+                if (scheduled.get(key) != timer) {
+                    // Written again since it was due
+                    continue;
+                }
+            }
+            // Not under the monitor, the store calls onDelete with the write lock of the user held
+            try {
+                if (store.get().deleteMessageIfUnchanged(message) == null) {
+                    // Written again after it was due, rescheduled by onCreate or onUpdate
+                    continue;
+                }
+                deleted++;
+                if (expired != null) {
+                    expired.increment();
+                    lag.record(clock.getAsLong() - timer.getDeadlineMillis(), TimeUnit.MILLISECONDS);
+                }
+            } catch (UserNotFoundException | MessageNotFoundException e) {
+                // Deleted by someone else
+            } finally {
+                synchronized (this) {
+                    scheduled.remove(key, timer);
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return The number of messages waiting to expire.
+     */
+    public synchronized int scheduledCount() {
+        return wheel.size();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        if (ticker != null) {
+            ticker.interrupt();
+            ticker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private void schedule(Message message) {
+        Long ttlSeconds = message.getTtlSeconds();
+        if (ttlSeconds == null) {
+            schedule(message, null);
+            return;
+        }
+        long ttlMillis = ttlSeconds > Long.MAX_VALUE / 1000 ? Long.MAX_VALUE : ttlSeconds * 1000;
+        schedule(message, deadline(clock.getAsLong(), ttlMillis));
+    }
+
+    /**
+     * @param deadline when the message expires by <code>clock</code>, <code>null</code> if it doesn't.
+     */
+    private void schedule(Message message, Long deadline) {
+        Key key = new Key(message.getUserId(), message.getMessageId());
+        synchronized (this) {
+            TimingWheel.Timer<Message> previous = deadline == null ? scheduled.remove(key) :
+                    scheduled.put(key, wheel.schedule(deadline, message));
+            if (previous != null) {
+                wheel.cancel(previous);
+            }
+        }
+    }
+
+    private static long deadline(long now, long ttlMillis) {
+        return ttlMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttlMillis;
+    }
+
+    private void tick(long tickMillis) {
+        while (running) {
+            try {
+                Thread.sleep(tickMillis);
+                expire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("Could not delete expired messages: {}", e.toString());
+            }
+        }
+    }
+
+    private static LongSupplier monotonicClock() {
+        long origin = System.nanoTime();
+        return () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - origin);
+    }
+
+    private static final class Key {
+        final String userId;
+        final String messageId;
+
+        Key(String userId, String messageId) {
+            this.userId = userId;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return userId.equals(key.userId) && messageId.equals(key.messageId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, messageId);
+        }
+    }
+}
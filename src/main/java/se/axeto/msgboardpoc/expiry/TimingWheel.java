@@ -0,0 +1,206 @@
+package se.axeto.msgboardpoc.expiry;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel, schedules and cancels timers in constant time.
+ *
+ * <p>
+ * Time is counted in ticks of <code>tickMillis</code>. Each level of the
+ * wheel has 64 slots and covers 64 times the span of the level below it, a
+ * timer is put in the lowest level that has a slot for its tick, as seen from
+ * the current tick. When the current tick reaches the span of a slot of a
+ * higher level, the timers of the slot are moved down to the levels below,
+ * the timers of a slot of level 0 are due. Every timer is moved at most once
+ * per level, and a tick without timers to move or fire only looks at one
+ * slot. The levels are allocated when first used, the wheel of a store whose
+ * timers are at most a minute away never grows beyond two levels with 100 ms
+ * ticks.
+ * </p>
+ *
+ * <p>
+ * A timer never fires before its deadline, at most one tick after it plus
+ * however late <code>advance</code> is called. Not thread safe, the caller
+ * must guard the wheel.
+ * </p>
+ *
+ * @param <T> the type of what is scheduled.
+ */
+public class TimingWheel<T> {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    // Enough levels for every non-negative tick
+    private static final int LEVELS = (Long.SIZE + BITS - 1) / BITS;
+
+    private final long tickMillis;
+    // Sentinels of the timer lists, per level and slot, null until the level is used
+    private final Timer<T>[][] levels;
+    // Every timer due at or before this tick has fired
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis the resolution of the wheel.
+     * @param startMillis the current time, in the same non-negative time scale as the deadlines.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis < 1 || startMillis < 0) {
+            throw new IllegalArgumentException("Invalid timing wheel: " + tickMillis + ", " + startMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.levels = new Timer[LEVELS][];
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * @param deadlineMillis when the timer is due, a deadline that has passed is due on the next tick.
+     * @param value what to pass to the consumer of <code>advance</code> when due.
+     * @return The timer, to cancel it with.
+     */
+    public Timer<T> schedule(long deadlineMillis, T value) {
+        // Rounded up, so that it is never early
+        long tick = deadlineMillis / tickMillis + (deadlineMillis % tickMillis > 0 ? 1 : 0);
+        Timer<T> timer = new Timer<>(Math.max(tick, currentTick + 1), Math.max(deadlineMillis, 0), value);
+        insert(timer);
+        size++;
+        return timer;
+    }
+
+    /**
+     * @param timer a timer of this wheel.
+     * @return <code>true</code> if the timer was pending, <code>false</code> if it has fired or was cancelled.
+     */
+    public boolean cancel(Timer<T> timer) {
+        if (timer.prev == null) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * Fire the timers that are due.
+     *
+     * @param nowMillis the current time.
+     * @param consumer called with every timer that is due, in the order of their ticks.
+     * @return The number of timers that fired.
+     */
+    public int advance(long nowMillis, Consumer<Timer<T>> consumer) {
+        long target = nowMillis / tickMillis;
+        int fired = 0;
+        while (currentTick < target) {
+            if (size == 0) {
+                // Nothing to move or fire on the way
+                currentTick = target;
+                break;
+            }
+            currentTick++;
+            cascade();
+            Timer<T>[] wheel = levels[0];
+            if (wheel != null) {
+                Timer<T> head = wheel[(int) (currentTick & MASK)];
+                while (head.next != head) {
+                    Timer<T> timer = head.next;
+                    unlink(timer);
+                    size--;
+                    fired++;
+                    consumer.accept(timer);
+                }
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * @return The number of pending timers.
+     */
+    public int size() {
+        return size;
+    }
+
+    // Move the timers of the slots of the higher levels that the current tick has reached, highest level first
+    private void cascade() {
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if (levels[level] == null || (currentTick & ((1L << (BITS * level)) - 1)) != 0) {
+                continue;
+            }
+            Timer<T> head = levels[level][(int) ((currentTick >>> (BITS * level)) & MASK)];
+            while (head.next != head) {
+                Timer<T> timer = head.next;
+                unlink(timer);
+                insert(timer);
+            }
+        }
+    }
+
+    private void insert(Timer<T> timer) {
+        // The lowest level where the tick and the current tick share all the higher digits
+        int level = 0;
+        while (level < LEVELS - 1 && !sameAbove(timer.tick, currentTick, level)) {
+            level++;
+        }
+        Timer<T>[] wheel = levels[level];
+        if (wheel == null) {
+            wheel = newLevel();
+            levels[level] = wheel;
+        }
+        Timer<T> head = wheel[(int) ((timer.tick >>> (BITS * level)) & MASK)];
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+    }
+
+    private static boolean sameAbove(long a, long b, int level) {
+        int shift = BITS * (level + 1);
+        return shift >= Long.SIZE || (a >>> shift) == (b >>> shift);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Timer<T>[] newLevel() {
+        Timer<T>[] wheel = new Timer[SLOTS];
+        for (int slot = 0; slot < SLOTS; slot++) {
+            Timer<T> head = new Timer<>(-1, -1, null);
+            head.prev = head;
+            head.next = head;
+            wheel[slot] = head;
+        }
+        return wheel;
+    }
+
+    private static <T> void unlink(Timer<T> timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+
+    /**
+     * A scheduled value, linked into the slot it is due in.
+     */
+    public static final class Timer<T> {
+        private final long tick;
+        private final long deadlineMillis;
+        private final T value;
+        private Timer<T> prev;
+        private Timer<T> next;
+
+        private Timer(long tick, long deadlineMillis, T value) {
+            this.tick = tick;
+            this.deadlineMillis = deadlineMillis;
+            this.value = value;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        public T getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package se.axeto.msgboardpoc.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+import se.axeto.msgboardpoc.service.MessageService;
+
+/**
+ * Wraps the MessageService bean, whichever storage engine is configured, in a
+ * <code>MeteredMessageService</code>.
+ */
+@Component
+public class MessageServiceMetricsPostProcessor implements BeanPostProcessor {
+
+    // Looked up lazily, a post processor is created before the registry
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public MessageServiceMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof MessageService && !(bean instanceof MeteredMessageService)) {
+            return new MeteredMessageService((MessageService) bean, meterRegistry.getObject());
+        }
+        return bean;
+    }
+}
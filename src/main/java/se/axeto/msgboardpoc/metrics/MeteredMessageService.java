@@ -0,0 +1,455 @@
+package se.axeto.msgboardpoc.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.QuotaExceededException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageIdPage;
+import se.axeto.msgboardpoc.model.MessagePage;
+import se.axeto.msgboardpoc.service.MessageService;
+import se.axeto.msgboardpoc.service.MessageStoreStatistics;
+import se.axeto.msgboardpoc.tracing.OperationTracer;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A MessageService that traces and records the latency and the failures of
+ * every operation of another MessageService.
+ *
+ * <p>
+ * Each operation has a <code>msgboard.store.operation</code> timer, its count
+ * is the throughput, and a <code>msgboard.store.exceptions</code> counter per
+ * exception type. The meters are registered up front so that recording only
+ * reads the clock and updates the meters, without allocating. If the wrapped
+ * store implements <code>MessageStoreStatistics</code> its size is exposed by
+ * the <code>msgboard.store.users</code>, <code>msgboard.store.messages</code>
+ * and <code>msgboard.store.size</code> gauges.
+ * </p>
+ *
+ * @see OperationTracer
+ */
+public class MeteredMessageService implements MessageService {
+
+    private static final String OPERATION_TIMER = "msgboard.store.operation";
+    private static final String EXCEPTION_COUNTER = "msgboard.store.exceptions";
+
+    // The exceptions counted by type, anything else is counted as "other"
+    private static final Class<?>[] EXCEPTION_TYPES = {
+            MessageExistException.class,
+            MessageNotFoundException.class,
+            UserNotFoundException.class,
+            QuotaExceededException.class,
+            IllegalArgumentException.class,
+            UnsupportedOperationException.class
+    };
+
+    private final MessageService delegate;
+
+    private final Operation getAllMessages;
+    private final Operation getMessages;
+    private final Operation createMessage;
+    private final Operation updateMessage;
+    private final Operation deleteMessage;
+    private final Operation deleteMessageIfUnchanged;
+    private final Operation applyBatch;
+    private final Operation getAllUsers;
+    private final Operation getData;
+    private final Operation getUserMessages;
+    private final Operation getMessage;
+    private final Operation getVersion;
+    private final Operation getUserVersion;
+    private final Operation getMessageVersion;
+    private final Operation getUserMessageIds;
+    private final Operation getUserMessageIdPage;
+
+    public MeteredMessageService(MessageService delegate, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+
+        getAllMessages = new Operation("getAllMessages", meterRegistry);
+        getMessages = new Operation("getMessages", meterRegistry);
+        createMessage = new Operation("createMessage", meterRegistry);
+        updateMessage = new Operation("updateMessage", meterRegistry);
+        deleteMessage = new Operation("deleteMessage", meterRegistry);
+        deleteMessageIfUnchanged = new Operation("deleteMessageIfUnchanged", meterRegistry);
+        applyBatch = new Operation("applyBatch", meterRegistry);
+        getAllUsers = new Operation("getAllUsers", meterRegistry);
+        getData = new Operation("getData", meterRegistry);
+        getUserMessages = new Operation("getUserMessages", meterRegistry);
+        getMessage = new Operation("getMessage", meterRegistry);
+        getVersion = new Operation("getVersion", meterRegistry);
+        getUserVersion = new Operation("getUserVersion", meterRegistry);
+        getMessageVersion = new Operation("getMessageVersion", meterRegistry);
+        getUserMessageIds = new Operation("getUserMessageIds", meterRegistry);
+        getUserMessageIdPage = new Operation("getUserMessageIdPage", meterRegistry);
+
+        if (delegate instanceof MessageStoreStatistics) {
+            MessageStoreStatistics statistics = (MessageStoreStatistics) delegate;
+            Gauge.builder("msgboard.store.users", statistics, MessageStoreStatistics::userCount)
+                    .description("The number of users")
+                    .register(meterRegistry);
+            Gauge.builder("msgboard.store.messages", statistics, MessageStoreStatistics::messageCount)
+                    .description("The number of messages")
+                    .register(meterRegistry);
+            Gauge.builder("msgboard.store.size", statistics, MessageStoreStatistics::approximateBytes)
+                    .description("Approximate memory used by the stored messages")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * @return The wrapped MessageService.
+     */
+    public MessageService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Collection<Message> getAllMessages() {
+        getAllMessages.enter();
+        long start = System.nanoTime();
+        try {
+            Collection<Message> result = delegate.getAllMessages();
+            getAllMessages.exit(result);
+            return result;
+        } catch (RuntimeException e) {
+            getAllMessages.failed(e);
+            throw e;
+        } finally {
+            getAllMessages.record(start);
+        }
+    }
+
+    /**
+     * Not timed, the time is spent while iterating.
+     */
+    @Override
+    public Iterator<Message> iterateAllMessages() {
+        return delegate.iterateAllMessages();
+    }
+
+    @Override
+    public MessagePage getMessages(String cursor, int limit) {
+        getMessages.enter(cursor, limit);
+        long start = System.nanoTime();
+        try {
+            MessagePage result = delegate.getMessages(cursor, limit);
+            getMessages.exit(result);
+            return result;
+        } catch (RuntimeException e) {
+            getMessages.failed(e);
+            throw e;
+        } finally {
+            getMessages.record(start);
+        }
+    }
+
+    @Override
+    public void createMessage(Message message) throws MessageExistException {
+        createMessage.enter(message);
+        long start = System.nanoTime();
+        try {
+            delegate.createMessage(message);
+            createMessage.exit();
+        } catch (Exception e) {
+            createMessage.failed(e);
+            throw e;
+        } finally {
+            createMessage.record(start);
+        }
+    }
+
+    @Override
+    public void updateMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        updateMessage.enter(message);
+        long start = System.nanoTime();
+        try {
+            delegate.updateMessage(message);
+            updateMessage.exit();
+        } catch (Exception e) {
+            updateMessage.failed(e);
+            throw e;
+        } finally {
+            updateMessage.record(start);
+        }
+    }
+
+    @Override
+    public Message deleteMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        deleteMessage.enter(message);
+        long start = System.nanoTime();
+        try {
+            Message result = delegate.deleteMessage(message);
+            deleteMessage.exit(result);
+            return result;
+        } catch (Exception e) {
+            deleteMessage.failed(e);
+            throw e;
+        } finally {
+            deleteMessage.record(start);
+        }
+    }
+
+    @Override
+    public Message deleteMessageIfUnchanged(Message message) throws UserNotFoundException, MessageNotFoundException {
+        deleteMessageIfUnchanged.enter(message);
+        long start = System.nanoTime();
+        try {
+            Message result = delegate.deleteMessageIfUnchanged(message);
+            deleteMessageIfUnchanged.exit(result);
+            return result;
+        } catch (Exception e) {
+            deleteMessageIfUnchanged.failed(e);
+            throw e;
+        } finally {
+            deleteMessageIfUnchanged.record(start);
+        }
+    }
+
+    @Override
+    public List<BatchResult> applyBatch(List<BatchOperation> operations) {
+        applyBatch.enter(operations);
+        long start = System.nanoTime();
+        try {
+            List<BatchResult> result = delegate.applyBatch(operations);
+            applyBatch.exit(result);
+            return result;
+        } catch (RuntimeException e) {
+            applyBatch.failed(e);
+            throw e;
+        } finally {
+            applyBatch.record(start);
+        }
+    }
+
+    @Override
+    public Collection<String> getAllUsers() {
+        getAllUsers.enter();
+        long start = System.nanoTime();
+        try {
+            Collection<String> result = delegate.getAllUsers();
+            getAllUsers.exit(result);
+            return result;
+        } catch (RuntimeException e) {
+            getAllUsers.failed(e);
+            throw e;
+        } finally {
+            getAllUsers.record(start);
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getData() {
+        getData.enter();
+        long start = System.nanoTime();
+        try {
+            Map<String, Map<String, String>> result = delegate.getData();
+            getData.exit(result);
+            return result;
+        } catch (RuntimeException e) {
+            getData.failed(e);
+            throw e;
+        } finally {
+            getData.record(start);
+        }
+    }
+
+    @Override
+    public Map<String, Message> getUserMessages(String user) throws UserNotFoundException {
+        getUserMessages.enter(user);
+        long start = System.nanoTime();
+        try {
+            Map<String, Message> result = delegate.getUserMessages(user);
+            getUserMessages.exit(result);
+            return result;
+        } catch (Exception e) {
+            getUserMessages.failed(e);
+            throw e;
+        } finally {
+            getUserMessages.record(start);
+        }
+    }
+
+    @Override
+    public Message getMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        getMessage.enter(message);
+        long start = System.nanoTime();
+        try {
+            Message result = delegate.getMessage(message);
+            getMessage.exit(result);
+            return result;
+        } catch (Exception e) {
+            getMessage.failed(e);
+            throw e;
+        } finally {
+            getMessage.record(start);
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        getVersion.enter();
+        long start = System.nanoTime();
+        try {
+            long result = delegate.getVersion();
+            getVersion.exit(result);
+            return result;
+        } catch (RuntimeException e) {
+            getVersion.failed(e);
+            throw e;
+        } finally {
+            getVersion.record(start);
+        }
+    }
+
+    @Override
+    public long getUserVersion(String user) throws UserNotFoundException {
+        getUserVersion.enter(user);
+        long start = System.nanoTime();
+        try {
+            long result = delegate.getUserVersion(user);
+            getUserVersion.exit(result);
+            return result;
+        } catch (Exception e) {
+            getUserVersion.failed(e);
+            throw e;
+        } finally {
+            getUserVersion.record(start);
+        }
+    }
+
+    @Override
+    public long getMessageVersion(Message message) throws UserNotFoundException, MessageNotFoundException {
+        getMessageVersion.enter(message);
+        long start = System.nanoTime();
+        try {
+            long result = delegate.getMessageVersion(message);
+            getMessageVersion.exit(result);
+            return result;
+        } catch (Exception e) {
+            getMessageVersion.failed(e);
+            throw e;
+        } finally {
+            getMessageVersion.record(start);
+        }
+    }
+
+    @Override
+    public Collection<String> getUserMessageIds(String user) throws UserNotFoundException {
+        getUserMessageIds.enter(user);
+        long start = System.nanoTime();
+        try {
+            Collection<String> result = delegate.getUserMessageIds(user);
+            getUserMessageIds.exit(result);
+            return result;
+        } catch (Exception e) {
+            getUserMessageIds.failed(e);
+            throw e;
+        } finally {
+            getUserMessageIds.record(start);
+        }
+    }
+
+    @Override
+    public MessageIdPage getUserMessageIds(String user, String prefix, String cursor, int limit)
+            throws UserNotFoundException {
+        getUserMessageIdPage.enter(user);
+        long start = System.nanoTime();
+        try {
+            MessageIdPage result = delegate.getUserMessageIds(user, prefix, cursor, limit);
+            getUserMessageIdPage.exit(result);
+            return result;
+        } catch (Exception e) {
+            getUserMessageIdPage.failed(e);
+            throw e;
+        } finally {
+            getUserMessageIdPage.record(start);
+        }
+    }
+
+    /**
+     * The meters of one operation.
+     */
+    private static final class Operation {
+        private final OperationTracer tracer;
+        private final Timer timer;
+        // One counter per EXCEPTION_TYPES entry, the last one for other exceptions
+        private final Counter[] exceptions = new Counter[EXCEPTION_TYPES.length + 1];
+
+        Operation(String name, MeterRegistry meterRegistry) {
+            tracer = OperationTracer.forOperation(name);
+            timer = Timer.builder(OPERATION_TIMER)
+                    .description("Latency of the MessageService operations, the count is the throughput")
+                    .tag("operation", name)
+                    .publishPercentiles(0.5, 0.99, 0.999)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            for (int i = 0; i < EXCEPTION_TYPES.length; i++) {
+                exceptions[i] = exceptionCounter(name, EXCEPTION_TYPES[i].getSimpleName(), meterRegistry);
+            }
+            exceptions[EXCEPTION_TYPES.length] = exceptionCounter(name, "other", meterRegistry);
+        }
+
+        void enter() {
+            tracer.enter();
+        }
+
+        void enter(Object argument) {
+            tracer.enter(argument);
+        }
+
+        void enter(String cursor, int limit) {
+            // Checked first, boxing the limit would allocate
+            if (tracer.isEnabled()) {
+                tracer.enter(cursor, limit);
+            }
+        }
+
+        void exit() {
+            tracer.exit();
+        }
+
+        void exit(Object result) {
+            tracer.exit(result);
+        }
+
+        void exit(long result) {
+            // Checked first, boxing the result would allocate
+            if (tracer.isEnabled()) {
+                tracer.exit(result);
+            }
+        }
+
+        void record(long startNanos) {
+            timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void failed(Exception e) {
+            tracer.failed(e);
+            int i = 0;
+            while (i < EXCEPTION_TYPES.length && EXCEPTION_TYPES[i] != e.getClass()) {
+                i++;
+            }
+            exceptions[i].increment();
+        }
+
+        private static Counter exceptionCounter(String operation, String exception, MeterRegistry meterRegistry) {
+            return Counter.builder(EXCEPTION_COUNTER)
+                    .description("Exceptions thrown by the MessageService operations")
+                    .tag("operation", operation)
+                    .tag("exception", exception)
+                    .register(meterRegistry);
+        }
+    }
+}
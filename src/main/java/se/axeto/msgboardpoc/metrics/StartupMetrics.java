@@ -0,0 +1,42 @@
+package se.axeto.msgboardpoc.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the time from the start of the JVM until the application is ready
+ * to serve requests, which includes restoring the message store.
+ */
+@Component
+public class StartupMetrics implements ApplicationListener<ApplicationReadyEvent> {
+    final Logger logger = LoggerFactory.getLogger(StartupMetrics.class);
+
+    private final MeterRegistry meterRegistry;
+    private volatile long timeToReadyMillis;
+
+    public StartupMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        timeToReadyMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        TimeGauge.builder("msgboard.startup.time.to.ready", this, TimeUnit.MILLISECONDS,
+                StartupMetrics::getTimeToReadyMillis)
+                .description("Time from the start of the JVM until the application was ready")
+                .register(meterRegistry);
+        logger.info("Ready to serve requests {} ms after the JVM started", timeToReadyMillis);
+    }
+
+    public long getTimeToReadyMillis() {
+        return timeToReadyMillis;
+    }
+}
@@ -0,0 +1,86 @@
+package se.axeto.msgboardpoc.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Objects;
+
+/**
+ * One create, update or delete in a batch of writes.
+ */
+public class BatchOperation {
+
+    public enum Type {
+        CREATE, UPDATE, DELETE
+    }
+
+    final Type op;
+    final String userId;
+    final String messageId;
+    final String message;
+    final Long ttlSeconds;
+
+    /**
+     * @param message the message text, may be left out for a delete.
+     */
+    public BatchOperation(Type op, String userId, String messageId, String message) {
+        this(op, userId, messageId, message, null);
+    }
+
+    /**
+     * @param message the message text, may be left out for a delete.
+     * @param ttlSeconds the time to live of a created or updated message, <code>null</code> if it doesn't expire.
+     */
+    @JsonCreator
+    public BatchOperation(Type op, String userId, String messageId, String message, Long ttlSeconds) {
+        Objects.requireNonNull(op, "Operation must not be null");
+        Objects.requireNonNull(userId, "User must not be null");
+        Objects.requireNonNull(messageId, "Message id must not be null");
+        if (op != Type.DELETE) {
+            Objects.requireNonNull(message, "Message must not be null");
+        }
+
+        this.op = op;
+        this.userId = userId;
+        this.messageId = messageId;
+        this.message = message;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public Type getOp() {
+        return op;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * @return The message to pass to the MessageService.
+     */
+    public Message toMessage() {
+        return new MessageImpl(userId, messageId, Objects.isNull(message) ? "" : message, ttlSeconds);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchOperation{" +
+                "op=" + op +
+                ", userId='" + userId + '\'' +
+                ", messageId='" + messageId + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,73 @@
+package se.axeto.msgboardpoc.model;
+
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.QuotaExceededException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+
+/**
+ * The outcome of one operation in a batch of writes, with the HTTP status the
+ * operation would have got as a single request.
+ */
+public class BatchResult {
+
+    private final int index;
+    private final int status;
+    private final String error;
+
+    public BatchResult(int index, int status, String error) {
+        this.index = index;
+        this.status = status;
+        this.error = error;
+    }
+
+    public static BatchResult ok(int index) {
+        return new BatchResult(index, 200, null);
+    }
+
+    /**
+     * @param e the exception the operation failed with.
+     */
+    public static BatchResult failed(int index, Exception e) {
+        int status;
+        if (e instanceof MessageExistException) {
+            status = 409;
+        } else if (e instanceof UserNotFoundException || e instanceof MessageNotFoundException) {
+            status = 404;
+        } else if (e instanceof IllegalArgumentException || e instanceof NullPointerException) {
+            status = 400;
+        } else if (e instanceof QuotaExceededException) {
+            status = 507;
+        } else {
+            status = 500;
+        }
+        return new BatchResult(index, status, e.getMessage());
+    }
+
+    /**
+     * @return The position of the operation in the batch, starting at 0.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return Why the operation failed, <code>null</code> if it succeeded.
+     */
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{" +
+                "index=" + index +
+                ", status=" + status +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
@@ -1,5 +1,7 @@
 package se.axeto.msgboardpoc.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * Representation of a message.
  */
@@ -10,4 +12,21 @@ public interface Message {
     String getMessage();
 
     String getUserId();
+
+    /**
+     * @return How many seconds after it was written the message expires,
+     * <code>null</code> if it doesn't.
+     */
+    default Long getTtlSeconds() {
+        return null;
+    }
+
+    /**
+     * @return When the message expires, in milliseconds since the epoch,
+     * <code>null</code> if it doesn't or if it hasn't been stored.
+     */
+    @JsonIgnore
+    default Long getExpiresAtMillis() {
+        return null;
+    }
 }
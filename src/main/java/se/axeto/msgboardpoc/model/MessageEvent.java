@@ -0,0 +1,59 @@
+package se.axeto.msgboardpoc.model;
+
+/**
+ * A write to the message board, as pushed to subscribers.
+ */
+public class MessageEvent {
+
+    public enum Type {
+        CREATED, UPDATED, DELETED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final String userId;
+    private final String messageId;
+    private final String message;
+
+    /**
+     * @param sequence increasing number of the event, unique for the lifetime of the service.
+     * @param message the text of the message, <code>null</code> for a deleted message.
+     */
+    public MessageEvent(long sequence, Type type, String userId, String messageId, String message) {
+        this.sequence = sequence;
+        this.type = type;
+        this.userId = userId;
+        this.messageId = messageId;
+        this.message = message;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageEvent{" +
+                "sequence=" + sequence +
+                ", type=" + type +
+                ", userId='" + userId + '\'' +
+                ", messageId='" + messageId + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,38 @@
+package se.axeto.msgboardpoc.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of the message ids of a user together with the cursor to use when fetching the next page.
+ */
+public class MessageIdPage {
+
+    private final List<String> messageIds;
+    private final String nextCursor;
+
+    /**
+     * @param messageIds the message ids of this page.
+     * @param nextCursor the cursor of the next page, <code>null</code> if this is the last page.
+     */
+    public MessageIdPage(List<String> messageIds, String nextCursor) {
+        this.messageIds = Collections.unmodifiableList(messageIds);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<String> getMessageIds() {
+        return messageIds;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageIdPage{" +
+                "messageIds=" + messageIds.size() +
+                ", nextCursor='" + nextCursor + '\'' +
+                '}';
+    }
+}
@@ -1,5 +1,9 @@
 package se.axeto.msgboardpoc.model;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.Objects;
 
 public class MessageImpl implements Message {
@@ -7,16 +11,43 @@ public class MessageImpl implements Message {
     final String userId;
     final String messageId;
     final String message;
+    final Long ttlSeconds;
+    final Long expiresAtMillis;
 
     public MessageImpl(String userId, String messageId, String message) {
+        this(userId, messageId, message, null);
+    }
+
+    /**
+     * @param ttlSeconds the time to live, <code>null</code> for a message that doesn't expire.
+     * @throws IllegalArgumentException if the time to live is not positive.
+     */
+    @JsonCreator
+    public MessageImpl(String userId, String messageId, String message, Long ttlSeconds) {
+        this(userId, messageId, message, ttlSeconds, null);
+    }
+
+    /**
+     * A message as it was stored, e.g. when it is restored from disk.
+     *
+     * @param expiresAtMillis when the message expires, in milliseconds since the epoch, <code>null</code> if it
+     *                        doesn't.
+     * @throws IllegalArgumentException if the time to live is not positive.
+     */
+    public MessageImpl(String userId, String messageId, String message, Long ttlSeconds, Long expiresAtMillis) {
         //TODO: Illegal argument instead? For null or empty string
         Objects.requireNonNull(userId);
         Objects.requireNonNull(messageId);
         Objects.requireNonNull(message); // Empty String ok
+        if (ttlSeconds != null && ttlSeconds < 1) {
+            throw new IllegalArgumentException("The time to live must be positive: " + ttlSeconds);
+        }
 
         this.userId = userId;
         this.messageId = messageId;
         this.message = message;
+        this.ttlSeconds = ttlSeconds;
+        this.expiresAtMillis = expiresAtMillis;
     }
 
     @Override
@@ -34,12 +65,26 @@ public class MessageImpl implements Message {
         return userId;
     }
 
+    // Left out of the JSON of the messages that don't expire
+    @Override
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    @Override
+    @JsonIgnore
+    public Long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
     @Override
     public String toString() {
         return "MessageImpl{" +
                 "userId='" + userId + '\'' +
                 ", messageId='" + messageId + '\'' +
                 ", message='" + message + '\'' +
+                (ttlSeconds == null ? "" : ", ttlSeconds=" + ttlSeconds) +
                 '}';
     }
 }
@@ -0,0 +1,38 @@
+package se.axeto.msgboardpoc.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of messages together with the cursor to use when fetching the next page.
+ */
+public class MessagePage {
+
+    private final List<Message> messages;
+    private final String nextCursor;
+
+    /**
+     * @param messages the messages of this page.
+     * @param nextCursor the cursor of the next page, <code>null</code> if this is the last page.
+     */
+    public MessagePage(List<Message> messages, String nextCursor) {
+        this.messages = Collections.unmodifiableList(messages);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public String toString() {
+        return "MessagePage{" +
+                "messages=" + messages.size() +
+                ", nextCursor='" + nextCursor + '\'' +
+                '}';
+    }
+}
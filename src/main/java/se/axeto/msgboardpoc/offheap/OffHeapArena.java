@@ -0,0 +1,194 @@
+package se.axeto.msgboardpoc.offheap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Off-heap storage of message records in direct <code>ByteBuffer</code> chunks.
+ *
+ * <p>
+ * A record is a message id, a message text and a version, written as the
+ * UTF-8 length of the id (int), the UTF-8 length of the text (int), the
+ * version (long), the id bytes and the text bytes. A record is addressed by a <code>long</code>, the chunk index in
+ * the high 32 bits and the offset in the chunk in the low 32 bits. Address 0
+ * is never handed out and can be used to mark an empty slot.
+ * </p>
+ *
+ * <p>
+ * Records are allocated in power of two size classes. Freed records are kept
+ * in a free list per size class and reused before the arena grows. Chunks are
+ * never released.
+ * </p>
+ *
+ * <p>
+ * Not thread safe for writes, the owner must serialize <code>allocate</code>,
+ * <code>write</code> and <code>free</code>. Reads may run concurrently with
+ * writes but can then see a record that is being overwritten, readers must
+ * detect that themselves, e.g. with an optimistic lock.
+ * </p>
+ */
+public class OffHeapArena {
+
+    static final int CHUNK_SIZE = 1 << 22;
+    private static final int VERSION_OFFSET = 2 * Integer.BYTES;
+    private static final int HEADER_SIZE = VERSION_OFFSET + Long.BYTES;
+    private static final int MIN_CLASS = 4; // 16 bytes
+    private static final int CLASSES = 31;
+    private static final int MAX_RECORD_SIZE = 1 << (CLASSES - 1);
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int offset;
+
+    private final long[][] freeLists = new long[CLASSES][];
+    private final int[] freeCounts = new int[CLASSES];
+
+    private long reservedBytes;
+    private long usedBytes;
+
+    /**
+     * Store a record.
+     *
+     * @return The address of the record.
+     */
+    public long write(byte[] messageId, byte[] message, long version) {
+        int size = HEADER_SIZE + messageId.length + message.length;
+        if (size > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("The message is too large: " + size + " bytes");
+        }
+        long address = allocate(sizeClass(size));
+
+        ByteBuffer buffer = chunks[chunk(address)].duplicate();
+        buffer.position(offset(address));
+        buffer.putInt(messageId.length).putInt(message.length).putLong(version).put(messageId).put(message);
+        return address;
+    }
+
+    /**
+     * Release a record, its space is reused by later writes.
+     */
+    public void free(long address) {
+        ByteBuffer chunk = chunks[chunk(address)];
+        int offset = offset(address);
+        int size = HEADER_SIZE + chunk.getInt(offset) + chunk.getInt(offset + Integer.BYTES);
+        int sizeClass = sizeClass(size);
+
+        long[] list = freeLists[sizeClass];
+        if (list == null) {
+            list = freeLists[sizeClass] = new long[16];
+        } else if (freeCounts[sizeClass] == list.length) {
+            list = freeLists[sizeClass] = Arrays.copyOf(list, list.length * 2);
+        }
+        list[freeCounts[sizeClass]++] = address;
+        usedBytes -= 1L << sizeClass;
+    }
+
+    /**
+     * @return The UTF-8 bytes of the message id of a record.
+     */
+    public byte[] readMessageId(long address) {
+        ByteBuffer buffer = chunks[chunk(address)].duplicate();
+        int offset = offset(address);
+        byte[] messageId = new byte[checkedLength(buffer, buffer.getInt(offset))];
+        buffer.position(offset + HEADER_SIZE);
+        buffer.get(messageId);
+        return messageId;
+    }
+
+    /**
+     * @return The version of a record.
+     */
+    public long readVersion(long address) {
+        return chunks[chunk(address)].getLong(offset(address) + VERSION_OFFSET);
+    }
+
+    /**
+     * @return The message text of a record.
+     */
+    public String readMessage(long address) {
+        ByteBuffer buffer = chunks[chunk(address)].duplicate();
+        int offset = offset(address);
+        int idLength = checkedLength(buffer, buffer.getInt(offset));
+        byte[] message = new byte[checkedLength(buffer, buffer.getInt(offset + Integer.BYTES))];
+        buffer.position(offset + HEADER_SIZE + idLength);
+        buffer.get(message);
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return <code>true</code> if the message id of a record equals the given UTF-8 bytes.
+     */
+    public boolean messageIdEquals(long address, byte[] messageId) {
+        ByteBuffer chunk = chunks[chunk(address)];
+        int offset = offset(address);
+        if (chunk.getInt(offset) != messageId.length) {
+            return false;
+        }
+        int start = offset + HEADER_SIZE;
+        for (int i = 0; i < messageId.length; i++) {
+            if (chunk.get(start + i) != messageId[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The off-heap bytes reserved by the chunks of this arena.
+     */
+    public long reservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return The bytes of the reserved space held by live records, including size class rounding.
+     */
+    public long usedBytes() {
+        return usedBytes;
+    }
+
+    private long allocate(int sizeClass) {
+        usedBytes += 1L << sizeClass;
+        if (freeCounts[sizeClass] > 0) {
+            return freeLists[sizeClass][--freeCounts[sizeClass]];
+        }
+
+        int size = 1 << sizeClass;
+        ByteBuffer[] current = chunks;
+        if (current.length == 0 || current[current.length - 1].capacity() - offset < size) {
+            // The rest of the last chunk is left unused
+            ByteBuffer chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, size));
+            ByteBuffer[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = chunk;
+            chunks = grown;
+            reservedBytes += chunk.capacity();
+            // Keeps address 0 free to mark empty slots
+            offset = grown.length == 1 ? 1 << MIN_CLASS : 0;
+            current = grown;
+        }
+
+        long address = ((long) (current.length - 1) << 32) | offset;
+        offset += size;
+        return address;
+    }
+
+    private static int sizeClass(int size) {
+        return Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    private static int checkedLength(ByteBuffer chunk, int length) {
+        // A torn concurrent read can see any value
+        if (length < 0 || length > chunk.capacity()) {
+            throw new IllegalStateException("Invalid record length: " + length);
+        }
+        return length;
+    }
+
+    private static int chunk(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+}
@@ -0,0 +1,159 @@
+package se.axeto.msgboardpoc.offheap;
+
+import java.util.function.LongConsumer;
+
+/**
+ * An on-heap index from message id to the address of its record in an
+ * <code>OffHeapArena</code>, for the messages of one user.
+ *
+ * <p>
+ * An open addressing hash table with linear probing that only holds the hash
+ * (int) and record address (long) of each message, the message id itself is
+ * compared in the arena. Deletes shift the following entries back, so there
+ * are no tombstones.
+ * </p>
+ *
+ * <p>
+ * Same threading rules as <code>OffHeapArena</code>: writes must be
+ * serialized by the owner and a concurrent read may see an inconsistent
+ * table, it never loops forever but can return a wrong result or throw.
+ * </p>
+ */
+public class OffHeapMessageIndex {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final long EMPTY = 0;
+
+    private Table table = new Table(INITIAL_CAPACITY);
+    private int size;
+
+    /**
+     * @return The address of the message, 0 if there is no such message.
+     */
+    public long get(OffHeapArena arena, byte[] messageId, int hash) {
+        Table t = table;
+        int mask = t.addresses.length - 1;
+        for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            long address = t.addresses[i];
+            if (address == EMPTY) {
+                return EMPTY;
+            }
+            if (t.hashes[i] == hash && arena.messageIdEquals(address, messageId)) {
+                return address;
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Add or replace the address of a message.
+     *
+     * @return The replaced address, 0 if the message is new.
+     */
+    public long put(OffHeapArena arena, byte[] messageId, int hash, long address) {
+        if ((size + 1) * 4L > table.addresses.length * 3L) {
+            resize();
+        }
+        Table t = table;
+        int mask = t.addresses.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long existing = t.addresses[i];
+            if (existing == EMPTY) {
+                t.hashes[i] = hash;
+                t.addresses[i] = address;
+                size++;
+                return EMPTY;
+            }
+            if (t.hashes[i] == hash && arena.messageIdEquals(existing, messageId)) {
+                t.addresses[i] = address;
+                return existing;
+            }
+        }
+    }
+
+    /**
+     * @return The address of the removed message, 0 if there is no such message.
+     */
+    public long remove(OffHeapArena arena, byte[] messageId, int hash) {
+        Table t = table;
+        int mask = t.addresses.length - 1;
+        int i = hash & mask;
+        while (true) {
+            long address = t.addresses[i];
+            if (address == EMPTY) {
+                return EMPTY;
+            }
+            if (t.hashes[i] == hash && arena.messageIdEquals(address, messageId)) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+
+        long removed = t.addresses[i];
+        // Shift back the entries that would no longer be reachable past the new hole
+        int hole = i;
+        for (int j = (hole + 1) & mask; t.addresses[j] != EMPTY; j = (j + 1) & mask) {
+            int home = t.hashes[j] & mask;
+            boolean reachable = hole <= j ? (home > hole && home <= j) : (home > hole || home <= j);
+            if (!reachable) {
+                t.hashes[hole] = t.hashes[j];
+                t.addresses[hole] = t.addresses[j];
+                hole = j;
+            }
+        }
+        t.addresses[hole] = EMPTY;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Visit the address of every message.
+     */
+    public void forEach(LongConsumer consumer) {
+        long[] addresses = table.addresses;
+        for (long address : addresses) {
+            if (address != EMPTY) {
+                consumer.accept(address);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The approximate on-heap bytes used by the table.
+     */
+    public long heapBytes() {
+        return table.addresses.length * (long) (Integer.BYTES + Long.BYTES);
+    }
+
+    private void resize() {
+        Table old = table;
+        Table grown = new Table(old.addresses.length * 2);
+        int mask = grown.addresses.length - 1;
+        for (int i = 0; i < old.addresses.length; i++) {
+            if (old.addresses[i] != EMPTY) {
+                int j = old.hashes[i] & mask;
+                while (grown.addresses[j] != EMPTY) {
+                    j = (j + 1) & mask;
+                }
+                grown.hashes[j] = old.hashes[i];
+                grown.addresses[j] = old.addresses[i];
+            }
+        }
+        // Published fully built, final fields make it safe for racy readers
+        table = grown;
+    }
+
+    private static final class Table {
+        final int[] hashes;
+        final long[] addresses;
+
+        Table(int capacity) {
+            hashes = new int[capacity];
+            addresses = new long[capacity];
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package se.axeto.msgboardpoc.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * A record in the write-ahead log, one create, update or delete of a message.
+ *
+ * <p>
+ * Encoded as: type (byte), user id, message id and message text, where each
+ * string is written as its UTF-8 length (int) followed by the UTF-8 bytes.
+ * A message that expires is followed by its time to live in seconds (long)
+ * and the time it expires at in milliseconds since the epoch (long), the
+ * records without them read as messages that don't expire.
+ * </p>
+ */
+public class LogRecord {
+
+    public enum Type {
+        CREATE((byte) 1), UPDATE((byte) 2), DELETE((byte) 3);
+
+        private final byte code;
+
+        Type(byte code) {
+            this.code = code;
+        }
+
+        static Type of(byte code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown record type: " + code);
+        }
+    }
+
+    private final Type type;
+    private final String userId;
+    private final String messageId;
+    private final String message;
+    private final Long ttlSeconds;
+    private final Long expiresAtMillis;
+
+    public LogRecord(Type type, String userId, String messageId, String message) {
+        this(type, userId, messageId, message, null, null);
+    }
+
+    /**
+     * @param ttlSeconds the time to live of the message, <code>null</code> if it doesn't expire.
+     * @param expiresAtMillis when the message expires, in milliseconds since the epoch, <code>null</code> if it
+     *                        doesn't.
+     */
+    public LogRecord(Type type, String userId, String messageId, String message, Long ttlSeconds,
+                     Long expiresAtMillis) {
+        this.type = Objects.requireNonNull(type);
+        this.userId = Objects.requireNonNull(userId);
+        this.messageId = Objects.requireNonNull(messageId);
+        this.message = Objects.requireNonNull(message); // Empty for deletes
+        if ((ttlSeconds == null) != (expiresAtMillis == null)) {
+            throw new IllegalArgumentException("A message that expires needs both a time to live and an expiry " +
+                    "time");
+        }
+        this.ttlSeconds = ttlSeconds;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public Long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    byte[] encode() {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+
+        int expiry = expiresAtMillis == null ? 0 : 2 * Long.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 3 * Integer.BYTES + user.length + id.length + text.length +
+                expiry);
+        buffer.put(type.code);
+        buffer.putInt(user.length).put(user);
+        buffer.putInt(id.length).put(id);
+        buffer.putInt(text.length).put(text);
+        if (expiresAtMillis != null) {
+            buffer.putLong(ttlSeconds).putLong(expiresAtMillis);
+        }
+        return buffer.array();
+    }
+
+    static LogRecord decode(ByteBuffer payload) {
+        Type type = Type.of(payload.get());
+        String userId = readString(payload);
+        String messageId = readString(payload);
+        String message = readString(payload);
+        if (!payload.hasRemaining()) {
+            return new LogRecord(type, userId, messageId, message);
+        }
+        return new LogRecord(type, userId, messageId, message, payload.getLong(), payload.getLong());
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "LogRecord{" +
+                "type=" + type +
+                ", userId='" + userId + '\'' +
+                ", messageId='" + messageId + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,204 @@
+package se.axeto.msgboardpoc.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshots of the full user to messages state, stored as compact binary files.
+ *
+ * <p>
+ * A snapshot is tagged with the write-ahead log position it was taken at,
+ * the store is restored by loading the latest snapshot and replaying the log
+ * from that position. A snapshot is the compacted form of the log before
+ * its position, only the latest version of each live message is kept.
+ * </p>
+ *
+ * <p>
+ * Format: magic (int), format version (int) and log position (long) followed
+ * by a USER tag and user id for each user, each followed by a MESSAGE tag,
+ * message id and message text for each of its messages. A message that
+ * expires has an EXPIRING_MESSAGE tag instead and its text is followed by its
+ * time to live in seconds (long) and the time it expires at in milliseconds
+ * since the epoch (long). An END tag and the CRC32 (long) of everything
+ * before it end the file. Strings are written as their UTF-8 length (int)
+ * followed by the UTF-8 bytes. Version 1 has no EXPIRING_MESSAGE tag.
+ * </p>
+ */
+public class Snapshots {
+    final Logger logger = LoggerFactory.getLogger(Snapshots.class);
+
+    private static final int MAGIC = 0x4d534253;
+    private static final int FORMAT_VERSION = 2;
+    private static final byte END = 0;
+    private static final byte USER = 1;
+    private static final byte MESSAGE = 2;
+    private static final byte EXPIRING_MESSAGE = 3;
+
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    private final Path directory;
+
+    public Snapshots(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Write a snapshot and remove the older ones. The snapshot only becomes the
+     * latest once it has been completely written and forced to disk.
+     *
+     * @param logPosition the log position the snapshot is taken at.
+     * @param users user id to message id to message, iterated once.
+     * @return The number of messages written.
+     */
+    public long write(long logPosition, Map<String, ? extends Map<String, ? extends Message>> users)
+            throws IOException {
+        Path temporary = directory.resolve(PREFIX + logPosition + SUFFIX + ".tmp");
+        long messages = 0;
+
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16),
+                    new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(logPosition);
+            for (Map.Entry<String, ? extends Map<String, ? extends Message>> user : users.entrySet()) {
+                out.writeByte(USER);
+                writeString(out, user.getKey());
+                for (Message message : user.getValue().values()) {
+                    boolean expiring = message.getExpiresAtMillis() != null && message.getTtlSeconds() != null;
+                    out.writeByte(expiring ? EXPIRING_MESSAGE : MESSAGE);
+                    writeString(out, message.getMessageId());
+                    writeString(out, message.getMessage());
+                    if (expiring) {
+                        out.writeLong(message.getTtlSeconds());
+                        out.writeLong(message.getExpiresAtMillis());
+                    }
+                    messages++;
+                }
+            }
+            out.writeByte(END);
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+
+        Path snapshot = directory.resolve(PREFIX + logPosition + SUFFIX);
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        for (Path older : list()) {
+            if (position(older) < logPosition) {
+                Files.delete(older);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Load the latest snapshot.
+     *
+     * @param users receives every user id.
+     * @param messages receives every message, after the user id of the message, with the time it expires at.
+     * @return The log position of the loaded snapshot, 0 if there is no snapshot.
+     */
+    public long readLatest(Consumer<String> users, Consumer<Message> messages) throws IOException {
+        List<Path> snapshots = list();
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        Path snapshot = snapshots.get(snapshots.size() - 1);
+
+        try (InputStream file = Files.newInputStream(snapshot)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file, 1 << 16),
+                    new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            int magic = in.readInt();
+            int formatVersion = in.readInt();
+            if (magic != MAGIC || formatVersion < 1 || formatVersion > FORMAT_VERSION) {
+                throw new IOException("Not a snapshot of a supported format: " + snapshot);
+            }
+            long logPosition = in.readLong();
+
+            String userId = null;
+            for (byte tag = in.readByte(); tag != END; tag = in.readByte()) {
+                if (tag == USER) {
+                    userId = readString(in);
+                    users.accept(userId);
+                } else if (tag == MESSAGE && userId != null) {
+                    messages.accept(new MessageImpl(userId, readString(in), readString(in)));
+                } else if (tag == EXPIRING_MESSAGE && userId != null) {
+                    String messageId = readString(in);
+                    String text = readString(in);
+                    long ttlSeconds = in.readLong();
+                    messages.accept(new MessageImpl(userId, messageId, text, ttlSeconds, in.readLong()));
+                } else {
+                    throw new IOException("Corrupt snapshot " + snapshot);
+                }
+            }
+
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum) {
+                throw new IOException("Checksum mismatch in snapshot " + snapshot);
+            }
+            logger.info("Loaded snapshot {}", snapshot);
+            return logPosition;
+        }
+    }
+
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(PREFIX)
+                            && p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted((a, b) -> Long.compare(position(a), position(b)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform, the rename is still atomic
+            logger.debug("Could not sync directory {}", directory);
+        }
+    }
+
+    private static long position(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
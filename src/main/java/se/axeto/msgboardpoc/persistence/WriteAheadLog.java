@@ -0,0 +1,452 @@
+package se.axeto.msgboardpoc.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of message writes, stored in memory mapped segment files.
+ *
+ * <p>
+ * Records are appended to the mapped segment, which makes an append a memory
+ * copy. A background thread forces the segments to disk. Callers that need
+ * durability wait for their position with <code>awaitDurable</code>, all
+ * callers waiting while a force is in progress are released by the next one
+ * (group commit). The waits are on a <code>ReentrantLock</code> rather than a
+ * monitor, a virtual thread that waits unmounts from its carrier thread.
+ * </p>
+ *
+ * <p>
+ * A position is the logical byte offset of a record in the log, positions
+ * increase across segments. A segment file is named after the position of
+ * its first record. Each record is written as its payload length (int), the
+ * CRC32 of the payload (int) and the payload. A zero length marks the end of
+ * the data in a segment.
+ * </p>
+ *
+ * <p>
+ * <code>recover</code> must be called once, before the first append, to replay
+ * the log and find its end. A torn or corrupt record ends the log, it and
+ * everything after it is discarded.
+ * </p>
+ */
+public class WriteAheadLog implements Closeable {
+    final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long flushIntervalMillis;
+    private final Thread flusher;
+
+    // Guarded by this
+    private Segment current;
+    private final List<Segment> unflushed = new ArrayList<>();
+    private long appendedPosition;
+
+    // Guarded by flushLock
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Signalled when a force is requested, or the log is closed
+    private final Condition flushRequested = flushLock.newCondition();
+    // Signalled when a force is done, or has failed
+    private final Condition flushed = flushLock.newCondition();
+    private long requestedPosition;
+    private IOException flushFailure;
+
+    private volatile long durablePosition;
+    private volatile boolean closed;
+
+    /**
+     * @param directory the directory to keep the segment files in, created if missing.
+     * @param segmentSize the size in bytes of a segment file.
+     * @param flushIntervalMillis the longest time written records stay unforced when nobody waits for them.
+     */
+    public WriteAheadLog(Path directory, int segmentSize, long flushIntervalMillis) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Replay the records of the log and prepare it for appends.
+     *
+     * @param fromPosition the position to replay from, records before it are skipped.
+     * @param consumer receives the replayed records in log order.
+     * @return The end position of the log.
+     */
+    public synchronized long recover(long fromPosition, Consumer<LogRecord> consumer) throws IOException {
+        if (current != null) {
+            throw new IllegalStateException("The log has already been recovered");
+        }
+
+        List<Path> files = listSegments();
+        int replayed = 0;
+        for (int i = 0; i < files.size() && current == null; i++) {
+            long base = basePosition(files.get(i));
+            boolean last = i == files.size() - 1;
+            if (!last && basePosition(files.get(i + 1)) <= fromPosition) {
+                // Every record of this segment is before the replay position
+                continue;
+            }
+
+            Segment segment = openSegment(base);
+            int end = scan(segment, fromPosition, consumer);
+            replayed++;
+            boolean torn = end < 0;
+            int offset = torn ? -end - 1 : end;
+            segment.buffer.position(offset);
+
+            if (torn || (!last && basePosition(files.get(i + 1)) != base + offset)) {
+                logger.warn("The log ends at position {} in segment {}, discarding what follows",
+                        base + offset, files.get(i));
+                zeroFrom(segment.buffer, offset);
+                for (Path later : files.subList(i + 1, files.size())) {
+                    Files.delete(later);
+                }
+                current = segment;
+            } else if (last) {
+                current = segment;
+            } else {
+                segment.close();
+            }
+        }
+
+        if (current == null) {
+            current = openSegment(fromPosition);
+        } else if (current.basePosition + current.buffer.position() < fromPosition) {
+            // The tail of the log was lost, never append below the replay position
+            current.close();
+            current = openSegment(fromPosition);
+        }
+
+        appendedPosition = current.basePosition + current.buffer.position();
+        durablePosition = appendedPosition;
+        requestedPosition = appendedPosition;
+        flusher.start();
+        logger.info("Recovered {} segment(s), the log ends at position {}", replayed, appendedPosition);
+        return appendedPosition;
+    }
+
+    /**
+     * Append a record to the log. The record is not durable until it has been forced,
+     * see <code>awaitDurable</code>.
+     *
+     * @param record the record to append.
+     * @return The position after the appended record.
+     */
+    public long append(LogRecord record) throws IOException {
+        byte[] payload = record.encode();
+        int size = HEADER_SIZE + payload.length;
+        if (size > segmentSize - Integer.BYTES) {
+            throw new IllegalArgumentException("The record is larger than a segment: " + size);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        synchronized (this) {
+            if (closed || current == null) {
+                throw new IOException("The log is not open");
+            }
+            if (current.buffer.remaining() < size) {
+                roll();
+            }
+            current.buffer.putInt(payload.length)
+                    .putInt((int) crc.getValue())
+                    .put(payload);
+            appendedPosition += size;
+            return appendedPosition;
+        }
+    }
+
+    /**
+     * Wait until everything up to a position has been forced to disk.
+     *
+     * @param position a position returned by <code>append</code>.
+     */
+    public void awaitDurable(long position) throws IOException {
+        if (durablePosition >= position) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            if (position > requestedPosition) {
+                requestedPosition = position;
+                flushRequested.signal();
+            }
+            while (durablePosition < position) {
+                if (flushFailure != null) {
+                    throw new IOException("Could not force the log to disk", flushFailure);
+                }
+                if (closed) {
+                    throw new IOException("The log has been closed");
+                }
+                try {
+                    flushed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the log to be forced");
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Delete the segments that only hold records before a position, the
+     * segment being appended to is never deleted. Used to compact the log
+     * once a snapshot covers everything before the position.
+     *
+     * @param position records before this position are no longer needed.
+     * @return The number of deleted segments.
+     */
+    public int deleteSegmentsBefore(long position) throws IOException {
+        long currentBase;
+        synchronized (this) {
+            if (current == null) {
+                throw new IllegalStateException("The log has not been recovered");
+            }
+            currentBase = current.basePosition;
+        }
+
+        List<Path> files = listSegments();
+        int deleted = 0;
+        for (int i = 0; i < files.size() - 1; i++) {
+            long nextBase = basePosition(files.get(i + 1));
+            if (nextBase > position || nextBase > currentBase) {
+                break;
+            }
+            Files.delete(files.get(i));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * @return The position after the last appended record.
+     */
+    public synchronized long appendedPosition() {
+        return appendedPosition;
+    }
+
+    /**
+     * @return The position up to which the log has been forced to disk.
+     */
+    public long durablePosition() {
+        return durablePosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flushRequested.signal();
+            flushed.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (current != null) {
+                flush();
+                current.close();
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            flushLock.lock();
+            try {
+                if (!closed && requestedPosition <= durablePosition) {
+                    try {
+                        flushRequested.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            } finally {
+                flushLock.unlock();
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                logger.error("Could not force the log to disk", e);
+                flushLock.lock();
+                try {
+                    flushFailure = e;
+                    flushed.signalAll();
+                } finally {
+                    flushLock.unlock();
+                }
+                return;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        long target;
+        List<Segment> rolled;
+        Segment segment;
+        synchronized (this) {
+            target = appendedPosition;
+            if (target <= durablePosition) {
+                return;
+            }
+            rolled = new ArrayList<>(unflushed);
+            unflushed.clear();
+            segment = current;
+        }
+
+        // Records appended while forcing are picked up by the next flush
+        for (Segment s : rolled) {
+            s.force();
+            s.close();
+        }
+        segment.force();
+
+        flushLock.lock();
+        try {
+            durablePosition = Math.max(durablePosition, target);
+            flushed.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Guarded by this
+    private void roll() throws IOException {
+        long nextBase = current.basePosition + current.buffer.position();
+        unflushed.add(current);
+        current = openSegment(nextBase);
+        logger.debug("Rolled to a new segment at position {}", nextBase);
+    }
+
+    /**
+     * @return The offset after the last valid record, or <code>-(offset + 1)</code>
+     * of the first torn or corrupt record.
+     */
+    private int scan(Segment segment, long fromPosition, Consumer<LogRecord> consumer) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        CRC32 crc = new CRC32();
+        while (offset + HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                return offset;
+            }
+            if (length < 0 || length > buffer.capacity() - offset - HEADER_SIZE) {
+                return -offset - 1;
+            }
+
+            byte[] payload = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset + HEADER_SIZE);
+            view.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+                return -offset - 1;
+            }
+
+            LogRecord record;
+            try {
+                record = LogRecord.decode(ByteBuffer.wrap(payload));
+            } catch (RuntimeException e) {
+                return -offset - 1;
+            }
+            if (segment.basePosition + offset >= fromPosition) {
+                consumer.accept(record);
+            }
+            offset += HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    private static void zeroFrom(MappedByteBuffer buffer, int offset) {
+        for (int i = offset; i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        buffer.force();
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted((a, b) -> Long.compare(basePosition(a), basePosition(b)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Segment openSegment(long basePosition) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", basePosition, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        return new Segment(basePosition, channel, buffer);
+    }
+
+    static long basePosition(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Segment {
+        final long basePosition;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        Segment(long basePosition, FileChannel channel, MappedByteBuffer buffer) {
+            this.basePosition = basePosition;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() throws IOException {
+            // The mapping stays valid until the buffer is garbage collected
+            channel.close();
+        }
+    }
+}
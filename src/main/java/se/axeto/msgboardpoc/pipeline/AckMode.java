@@ -0,0 +1,32 @@
+package se.axeto.msgboardpoc.pipeline;
+
+import java.util.Locale;
+
+/**
+ * When a write through the <code>WritePipeline</code> is answered.
+ */
+public enum AckMode {
+
+    /**
+     * Once it has been applied to the store and is seen by reads, it may be
+     * lost if the service stops before the log is forced to disk.
+     */
+    APPLIED,
+
+    /**
+     * Once it has also been forced to disk. The same as <code>APPLIED</code>
+     * with a store that doesn't keep its messages on disk.
+     */
+    DURABLE;
+
+    /**
+     * @param value the name of a mode in any case, e.g. <code>durable</code>.
+     */
+    public static AckMode parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown ack mode " + value + ", expected applied or durable.");
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package se.axeto.msgboardpoc.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded queue for many producers and a single consumer, an array of slots
+ * used in turn.
+ *
+ * <p>
+ * Every slot has a sequence number that says whose turn it is. A producer
+ * claims the next slot by moving the tail forward with a compare and set when
+ * the sequence of the slot says it is free, stores its element and then
+ * publishes it by advancing the sequence, the consumer takes the element
+ * once it sees the sequence and frees the slot for the next round. Producers
+ * only contend on the tail, they never take a lock, and a full queue is
+ * reported to the producer instead of making it wait.
+ * </p>
+ *
+ * <p>
+ * Only one thread at a time may call <code>drain</code>.
+ * </p>
+ */
+public class MpscRingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    // The sequence of a slot is its index in the round it is free in, one more once it holds an element
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Only written by the consumer
+    private volatile long head;
+
+    /**
+     * @param capacity the number of elements the queue holds, rounded up to a power of two.
+     */
+    public MpscRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element at the tail, from any thread.
+     *
+     * @return <code>false</code> if the queue is full.
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            long position = tail.get();
+            int slot = (int) position & mask;
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(slot, element);
+                    // Ordered after the element, the consumer reads them in the other order. Not lazily, a
+                    // producer that then checks whether the consumer sleeps must not miss it going to sleep
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // Not yet taken by the consumer since the last round
+                return false;
+            }
+            // Claimed by another producer, try the next one
+        }
+    }
+
+    /**
+     * Take up to <code>max</code> elements from the head, in the order they
+     * were added. An element that is being added by a producer ends the
+     * drain, it is taken by the next one.
+     *
+     * @return The number of elements taken.
+     */
+    public int drain(Consumer<? super E> consumer, int max) {
+        long position = head;
+        int taken = 0;
+        try {
+            while (taken < max) {
+                int slot = (int) position & mask;
+                if (sequences.get(slot) != position + 1) {
+                    break;
+                }
+                E element = elements.get(slot);
+                elements.lazySet(slot, null);
+                sequences.lazySet(slot, position + mask + 1);
+                position++;
+                taken++;
+                consumer.accept(element);
+            }
+        } finally {
+            head = position;
+        }
+        return taken;
+    }
+
+    /**
+     * @return <code>true</code> if there is no element to take.
+     */
+    public boolean isEmpty() {
+        long position = head;
+        return sequences.get((int) position & mask) != position + 1;
+    }
+
+    /**
+     * @return The number of elements in the queue, approximately while it is in use.
+     */
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,370 @@
+package se.axeto.msgboardpoc.pipeline;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import se.axeto.msgboardpoc.admission.RateLimitExceededException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.replication.ReplicationLeader;
+import se.axeto.msgboardpoc.service.DurableMessageStore;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies the single writes of the REST API in batches on one writer thread,
+ * enabled by setting <code>msgboard.pipeline.enabled=true</code>.
+ *
+ * <p>
+ * A write is queued in a <code>MpscRingBuffer</code> and answered through a
+ * future, the request thread doesn't wait for the store. The writer thread
+ * takes up to <code>batchSize</code> writes at a time and applies them as one
+ * batch, so the locks are taken once per user per batch and the write-ahead
+ * log of the <code>persistent</code> store is forced once for all of them.
+ * The writes are applied in the order they were queued.
+ * </p>
+ *
+ * <p>
+ * A write is answered as soon as its batch has been applied with
+ * <code>AckMode.APPLIED</code>, and when the log has also been forced with
+ * <code>AckMode.DURABLE</code>. The writer doesn't wait for the disk, a
+ * second thread waits for the batches that have durable writes while the
+ * writer goes on with the next ones. The durable writes are forced whatever
+ * <code>msgboard.wal.sync</code> is set to. A write that can't be queued for
+ * <code>maxWaitMillis</code> because the queue is full is rejected with a
+ * <code>RateLimitExceededException</code>.
+ * </p>
+ *
+ * <p>
+ * The pipeline writes to the storage engine itself, captured before any other
+ * post processor wraps it, the store operation metrics don't count the
+ * writes it applies. Not to be combined with <code>msgboard.cluster</code>,
+ * the application fails to start if both are set.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "msgboard.pipeline.enabled", havingValue = "true")
+public class WritePipeline implements BeanPostProcessor, Ordered {
+    final Logger logger = LoggerFactory.getLogger(WritePipeline.class);
+
+    /**
+     * The <code>AckMode</code> of a write, by name.
+     */
+    public static final String ACK_HEADER = "X-Msgboard-Ack";
+
+    /**
+     * Runs after <code>ReplicationLeader</code>, both get the storage engine
+     * itself, and before every post processor that wraps it.
+     */
+    public static final int ORDER = ReplicationLeader.ORDER + 1;
+
+    // How long a parked writer sleeps at most, in case a wake up is missed
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final MpscRingBuffer<Write> queue;
+    private final int batchSize;
+    private final long maxWaitNanos;
+    private final AckMode defaultAck;
+    // Writes that have been applied and wait for the log to be forced
+    private final BlockingQueue<Unforced> unforced = new LinkedBlockingQueue<>();
+
+    // Looked up lazily, a post processor is created before the registry
+    private ObjectProvider<MeterRegistry> meterRegistry;
+    private DistributionSummary batchSizes;
+    private Counter rejected;
+
+    private MessageService store;
+    private DurableMessageStore durableStore;
+    private Thread writer;
+    // null unless the store is durable
+    private Thread syncer;
+    private volatile boolean running;
+    private volatile boolean writerParked;
+
+    /**
+     * A pipeline that writes to <code>store</code>, started at once.
+     *
+     * @param capacity the number of writes that can be queued.
+     * @param batchSize the most writes applied as one batch.
+     * @param maxWaitMillis how long a write waits for room in a full queue.
+     */
+    public WritePipeline(MessageService store, int capacity, int batchSize, long maxWaitMillis) {
+        this(capacity, batchSize, maxWaitMillis, AckMode.DURABLE);
+        start(store);
+    }
+
+    private WritePipeline(int capacity, int batchSize, long maxWaitMillis, AckMode defaultAck) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        this.queue = new MpscRingBuffer<>(capacity);
+        this.batchSize = batchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.defaultAck = defaultAck;
+    }
+
+    /**
+     * A pipeline that writes to the MessageService bean, started when the bean has been created.
+     *
+     * @param defaultAck the ack mode of a write without the header.
+     * @param clusterNodeId the id of this node in a cluster, empty if it isn't in one.
+     * @throws IllegalStateException if this node is in a cluster.
+     */
+    @Autowired
+    public WritePipeline(@Value("${msgboard.pipeline.capacity:65536}") int capacity,
+                         @Value("${msgboard.pipeline.batch-size:1024}") int batchSize,
+                         @Value("${msgboard.pipeline.max-wait-ms:100}") long maxWaitMillis,
+                         @Value("${msgboard.pipeline.default-ack:durable}") String defaultAck,
+                         @Value("${msgboard.cluster.node-id:}") String clusterNodeId,
+                         ObjectProvider<MeterRegistry> meterRegistry) {
+        this(capacity, batchSize, maxWaitMillis, AckMode.parse(defaultAck));
+        // The writes of the users of other nodes would be applied to the store of this node
+        if (!clusterNodeId.isEmpty()) {
+            throw new IllegalStateException("The write pipeline can't be combined with msgboard.cluster, unset " +
+                    "msgboard.pipeline.enabled or msgboard.cluster.node-id");
+        }
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof MessageService && store == null) {
+            MeterRegistry registry = meterRegistry.getObject();
+            this.batchSizes = DistributionSummary.builder("msgboard.pipeline.batch.size")
+                    .description("Writes applied as one batch by the write pipeline")
+                    .register(registry);
+            this.rejected = Counter.builder("msgboard.pipeline.rejected")
+                    .description("Writes rejected because the write pipeline was full")
+                    .register(registry);
+            Gauge.builder("msgboard.pipeline.queued", this, WritePipeline::queuedCount)
+                    .description("Writes waiting to be applied by the write pipeline")
+                    .register(registry);
+            start((MessageService) bean);
+            logger.info("Write pipeline of {} writes in batches of at most {}, {} by default", queue.capacity(),
+                    batchSize, defaultAck);
+        }
+        return bean;
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    /**
+     * Queue a write.
+     *
+     * @return The result of the write, as in a batch, completed exceptionally
+     * if it could not be applied or made durable.
+     * @throws RateLimitExceededException if the queue stayed full for <code>maxWaitMillis</code>.
+     */
+    public CompletableFuture<BatchResult> submit(BatchOperation operation, AckMode ack) {
+        if (!running) {
+            throw new IllegalStateException("The write pipeline is not running.");
+        }
+        Write write = new Write(operation, ack);
+        if (!queue.offer(write)) {
+            long deadline = System.nanoTime() + maxWaitNanos;
+            do {
+                if (System.nanoTime() - deadline >= 0) {
+                    if (rejected != null) {
+                        rejected.increment();
+                    }
+                    throw new RateLimitExceededException("The write queue is full.", 1);
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            } while (!queue.offer(write));
+        }
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+        return write.result;
+    }
+
+    public AckMode getDefaultAck() {
+        return defaultAck;
+    }
+
+    /**
+     * @return The number of writes waiting to be applied.
+     */
+    public int queuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Stop taking writes, the queued ones are still applied.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        if (syncer != null) {
+            syncer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        if (writer.isAlive()) {
+            logger.warn("The write pipeline did not stop, {} writes are queued", queue.size());
+            return;
+        }
+        // Queued after the writer had stopped
+        queue.drain(write -> write.result.completeExceptionally(
+                new IllegalStateException("The write pipeline is not running.")), Integer.MAX_VALUE);
+    }
+
+    private void start(MessageService store) {
+        this.store = store;
+        this.durableStore = store instanceof DurableMessageStore ? (DurableMessageStore) store : null;
+        this.writer = new Thread(this::writeLoop, "write-pipeline");
+        this.writer.setDaemon(true);
+        if (durableStore != null) {
+            this.syncer = new Thread(this::syncLoop, "write-pipeline-sync");
+            this.syncer.setDaemon(true);
+        }
+        // Publishes the fields above to the producers
+        this.running = true;
+        this.writer.start();
+        if (syncer != null) {
+            this.syncer.start();
+        }
+    }
+
+    private void writeLoop() {
+        List<Write> batch = new ArrayList<>(Math.min(batchSize, queue.capacity()));
+        while (running || !queue.isEmpty()) {
+            if (queue.drain(batch::add, batchSize) == 0) {
+                writerParked = true;
+                // A write queued before the flag is set is seen here, a producer that queues after it unparks us
+                if (queue.isEmpty() && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                writerParked = false;
+                continue;
+            }
+            try {
+                apply(batch);
+            } catch (RuntimeException e) {
+                logger.error("Could not apply a batch of {} writes", batch.size(), e);
+                for (Write write : batch) {
+                    write.result.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void apply(List<Write> batch) {
+        List<BatchOperation> operations = new ArrayList<>(batch.size());
+        for (Write write : batch) {
+            operations.add(write.operation);
+        }
+        List<BatchResult> results;
+        long position = 0;
+        if (durableStore != null) {
+            results = durableStore.applyBatchDeferred(operations);
+            position = durableStore.appendedPosition();
+        } else {
+            results = store.applyBatch(operations);
+        }
+        if (batchSizes != null) {
+            batchSizes.record(batch.size());
+        }
+
+        List<Write> durableWrites = null;
+        for (int i = 0; i < batch.size(); i++) {
+            Write write = batch.get(i);
+            write.applied = results.get(i);
+            // A failed write has nothing to force
+            if (write.ack == AckMode.DURABLE && durableStore != null && write.applied.getStatus() == 200) {
+                if (durableWrites == null) {
+                    durableWrites = new ArrayList<>();
+                }
+                durableWrites.add(write);
+            } else {
+                write.result.complete(write.applied);
+            }
+        }
+        if (durableWrites != null) {
+            unforced.add(new Unforced(position, durableWrites));
+        }
+    }
+
+    private void syncLoop() {
+        List<Unforced> batches = new ArrayList<>();
+        while (writer.isAlive() || !unforced.isEmpty()) {
+            try {
+                Unforced first = unforced.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batches.add(first);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            unforced.drainTo(batches);
+            // One wait for every batch applied so far, the last one has the highest position
+            try {
+                durableStore.awaitDurable(batches.get(batches.size() - 1).position);
+                for (Unforced batch : batches) {
+                    for (Write write : batch.writes) {
+                        write.result.complete(write.applied);
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Could not force {} batches of writes to disk", batches.size(), e);
+                for (Unforced batch : batches) {
+                    for (Write write : batch.writes) {
+                        write.result.completeExceptionally(e);
+                    }
+                }
+            }
+            batches.clear();
+        }
+    }
+
+    private static final class Write {
+        final BatchOperation operation;
+        final AckMode ack;
+        final CompletableFuture<BatchResult> result = new CompletableFuture<>();
+        // Only used by the pipeline threads, handed over through the unforced queue
+        BatchResult applied;
+
+        Write(BatchOperation operation, AckMode ack) {
+            this.operation = operation;
+            this.ack = ack;
+        }
+    }
+
+    private static final class Unforced {
+        final long position;
+        final List<Write> writes;
+
+        Unforced(long position, List<Write> writes) {
+            this.position = position;
+            this.writes = writes;
+        }
+    }
+}
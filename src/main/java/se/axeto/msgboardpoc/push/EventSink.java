@@ -0,0 +1,31 @@
+package se.axeto.msgboardpoc.push;
+
+import java.io.IOException;
+
+/**
+ * The connection to one subscriber. Calls for the same sink are never made
+ * concurrently, but may be made from different threads.
+ */
+public interface EventSink {
+
+    /**
+     * Send a batch of events, blocks until it has been written.
+     *
+     * @param lastSequence the sequence of the last event in the batch.
+     * @param events the events, encoded as a JSON array.
+     * @throws IOException if the subscriber is gone.
+     */
+    void send(long lastSequence, String events) throws IOException;
+
+    /**
+     * Send something that keeps the connection open while there are no events.
+     *
+     * @throws IOException if the subscriber is gone.
+     */
+    void heartbeat() throws IOException;
+
+    /**
+     * Close the connection, no more calls are made after this one.
+     */
+    void close();
+}
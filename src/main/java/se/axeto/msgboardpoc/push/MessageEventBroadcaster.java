@@ -0,0 +1,330 @@
+package se.axeto.msgboardpoc.push;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageEvent;
+import se.axeto.msgboardpoc.service.MessageStoreListener;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes the writes of the message store to every subscriber.
+ *
+ * <p>
+ * Writes are queued as events by the store listener callbacks, which only
+ * costs a queue offer under the write lock. A dispatcher thread collects the
+ * queued events into micro-batches of up to <code>batchInterval</code>,
+ * encodes each batch once and hands it to every subscriber. Each subscriber
+ * has a bounded queue of batches that is drained by a shared pool of sender
+ * threads, batches that queued up while a subscriber was being written to are
+ * coalesced into a single send.
+ * </p>
+ *
+ * <p>
+ * Backpressure: a subscriber whose queue is full is disconnected instead of
+ * buffering without bound, and if the dispatcher falls behind the store all
+ * subscribers are disconnected. A disconnected client must reconnect and fetch
+ * the messages again, so a client never silently misses an event.
+ * </p>
+ */
+@Component
+public class MessageEventBroadcaster implements MessageStoreListener {
+    final Logger logger = LoggerFactory.getLogger(MessageEventBroadcaster.class);
+
+    // A heartbeat in a subscriber queue
+    private static final Batch HEARTBEAT = new Batch(0, null);
+
+    private final ObjectMapper objectMapper;
+    private final long batchIntervalNanos;
+    private final int maxBatchSize;
+    private final int subscriberQueueSize;
+    private final long heartbeatNanos;
+
+    private final BlockingQueue<MessageEvent> incoming;
+    private final AtomicLong eventSequence = new AtomicLong();
+    private volatile boolean overflowed;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    @Autowired
+    public MessageEventBroadcaster(ObjectMapper objectMapper,
+                                   @Value("${msgboard.push.batch-interval-ms:50}") long batchIntervalMillis,
+                                   @Value("${msgboard.push.max-batch-size:1000}") int maxBatchSize,
+                                   @Value("${msgboard.push.queue-size:65536}") int queueSize,
+                                   @Value("${msgboard.push.subscriber-queue-size:32}") int subscriberQueueSize,
+                                   @Value("${msgboard.push.sender-threads:8}") int senderThreads,
+                                   @Value("${msgboard.push.heartbeat-seconds:15}") long heartbeatSeconds) {
+        this.objectMapper = objectMapper;
+        this.batchIntervalNanos = TimeUnit.MILLISECONDS.toNanos(batchIntervalMillis);
+        this.maxBatchSize = maxBatchSize;
+        this.subscriberQueueSize = subscriberQueueSize;
+        this.heartbeatNanos = TimeUnit.SECONDS.toNanos(heartbeatSeconds);
+        this.incoming = new LinkedBlockingQueue<>(queueSize);
+
+        AtomicLong threadNumber = new AtomicLong();
+        this.senders = Executors.newFixedThreadPool(senderThreads, r -> {
+            Thread thread = new Thread(r, "event-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatch, "event-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * A subscription to the events of the store.
+     */
+    public interface Subscription {
+        /**
+         * Stop sending events and close the sink, once a send in progress has
+         * returned. Safe to call more than once.
+         */
+        void cancel();
+    }
+
+    /**
+     * Start pushing events to a subscriber.
+     *
+     * @param sink the connection to the subscriber.
+     * @return The subscription, to be cancelled when the subscriber goes away.
+     */
+    public Subscription subscribe(EventSink sink) {
+        Subscriber subscriber = new Subscriber(sink);
+        subscribers.add(subscriber);
+        if (!running) {
+            subscriber.cancel();
+        }
+        return subscriber;
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public void onCreate(Message message) {
+        publish(MessageEvent.Type.CREATED, message, message.getMessage());
+    }
+
+    @Override
+    public void onUpdate(Message message) {
+        publish(MessageEvent.Type.UPDATED, message, message.getMessage());
+    }
+
+    @Override
+    public void onDelete(Message message) {
+        publish(MessageEvent.Type.DELETED, message, null);
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        dispatcher.interrupt();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.cancel();
+        }
+        senders.shutdown();
+    }
+
+    private void publish(MessageEvent.Type type, Message message, String text) {
+        if (subscribers.isEmpty()) {
+            // Nobody would see it, a subscriber fetches the current messages when it connects
+            return;
+        }
+        MessageEvent event = new MessageEvent(eventSequence.incrementAndGet(), type,
+                message.getUserId(), message.getMessageId(), text);
+        if (!incoming.offer(event)) {
+            overflowed = true;
+        }
+    }
+
+    private void dispatch() {
+        List<MessageEvent> events = new ArrayList<>();
+        while (running) {
+            try {
+                MessageEvent first = incoming.poll(heartbeatNanos, TimeUnit.NANOSECONDS);
+                if (overflowed) {
+                    overflowed = false;
+                    logger.warn("The event queue overflowed, disconnecting {} subscribers", subscribers.size());
+                    incoming.clear();
+                    disconnectAll();
+                    continue;
+                }
+                if (first == null) {
+                    // Nothing for a while, the batches keep the connections open otherwise
+                    offerAll(HEARTBEAT);
+                    continue;
+                }
+
+                // Give the writes that follow the first one a moment to join its batch
+                events.add(first);
+                long deadline = System.nanoTime() + batchIntervalNanos;
+                while (events.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    MessageEvent next = remaining > 0 ? incoming.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    events.add(next);
+                    incoming.drainTo(events, maxBatchSize - events.size());
+                }
+
+                offerAll(new Batch(events.get(events.size() - 1).getSequence(),
+                        objectMapper.writeValueAsString(events)));
+                events.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (JsonProcessingException | RuntimeException e) {
+                logger.error("Could not dispatch {} events", events.size(), e);
+                events.clear();
+                disconnectAll();
+            }
+        }
+    }
+
+    private void offerAll(Batch batch) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(batch);
+        }
+    }
+
+    private void disconnectAll() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.cancel();
+        }
+    }
+
+    /**
+     * Events encoded once, shared by all subscribers.
+     */
+    private static final class Batch {
+        final long lastSequence;
+        // A JSON array, null for a heartbeat
+        final String events;
+
+        Batch(long lastSequence, String events) {
+            this.lastSequence = lastSequence;
+            this.events = events;
+        }
+    }
+
+    private final class Subscriber implements Subscription {
+        private final EventSink sink;
+        private final BlockingQueue<Batch> pending = new ArrayBlockingQueue<>(subscriberQueueSize);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        Subscriber(EventSink sink) {
+            this.sink = sink;
+        }
+
+        void offer(Batch batch) {
+            if (cancelled.get()) {
+                return;
+            }
+            if (!pending.offer(batch)) {
+                if (batch != HEARTBEAT) {
+                    logger.info("Disconnecting a subscriber that can not keep up");
+                    cancel();
+                }
+                return;
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                subscribers.remove(this);
+                pending.clear();
+                // Closed by the sender if it is sending right now
+                if (scheduled.compareAndSet(false, true)) {
+                    sink.close();
+                }
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                List<Batch> batches = new ArrayList<>();
+                while (!cancelled.get() && pending.drainTo(batches) > 0) {
+                    send(batches);
+                    batches.clear();
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Subscriber is gone: {}", e.toString());
+                cancel();
+            } finally {
+                scheduled.set(false);
+            }
+
+            if (cancelled.get()) {
+                // cancel() leaves closing to the sender when it runs concurrently
+                if (scheduled.compareAndSet(false, true)) {
+                    sink.close();
+                }
+            } else if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void send(List<Batch> batches) throws IOException {
+            Batch last = null;
+            int count = 0;
+            StringBuilder coalesced = null;
+            for (Batch batch : batches) {
+                if (batch.events == null) {
+                    continue;
+                }
+                if (last != null) {
+                    // Join the JSON arrays, "[a,b]" and "[c]" become "[a,b,c]"
+                    if (coalesced == null) {
+                        coalesced = new StringBuilder(last.events.length() * batches.size());
+                        coalesced.append(last.events, 0, last.events.length() - 1);
+                    }
+                    coalesced.append(',').append(batch.events, 1, batch.events.length());
+                    coalesced.setLength(coalesced.length() - 1);
+                }
+                last = batch;
+                count++;
+            }
+
+            if (last == null) {
+                sink.heartbeat();
+            } else if (count == 1) {
+                sink.send(last.lastSequence, last.events);
+            } else {
+                sink.send(last.lastSequence, coalesced.append(']').toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package se.axeto.msgboardpoc.replication;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a follower asks for writes that the replication log no longer
+ * has, because they are older than the log keeps or the leader has restarted
+ * since. The follower must start over from a snapshot.
+ */
+@ResponseStatus(HttpStatus.GONE)
+public class LogTruncatedException extends RuntimeException {
+
+    public LogTruncatedException(String message) {
+        super(message);
+    }
+}
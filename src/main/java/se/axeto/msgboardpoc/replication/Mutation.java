@@ -0,0 +1,68 @@
+package se.axeto.msgboardpoc.replication;
+
+import se.axeto.msgboardpoc.model.BatchOperation;
+
+import java.util.Objects;
+
+/**
+ * A write of the leader, numbered by its position in the replication log.
+ */
+public class Mutation {
+
+    private final long position;
+    private final BatchOperation.Type op;
+    private final String userId;
+    private final String messageId;
+    private final String message;
+
+    /**
+     * @param message the message text, <code>null</code> for a delete.
+     */
+    public Mutation(long position, BatchOperation.Type op, String userId, String messageId, String message) {
+        this.position = position;
+        this.op = Objects.requireNonNull(op, "Operation must not be null");
+        this.userId = Objects.requireNonNull(userId, "User must not be null");
+        this.messageId = Objects.requireNonNull(messageId, "Message id must not be null");
+        this.message = message;
+    }
+
+    /**
+     * @return The position in the log, the first write is 1.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public BatchOperation.Type getOp() {
+        return op;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return The write, to apply to a follower's store.
+     */
+    public BatchOperation toOperation() {
+        return new BatchOperation(op, userId, messageId, message);
+    }
+
+    @Override
+    public String toString() {
+        return "Mutation{" +
+                "position=" + position +
+                ", op=" + op +
+                ", userId='" + userId + '\'' +
+                ", messageId='" + messageId + '\'' +
+                '}';
+    }
+}
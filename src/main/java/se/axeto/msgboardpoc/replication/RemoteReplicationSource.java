@@ -0,0 +1,110 @@
+package se.axeto.msgboardpoc.replication;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import se.axeto.msgboardpoc.admission.SharedSecretInterceptor;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The replication log of a leader on another node, read over its
+ * replication API, see <code>ReplicationController</code>.
+ *
+ * <p>
+ * A leader that can't be reached or answers with an unexpected status throws
+ * <code>UncheckedIOException</code>, the follower tries again later. Every
+ * request has the secret of the leader, see
+ * <code>ReplicationApiConfiguration</code>.
+ * </p>
+ */
+public class RemoteReplicationSource implements ReplicationSource {
+
+    private static final TypeReference<List<MessageImpl>> MESSAGE_LIST = new TypeReference<List<MessageImpl>>() {
+    };
+    private static final TypeReference<List<Mutation>> MUTATION_LIST = new TypeReference<List<Mutation>>() {
+    };
+
+    private final String baseUri;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final Duration timeout;
+    private final String secret;
+
+    /**
+     * @param leaderUri the address of the leader, e.g. <code>http://10.0.0.2:8080</code>.
+     * @param timeout how long to wait for a response, on top of the wait for a write.
+     * @param secret the secret of the replication API of the leader.
+     */
+    public RemoteReplicationSource(URI leaderUri, ObjectMapper objectMapper, Duration timeout, String secret) {
+        this.baseUri = leaderUri.toString().replaceAll("/+$", "") + ReplicationController.PATH + "/";
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+        this.objectMapper = objectMapper;
+        this.timeout = timeout;
+        this.secret = secret;
+    }
+
+    @Override
+    public ReplicaSnapshot snapshot() throws InterruptedException {
+        byte[] body = send("snapshot", timeout);
+        try {
+            JsonNode snapshot = objectMapper.readTree(body);
+            List<Message> messages = new ArrayList<>(objectMapper.convertValue(snapshot.get("messages"),
+                    MESSAGE_LIST));
+            return new ReplicaSnapshot(snapshot.get("epoch").asText(), snapshot.get("position").asLong(), messages);
+        } catch (IOException | RuntimeException e) {
+            throw new UncheckedIOException(new IOException("The leader sent a malformed snapshot", e));
+        }
+    }
+
+    @Override
+    public List<Mutation> read(String epoch, long after, int limit, long waitMillis) throws InterruptedException {
+        String path = "log?epoch=" + URLEncoder.encode(epoch, StandardCharsets.UTF_8) + "&after=" + after +
+                "&limit=" + limit + "&wait-ms=" + waitMillis;
+        byte[] body = send(path, timeout.plusMillis(waitMillis));
+        try {
+            return objectMapper.readValue(body, MUTATION_LIST);
+        } catch (IOException e) {
+            throw new UncheckedIOException("The leader sent a malformed log", e);
+        }
+    }
+
+    private byte[] send(String path, Duration requestTimeout) throws InterruptedException {
+        HttpResponse<byte[]> response;
+        try {
+            response = httpClient.send(HttpRequest.newBuilder(URI.create(baseUri + path))
+                            .timeout(requestTimeout)
+                            .header("Accept", "application/json")
+                            .header(SharedSecretInterceptor.SECRET_HEADER, secret)
+                            .GET()
+                            .build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException("The leader could not be reached", e);
+        }
+
+        if (response.statusCode() == 410) {
+            throw new LogTruncatedException(new String(response.body(), StandardCharsets.UTF_8));
+        }
+        if (response.statusCode() != 200) {
+            throw new UncheckedIOException(new IOException("The leader answered " + response.statusCode() + ": " +
+                    new String(response.body(), StandardCharsets.UTF_8)));
+        }
+        return response.body();
+    }
+}
@@ -0,0 +1,89 @@
+package se.axeto.msgboardpoc.replication;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves the reads of the message API from a follower and sends the rest to
+ * the leader.
+ *
+ * <p>
+ * A write is redirected to the leader with 307 Temporary Redirect, which a
+ * client follows with the same method and body. A read with an
+ * <code>X-Msgboard-Min-Version</code> header, the version token the leader
+ * sent with a write, waits up to <code>maxWaitMillis</code> for the follower
+ * to apply the writes up to it and is redirected to the leader if it has not
+ * by then, so a client always reads its own writes. So is every read until
+ * the follower has applied its first snapshot. A read that is served gets the
+ * position the follower is at as its <code>X-Msgboard-Version</code>.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "msgboard.replication.role", havingValue = "follower")
+public class ReplicaRequestInterceptor implements AsyncHandlerInterceptor {
+
+    /**
+     * The version token of the oldest data the client accepts.
+     */
+    public static final String MIN_VERSION_HEADER = "X-Msgboard-Min-Version";
+
+    private final ReplicationFollower follower;
+    private final String leaderUri;
+    private final long maxWaitMillis;
+
+    @Autowired
+    public ReplicaRequestInterceptor(ReplicationFollower follower,
+                                     @Value("${msgboard.replication.leader}") String leaderUri,
+                                     @Value("${msgboard.replication.max-wait-ms:500}") long maxWaitMillis) {
+        this.follower = follower;
+        this.leaderUri = leaderUri.replaceAll("/+$", "");
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException, InterruptedException {
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        String method = request.getMethod();
+        if (!HttpMethod.GET.matches(method) && !HttpMethod.HEAD.matches(method)) {
+            return redirectToLeader(request, response);
+        }
+
+        long minVersion = 0;
+        String token = request.getHeader(MIN_VERSION_HEADER);
+        if (token != null) {
+            try {
+                minVersion = Long.parseLong(token.trim());
+            } catch (NumberFormatException e) {
+                response.sendError(HttpStatus.BAD_REQUEST.value(), "Malformed " + MIN_VERSION_HEADER + ": " + token);
+                return false;
+            }
+        }
+        if (!follower.awaitPosition(minVersion, token == null ? 0 : maxWaitMillis)) {
+            return redirectToLeader(request, response);
+        }
+        response.setHeader(ReplicationLeader.VERSION_HEADER, Long.toString(follower.appliedPosition()));
+        return true;
+    }
+
+    private boolean redirectToLeader(HttpServletRequest request, HttpServletResponse response) {
+        String query = request.getQueryString();
+        response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+        response.setHeader(HttpHeaders.LOCATION,
+                leaderUri + request.getRequestURI() + (query == null ? "" : "?" + query));
+        return false;
+    }
+}
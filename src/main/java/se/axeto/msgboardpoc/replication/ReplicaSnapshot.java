@@ -0,0 +1,48 @@
+package se.axeto.msgboardpoc.replication;
+
+import se.axeto.msgboardpoc.model.Message;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All messages of the leader at a position of its replication log, the
+ * starting point of a follower.
+ */
+public class ReplicaSnapshot {
+
+    private final String epoch;
+    private final long position;
+    private final List<Message> messages;
+
+    /**
+     * @param epoch the log the position is in.
+     * @param position the messages include every write up to the position and none after it.
+     */
+    public ReplicaSnapshot(String epoch, long position, List<Message> messages) {
+        this.epoch = epoch;
+        this.position = position;
+        this.messages = Collections.unmodifiableList(messages);
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaSnapshot{" +
+                "epoch='" + epoch + '\'' +
+                ", position=" + position +
+                ", messages=" + messages.size() +
+                '}';
+    }
+}
@@ -0,0 +1,31 @@
+package se.axeto.msgboardpoc.replication;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import se.axeto.msgboardpoc.admission.SharedSecretInterceptor;
+
+/**
+ * Keeps the replication API of a leader to the followers that have
+ * <code>msgboard.replication.secret</code>, the snapshot and the log hold
+ * every message of the board.
+ */
+@Configuration
+@ConditionalOnProperty(name = "msgboard.replication.role", havingValue = "leader")
+public class ReplicationApiConfiguration implements WebMvcConfigurer {
+
+    private final SharedSecretInterceptor replicationSecret;
+
+    @Autowired
+    public ReplicationApiConfiguration(@Value("${msgboard.replication.secret:}") String secret) {
+        this.replicationSecret = new SharedSecretInterceptor("msgboard.replication.secret", secret);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(replicationSecret).addPathPatterns(ReplicationController.PATH + "/**");
+    }
+}
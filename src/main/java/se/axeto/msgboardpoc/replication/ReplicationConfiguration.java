@@ -0,0 +1,28 @@
+package se.axeto.msgboardpoc.replication;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Puts the <code>ReplicaRequestInterceptor</code> in front of the message API
+ * of a follower.
+ */
+@Configuration
+@ConditionalOnProperty(name = "msgboard.replication.role", havingValue = "follower")
+public class ReplicationConfiguration implements WebMvcConfigurer {
+
+    private final ReplicaRequestInterceptor replicaRequests;
+
+    @Autowired
+    public ReplicationConfiguration(ReplicaRequestInterceptor replicaRequests) {
+        this.replicaRequests = replicaRequests;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(replicaRequests).addPathPatterns("/api/v1/message/**");
+    }
+}
@@ -0,0 +1,63 @@
+package se.axeto.msgboardpoc.replication;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+/**
+ * The replication API of the leader, read by the
+ * <code>RemoteReplicationSource</code> of the followers.
+ *
+ * <p>
+ * A read of the log is a long poll, it waits up to <code>wait-ms</code> for
+ * a write and returns as soon as there is one, together with the writes that
+ * were made meanwhile. The API is meant for the followers only, it is not
+ * rate limited and a request without the secret of the leader is rejected,
+ * see <code>ReplicationApiConfiguration</code>.
+ * </p>
+ */
+@RequestMapping(ReplicationController.PATH)
+@RestController
+@ConditionalOnProperty(name = "msgboard.replication.role", havingValue = "leader")
+public class ReplicationController {
+
+    static final String PATH = "/internal/v1/replication";
+
+    static final int MAX_LIMIT = 10_000;
+    static final long MAX_WAIT_MILLIS = 60_000;
+
+    private final ReplicationLog log;
+
+    @Autowired
+    public ReplicationController(ReplicationLeader leader) {
+        this.log = leader.getLog();
+    }
+
+    @GetMapping(path = "snapshot")
+    public ReplicaSnapshot snapshot() {
+        return log.snapshot();
+    }
+
+    @GetMapping(path = "log")
+    public List<Mutation> read(@RequestParam("epoch") String epoch, @RequestParam("after") long after,
+                               @RequestParam(value = "limit", defaultValue = "1000") int limit,
+                               @RequestParam(value = "wait-ms", defaultValue = "0") long waitMillis)
+            throws InterruptedException {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "The limit must be between 1 and " + MAX_LIMIT + ".");
+        }
+        if (waitMillis < 0 || waitMillis > MAX_WAIT_MILLIS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "The wait must be between 0 and " + MAX_WAIT_MILLIS + " ms.");
+        }
+        return log.read(epoch, after, limit, waitMillis);
+    }
+}
@@ -0,0 +1,240 @@
+package se.axeto.msgboardpoc.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import se.axeto.msgboardpoc.admission.SharedSecretInterceptor;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the store of this node a replica of the leader's, enabled by setting
+ * <code>msgboard.replication.role=follower</code>.
+ *
+ * <p>
+ * A background thread starts from a snapshot of the leader and then polls its
+ * replication log, each read of the log waits for the next writes and the
+ * writes are applied to the store as one batch, in log order. A follower that
+ * falls behind what the log keeps, or whose leader restarts, starts over from
+ * a new snapshot, the store is then brought in line with it by deleting,
+ * updating and creating only the messages that differ.
+ * </p>
+ *
+ * <p>
+ * The writes are applied through the MessageService, so the store's
+ * listeners see them just like on the leader. The position of the last write
+ * applied is what the version token of a client is checked against, see
+ * <code>ReplicaRequestInterceptor</code>.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "msgboard.replication.role", havingValue = "follower")
+public class ReplicationFollower {
+    final Logger logger = LoggerFactory.getLogger(ReplicationFollower.class);
+
+    private static final long RETRY_MILLIS = 1000;
+
+    private final MessageService store;
+    private final ReplicationSource leader;
+    private final int batchSize;
+    private final long pollWaitMillis;
+    private final Thread puller;
+    private volatile boolean running = true;
+
+    // Guarded by applied, the epoch is null until the first snapshot has been applied
+    private final Object applied = new Object();
+    private volatile String epoch;
+    private volatile long appliedPosition;
+
+    @Autowired
+    public ReplicationFollower(MessageService store, ObjectMapper objectMapper,
+                               @Value("${msgboard.replication.leader}") String leaderUri,
+                               @Value("${msgboard.replication.batch-size:1000}") int batchSize,
+                               @Value("${msgboard.replication.poll-wait-ms:30000}") long pollWaitMillis,
+                               @Value("${msgboard.replication.timeout-ms:2000}") long timeoutMillis,
+                               @Value("${msgboard.replication.secret:}") String secret) {
+        this(store, new RemoteReplicationSource(URI.create(leaderUri), objectMapper, Duration.ofMillis(timeoutMillis),
+                        SharedSecretInterceptor.requireSecret("msgboard.replication.secret", secret)),
+                batchSize, pollWaitMillis);
+        logger.info("Following the leader at {}", leaderUri);
+    }
+
+    /**
+     * @param store the store to keep in line with the leader's.
+     * @param leader where to read the writes of the leader from.
+     * @param batchSize the maximum number of writes to read and apply at a time.
+     * @param pollWaitMillis how long a read of the log waits for a write.
+     */
+    public ReplicationFollower(MessageService store, ReplicationSource leader, int batchSize, long pollWaitMillis) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.store = store;
+        this.leader = leader;
+        this.batchSize = batchSize;
+        this.pollWaitMillis = pollWaitMillis;
+        this.puller = new Thread(this::pull, "replication-follower");
+        this.puller.setDaemon(true);
+        this.puller.start();
+    }
+
+    /**
+     * @return <code>true</code> once the store has been brought in line with a snapshot of the leader.
+     */
+    public boolean isInSync() {
+        return epoch != null;
+    }
+
+    /**
+     * @return The position of the leader's log that the store is at.
+     */
+    public long appliedPosition() {
+        return appliedPosition;
+    }
+
+    /**
+     * Wait for the store to catch up with a position of the leader's log.
+     *
+     * @param position the version token of a write.
+     * @param timeoutMillis how long to wait.
+     * @return <code>true</code> if the store has the writes up to the position.
+     */
+    public boolean awaitPosition(long position, long timeoutMillis) throws InterruptedException {
+        if (isInSync() && appliedPosition >= position) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (applied) {
+            while (!isInSync() || appliedPosition < position) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(applied, remaining);
+            }
+            return true;
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        puller.interrupt();
+        puller.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void pull() {
+        while (running) {
+            try {
+                String current = epoch;
+                if (current == null) {
+                    resync();
+                    continue;
+                }
+                List<Mutation> mutations = leader.read(current, appliedPosition, batchSize, pollWaitMillis);
+                if (!mutations.isEmpty()) {
+                    apply(mutations);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (LogTruncatedException e) {
+                logger.info("Starting over from a snapshot: {}", e.getMessage());
+                setApplied(null, appliedPosition);
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                logger.warn("Could not replicate from the leader, trying again in {} ms: {}", RETRY_MILLIS,
+                        e.toString());
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void apply(List<Mutation> mutations) {
+        List<BatchOperation> operations = new ArrayList<>(mutations.size());
+        for (Mutation mutation : mutations) {
+            operations.add(mutation.toOperation());
+        }
+        for (BatchResult result : store.applyBatch(operations)) {
+            if (result.getStatus() != 200) {
+                // The store is not what the leader's was at the position
+                logger.warn("Could not apply {}: {}, starting over from a snapshot",
+                        mutations.get(result.getIndex()), result.getError());
+                setApplied(null, appliedPosition);
+                return;
+            }
+        }
+        setApplied(epoch, mutations.get(mutations.size() - 1).getPosition());
+    }
+
+    private void resync() throws InterruptedException {
+        long start = System.nanoTime();
+        ReplicaSnapshot snapshot = leader.snapshot();
+
+        Map<String, Map<String, String>> leaderData = new HashMap<>();
+        for (Message message : snapshot.getMessages()) {
+            leaderData.computeIfAbsent(message.getUserId(), u -> new HashMap<>())
+                    .put(message.getMessageId(), message.getMessage());
+        }
+        List<BatchOperation> operations = new ArrayList<>();
+        for (Message message : store.getAllMessages()) {
+            Map<String, String> texts = leaderData.get(message.getUserId());
+            String text = texts == null ? null : texts.remove(message.getMessageId());
+            if (text == null) {
+                operations.add(new BatchOperation(BatchOperation.Type.DELETE, message.getUserId(),
+                        message.getMessageId(), null));
+            } else if (!text.equals(message.getMessage())) {
+                operations.add(new BatchOperation(BatchOperation.Type.UPDATE, message.getUserId(),
+                        message.getMessageId(), text));
+            }
+        }
+        // What is left is missing from the store
+        for (Map.Entry<String, Map<String, String>> user : leaderData.entrySet()) {
+            for (Map.Entry<String, String> text : user.getValue().entrySet()) {
+                operations.add(new BatchOperation(BatchOperation.Type.CREATE, user.getKey(), text.getKey(),
+                        text.getValue()));
+            }
+        }
+
+        for (BatchResult result : store.applyBatch(operations)) {
+            if (result.getStatus() != 200) {
+                throw new IllegalStateException("Could not apply the snapshot, " + operations.get(result.getIndex()) +
+                        ": " + result.getError());
+            }
+        }
+        setApplied(snapshot.getEpoch(), snapshot.getPosition());
+        logger.info("Applied a snapshot of {} messages at position {} of epoch {} with {} writes in {} ms",
+                snapshot.getMessages().size(), snapshot.getPosition(), snapshot.getEpoch(), operations.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void setApplied(String epoch, long position) {
+        synchronized (applied) {
+            this.epoch = epoch;
+            this.appliedPosition = position;
+            applied.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package se.axeto.msgboardpoc.replication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import se.axeto.msgboardpoc.service.ListenableMessageStore;
+import se.axeto.msgboardpoc.service.MessageService;
+
+/**
+ * Makes this node the leader of its followers, enabled by setting
+ * <code>msgboard.replication.role=leader</code>.
+ *
+ * <p>
+ * Attaches a <code>ReplicationLog</code> to the MessageService bean, the
+ * storage engine itself before any other post processor wraps it. Its
+ * recorder is registered after the listeners of the application context, a
+ * write that one of them aborts, e.g. when it can't be appended to the
+ * write-ahead log, is never sent to the followers. The followers read the log
+ * through <code>ReplicationController</code>.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "msgboard.replication.role", havingValue = "leader")
+public class ReplicationLeader implements BeanPostProcessor, Ordered {
+    final Logger logger = LoggerFactory.getLogger(ReplicationLeader.class);
+
+    /**
+     * The position of the log after a write, sent with the response to the write.
+     */
+    public static final String VERSION_HEADER = "X-Msgboard-Version";
+
+    /**
+     * Runs first of the post processors, the log is attached to the storage
+     * engine itself.
+     */
+    public static final int ORDER = Ordered.HIGHEST_PRECEDENCE;
+
+    private final ReplicationLog log;
+
+    /**
+     * @param logSize the number of writes to keep for the followers.
+     */
+    public ReplicationLeader(@Value("${msgboard.replication.log-size:100000}") int logSize) {
+        this.log = new ReplicationLog(logSize);
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof MessageService) {
+            if (!(bean instanceof ListenableMessageStore)) {
+                throw new IllegalStateException("Replication needs a store that calls listeners, set " +
+                        "msgboard.store to concurrent, persistent or offheap");
+            }
+            log.attach((MessageService & ListenableMessageStore) bean);
+            logger.info("Leader of replication epoch {}", log.getEpoch());
+        }
+        return bean;
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    public ReplicationLog getLog() {
+        return log;
+    }
+}
@@ -0,0 +1,228 @@
+package se.axeto.msgboardpoc.replication;
+
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.service.ListenableMessageStore;
+import se.axeto.msgboardpoc.service.MessageService;
+import se.axeto.msgboardpoc.service.MessageStoreListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ordered log of the creates, updates and deletes of the leader, read by
+ * the followers.
+ *
+ * <p>
+ * Every write of the store is numbered by its position in the log, the
+ * position after a write is the version token a client can read its own
+ * writes with. The last <code>capacity</code> writes are kept in a ring in
+ * memory, a follower that falls further behind, or that starts, gets a
+ * snapshot instead.
+ * </p>
+ *
+ * <p>
+ * Writes are recorded by a store listener, under the write lock of the user
+ * and the monitor of the log, so the log is in the order the writes of each
+ * user are applied. Positions start over when the leader is restarted, the
+ * epoch tells the logs of different runs apart.
+ * </p>
+ *
+ * <p>
+ * A snapshot copies <code>getAllMessages</code> without holding the write
+ * locks of the store. The positions of the log before and after the copy are
+ * read while a listener is registered, when no write is in progress, so the
+ * copy has every write up to the first and none after the second. The
+ * writes in between are then taken from the log and applied to the copy,
+ * which makes it the store at the second position. Only if the log no
+ * longer keeps them is the copy made under the write locks.
+ * </p>
+ */
+public class ReplicationLog implements ReplicationSource {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Mutation[] entries;
+    // Guarded by this
+    private long position;
+    private volatile MessageService store;
+    private volatile ListenableMessageStore listenable;
+
+    /**
+     * @param capacity the number of writes to keep.
+     */
+    public ReplicationLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.entries = new Mutation[capacity];
+    }
+
+    /**
+     * Start recording the writes of a store.
+     *
+     * @param store the store of the leader.
+     */
+    public <S extends MessageService & ListenableMessageStore> void attach(S store) {
+        if (this.store != null) {
+            throw new IllegalStateException("The log is attached to a store already");
+        }
+        this.store = store;
+        this.listenable = store;
+        store.addListener(new Recorder());
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return The position of the last write, 0 before the first one.
+     */
+    public synchronized long position() {
+        return position;
+    }
+
+    @Override
+    public ReplicaSnapshot snapshot() {
+        MessageService attached = store;
+        if (attached == null) {
+            throw new IllegalStateException("The log is not attached to a store");
+        }
+        long from = registeredPosition();
+        Map<List<String>, Message> messages = new LinkedHashMap<>();
+        for (Message message : attached.getAllMessages()) {
+            messages.put(Arrays.asList(message.getUserId(), message.getMessageId()), message);
+        }
+        long to = registeredPosition();
+
+        synchronized (this) {
+            if (from >= position - entries.length) {
+                for (long p = from + 1; p <= to; p++) {
+                    Mutation mutation = entries[(int) (p % entries.length)];
+                    List<String> key = Arrays.asList(mutation.getUserId(), mutation.getMessageId());
+                    if (mutation.getOp() == BatchOperation.Type.DELETE) {
+                        messages.remove(key);
+                    } else {
+                        messages.put(key, new MessageImpl(mutation.getUserId(), mutation.getMessageId(),
+                                mutation.getMessage()));
+                    }
+                }
+                return new ReplicaSnapshot(epoch, to, new ArrayList<>(messages.values()));
+            }
+        }
+        // Too many writes while copying
+        SnapshotReader reader = new SnapshotReader();
+        listenable.addListener(reader);
+        listenable.removeListener(reader);
+        return new ReplicaSnapshot(epoch, reader.position, reader.messages);
+    }
+
+    /**
+     * @return The position of the log while no write is in progress, every
+     * write up to it is visible and no later one is.
+     */
+    private long registeredPosition() {
+        PositionReader reader = new PositionReader();
+        listenable.addListener(reader);
+        listenable.removeListener(reader);
+        return reader.position;
+    }
+
+    @Override
+    public synchronized List<Mutation> read(String epoch, long after, int limit, long waitMillis)
+            throws InterruptedException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        if (!this.epoch.equals(epoch)) {
+            throw new LogTruncatedException("The log of epoch " + epoch + " is gone, the leader is at epoch " +
+                    this.epoch);
+        }
+        checkKept(after);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        while (position == after) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return Collections.emptyList();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        // The writes made while waiting may have pushed it out
+        checkKept(after);
+
+        int count = (int) Math.min(limit, position - after);
+        List<Mutation> mutations = new ArrayList<>(count);
+        for (long p = after + 1; p <= after + count; p++) {
+            mutations.add(entries[(int) (p % entries.length)]);
+        }
+        return mutations;
+    }
+
+    // The monitor must be held by the caller
+    private void checkKept(long after) {
+        if (after > position) {
+            throw new LogTruncatedException("Position " + after + " is ahead of the log at " + position);
+        }
+        if (after < position - entries.length) {
+            throw new LogTruncatedException("The writes after position " + after + " are no longer kept, the " +
+                    "log starts at " + (position - entries.length + 1));
+        }
+    }
+
+    private synchronized void append(BatchOperation.Type op, Message message, String text) {
+        position++;
+        entries[(int) (position % entries.length)] = new Mutation(position, op, message.getUserId(),
+                message.getMessageId(), text);
+        // Followers waiting for a write
+        notifyAll();
+    }
+
+    private class Recorder implements MessageStoreListener {
+
+        @Override
+        public void onCreate(Message message) {
+            append(BatchOperation.Type.CREATE, message, message.getMessage());
+        }
+
+        @Override
+        public void onUpdate(Message message) {
+            append(BatchOperation.Type.UPDATE, message, message.getMessage());
+        }
+
+        @Override
+        public void onDelete(Message message) {
+            append(BatchOperation.Type.DELETE, message, null);
+        }
+    }
+
+    private class PositionReader implements MessageStoreListener {
+        long position;
+
+        @Override
+        public void onRegister(Iterator<? extends Message> stored) {
+            position = position();
+        }
+    }
+
+    /**
+     * Copies the messages when registered, no write is in progress then.
+     */
+    private class SnapshotReader implements MessageStoreListener {
+        long position;
+        final List<Message> messages = new ArrayList<>();
+
+        @Override
+        public void onRegister(Iterator<? extends Message> stored) {
+            position = position();
+            stored.forEachRemaining(messages::add);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package se.axeto.msgboardpoc.replication;
+
+import java.util.List;
+
+/**
+ * Where a follower gets the writes of the leader from, the leader's
+ * <code>ReplicationLog</code> in the same JVM or over HTTP, see
+ * <code>RemoteReplicationSource</code>.
+ */
+public interface ReplicationSource {
+
+    /**
+     * @return All messages of the leader and the position of the log they are at.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    ReplicaSnapshot snapshot() throws InterruptedException;
+
+    /**
+     * Read the writes after a position, in log order. Waits for a write if
+     * there is none yet.
+     *
+     * @param epoch the epoch of the snapshot the follower started from.
+     * @param after the position of the last write the follower has applied.
+     * @param limit the maximum number of writes to return.
+     * @param waitMillis how long to wait for a write.
+     * @return The writes, empty if there was none within <code>waitMillis</code>.
+     * @throws LogTruncatedException if the log no longer has the writes after the position.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    List<Mutation> read(String epoch, long after, int limit, long waitMillis) throws InterruptedException;
+}
@@ -0,0 +1,307 @@
+package se.axeto.msgboardpoc.search;
+
+import org.springframework.stereotype.Component;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.service.MessageStoreListener;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory inverted index of the message texts, kept up to date by the
+ * writes to the store.
+ *
+ * <p>
+ * Every version of a message is a document with an int id, handed out in
+ * increasing order. Each term maps to a <code>PostingList</code> of the
+ * documents that contain it. An update indexes the new text as a new
+ * document and marks the old one as deleted, deleted documents are skipped
+ * by searches and their postings are dropped when a list grows. Once more
+ * than half of the documents are deleted the live ones are renumbered and
+ * every list is compacted.
+ * </p>
+ *
+ * <p>
+ * A search finds the messages that contain every term of the query by
+ * intersecting the posting lists, starting with the shortest one, and keeps
+ * the top results ranked by BM25.
+ * </p>
+ *
+ * <p>
+ * Thread safe, writes are serialized by a read write lock and searches run in
+ * parallel. Texts are tokenized before the lock is taken.
+ * </p>
+ *
+ * @see Tokenizer
+ */
+@Component
+public class MessageSearchIndex implements MessageStoreListener {
+
+    // BM25 term frequency saturation and length normalization
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Renumbering is O(postings), not worth it for a few deleted documents
+    private static final int MIN_DELETED_TO_COMPACT = 1 << 16;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock
+    private final Map<String, PostingList> postings = new HashMap<>();
+    // userId -> [messageId -> document]
+    private final Map<String, Map<String, Integer>> documents = new HashMap<>();
+    private String[] userIds = new String[INITIAL_CAPACITY];
+    private String[] messageIds = new String[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private long[] live = new long[INITIAL_CAPACITY / Long.SIZE];
+    private int documentCount;
+    private int liveCount;
+    private long liveLength;
+
+    @Override
+    public void onRegister(Iterator<? extends Message> messages) {
+        while (messages.hasNext()) {
+            index(messages.next());
+        }
+    }
+
+    @Override
+    public void onCreate(Message message) {
+        index(message);
+    }
+
+    @Override
+    public void onUpdate(Message message) {
+        index(message);
+    }
+
+    @Override
+    public void onDelete(Message message) {
+        lock.writeLock().lock();
+        try {
+            remove(message.getUserId(), message.getMessageId());
+            compactIfMostlyDeleted();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the messages that contain all the terms of a query.
+     *
+     * @param query the text to search for.
+     * @param limit the maximum number of hits.
+     * @return The best hits, the most relevant first. Empty if the query has no terms.
+     */
+    public List<SearchHit> search(String query, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        Set<String> terms = Tokenizer.tokenize(query).frequencies.keySet();
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            PostingList[] lists = new PostingList[terms.size()];
+            int n = 0;
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list == null) {
+                    return Collections.emptyList();
+                }
+                lists[n++] = list;
+            }
+            // The shortest list drives the intersection
+            Arrays.sort(lists, Comparator.comparingInt(PostingList::size));
+            return intersect(lists, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of indexed messages.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void index(Message message) {
+        Tokenizer.Terms terms = Tokenizer.tokenize(message.getMessage());
+
+        lock.writeLock().lock();
+        try {
+            remove(message.getUserId(), message.getMessageId());
+            int document = addDocument(message.getUserId(), message.getMessageId(), terms.length);
+            for (Map.Entry<String, Integer> term : terms.frequencies.entrySet()) {
+                postings.computeIfAbsent(term.getKey(), t -> new PostingList())
+                        .add(document, term.getValue(), this::isLive);
+            }
+            compactIfMostlyDeleted();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called with the read lock held
+    private List<SearchHit> intersect(PostingList[] lists, int limit) {
+        double averageLength = liveCount == 0 ? 1 : (double) liveLength / liveCount;
+        double[] idf = new double[lists.length];
+        for (int t = 0; t < lists.length; t++) {
+            // The deleted documents still in a list make a term look a bit more common than it is
+            int df = lists[t].size();
+            idf[t] = Math.log(1 + Math.max(0, liveCount - df + 0.5) / (df + 0.5));
+        }
+
+        // A min heap of the best documents so far, the newer document wins a tie
+        PriorityQueue<ScoredDocument> best = new PriorityQueue<>(limit + 1,
+                Comparator.comparingDouble((ScoredDocument scored) -> scored.score)
+                        .thenComparingInt(scored -> scored.document));
+        int[] positions = new int[lists.length];
+        PostingList first = lists[0];
+
+        candidates:
+        for (int i = 0; i < first.size(); i++) {
+            int document = first.document(i);
+            for (int t = 1; t < lists.length; t++) {
+                positions[t] = lists[t].advance(positions[t], document);
+                if (positions[t] == lists[t].size()) {
+                    break candidates;
+                }
+                int next = lists[t].document(positions[t]);
+                if (next != document) {
+                    // Skip ahead in the first list too
+                    i = first.advance(i, next) - 1;
+                    continue candidates;
+                }
+            }
+            if (!isLive(document)) {
+                continue;
+            }
+
+            double lengthNorm = K1 * (1 - B + B * lengths[document] / averageLength);
+            double score = 0;
+            for (int t = 0; t < lists.length; t++) {
+                int frequency = lists[t].frequency(t == 0 ? i : positions[t]);
+                score += idf[t] * frequency * (K1 + 1) / (frequency + lengthNorm);
+            }
+            if (best.size() < limit) {
+                best.add(new ScoredDocument(document, score));
+            } else if (score >= best.peek().score) {
+                best.add(new ScoredDocument(document, score));
+                best.poll();
+            }
+        }
+
+        SearchHit[] hits = new SearchHit[best.size()];
+        for (int h = hits.length - 1; h >= 0; h--) {
+            ScoredDocument scored = best.poll();
+            hits[h] = new SearchHit(userIds[scored.document], messageIds[scored.document], scored.score);
+        }
+        return Arrays.asList(hits);
+    }
+
+    // Called with the write lock held
+    private int addDocument(String userId, String messageId, int length) {
+        if (documentCount == userIds.length) {
+            resize(userIds.length * 2);
+        }
+        int document = documentCount++;
+        userIds[document] = userId;
+        messageIds[document] = messageId;
+        lengths[document] = length;
+        live[document >>> 6] |= 1L << document;
+        liveCount++;
+        liveLength += length;
+        documents.computeIfAbsent(userId, u -> new HashMap<>()).put(messageId, document);
+        return document;
+    }
+
+    // Called with the write lock held
+    private void remove(String userId, String messageId) {
+        Map<String, Integer> userDocuments = documents.get(userId);
+        if (userDocuments == null) {
+            return;
+        }
+        Integer document = userDocuments.remove(messageId);
+        if (document == null) {
+            return;
+        }
+        if (userDocuments.isEmpty()) {
+            documents.remove(userId);
+        }
+        live[document >>> 6] &= ~(1L << document);
+        liveCount--;
+        liveLength -= lengths[document];
+    }
+
+    // Called with the write lock held
+    private void compactIfMostlyDeleted() {
+        int deleted = documentCount - liveCount;
+        if (deleted < MIN_DELETED_TO_COMPACT || deleted <= liveCount) {
+            return;
+        }
+
+        // The live documents keep their order, so the posting lists stay sorted
+        int[] newIds = new int[documentCount];
+        int next = 0;
+        for (int document = 0; document < documentCount; document++) {
+            if (isLive(document)) {
+                newIds[document] = next;
+                userIds[next] = userIds[document];
+                messageIds[next] = messageIds[document];
+                lengths[next] = lengths[document];
+                next++;
+            } else {
+                newIds[document] = -1;
+            }
+        }
+        Arrays.fill(userIds, next, documentCount, null);
+        Arrays.fill(messageIds, next, documentCount, null);
+        documentCount = next;
+        Arrays.fill(live, 0);
+        for (int document = 0; document < documentCount; document++) {
+            live[document >>> 6] |= 1L << document;
+        }
+
+        postings.values().removeIf(list -> {
+            list.renumber(document -> newIds[document]);
+            return list.size() == 0;
+        });
+        for (Map<String, Integer> userDocuments : documents.values()) {
+            userDocuments.replaceAll((messageId, document) -> newIds[document]);
+        }
+        if (userIds.length > 4 * Math.max(documentCount, INITIAL_CAPACITY)) {
+            resize(2 * Math.max(documentCount, INITIAL_CAPACITY));
+        }
+    }
+
+    private void resize(int capacity) {
+        userIds = Arrays.copyOf(userIds, capacity);
+        messageIds = Arrays.copyOf(messageIds, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        live = Arrays.copyOf(live, (capacity + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    private boolean isLive(int document) {
+        return (live[document >>> 6] & (1L << document)) != 0;
+    }
+
+    private static final class ScoredDocument {
+        final int document;
+        final double score;
+
+        ScoredDocument(int document, double score) {
+            this.document = document;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package se.axeto.msgboardpoc.search;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The documents that contain a term, in increasing document order, and the
+ * number of times the term occurs in each of them.
+ *
+ * <p>
+ * Held in primitive arrays, 5 bytes per posting. Documents are only ever
+ * appended, the ids of new documents are always larger than the existing
+ * ones. Postings of deleted documents are left in place and dropped when the
+ * list would otherwise have to grow.
+ * </p>
+ *
+ * <p>
+ * Not thread safe, guarded by the lock of the index.
+ * </p>
+ */
+final class PostingList {
+
+    private static final int INITIAL_CAPACITY = 2;
+
+    private int[] documents = new int[INITIAL_CAPACITY];
+    // Saturates at 255
+    private byte[] frequencies = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param document larger than every document in the list.
+     * @param live tells the documents that are still in the index.
+     */
+    void add(int document, int frequency, IntPredicate live) {
+        if (size == documents.length) {
+            removeIf(live.negate());
+            // Grow unless dropping the deleted documents freed a fair share of the list
+            if (size * 4 > documents.length * 3) {
+                documents = Arrays.copyOf(documents, documents.length * 2);
+                frequencies = Arrays.copyOf(frequencies, frequencies.length * 2);
+            }
+        }
+        documents[size] = document;
+        frequencies[size] = (byte) Math.min(frequency, 255);
+        size++;
+    }
+
+    /**
+     * Give the documents new ids, in the same order.
+     *
+     * @param newIds the new id of each document, negative for a document to drop.
+     */
+    void renumber(IntUnaryOperator newIds) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int document = newIds.applyAsInt(documents[i]);
+            if (document >= 0) {
+                documents[kept] = document;
+                frequencies[kept] = frequencies[i];
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int document(int index) {
+        return documents[index];
+    }
+
+    int frequency(int index) {
+        return frequencies[index] & 0xff;
+    }
+
+    /**
+     * Find the first document at or after a position that is not smaller than
+     * a target, by galloping and then a binary search.
+     *
+     * @return The position of the document, <code>size()</code> if there is none.
+     */
+    int advance(int from, int target) {
+        int bound = 1;
+        int low = from;
+        while (low + bound < size && documents[low + bound] < target) {
+            low += bound;
+            bound <<= 1;
+        }
+        int high = Math.min(low + bound, size);
+        int found = Arrays.binarySearch(documents, low, high, target);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    private void removeIf(IntPredicate dropped) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!dropped.test(documents[i])) {
+                documents[kept] = documents[i];
+                frequencies[kept] = frequencies[i];
+                kept++;
+            }
+        }
+        size = kept;
+    }
+}
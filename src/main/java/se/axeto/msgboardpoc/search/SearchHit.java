@@ -0,0 +1,38 @@
+package se.axeto.msgboardpoc.search;
+
+/**
+ * A message that matched a search, with its relevance.
+ */
+public class SearchHit {
+
+    private final String userId;
+    private final String messageId;
+    private final double score;
+
+    public SearchHit(String userId, String messageId, double score) {
+        this.userId = userId;
+        this.messageId = messageId;
+        this.score = score;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchHit{" +
+                "userId='" + userId + '\'' +
+                ", messageId='" + messageId + '\'' +
+                ", score=" + score +
+                '}';
+    }
+}
@@ -0,0 +1,56 @@
+package se.axeto.msgboardpoc.search;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits message texts and queries into terms.
+ *
+ * <p>
+ * A term is a run of letters and digits, lower cased. Anything else separates
+ * terms. Terms longer than <code>MAX_TERM_LENGTH</code> characters are
+ * skipped, they are rarely searched for and would bloat the index.
+ * </p>
+ */
+final class Tokenizer {
+
+    static final int MAX_TERM_LENGTH = 64;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * The terms of a text and how many times each one occurs.
+     */
+    static final class Terms {
+        final Map<String, Integer> frequencies;
+        // The number of terms, counting repeated ones
+        final int length;
+
+        Terms(Map<String, Integer> frequencies, int length) {
+            this.frequencies = frequencies;
+            this.length = length;
+        }
+    }
+
+    static Terms tokenize(String text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        int length = 0;
+        StringBuilder term = new StringBuilder();
+        int i = 0;
+        while (i <= text.length()) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                term.appendCodePoint(Character.toLowerCase(codePoint));
+            } else if (term.length() > 0) {
+                if (term.length() <= MAX_TERM_LENGTH) {
+                    frequencies.merge(term.toString(), 1, Integer::sum);
+                    length++;
+                }
+                term.setLength(0);
+            }
+            i += Character.charCount(codePoint);
+        }
+        return new Terms(frequencies, length);
+    }
+}
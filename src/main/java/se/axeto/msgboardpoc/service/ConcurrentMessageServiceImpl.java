@@ -0,0 +1,337 @@
+package se.axeto.msgboardpoc.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessagePage;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe in-memory implementation of the MessageService interface.
+ *
+ * <p>
+ * Writes are serialized per user by a fixed set of striped locks, a user
+ * always maps to the same stripe. Writes for users on different stripes
+ * run in parallel and reads never take a lock, see
+ * <code>StripedMessageStore</code>.
+ * </p>
+ *
+ * <p>
+ * The messages of a user, and all messages in creation order, are kept in
+ * <code>ImmutableTreeMap</code>s. A write makes new versions of the two maps
+ * that share everything but O(log n) nodes with the old ones and publishes
+ * them, the user map under the write lock of the user and the store wide map
+ * by a compare and set. A read picks up the current version and gets an
+ * immutable point-in-time snapshot without locking or copying, for example
+ * <code>getAllMessages</code> sees the store as it was between two writes.
+ * The ordered maps make a page of <code>getMessages</code> or of the message
+ * ids of a user cost O(log n + page size).
+ * </p>
+ *
+ * <p>
+ * Each write takes the next number of a store wide sequence as its version,
+ * which is stored with the written message and as the version of its user.
+ * The version of the whole store counts the writes that have been applied.
+ * Restored writes are numbered too, versions start over when the store is
+ * restarted.
+ * </p>
+ *
+ * @see MessageService
+ */
+
+@Service
+@ConditionalOnProperty(name = "msgboard.store", havingValue = "concurrent", matchIfMissing = true)
+public class ConcurrentMessageServiceImpl extends StripedMessageStore<ConcurrentMessageServiceImpl.UserMessages> {
+    final Logger logger = LoggerFactory.getLogger(ConcurrentMessageServiceImpl.class);
+
+    // Creation sequence -> message, updates keep the sequence of the created message
+    private final AtomicReference<CreationIndex> creationIndex = new AtomicReference<>(CreationIndex.EMPTY);
+    private final AtomicLong creationSequence = new AtomicLong();
+
+    // Kept up to date by the writes, summing the texts is O(n)
+    private final LongAdder messageBytes = new LongAdder();
+
+    public ConcurrentMessageServiceImpl() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripeCount the number of write locks, rounded up to a power of two.
+     */
+    public ConcurrentMessageServiceImpl(int stripeCount) {
+        super(stripeCount);
+        logger.debug("Created with {} stripes", stripeCount());
+    }
+
+    /**
+     * @return A snapshot of all messages in creation order, not affected by later writes.
+     */
+    @Override
+    public Collection<Message> getAllMessages() {
+        return Collections.unmodifiableCollection(creationIndex.get().messages.values());
+    }
+
+    @Override
+    public Iterator<Message> iterateAllMessages() {
+        return getAllMessages().iterator();
+    }
+
+    @Override
+    public MessagePage getMessages(String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+
+        // The cursor is the sequence of the last message of the previous page
+        Long after = null;
+        if (cursor != null) {
+            try {
+                after = Long.parseLong(cursor);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+            }
+        }
+
+        Iterator<Map.Entry<Long, StoredMessage>> tail = creationIndex.get().messages.iterator(after, false);
+        List<Message> messages = new ArrayList<>(Math.min(limit, 1024));
+        long lastSequence = -1;
+        boolean more = false;
+        while (tail.hasNext()) {
+            if (messages.size() == limit) {
+                more = true;
+                break;
+            }
+            StoredMessage message = tail.next().getValue();
+            messages.add(message);
+            lastSequence = message.sequence();
+        }
+        return new MessagePage(messages, more ? Long.toString(lastSequence) : null);
+    }
+
+    // The users are userid1 -> [messageID-1 -> message1], [messageID-2 -> message2], replaced on every write
+    @Override
+    UserMessages newUser(String userId) {
+        return UserMessages.EMPTY;
+    }
+
+    @Override
+    ImmutableTreeMap<String, StoredMessage> read(UserMessages user) {
+        return user.messages;
+    }
+
+    @Override
+    long versionOf(UserMessages user) {
+        return user.version;
+    }
+
+    @Override
+    void create(Message message) throws MessageExistException {
+        String userId = message.getUserId();
+        // The first message of a user "creates" the user
+        UserMessages msgIdToMessage = userOrCreate(userId);
+
+        if (msgIdToMessage.messages.containsKey(message.getMessageId())) {
+            // Can not create a new message for an existing message id
+            String msg = String.format("A message with id %s already " +
+                            "exist. Choose a unique message id and try again.",
+                    message.getMessageId());
+            throw new MessageExistException(userId, message.getMessageId(), msg);
+        }
+        StoredMessage created = new StoredMessage(message, creationSequence.incrementAndGet(), nextVersion());
+        for (MessageStoreListener listener : listeners) {
+            listener.onCreate(created);
+        }
+        users.put(userId, msgIdToMessage.with(created));
+        creationIndex.updateAndGet(index -> index.with(created));
+        messageBytes.add(created.approximateBytes());
+    }
+
+    @Override
+    void update(Message message) throws UserNotFoundException, MessageNotFoundException {
+        String userId = message.getUserId();
+        UserMessages msgIdToMessage = userOrThrow(userId, "Can not get message for non existing user: %s.");
+
+        StoredMessage existing = msgIdToMessage.messages.get(message.getMessageId());
+        if (Objects.isNull(existing)) {
+            // Can not update an non existing message
+            String msg = String.format("A message must exist to be updated. Message %s does not " +
+                    "exist.", message.getMessageId());
+            throw new MessageNotFoundException(userId, message.getMessageId(), msg);
+        }
+        StoredMessage updated = new StoredMessage(message, existing.sequence(), nextVersion());
+        for (MessageStoreListener listener : listeners) {
+            listener.onUpdate(updated);
+        }
+        users.put(userId, msgIdToMessage.with(updated));
+        creationIndex.updateAndGet(index -> index.with(updated));
+        messageBytes.add(updated.approximateBytes() - existing.approximateBytes());
+    }
+
+    @Override
+    Message delete(Message message) throws UserNotFoundException, MessageNotFoundException {
+        String userId = message.getUserId();
+        UserMessages msgIdToMessage = userOrThrow(userId, "Can not delete message for non existing user: %s.");
+
+        StoredMessage deletedMessage = msgIdToMessage.messages.get(message.getMessageId());
+        if (Objects.isNull(deletedMessage)) {
+            // Can not delete an non existing message
+            String msg = String.format("A message must exist to be deleted. Message %s does not " +
+                    "exist.", message.getMessageId());
+            throw new MessageNotFoundException(userId, message.getMessageId(), msg);
+        }
+        for (MessageStoreListener listener : listeners) {
+            listener.onDelete(deletedMessage);
+        }
+        users.put(userId, msgIdToMessage.without(deletedMessage, nextVersion()));
+        creationIndex.updateAndGet(index -> index.without(deletedMessage));
+        messageBytes.add(-deletedMessage.approximateBytes());
+        return deletedMessage;
+    }
+
+    @Override
+    public long getVersion() {
+        return creationIndex.get().appliedWrites;
+    }
+
+    @Override
+    public long messageCount() {
+        return creationIndex.get().messages.size();
+    }
+
+    @Override
+    public long approximateBytes() {
+        return messageBytes.sum();
+    }
+
+    /**
+     * Every user and a snapshot of its messages. The users are read one at a
+     * time, a write made while reading may or may not be included.
+     */
+    Map<String, ? extends Map<String, ? extends Message>> usersView() {
+        Map<String, ImmutableTreeMap<String, StoredMessage>> view = new HashMap<>();
+        for (Map.Entry<String, UserMessages> user : users.entrySet()) {
+            view.put(user.getKey(), user.getValue().messages);
+        }
+        return view;
+    }
+
+    /**
+     * Create a user, if it doesn't exist, without notifying any listeners.
+     * Used when restoring the store from persistent storage.
+     *
+     * @param userId the user to create.
+     */
+    void restoreUser(String userId) {
+        userOrCreate(userId);
+    }
+
+    /**
+     * Create or replace a message without notifying any listeners, used when
+     * restoring the store from persistent storage. The message keeps the
+     * deadline it was stored with.
+     *
+     * @param message the message to store.
+     */
+    void restore(Message message) {
+        String userId = message.getUserId();
+        ReentrantLock lock = stripeFor(userId);
+        lock.lock();
+        try {
+            UserMessages msgIdToMessage = userOrCreate(userId);
+            StoredMessage existing = msgIdToMessage.messages.get(message.getMessageId());
+            long sequence = Objects.isNull(existing) ? creationSequence.incrementAndGet() : existing.sequence();
+            StoredMessage restored = new StoredMessage(message, sequence, nextVersion(),
+                    message.getExpiresAtMillis());
+            users.put(userId, msgIdToMessage.with(restored));
+            creationIndex.updateAndGet(index -> index.with(restored));
+            if (Objects.nonNull(existing)) {
+                messageBytes.add(-existing.approximateBytes());
+            }
+            messageBytes.add(restored.approximateBytes());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a message, if it exists, without notifying any listeners. Used
+     * when restoring the store from persistent storage.
+     *
+     * @param userId the user of the message.
+     * @param messageId the id of the message to remove.
+     */
+    void restoreDelete(String userId, String messageId) {
+        ReentrantLock lock = stripeFor(userId);
+        lock.lock();
+        try {
+            // The user is kept even if this was its last message, just like deleteMessage does
+            UserMessages msgIdToMessage = userOrCreate(userId);
+            StoredMessage removed = msgIdToMessage.messages.get(messageId);
+            if (Objects.nonNull(removed)) {
+                users.put(userId, msgIdToMessage.without(removed, nextVersion()));
+                creationIndex.updateAndGet(index -> index.without(removed));
+                messageBytes.add(-removed.approximateBytes());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * An immutable version of the messages of a user, message id -> message,
+     * and the version of the last write that made it.
+     */
+    static final class UserMessages {
+        static final UserMessages EMPTY = new UserMessages(ImmutableTreeMap.empty(), 0);
+
+        final ImmutableTreeMap<String, StoredMessage> messages;
+        final long version;
+
+        private UserMessages(ImmutableTreeMap<String, StoredMessage> messages, long version) {
+            this.messages = messages;
+            this.version = version;
+        }
+
+        UserMessages with(StoredMessage message) {
+            return new UserMessages(messages.with(message.getMessageId(), message), message.version());
+        }
+
+        UserMessages without(StoredMessage message, long version) {
+            return new UserMessages(messages.without(message.getMessageId()), version);
+        }
+    }
+
+    /**
+     * An immutable version of all messages, creation sequence -> message, and
+     * the number of writes applied to make it, which is the version of the store.
+     */
+    private static final class CreationIndex {
+        static final CreationIndex EMPTY = new CreationIndex(ImmutableTreeMap.empty(), 0);
+
+        final ImmutableTreeMap<Long, StoredMessage> messages;
+        final long appliedWrites;
+
+        private CreationIndex(ImmutableTreeMap<Long, StoredMessage> messages, long appliedWrites) {
+            this.messages = messages;
+            this.appliedWrites = appliedWrites;
+        }
+
+        CreationIndex with(StoredMessage message) {
+            return new CreationIndex(messages.with(message.sequence(), message), appliedWrites + 1);
+        }
+
+        CreationIndex without(StoredMessage message) {
+            return new CreationIndex(messages.without(message.sequence()), appliedWrites + 1);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package se.axeto.msgboardpoc.service;
+
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A storage engine whose writes are made durable after they have been
+ * applied, which lets a caller apply writes and wait for them to reach the
+ * disk separately.
+ */
+public interface DurableMessageStore {
+
+    /**
+     * Apply the operations like <code>applyBatch</code>, without waiting for
+     * them to become durable.
+     *
+     * @param operations the writes to apply.
+     * @return The result of each operation, in the same order.
+     */
+    List<BatchResult> applyBatchDeferred(List<BatchOperation> operations);
+
+    /**
+     * @return A position that covers every write applied so far, to pass to <code>awaitDurable</code>.
+     */
+    long appendedPosition();
+
+    /**
+     * Wait until the writes up to a position are durable.
+     *
+     * @param position a position returned by <code>appendedPosition</code>.
+     */
+    void awaitDurable(long position) throws IOException;
+}
@@ -0,0 +1,298 @@
+package se.axeto.msgboardpoc.service;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable sorted map that is changed by making a new version of it.
+ *
+ * <p>
+ * A balanced (AVL) tree where <code>with</code> and <code>without</code> copy
+ * only the O(log n) nodes on the path to the changed key and share the rest
+ * with the previous version. Every version stays valid and unchanged, which
+ * makes a map a consistent snapshot that can be read by any number of threads
+ * without locking or copying.
+ * </p>
+ *
+ * <p>
+ * Keys are ordered by their natural ordering, null keys and values are not
+ * allowed. The methods inherited from <code>Map</code> that would change the
+ * map throw <code>UnsupportedOperationException</code>.
+ * </p>
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+final class ImmutableTreeMap<K extends Comparable<? super K>, V> extends AbstractMap<K, V> {
+
+    @SuppressWarnings("rawtypes")
+    private static final ImmutableTreeMap EMPTY = new ImmutableTreeMap<>(null);
+
+    private final Node<K, V> root;
+    private Set<Map.Entry<K, V>> entrySet;
+
+    private ImmutableTreeMap(Node<K, V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K extends Comparable<? super K>, V> ImmutableTreeMap<K, V> empty() {
+        return (ImmutableTreeMap<K, V>) EMPTY;
+    }
+
+    /**
+     * @return A map with the key mapped to the value, this map is left unchanged.
+     */
+    ImmutableTreeMap<K, V> with(K key, V value) {
+        Objects.requireNonNull(key, "Key must not be null");
+        Objects.requireNonNull(value, "Value must not be null");
+        return new ImmutableTreeMap<>(put(root, key, value));
+    }
+
+    /**
+     * @return A map without the key, this map if it has no such key.
+     */
+    ImmutableTreeMap<K, V> without(K key) {
+        Objects.requireNonNull(key, "Key must not be null");
+        Node<K, V> removed = remove(root, key);
+        return removed == root ? this : new ImmutableTreeMap<>(removed);
+    }
+
+    /**
+     * Iterate over the entries in key order, starting at a key.
+     *
+     * @param from the key to start at, null to start at the first key.
+     * @param inclusive if an entry with the key <code>from</code> is included.
+     * @return The entries with keys after, or equal to, <code>from</code>.
+     */
+    Iterator<Map.Entry<K, V>> iterator(K from, boolean inclusive) {
+        return new EntryIterator<>(root, from, inclusive);
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<K, V> node = find(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return ImmutableTreeMap.this.iterator(null, true);
+                }
+
+                @Override
+                public int size() {
+                    return ImmutableTreeMap.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<K, V> find(Object key) {
+        if (key == null) {
+            return null;
+        }
+        // A key of another type fails the compare, just like in a TreeMap
+        K k = (K) key;
+        Node<K, V> node = root;
+        while (node != null) {
+            int c = k.compareTo(node.key);
+            if (c == 0) {
+                return node;
+            }
+            node = c < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> put(Node<K, V> node, K key, V value) {
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        int c = key.compareTo(node.key);
+        if (c < 0) {
+            return balance(node.key, node.value, put(node.left, key, value), node.right);
+        }
+        if (c > 0) {
+            return balance(node.key, node.value, node.left, put(node.right, key, value));
+        }
+        return new Node<>(key, value, node.left, node.right);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> remove(Node<K, V> node, K key) {
+        if (node == null) {
+            return null;
+        }
+        int c = key.compareTo(node.key);
+        if (c < 0) {
+            Node<K, V> left = remove(node.left, key);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        if (c > 0) {
+            Node<K, V> right = remove(node.right, key);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        // Replace the node with the first node of its right subtree
+        Node<K, V> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.key, successor.value, node.left, removeFirst(node.right));
+    }
+
+    private static <K, V> Node<K, V> removeFirst(Node<K, V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.key, node.value, removeFirst(node.left), node.right);
+    }
+
+    // A node with the subtrees, rotated if their heights differ by more than one
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+            }
+            Node<K, V> middle = left.right;
+            return new Node<>(middle.key, middle.value,
+                    new Node<>(left.key, left.value, left.left, middle.left),
+                    new Node<>(key, value, middle.right, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+            }
+            Node<K, V> middle = right.left;
+            return new Node<>(middle.key, middle.value,
+                    new Node<>(key, value, left, middle.left),
+                    new Node<>(right.key, right.value, middle.right, right.right));
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<K, V> implements Map.Entry<K, V> {
+        final K key;
+        final V value;
+        final Node<K, V> left;
+        final Node<K, V> right;
+        final int height;
+        final int size;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException("The map is immutable");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return key.equals(entry.getKey()) && value.equals(entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    // In order traversal with an explicit stack of the nodes left to visit
+    private static final class EntryIterator<K extends Comparable<? super K>, V> implements Iterator<Map.Entry<K, V>> {
+        private final Deque<Node<K, V>> stack = new ArrayDeque<>();
+
+        EntryIterator(Node<K, V> root, K from, boolean inclusive) {
+            Node<K, V> node = root;
+            while (node != null) {
+                int c = from == null ? 1 : node.key.compareTo(from);
+                if (c > 0 || (c == 0 && inclusive)) {
+                    stack.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> next = stack.pop();
+            for (Node<K, V> node = next.right; node != null; node = node.left) {
+                stack.push(node);
+            }
+            return next;
+        }
+    }
+}
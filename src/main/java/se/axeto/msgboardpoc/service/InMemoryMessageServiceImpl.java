@@ -1,8 +1,7 @@
 package se.axeto.msgboardpoc.service;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import se.axeto.msgboardpoc.exceptions.MessageExistException;
 import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
@@ -15,15 +14,19 @@ import java.util.*;
 /**
  * An in-memory implementation of the MessageService interface.
  *
+ * Note: this implementation is not thread safe, use
+ * <code>ConcurrentMessageServiceImpl</code> when serving concurrent requests.
+ *
+ * Calls are traced by <code>MeteredMessageService</code>, see
+ * <code>OperationTracer</code>.
+ *
  * @see MessageService
+ * @see ConcurrentMessageServiceImpl
  */
 
 @Service
+@ConditionalOnProperty(name = "msgboard.store", havingValue = "inmemory")
 public class InMemoryMessageServiceImpl implements MessageService {
-    final Logger logger = LoggerFactory.getLogger(InMemoryMessageServiceImpl.class);
-    final private static String ENTER = "Enter";
-    final private static String EXIT = "Exit";
-
     // Map to store users and their messages.
     // MAP <String, Map<String,Message>>
     // userid1 -> [messageID-1 -> message1], [messageID-2 -> message2]
@@ -32,30 +35,21 @@ public class InMemoryMessageServiceImpl implements MessageService {
 
     @Autowired
     public InMemoryMessageServiceImpl(Map<String, Map<String, Message>> userIdToMessageMap) {
-        logger.debug(ENTER, "Constructor", userIdToMessageMap);
         this.userIdToMessageMap = userIdToMessageMap;
-        logger.debug(EXIT, userIdToMessageMap);
     }
 
     @Override
     public Collection<Message> getAllMessages() {
-        final String METHOD_NAME = "getAllMessages";
-        logger.debug(ENTER, METHOD_NAME);
-
         Collection<Message> allMessages = new ArrayList<>();
         for (Map<String, Message> msgIdToMessage : userIdToMessageMap.values()) {
             allMessages.addAll(msgIdToMessage.values());
         }
 
-        logger.debug(EXIT, METHOD_NAME, allMessages);
         return allMessages;
     }
 
     @Override
     public void createMessage(Message message) throws MessageExistException {
-        final String METHOD_NAME = "createMessage";
-        logger.debug(ENTER, METHOD_NAME, message);
-
         Objects.requireNonNull(message, "Message must not be null");
 
         // Get all messages for the current user
@@ -89,15 +83,10 @@ public class InMemoryMessageServiceImpl implements MessageService {
                 msgIdToMsgText.put(message.getMessageId(), message);
             }
         }
-
-        logger.debug(EXIT, METHOD_NAME);
     }
 
     @Override
     public void updateMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
-        final String METHOD_NAME = "updateMessage";
-        logger.debug(ENTER, METHOD_NAME, message);
-
         Objects.requireNonNull(message, "Message must not be null");
 
         // Check if user exists
@@ -128,15 +117,10 @@ public class InMemoryMessageServiceImpl implements MessageService {
                     "exist.", message.getMessageId());
             throw new MessageNotFoundException(message.getUserId(), message.getUserId(), msg);
         }
-
-        logger.debug(EXIT, METHOD_NAME);
     }
 
     @Override
     public Message deleteMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
-        final String METHOD_NAME = "deleteMessage";
-        logger.debug(ENTER, METHOD_NAME, message);
-
         Objects.requireNonNull(message, "Message must not be null");
 
         // Check if user exist
@@ -166,36 +150,28 @@ public class InMemoryMessageServiceImpl implements MessageService {
             throw new MessageNotFoundException(message.getUserId(), message.getUserId(), msg);
         }
 
-        logger.debug(EXIT, METHOD_NAME, deletedMessage);
         return deletedMessage;
     }
 
     @Override
     public Map<String, Message> getUserMessages(String userId) throws UserNotFoundException {
-        final String METHOD_NAME = "getUserMessages";
-        logger.debug(ENTER, METHOD_NAME, userId);
-
         Objects.requireNonNull(userId, "User must not be null");
 
         if (!userIdToMessageMap.containsKey(userId)) {
             throw new UserNotFoundException(userId, "The user does not exist.");
         }
 
-        //TODO clone the map before returning it
         Map<String, Message> userMessages = userIdToMessageMap.get(userId);
         if (Objects.isNull(userMessages)) {
-            userMessages = new HashMap<>();
+            return Collections.emptyMap();
         }
 
-        logger.debug(EXIT, METHOD_NAME, userMessages);
-        return userMessages;
+        // A copy, the map of the store is changed by the writes
+        return Collections.unmodifiableMap(new HashMap<>(userMessages));
     }
 
     @Override
     public Message getMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
-        final String METHOD_NAME = "getUserMessages";
-        logger.debug(ENTER, METHOD_NAME, message);
-
         Objects.requireNonNull(message, "Message must not be null");
 
         String userId = message.getUserId();
@@ -220,25 +196,37 @@ public class InMemoryMessageServiceImpl implements MessageService {
             theStoredMessage = new MessageImpl(userId, messageId, "");
         }
 
-        logger.debug(EXIT, METHOD_NAME, theStoredMessage);
-
         // Our message object is immutable so we can safely return it.
         return theStoredMessage;
     }
 
     @Override
     public Collection<String> getAllUsers() {
-        throw new UnsupportedOperationException();
+        return new ArrayList<>(new TreeSet<>(userIdToMessageMap.keySet()));
     }
 
     @Override
     public Map<String, Map<String, String>> getData() {
-        throw new UnsupportedOperationException();
+        Map<String, Map<String, String>> data = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Message>> user : userIdToMessageMap.entrySet()) {
+            Map<String, String> texts = new TreeMap<>();
+            for (Map.Entry<String, Message> message : user.getValue().entrySet()) {
+                texts.put(message.getKey(), message.getValue().getMessage());
+            }
+            data.put(user.getKey(), texts);
+        }
+        return data;
     }
 
     @Override
-    public Collection<String> getUserMessageIds(String userId) {
-        throw new UnsupportedOperationException();
+    public Collection<String> getUserMessageIds(String userId) throws UserNotFoundException {
+        Objects.requireNonNull(userId, "User must not be null");
+
+        Map<String, Message> userMessages = userIdToMessageMap.get(userId);
+        if (Objects.isNull(userMessages)) {
+            throw new UserNotFoundException(userId, "The user does not exist.");
+        }
+        return new ArrayList<>(new TreeSet<>(userMessages.keySet()));
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package se.axeto.msgboardpoc.service;
+
+/**
+ * A storage engine that calls listeners for its writes, see
+ * <code>MessageStoreListener</code>.
+ */
+public interface ListenableMessageStore {
+
+    /**
+     * Register a listener for the writes made to this store. Its
+     * <code>onRegister</code> is called with the stored messages while no
+     * write is in progress.
+     *
+     * @param listener the listener to add.
+     */
+    void addListener(MessageStoreListener listener);
+
+    /**
+     * Remove a listener. A write in progress may still call it once.
+     *
+     * @param listener the listener to remove.
+     */
+    void removeListener(MessageStoreListener listener);
+}
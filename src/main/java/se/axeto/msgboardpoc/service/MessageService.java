@@ -3,9 +3,17 @@ package se.axeto.msgboardpoc.service;
 import se.axeto.msgboardpoc.exceptions.MessageExistException;
 import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
 import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
 import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageIdPage;
+import se.axeto.msgboardpoc.model.MessagePage;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -40,6 +48,11 @@ import java.util.Map;
  */
 public interface MessageService {
 
+    /**
+     * Returned as the version of data that the store does not keep versions for.
+     */
+    long NO_VERSION = -1;
+
     /**
      * Get all messages as a list of message objects.
      *
@@ -47,6 +60,62 @@ public interface MessageService {
      */
     public Collection<Message> getAllMessages();
 
+    /**
+     * Iterate over all messages without first copying them into a collection.
+     *
+     * <p>
+     * The iterator is weakly consistent, it never throws
+     * <code>ConcurrentModificationException</code> but may or may not reflect
+     * writes made while iterating. The default implementation iterates over
+     * <code>getAllMessages()</code>.
+     * </p>
+     *
+     * @return An iterator over all messages.
+     */
+    default Iterator<Message> iterateAllMessages() {
+        return getAllMessages().iterator();
+    }
+
+    /**
+     * Get a page of all messages.
+     *
+     * <p>
+     * Pages are returned in a stable order, pass the cursor of the returned page
+     * to get the next one. The default implementation pages over
+     * <code>getAllMessages()</code> which costs O(all messages) per page,
+     * implementations with an ordered index should override it.
+     * </p>
+     *
+     * @param cursor the cursor returned with the previous page, <code>null</code> for the first page.
+     * @param limit the maximum number of messages in the page.
+     * @return A page of messages.
+     * @throws IllegalArgumentException if the cursor is malformed or the limit is not positive.
+     */
+    default MessagePage getMessages(String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        int offset = 0;
+        if (cursor != null) {
+            try {
+                offset = Integer.parseInt(cursor);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+            }
+            if (offset < 0) {
+                throw new IllegalArgumentException("Malformed cursor: " + cursor);
+            }
+        }
+
+        List<Message> allMessages = new ArrayList<>(getAllMessages());
+        int end = (int) Math.min(allMessages.size(), (long) offset + limit);
+        if (offset >= end) {
+            return new MessagePage(new ArrayList<>(), null);
+        }
+        String nextCursor = end < allMessages.size() ? Integer.toString(end) : null;
+        return new MessagePage(new ArrayList<>(allMessages.subList(offset, end)), nextCursor);
+    }
+
     /**
      * Create a new message for a user.
      *
@@ -69,10 +138,62 @@ public interface MessageService {
      */
     Message deleteMessage(Message message) throws UserNotFoundException, MessageNotFoundException;
 
+    /**
+     * Delete a message unless it has been written since it was given to a
+     * <code>MessageStoreListener</code> of the store.
+     *
+     * <p>
+     * The version of the stored message is compared with the version of the
+     * given one under the write lock of the user, the delete is otherwise made
+     * like by <code>deleteMessage</code>. The default implementation, for the
+     * stores that keep no versions, deletes the message whatever it is.
+     * </p>
+     *
+     * @param message the message as given to a listener of the store.
+     * @return The deleted message, <code>null</code> if it has been written since.
+     * @throws IllegalArgumentException if the message wasn't given to a listener of the store.
+     */
+    default Message deleteMessageIfUnchanged(Message message) throws UserNotFoundException, MessageNotFoundException {
+        return deleteMessage(message);
+    }
+
+    /**
+     * Apply a batch of creates, updates and deletes. A failed operation does not
+     * stop the others. The operations of one user are applied in batch order,
+     * operations of different users may be applied in any order. The default
+     * implementation applies the operations one by one.
+     *
+     * @param operations the operations to apply.
+     * @return The result of each operation, in batch order.
+     */
+    default List<BatchResult> applyBatch(List<BatchOperation> operations) {
+        List<BatchResult> results = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            BatchOperation operation = operations.get(i);
+            try {
+                switch (operation.getOp()) {
+                    case CREATE:
+                        createMessage(operation.toMessage());
+                        break;
+                    case UPDATE:
+                        updateMessage(operation.toMessage());
+                        break;
+                    case DELETE:
+                        deleteMessage(operation.toMessage());
+                        break;
+                }
+                results.add(BatchResult.ok(i));
+            } catch (Exception e) {
+                results.add(BatchResult.failed(i, e));
+            }
+        }
+        return results;
+    }
+
     /**
      * Get a list of all users.
      *
-     * @return A list of users.
+     * @return A list of users, sorted by user id.
      */
     Collection<String> getAllUsers();
 
@@ -89,7 +210,7 @@ public interface MessageService {
      *  Get all the messages of a user.
      *
      * @param user name/id as a <code>String</code>.
-     * @return A map from message-id to message.
+     * @return A read only map from message-id to message, not changed by later writes.
      */
     Map<String, Message> getUserMessages(String user) throws UserNotFoundException;
 
@@ -101,13 +222,96 @@ public interface MessageService {
 .     */
     Message getMessage(Message message) throws UserNotFoundException, MessageNotFoundException;
 
+    /**
+     * Get the version of all messages.
+     *
+     * <p>
+     * The version changes after every write to the store, once the write is
+     * visible to reads. Reading the version before the messages guarantees
+     * that a write missing from the messages will change the version. The
+     * default implementation keeps no versions.
+     * </p>
+     *
+     * @return The version, <code>NO_VERSION</code> if the store keeps no versions.
+     */
+    default long getVersion() {
+        return NO_VERSION;
+    }
+
+    /**
+     * Get the version of the messages of a user.
+     *
+     * <p>
+     * Every write to the store is numbered by a store wide, increasing
+     * sequence. The version of a user is the number of the last create,
+     * update or delete of one of its messages, it changes whenever the result
+     * of <code>getUserMessages</code> does. The default implementation keeps
+     * no versions.
+     * </p>
+     *
+     * @param user name/id as a <code>String</code>.
+     * @return The version, <code>NO_VERSION</code> if the store keeps no versions.
+     */
+    default long getUserVersion(String user) throws UserNotFoundException {
+        return NO_VERSION;
+    }
+
+    /**
+     * Get the version of a user message, the number of the write that created
+     * or last updated it. See <code>getUserVersion</code>.
+     *
+     * @param message a message object with user and message-id.
+     * @return The version, <code>NO_VERSION</code> if the store keeps no versions.
+     */
+    default long getMessageVersion(Message message) throws UserNotFoundException, MessageNotFoundException {
+        return NO_VERSION;
+    }
+
     /**
      * Get the ids of all messages for a specific user.
      *
      * @param user user name/id as a <code>String</code>.
-     * @return A list of the users message ids.
+     * @return A list of the users message ids, sorted.
      */
-    Collection<String> getUserMessageIds(String user);
+    Collection<String> getUserMessageIds(String user) throws UserNotFoundException;
+
+    /**
+     * Get a page of the message ids of a user, in sorted order.
+     *
+     * <p>
+     * The cursor is the last message id of the previous page, so a page is
+     * not affected by messages created or deleted before it. The default
+     * implementation filters and sorts <code>getUserMessageIds(user)</code>
+     * which costs O(messages of the user) per page, implementations with a
+     * sorted index should override it.
+     * </p>
+     *
+     * @param user user name/id as a <code>String</code>.
+     * @param prefix only the message ids that start with the prefix, <code>null</code> for all.
+     * @param cursor the cursor returned with the previous page, <code>null</code> for the first page.
+     * @param limit the maximum number of message ids in the page.
+     * @return A page of message ids.
+     * @throws IllegalArgumentException if the limit is not positive.
+     */
+    default MessageIdPage getUserMessageIds(String user, String prefix, String cursor, int limit)
+            throws UserNotFoundException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        String from = prefix == null ? "" : prefix;
+
+        List<String> messageIds = new ArrayList<>();
+        for (String messageId : getUserMessageIds(user)) {
+            if (messageId.startsWith(from) && (cursor == null || messageId.compareTo(cursor) > 0)) {
+                messageIds.add(messageId);
+            }
+        }
+        Collections.sort(messageIds);
+        if (messageIds.size() <= limit) {
+            return new MessageIdPage(messageIds, null);
+        }
+        return new MessageIdPage(new ArrayList<>(messageIds.subList(0, limit)), messageIds.get(limit - 1));
+    }
 
 
 }
@@ -0,0 +1,51 @@
+package se.axeto.msgboardpoc.service;
+
+import se.axeto.msgboardpoc.model.Message;
+
+import java.util.Iterator;
+
+/**
+ * Callbacks for the writes of a storage engine.
+ *
+ * <p>
+ * A callback is made while the write lock of the user is held, after the
+ * write has been validated and before it becomes visible to readers. The
+ * callbacks for one user are therefore made in the order the writes are
+ * applied. A callback that throws aborts the write, the exception is passed
+ * on to the caller.
+ * </p>
+ *
+ * <p>
+ * Callbacks should be cheap, they delay every other write to the same lock stripe.
+ * </p>
+ */
+public interface MessageStoreListener {
+
+    /**
+     * Called once when the listener is registered, with the messages that are
+     * already stored. No writes are made until it returns, which makes it
+     * possible to catch up with the store without missing a write.
+     *
+     * @param messages the stored messages.
+     */
+    default void onRegister(Iterator<? extends Message> messages) {
+    }
+
+    /**
+     * @param message the message that is about to be created.
+     */
+    default void onCreate(Message message) {
+    }
+
+    /**
+     * @param message the new version of the message that is about to be updated.
+     */
+    default void onUpdate(Message message) {
+    }
+
+    /**
+     * @param message the message that is about to be deleted.
+     */
+    default void onDelete(Message message) {
+    }
+}
@@ -0,0 +1,24 @@
+package se.axeto.msgboardpoc.service;
+
+/**
+ * Size statistics of a storage engine, cheap enough to be polled by a metrics
+ * registry. The values are not a consistent snapshot when writes run at the
+ * same time.
+ */
+public interface MessageStoreStatistics {
+
+    /**
+     * @return The number of users.
+     */
+    long userCount();
+
+    /**
+     * @return The number of messages.
+     */
+    long messageCount();
+
+    /**
+     * @return An estimate of the memory used by the stored messages, in bytes.
+     */
+    long approximateBytes();
+}
@@ -0,0 +1,473 @@
+package se.axeto.msgboardpoc.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.offheap.OffHeapArena;
+import se.axeto.msgboardpoc.offheap.OffHeapMessageIndex;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * A thread safe implementation of the MessageService interface that keeps
+ * message ids and texts off the Java heap.
+ *
+ * <p>
+ * Each user is interned to an int handle and assigned to a stripe, round
+ * robin by handle. A stripe owns a lock and an <code>OffHeapArena</code> that
+ * holds the UTF-8 encoded records of its users. The only thing kept on the
+ * heap per message is a hash and a record address in the index of its user,
+ * <code>Message</code> objects are only created when messages are read.
+ * </p>
+ *
+ * <p>
+ * Writes take the write lock of the stripe. Reads are optimistic, they are
+ * retried under the read lock if a write to the stripe ran at the same time.
+ * Listeners are called as described by <code>MessageStoreListener</code>.
+ * </p>
+ *
+ * <p>
+ * Writes are versioned like in <code>ConcurrentMessageServiceImpl</code>, the
+ * version of a message is kept in its record.
+ * </p>
+ *
+ * @see MessageService
+ * @see OffHeapArena
+ */
+
+@Service
+@ConditionalOnProperty(name = "msgboard.store", havingValue = "offheap")
+public class OffHeapMessageServiceImpl implements MessageService, MessageStoreStatistics, ListenableMessageStore {
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final ConcurrentMap<String, UserEntry> users = new ConcurrentHashMap<>();
+    private final AtomicInteger nextHandle = new AtomicInteger();
+    private final LongAdder messageCount = new LongAdder();
+    private final AtomicLong writeVersion = new AtomicLong();
+    // Incremented once a write is visible, unlike writeVersion which is taken before
+    private final AtomicLong appliedWrites = new AtomicLong();
+
+    private final StampedLock[] locks;
+    private final OffHeapArena[] arenas;
+
+    private final List<MessageStoreListener> listeners = new CopyOnWriteArrayList<>();
+
+    public OffHeapMessageServiceImpl() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripeCount the number of stripes, rounded up to a power of two.
+     */
+    public OffHeapMessageServiceImpl(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Stripe count must be positive: " + stripeCount);
+        }
+        int size = Math.max(1, Integer.highestOneBit(stripeCount - 1) << 1);
+        locks = new StampedLock[size];
+        arenas = new OffHeapArena[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new StampedLock();
+            arenas[i] = new OffHeapArena();
+        }
+    }
+
+    /**
+     * Register a listener for the writes made to this store.
+     *
+     * @param listener the listener to add.
+     * @see MessageStoreListener
+     */
+    @Override
+    public void addListener(MessageStoreListener listener) {
+        Objects.requireNonNull(listener, "Listener must not be null");
+
+        // Holding every write lock keeps writes out while the listener catches up
+        long[] stamps = new long[locks.length];
+        for (int i = 0; i < locks.length; i++) {
+            stamps[i] = locks[i].writeLock();
+        }
+        try {
+            List<Message> messages = new ArrayList<>();
+            for (UserEntry user : users.values()) {
+                messages.addAll(materialize(user));
+            }
+            listener.onRegister(messages.iterator());
+            listeners.add(listener);
+        } finally {
+            for (int i = 0; i < locks.length; i++) {
+                locks[i].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    @Override
+    public void removeListener(MessageStoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Register the listeners of the application context.
+     *
+     * @param listeners the listeners to add.
+     */
+    @Autowired(required = false)
+    public void addListeners(List<MessageStoreListener> listeners) {
+        listeners.forEach(this::addListener);
+    }
+
+    @Override
+    public Collection<Message> getAllMessages() {
+        Collection<Message> allMessages = new ArrayList<>();
+        for (UserEntry user : users.values()) {
+            allMessages.addAll(read(user, () -> materialize(user)));
+        }
+        return allMessages;
+    }
+
+    @Override
+    public void createMessage(Message message) throws MessageExistException {
+        Objects.requireNonNull(message, "Message must not be null");
+
+        // The first message of a user "creates" the user
+        UserEntry user = users.computeIfAbsent(message.getUserId(),
+                userId -> new UserEntry(userId, nextHandle.getAndIncrement()));
+        byte[] messageId = utf8(message.getMessageId());
+        int hash = hash(message.getMessageId());
+
+        StampedLock lock = locks[user.stripe];
+        OffHeapArena arena = arenas[user.stripe];
+        long stamp = lock.writeLock();
+        try {
+            if (user.index.get(arena, messageId, hash) != 0) {
+                // Can not create a new message for an existing message id
+                String msg = String.format("A message with id %s already " +
+                                "exist. Choose a unique message id and try again.",
+                        message.getMessageId());
+                throw new MessageExistException(user.userId, message.getMessageId(), msg);
+            }
+            long version = writeVersion.incrementAndGet();
+            Message created = new StoredMessage(message, 0, version);
+            for (MessageStoreListener listener : listeners) {
+                listener.onCreate(created);
+            }
+            user.index.put(arena, messageId, hash, arena.write(messageId, utf8(message.getMessage()), version));
+            user.version = version;
+            messageCount.increment();
+            appliedWrites.incrementAndGet();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void updateMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        Objects.requireNonNull(message, "Message must not be null");
+
+        UserEntry user = userOrThrow(message.getUserId(), "Can not get message for non existing user: %s.");
+        byte[] messageId = utf8(message.getMessageId());
+        int hash = hash(message.getMessageId());
+
+        StampedLock lock = locks[user.stripe];
+        OffHeapArena arena = arenas[user.stripe];
+        long stamp = lock.writeLock();
+        try {
+            if (user.index.get(arena, messageId, hash) == 0) {
+                // Can not update an non existing message
+                String msg = String.format("A message must exist to be updated. Message %s does not " +
+                        "exist.", message.getMessageId());
+                throw new MessageNotFoundException(user.userId, message.getMessageId(), msg);
+            }
+            long version = writeVersion.incrementAndGet();
+            Message updated = new StoredMessage(message, 0, version);
+            for (MessageStoreListener listener : listeners) {
+                listener.onUpdate(updated);
+            }
+            long replaced = user.index.put(arena, messageId, hash,
+                    arena.write(messageId, utf8(message.getMessage()), version));
+            arena.free(replaced);
+            user.version = version;
+            appliedWrites.incrementAndGet();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Message deleteMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        return delete(message, NO_VERSION);
+    }
+
+    @Override
+    public Message deleteMessageIfUnchanged(Message message) throws UserNotFoundException, MessageNotFoundException {
+        return delete(message, StoredMessage.versionOf(message));
+    }
+
+    /**
+     * @param version the version the message must have, <code>NO_VERSION</code> to delete it whatever it is.
+     * @return The deleted message, <code>null</code> if it has another version.
+     */
+    private Message delete(Message message, long version) throws UserNotFoundException, MessageNotFoundException {
+        Objects.requireNonNull(message, "Message must not be null");
+
+        UserEntry user = userOrThrow(message.getUserId(), "Can not delete message for non existing user: %s.");
+        byte[] messageId = utf8(message.getMessageId());
+        int hash = hash(message.getMessageId());
+
+        StampedLock lock = locks[user.stripe];
+        OffHeapArena arena = arenas[user.stripe];
+        long stamp = lock.writeLock();
+        try {
+            long address = user.index.get(arena, messageId, hash);
+            if (address == 0) {
+                // Can not delete an non existing message
+                String msg = String.format("A message must exist to be deleted. Message %s does not " +
+                        "exist.", message.getMessageId());
+                throw new MessageNotFoundException(user.userId, message.getMessageId(), msg);
+            }
+            if (version != NO_VERSION && arena.readVersion(address) != version) {
+                return null;
+            }
+            Message deletedMessage = new MessageImpl(user.userId, message.getMessageId(), arena.readMessage(address));
+            for (MessageStoreListener listener : listeners) {
+                listener.onDelete(deletedMessage);
+            }
+            arena.free(user.index.remove(arena, messageId, hash));
+            user.version = writeVersion.incrementAndGet();
+            messageCount.decrement();
+            appliedWrites.incrementAndGet();
+            return deletedMessage;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Map<String, Message> getUserMessages(String userId) throws UserNotFoundException {
+        Objects.requireNonNull(userId, "User must not be null");
+
+        UserEntry user = userOrThrow(userId, "The user %s does not exist.");
+        Map<String, Message> userMessages = new HashMap<>();
+        for (Message message : read(user, () -> materialize(user))) {
+            userMessages.put(message.getMessageId(), message);
+        }
+        return Collections.unmodifiableMap(userMessages);
+    }
+
+    @Override
+    public Message getMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        Objects.requireNonNull(message, "Message must not be null");
+
+        UserEntry user = userOrThrow(message.getUserId(), "The user %s does not exist.");
+        byte[] messageId = utf8(message.getMessageId());
+        int hash = hash(message.getMessageId());
+        OffHeapArena arena = arenas[user.stripe];
+
+        String text = read(user, () -> {
+            long address = user.index.get(arena, messageId, hash);
+            return address == 0 ? null : arena.readMessage(address);
+        });
+        if (Objects.isNull(text)) {
+            throw new MessageNotFoundException(user.userId, message.getMessageId(), "The message doesn't exist.");
+        }
+        return new MessageImpl(user.userId, message.getMessageId(), text);
+    }
+
+    @Override
+    public long getVersion() {
+        return appliedWrites.get();
+    }
+
+    @Override
+    public long getUserVersion(String userId) throws UserNotFoundException {
+        return userOrThrow(userId, "The user %s does not exist.").version;
+    }
+
+    @Override
+    public long getMessageVersion(Message message) throws UserNotFoundException, MessageNotFoundException {
+        Objects.requireNonNull(message, "Message must not be null");
+
+        UserEntry user = userOrThrow(message.getUserId(), "The user %s does not exist.");
+        byte[] messageId = utf8(message.getMessageId());
+        int hash = hash(message.getMessageId());
+        OffHeapArena arena = arenas[user.stripe];
+
+        long version = read(user, () -> {
+            long address = user.index.get(arena, messageId, hash);
+            return address == 0 ? NO_VERSION : arena.readVersion(address);
+        });
+        if (version == NO_VERSION) {
+            throw new MessageNotFoundException(user.userId, message.getMessageId(), "The message doesn't exist.");
+        }
+        return version;
+    }
+
+    /**
+     * Sorted on every call, O(users log users).
+     */
+    @Override
+    public Collection<String> getAllUsers() {
+        return new ArrayList<>(new TreeSet<>(users.keySet()));
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getData() {
+        Map<String, Map<String, String>> data = new TreeMap<>();
+        for (UserEntry user : users.values()) {
+            Map<String, String> texts = new TreeMap<>();
+            for (Message message : read(user, () -> materialize(user))) {
+                texts.put(message.getMessageId(), message.getMessage());
+            }
+            data.put(user.userId, texts);
+        }
+        return data;
+    }
+
+    /**
+     * The ids are decoded and sorted on every call, O(messages of the user),
+     * a sorted index would have to keep every message id on the heap.
+     */
+    @Override
+    public Collection<String> getUserMessageIds(String userId) throws UserNotFoundException {
+        UserEntry user = userOrThrow(userId, "The user %s does not exist.");
+        OffHeapArena arena = arenas[user.stripe];
+        List<String> messageIds = read(user, () -> {
+            List<String> ids = new ArrayList<>(user.index.size());
+            user.index.forEach(address ->
+                    ids.add(new String(arena.readMessageId(address), StandardCharsets.UTF_8)));
+            return ids;
+        });
+        Collections.sort(messageIds);
+        return messageIds;
+    }
+
+    @Override
+    public long userCount() {
+        return users.size();
+    }
+
+    @Override
+    public long messageCount() {
+        return messageCount.sum();
+    }
+
+    /**
+     * @return The off-heap bytes held by message records and the heap used by the indexes.
+     */
+    @Override
+    public long approximateBytes() {
+        long bytes = 0;
+        for (int i = 0; i < arenas.length; i++) {
+            long stamp = locks[i].readLock();
+            try {
+                bytes += arenas[i].usedBytes();
+            } finally {
+                locks[i].unlockRead(stamp);
+            }
+        }
+        for (UserEntry user : users.values()) {
+            // Racy but safe, the table is replaced as a whole when it grows
+            bytes += user.index.heapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The off-heap bytes reserved for message records.
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (int i = 0; i < arenas.length; i++) {
+            long stamp = locks[i].readLock();
+            try {
+                bytes += arenas[i].reservedBytes();
+            } finally {
+                locks[i].unlockRead(stamp);
+            }
+        }
+        return bytes;
+    }
+
+    private List<Message> materialize(UserEntry user) {
+        OffHeapArena arena = arenas[user.stripe];
+        List<Message> messages = new ArrayList<>(user.index.size());
+        user.index.forEach(address -> messages.add(new MessageImpl(user.userId,
+                new String(arena.readMessageId(address), StandardCharsets.UTF_8), arena.readMessage(address))));
+        return messages;
+    }
+
+    /**
+     * Run a read of the data of a user, first optimistically and then under the
+     * read lock if a write to the stripe got in the way.
+     */
+    private <T> T read(UserEntry user, Supplier<T> reader) {
+        StampedLock lock = locks[user.stripe];
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // Read a record while it was being written, retry under the lock
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private UserEntry userOrThrow(String userId, String format) throws UserNotFoundException {
+        Objects.requireNonNull(userId, "User must not be null");
+        UserEntry user = users.get(userId);
+        if (Objects.isNull(user)) {
+            throw new UserNotFoundException(userId, String.format(format, userId));
+        }
+        return user;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int hash(String messageId) {
+        int h = messageId.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private final class UserEntry {
+        final String userId;
+        final int handle;
+        final int stripe;
+        // Guarded by the lock of the stripe
+        final OffHeapMessageIndex index = new OffHeapMessageIndex();
+        // Written under the write lock of the stripe, after the write
+        volatile long version;
+
+        UserEntry(String userId, int handle) {
+            this.userId = userId;
+            this.handle = handle;
+            this.stripe = handle & (locks.length - 1);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package se.axeto.msgboardpoc.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.persistence.LogRecord;
+import se.axeto.msgboardpoc.persistence.Snapshots;
+import se.axeto.msgboardpoc.persistence.WriteAheadLog;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A durable implementation of the MessageService interface.
+ *
+ * <p>
+ * Messages are kept in memory just like in <code>ConcurrentMessageServiceImpl</code>
+ * and every write is appended to a write-ahead log before it is applied. On
+ * startup the in-memory store is rebuilt by loading the latest snapshot and
+ * replaying the log written after it.
+ * </p>
+ *
+ * <p>
+ * The log and the snapshots keep the time each message with a time to live
+ * expires at. A message that expired while the service was stopped is
+ * dropped when it is restored, the others expire at the time they were
+ * written with, see <code>MessageExpiry</code>.
+ * </p>
+ *
+ * <p>
+ * Snapshots are taken periodically in the background while writers keep
+ * going. The log position is read first and the writes already in the log
+ * are waited for, then the store is copied. Writes made while copying may or
+ * may not end up in the snapshot, they are replayed from the log either way
+ * and replaying a write twice gives the same result. Once a snapshot is on
+ * disk the log segments before it are deleted.
+ * </p>
+ *
+ * <p>
+ * When <code>sync</code> is enabled a write returns once its log record has
+ * been forced to disk, otherwise records are forced in the background and a
+ * write survives a crash of the process but not of the machine.
+ * </p>
+ *
+ * @see MessageService
+ * @see WriteAheadLog
+ */
+
+@Service
+@ConditionalOnProperty(name = "msgboard.store", havingValue = "persistent")
+public class PersistentMessageServiceImpl extends ConcurrentMessageServiceImpl implements DurableMessageStore {
+    final Logger logger = LoggerFactory.getLogger(PersistentMessageServiceImpl.class);
+
+    private final WriteAheadLog log;
+    private final Snapshots snapshots;
+    private final boolean sync;
+    private final ScheduledExecutorService snapshotScheduler;
+    private volatile boolean closed;
+
+    @Autowired
+    public PersistentMessageServiceImpl(@Value("${msgboard.wal.directory:data/wal}") String directory,
+                                        @Value("${msgboard.wal.segment-size:67108864}") int segmentSize,
+                                        @Value("${msgboard.wal.flush-interval-ms:10}") long flushIntervalMillis,
+                                        @Value("${msgboard.wal.sync:true}") boolean sync,
+                                        @Value("${msgboard.snapshot.directory:data/snapshot}") String snapshotDirectory,
+                                        @Value("${msgboard.snapshot.interval-seconds:300}") long snapshotIntervalSeconds)
+            throws IOException {
+        this(new WriteAheadLog(Paths.get(directory), segmentSize, flushIntervalMillis),
+                new Snapshots(Paths.get(snapshotDirectory)), sync, snapshotIntervalSeconds);
+    }
+
+    /**
+     * @param snapshotIntervalSeconds the time between snapshots, 0 to only take one when closed.
+     */
+    public PersistentMessageServiceImpl(WriteAheadLog log, Snapshots snapshots, boolean sync,
+                                        long snapshotIntervalSeconds) throws IOException {
+        this.log = log;
+        this.snapshots = snapshots;
+        this.sync = sync;
+
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        long snapshotPosition = snapshots.readLatest(this::restoreUser, message -> {
+            if (!expired(message, now)) {
+                restore(message);
+            }
+        });
+        long loaded = System.nanoTime();
+        long end = log.recover(snapshotPosition, record -> replay(record, now));
+        logger.info("Loaded the snapshot in {} ms and replayed {} bytes of the log in {} ms",
+                (loaded - start) / 1_000_000, end - snapshotPosition, (System.nanoTime() - loaded) / 1_000_000);
+
+        addListener(new LogAppender());
+
+        this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (snapshotIntervalSeconds > 0) {
+            snapshotScheduler.scheduleWithFixedDelay(this::scheduledSnapshot,
+                    snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void createMessage(Message message) throws MessageExistException {
+        super.createMessage(message);
+        awaitDurable();
+    }
+
+    @Override
+    public void updateMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        super.updateMessage(message);
+        awaitDurable();
+    }
+
+    @Override
+    public Message deleteMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        Message deletedMessage = super.deleteMessage(message);
+        awaitDurable();
+        return deletedMessage;
+    }
+
+    @Override
+    public Message deleteMessageIfUnchanged(Message message) throws UserNotFoundException, MessageNotFoundException {
+        Message deletedMessage = super.deleteMessageIfUnchanged(message);
+        awaitDurable();
+        return deletedMessage;
+    }
+
+    /**
+     * Waits for the log to be forced to disk once for the whole batch.
+     */
+    @Override
+    public List<BatchResult> applyBatch(List<BatchOperation> operations) {
+        List<BatchResult> results = super.applyBatch(operations);
+        awaitDurable();
+        return results;
+    }
+
+    /**
+     * Applies the batch and appends it to the log, whether <code>sync</code> is enabled or not.
+     */
+    @Override
+    public List<BatchResult> applyBatchDeferred(List<BatchOperation> operations) {
+        return super.applyBatch(operations);
+    }
+
+    @Override
+    public long appendedPosition() {
+        return log.appendedPosition();
+    }
+
+    /**
+     * Waits for the log to be forced to disk, also when <code>sync</code> is disabled.
+     */
+    @Override
+    public void awaitDurable(long position) throws IOException {
+        log.awaitDurable(position);
+    }
+
+    /**
+     * Take a snapshot and compact the log, without blocking writers.
+     */
+    public synchronized void snapshot() throws IOException {
+        long position = log.appendedPosition();
+        // Everything before the position must be in the store before it is copied
+        awaitWritesInProgress();
+
+        long start = System.nanoTime();
+        long messages = snapshots.write(position, usersView());
+        int deleted = log.deleteSegmentsBefore(position);
+        logger.info("Wrote a snapshot of {} messages at log position {} in {} ms, deleted {} log segment(s)",
+                messages, position, (System.nanoTime() - start) / 1_000_000, deleted);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        snapshotScheduler.shutdownNow();
+        try {
+            snapshotScheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            // Makes the next startup fast
+            snapshot();
+        } finally {
+            log.close();
+        }
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not take a snapshot", e);
+        }
+    }
+
+    private void replay(LogRecord record, long now) {
+        switch (record.getType()) {
+            case CREATE:
+            case UPDATE:
+                Message message = new MessageImpl(record.getUserId(), record.getMessageId(), record.getMessage(),
+                        record.getTtlSeconds(), record.getExpiresAtMillis());
+                if (expired(message, now)) {
+                    // Removes the version before it, if any, the user is kept like by any delete
+                    restoreDelete(record.getUserId(), record.getMessageId());
+                } else {
+                    restore(message);
+                }
+                break;
+            case DELETE:
+                restoreDelete(record.getUserId(), record.getMessageId());
+                break;
+        }
+    }
+
+    private static boolean expired(Message message, long now) {
+        return message.getExpiresAtMillis() != null && message.getExpiresAtMillis() <= now;
+    }
+
+    private void awaitDurable() {
+        if (!sync) {
+            return;
+        }
+        try {
+            // Waits for our own record, and possibly a few appended after it
+            log.awaitDurable(log.appendedPosition());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends every write to the log while the write lock of the user is held,
+     * which keeps the log in the same order as the writes of a user.
+     */
+    private class LogAppender implements MessageStoreListener {
+
+        @Override
+        public void onCreate(Message message) {
+            append(LogRecord.Type.CREATE, message);
+        }
+
+        @Override
+        public void onUpdate(Message message) {
+            append(LogRecord.Type.UPDATE, message);
+        }
+
+        @Override
+        public void onDelete(Message message) {
+            append(LogRecord.Type.DELETE, message);
+        }
+
+        private void append(LogRecord.Type type, Message message) {
+            LogRecord record = type == LogRecord.Type.DELETE
+                    ? new LogRecord(type, message.getUserId(), message.getMessageId(), "")
+                    : new LogRecord(type, message.getUserId(), message.getMessageId(), message.getMessage(),
+                    message.getTtlSeconds(), message.getExpiresAtMillis());
+            try {
+                log.append(record);
+            } catch (IOException e) {
+                // Aborts the write
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package se.axeto.msgboardpoc.service;
+
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+
+/**
+ * A message as kept by a storage engine, tagged with the sequence number
+ * assigned when the message was created and the version of the write that
+ * stored this text. A message with a time to live also gets the wall clock
+ * time it expires at, so that the deadline survives a restart.
+ */
+class StoredMessage extends MessageImpl {
+
+    // Object headers and fields of the message, its strings and its nodes in the user and creation order trees
+    private static final int OVERHEAD_BYTES = 200;
+
+    private final long sequence;
+    private final long version;
+
+    /**
+     * A message written now, its time to live counts from now.
+     */
+    StoredMessage(Message message, long sequence, long version) {
+        this(message, sequence, version, expiresAt(message.getTtlSeconds()));
+    }
+
+    /**
+     * @param expiresAtMillis when the message expires, as it was stored, <code>null</code> if it doesn't.
+     */
+    StoredMessage(Message message, long sequence, long version, Long expiresAtMillis) {
+        super(message.getUserId(), message.getMessageId(), message.getMessage(), message.getTtlSeconds(),
+                expiresAtMillis);
+        this.sequence = sequence;
+        this.version = version;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    long version() {
+        return version;
+    }
+
+    /**
+     * @return The version of a message that a store gave to its listeners.
+     * @throws IllegalArgumentException if the message isn't one.
+     */
+    static long versionOf(Message message) {
+        if (!(message instanceof StoredMessage)) {
+            throw new IllegalArgumentException("Not a message of the store: " + message);
+        }
+        return ((StoredMessage) message).version;
+    }
+
+    /**
+     * @return An estimate of the heap used by this message, counting two bytes per character.
+     */
+    long approximateBytes() {
+        return approximateBytes(this);
+    }
+
+    private static Long expiresAt(Long ttlSeconds) {
+        if (ttlSeconds == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        long ttlMillis = ttlSeconds > Long.MAX_VALUE / 1000 ? Long.MAX_VALUE : ttlSeconds * 1000;
+        return ttlMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttlMillis;
+    }
+
+    /**
+     * @return An estimate of the heap a message takes once stored.
+     */
+    static long approximateBytes(Message message) {
+        return OVERHEAD_BYTES + 2L * (message.getUserId().length() + message.getMessageId().length() +
+                message.getMessage().length());
+    }
+}
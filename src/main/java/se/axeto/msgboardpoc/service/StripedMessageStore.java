@@ -0,0 +1,438 @@
+package se.axeto.msgboardpoc.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageIdPage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * What <code>ConcurrentMessageServiceImpl</code> and
+ * <code>TieredMessageServiceImpl</code> have in common, whatever they keep
+ * per user.
+ *
+ * <p>
+ * Writes are serialized per user by a fixed set of striped locks, a user
+ * always maps to the same stripe. Writes for users on different stripes run
+ * in parallel, a batch takes the lock of each stripe once, and reads never
+ * take a lock. A subclass makes the writes under the write lock of the user
+ * and gives the reads of one user an immutable <code>ImmutableTreeMap</code>
+ * of its messages, the paging of the message ids and the other reads of one
+ * user are done here.
+ * </p>
+ *
+ * <p>
+ * Users are never removed. Each write takes the next number of a store wide
+ * sequence as its version, see <code>nextVersion</code>.
+ * </p>
+ *
+ * <p>
+ * The class is public only for Spring, which doesn't autowire
+ * <code>addListeners</code> through the bridge methods javac adds to the
+ * subclasses of a package private class. It can't be extended outside this
+ * package.
+ * </p>
+ *
+ * @param <U> what the store keeps per user.
+ */
+public abstract class StripedMessageStore<U> implements MessageService, MessageStoreStatistics, ListenableMessageStore {
+
+    static final int DEFAULT_STRIPES = 64;
+
+    // Installed by userOrCreate, replaced or changed by the subclass under the write lock of the user
+    final ConcurrentMap<String, U> users = new ConcurrentHashMap<>();
+    // A user is added here when it is first created, once it is in users
+    final ConcurrentSkipListSet<String> sortedUserIds = new ConcurrentSkipListSet<>();
+    final List<MessageStoreListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong writeVersion = new AtomicLong();
+    private final ReentrantLock[] stripes;
+
+    /**
+     * @param stripeCount the number of write locks, rounded up to a power of two.
+     */
+    StripedMessageStore(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Stripe count must be positive: " + stripeCount);
+        }
+        int size = Integer.highestOneBit(stripeCount - 1) << 1;
+        this.stripes = new ReentrantLock[Math.max(1, size)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return A new user without messages, to be installed by
+     * <code>userOrCreate</code> under the write lock of the user.
+     */
+    abstract U newUser(String userId);
+
+    /**
+     * @return The messages of the user, for a read of that user.
+     */
+    abstract ImmutableTreeMap<String, StoredMessage> read(U user);
+
+    /**
+     * @return The messages of the user, for a read of every message. The
+     * messages of <code>read</code> unless the store can read them cheaper.
+     */
+    Collection<StoredMessage> scan(U user) {
+        return read(user).values();
+    }
+
+    /**
+     * @return The version of the last write of one of the messages of the user.
+     */
+    abstract long versionOf(U user);
+
+    // The write lock of the user must be held by the caller
+    abstract void create(Message message) throws MessageExistException;
+
+    // The write lock of the user must be held by the caller
+    abstract void update(Message message) throws UserNotFoundException, MessageNotFoundException;
+
+    // The write lock of the user must be held by the caller
+    abstract Message delete(Message message) throws UserNotFoundException, MessageNotFoundException;
+
+    /**
+     * Called after a write, or the writes of a stripe in a batch, once the
+     * write lock has been released.
+     */
+    void afterWrite() {
+    }
+
+    /**
+     * Register a listener for the writes made to this store.
+     *
+     * @param listener the listener to add.
+     * @see MessageStoreListener
+     */
+    @Override
+    public void addListener(MessageStoreListener listener) {
+        Objects.requireNonNull(listener, "Listener must not be null");
+
+        // Holding every write lock keeps writes out while the listener catches up
+        for (ReentrantLock lock : stripes) {
+            lock.lock();
+        }
+        try {
+            listener.onRegister(iterateAllMessages());
+            listeners.add(listener);
+        } finally {
+            for (ReentrantLock lock : stripes) {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void removeListener(MessageStoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Register the listeners of the application context, after the ones added
+     * when the store was constructed.
+     *
+     * @param listeners the listeners to add.
+     */
+    @Autowired(required = false)
+    public void addListeners(List<MessageStoreListener> listeners) {
+        listeners.forEach(this::addListener);
+    }
+
+    @Override
+    public void createMessage(Message message) throws MessageExistException {
+        Objects.requireNonNull(message, "Message must not be null");
+
+        ReentrantLock lock = stripeFor(message.getUserId());
+        lock.lock();
+        try {
+            create(message);
+        } finally {
+            lock.unlock();
+            afterWrite();
+        }
+    }
+
+    @Override
+    public void updateMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        Objects.requireNonNull(message, "Message must not be null");
+
+        ReentrantLock lock = stripeFor(message.getUserId());
+        lock.lock();
+        try {
+            update(message);
+        } finally {
+            lock.unlock();
+            afterWrite();
+        }
+    }
+
+    @Override
+    public Message deleteMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        Objects.requireNonNull(message, "Message must not be null");
+
+        ReentrantLock lock = stripeFor(message.getUserId());
+        lock.lock();
+        try {
+            return delete(message);
+        } finally {
+            lock.unlock();
+            afterWrite();
+        }
+    }
+
+    @Override
+    public Message deleteMessageIfUnchanged(Message message) throws UserNotFoundException, MessageNotFoundException {
+        Objects.requireNonNull(message, "Message must not be null");
+        long version = StoredMessage.versionOf(message);
+
+        ReentrantLock lock = stripeFor(message.getUserId());
+        lock.lock();
+        try {
+            if (storedMessage(message).version() != version) {
+                return null;
+            }
+            return delete(message);
+        } finally {
+            lock.unlock();
+            afterWrite();
+        }
+    }
+
+    /**
+     * Applies the operations of each lock stripe under a single acquisition of
+     * its lock.
+     */
+    @Override
+    public List<BatchResult> applyBatch(List<BatchOperation> operations) {
+        // The positions of the operations of each stripe, in batch order
+        List<List<Integer>> byStripe = new ArrayList<>(Collections.nCopies(stripes.length, null));
+        for (int i = 0; i < operations.size(); i++) {
+            int stripe = stripeIndex(operations.get(i).getUserId());
+            if (byStripe.get(stripe) == null) {
+                byStripe.set(stripe, new ArrayList<>());
+            }
+            byStripe.get(stripe).add(i);
+        }
+
+        BatchResult[] results = new BatchResult[operations.size()];
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            List<Integer> positions = byStripe.get(stripe);
+            if (positions == null) {
+                continue;
+            }
+            stripes[stripe].lock();
+            try {
+                for (int i : positions) {
+                    results[i] = apply(i, operations.get(i));
+                }
+            } finally {
+                stripes[stripe].unlock();
+            }
+            afterWrite();
+        }
+        return Arrays.asList(results);
+    }
+
+    private BatchResult apply(int index, BatchOperation operation) {
+        try {
+            switch (operation.getOp()) {
+                case CREATE:
+                    create(operation.toMessage());
+                    break;
+                case UPDATE:
+                    update(operation.toMessage());
+                    break;
+                case DELETE:
+                    delete(operation.toMessage());
+                    break;
+            }
+            return BatchResult.ok(index);
+        } catch (Exception e) {
+            return BatchResult.failed(index, e);
+        }
+    }
+
+    /**
+     * @return A snapshot of the messages of the user in message id order, not
+     * affected by later writes.
+     */
+    @Override
+    public Map<String, Message> getUserMessages(String userId) throws UserNotFoundException {
+        Objects.requireNonNull(userId, "User must not be null");
+
+        // Immutable already, the wrapper only narrows the type
+        return Collections.unmodifiableMap(read(userOrThrow(userId, "The user does not exist.")));
+    }
+
+    @Override
+    public Message getMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        Objects.requireNonNull(message, "Message must not be null");
+
+        // Our message object is immutable so we can safely return it.
+        return storedMessage(message);
+    }
+
+    @Override
+    public long getUserVersion(String userId) throws UserNotFoundException {
+        Objects.requireNonNull(userId, "User must not be null");
+        return versionOf(userOrThrow(userId, "The user does not exist."));
+    }
+
+    @Override
+    public long getMessageVersion(Message message) throws UserNotFoundException, MessageNotFoundException {
+        Objects.requireNonNull(message, "Message must not be null");
+        return storedMessage(message).version();
+    }
+
+    /**
+     * @return A read only view of the sorted user ids, users created while
+     * iterating may or may not be visible.
+     */
+    @Override
+    public Collection<String> getAllUsers() {
+        return Collections.unmodifiableSet(sortedUserIds);
+    }
+
+    /**
+     * @return A copy of the message ids and texts, in user and message id order.
+     * The texts are shared with the store, not copied.
+     */
+    @Override
+    public Map<String, Map<String, String>> getData() {
+        Map<String, Map<String, String>> data = new LinkedHashMap<>();
+        for (String userId : sortedUserIds) {
+            Map<String, String> texts = new LinkedHashMap<>();
+            for (StoredMessage message : scan(users.get(userId))) {
+                texts.put(message.getMessageId(), message.getMessage());
+            }
+            data.put(userId, texts);
+        }
+        return data;
+    }
+
+    /**
+     * @return A snapshot of the sorted message ids of the user, not affected by later writes.
+     */
+    @Override
+    public Collection<String> getUserMessageIds(String userId) throws UserNotFoundException {
+        Objects.requireNonNull(userId, "User must not be null");
+        return Collections.unmodifiableSet(read(userOrThrow(userId, "The user %s does not exist.")).keySet());
+    }
+
+    /**
+     * Reads the page straight from the sorted message ids, O(log n + page size).
+     */
+    @Override
+    public MessageIdPage getUserMessageIds(String userId, String prefix, String cursor, int limit)
+            throws UserNotFoundException {
+        Objects.requireNonNull(userId, "User must not be null");
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        String from = prefix == null ? "" : prefix;
+        ImmutableTreeMap<String, StoredMessage> messages = read(userOrThrow(userId, "The user %s does not exist."));
+
+        // Continue after the cursor, unless it is before the first id with the prefix
+        Iterator<Map.Entry<String, StoredMessage>> tail = cursor != null && cursor.compareTo(from) >= 0
+                ? messages.iterator(cursor, false)
+                : messages.iterator(from, true);
+        List<String> messageIds = new ArrayList<>(Math.min(limit, 1024));
+        while (tail.hasNext()) {
+            String messageId = tail.next().getKey();
+            if (!messageId.startsWith(from)) {
+                break;
+            }
+            if (messageIds.size() == limit) {
+                return new MessageIdPage(messageIds, messageIds.get(limit - 1));
+            }
+            messageIds.add(messageId);
+        }
+        return new MessageIdPage(messageIds, null);
+    }
+
+    @Override
+    public long userCount() {
+        return users.size();
+    }
+
+    /**
+     * Wait for the writes that are in progress, by taking and releasing
+     * every write lock once. Writes started after a lock has been passed
+     * are not waited for.
+     */
+    void awaitWritesInProgress() {
+        for (ReentrantLock lock : stripes) {
+            lock.lock();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The next number of the store wide sequence of writes.
+     */
+    long nextVersion() {
+        return writeVersion.incrementAndGet();
+    }
+
+    int stripeCount() {
+        return stripes.length;
+    }
+
+    // The write lock of the user must be held by the caller, unless the store is being restored
+    U userOrCreate(String userId) {
+        U existing = users.get(userId);
+        if (Objects.nonNull(existing)) {
+            return existing;
+        }
+        U user = newUser(userId);
+        users.put(userId, user);
+        // Listed only once installed, a reader finds every user it lists
+        sortedUserIds.add(userId);
+        return user;
+    }
+
+    U userOrThrow(String userId, String format) throws UserNotFoundException {
+        U user = users.get(userId);
+        if (Objects.isNull(user)) {
+            throw new UserNotFoundException(userId, String.format(format, userId));
+        }
+        return user;
+    }
+
+    ReentrantLock stripeFor(String userId) {
+        return stripes[stripeIndex(userId)];
+    }
+
+    private int stripeIndex(String userId) {
+        Objects.requireNonNull(userId, "User must not be null");
+        int h = userId.hashCode();
+        // Spread the high bits, String hash codes are weak in the low bits for short keys
+        h ^= (h >>> 16);
+        return h & (stripes.length - 1);
+    }
+
+    private StoredMessage storedMessage(Message message) throws UserNotFoundException, MessageNotFoundException {
+        String userId = message.getUserId();
+        StoredMessage theStoredMessage = read(userOrThrow(userId, "The user does not exist."))
+                .get(message.getMessageId());
+        if (Objects.isNull(theStoredMessage)) {
+            throw new MessageNotFoundException(userId, message.getMessageId(), "The message doesn't exist.");
+        }
+        return theStoredMessage;
+    }
+}
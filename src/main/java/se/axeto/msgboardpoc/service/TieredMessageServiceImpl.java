@@ -0,0 +1,537 @@
+package se.axeto.msgboardpoc.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.QuotaExceededException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessagePage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe implementation of the MessageService interface that keeps
+ * the memory used by the messages within a budget.
+ *
+ * <p>
+ * The bytes of the messages, estimated like in
+ * <code>ConcurrentMessageServiceImpl</code>, are counted per user and for the
+ * whole store. A write that would take a user over <code>userQuotaBytes</code>,
+ * or the store over <code>totalQuotaBytes</code>, is rejected with
+ * <code>QuotaExceededException</code> before any listener sees it.
+ * </p>
+ *
+ * <p>
+ * When the messages in memory take more than <code>memoryBytes</code>, the
+ * least recently used users are spilled to a file each until they take less
+ * than 90% of it, see <code>UserSpillFiles</code>. A spilled user is read
+ * back in when its messages are read by <code>getUserMessages</code>,
+ * <code>getMessage</code> and the other reads of one user, or written. A user
+ * that has not been written since it was last spilled is dropped from memory
+ * without writing its file again. Reads of every message, such as
+ * <code>getAllMessages</code> and <code>getMessages</code>, read the files of
+ * the spilled users without bringing them back into memory, so a scan doesn't
+ * push out the users in use.
+ * </p>
+ *
+ * <p>
+ * Writes are serialized per user by striped locks, see
+ * <code>StripedMessageStore</code>, and the messages of a user in
+ * memory are an immutable <code>ImmutableTreeMap</code> that reads pick up
+ * without locking. Reading a user back in, and spilling it, is done under the
+ * write lock of the user. Spilling is done by one writer at a time after it
+ * has released its own lock, the other writers go on. All messages are
+ * iterated in user and message id order, not in creation order.
+ * </p>
+ *
+ * <p>
+ * The spill files don't survive a restart, the store is as volatile as
+ * <code>ConcurrentMessageServiceImpl</code>.
+ * </p>
+ *
+ * @see MessageService
+ */
+
+@Service
+@ConditionalOnProperty(name = "msgboard.store", havingValue = "tiered")
+public class TieredMessageServiceImpl extends StripedMessageStore<TieredMessageServiceImpl.User> {
+    final Logger logger = LoggerFactory.getLogger(TieredMessageServiceImpl.class);
+
+    // The users in memory, least recently used first. Guarded by itself
+    private final LinkedHashMap<String, User> residentUsers = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Incremented once a write is visible, unlike the version of the write which is taken before
+    private final AtomicLong appliedWrites = new AtomicLong();
+    private final LongAdder messageCount = new LongAdder();
+    // All messages, in memory or not, and the ones in memory
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final LongAdder spills = new LongAdder();
+    private final LongAdder faults = new LongAdder();
+
+    private final UserSpillFiles spillFiles;
+    private final long memoryBytes;
+    private final long userQuotaBytes;
+    private final long totalQuotaBytes;
+    // Held by the writer that spills users
+    private final ReentrantLock spilling = new ReentrantLock();
+
+    @Autowired
+    public TieredMessageServiceImpl(@Value("${msgboard.tiered.directory:data/spill}") String directory,
+                                    @Value("${msgboard.tiered.memory-bytes:268435456}") long memoryBytes,
+                                    @Value("${msgboard.tiered.user-quota-bytes:16777216}") long userQuotaBytes,
+                                    @Value("${msgboard.tiered.total-quota-bytes:0}") long totalQuotaBytes)
+            throws IOException {
+        this(Paths.get(directory), memoryBytes, userQuotaBytes, totalQuotaBytes, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param directory where to spill the users to.
+     * @param memoryBytes the bytes of the messages to keep in memory.
+     * @param userQuotaBytes the bytes of the messages of a user, 0 for no quota.
+     * @param totalQuotaBytes the bytes of all messages, in memory and on disk, 0 for no quota.
+     * @param stripeCount the number of write locks, rounded up to a power of two.
+     */
+    public TieredMessageServiceImpl(Path directory, long memoryBytes, long userQuotaBytes, long totalQuotaBytes,
+                                    int stripeCount) throws IOException {
+        super(stripeCount);
+        if (memoryBytes < 1 || userQuotaBytes < 0 || totalQuotaBytes < 0) {
+            throw new IllegalArgumentException("Invalid tiered store: " + memoryBytes + ", " + userQuotaBytes +
+                    ", " + totalQuotaBytes);
+        }
+        this.spillFiles = new UserSpillFiles(directory);
+        this.memoryBytes = memoryBytes;
+        this.userQuotaBytes = userQuotaBytes;
+        this.totalQuotaBytes = totalQuotaBytes;
+        logger.info("Keeping {} bytes of messages in memory, spilling to {}", memoryBytes, directory);
+    }
+
+    /**
+     * @return A view of all messages in user and message id order, iterated like <code>iterateAllMessages</code>.
+     */
+    @Override
+    public Collection<Message> getAllMessages() {
+        return new AbstractCollection<Message>() {
+            @Override
+            public Iterator<Message> iterator() {
+                return iterateAllMessages();
+            }
+
+            @Override
+            public int size() {
+                return (int) Math.min(Integer.MAX_VALUE, messageCount());
+            }
+        };
+    }
+
+    /**
+     * Reads one user at a time, the spilled ones from disk.
+     */
+    @Override
+    public Iterator<Message> iterateAllMessages() {
+        Iterator<String> userIds = sortedUserIds.iterator();
+        return new Iterator<Message>() {
+            private Iterator<StoredMessage> messages = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!messages.hasNext() && userIds.hasNext()) {
+                    messages = scan(users.get(userIds.next())).iterator();
+                }
+                return messages.hasNext();
+            }
+
+            @Override
+            public Message next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return messages.next();
+            }
+        };
+    }
+
+    /**
+     * Pages in user and message id order, the cursor is the user and message id of the last message.
+     */
+    @Override
+    public MessagePage getMessages(String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+
+        String afterUser = null;
+        String afterMessage = null;
+        if (cursor != null) {
+            // The length of the user id, a colon, the user id and the message id
+            try {
+                int colon = cursor.indexOf(':');
+                int length = Integer.parseInt(cursor.substring(0, colon));
+                afterUser = cursor.substring(colon + 1, colon + 1 + length);
+                afterMessage = cursor.substring(colon + 1 + length);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+            }
+        }
+
+        Collection<String> userIds = afterUser == null ? sortedUserIds : sortedUserIds.tailSet(afterUser, true);
+        List<Message> messages = new ArrayList<>(Math.min(limit, 1024));
+        for (String userId : userIds) {
+            for (StoredMessage message : scan(users.get(userId))) {
+                if (userId.equals(afterUser) && message.getMessageId().compareTo(afterMessage) <= 0) {
+                    continue;
+                }
+                if (messages.size() == limit) {
+                    Message last = messages.get(limit - 1);
+                    return new MessagePage(messages, last.getUserId().length() + ":" + last.getUserId() +
+                            last.getMessageId());
+                }
+                messages.add(message);
+            }
+        }
+        return new MessagePage(messages, null);
+    }
+
+    @Override
+    User newUser(String userId) {
+        User user = new User(userId);
+        synchronized (residentUsers) {
+            residentUsers.put(userId, user);
+        }
+        return user;
+    }
+
+    @Override
+    ImmutableTreeMap<String, StoredMessage> read(User user) {
+        return resident(user);
+    }
+
+    /**
+     * The messages of a user without reading them back into memory, a
+     * snapshot like <code>getUserMessages</code>.
+     */
+    @Override
+    Collection<StoredMessage> scan(User user) {
+        ImmutableTreeMap<String, StoredMessage> messages = user.messages;
+        if (messages != null) {
+            return messages.values();
+        }
+        try {
+            // The file is replaced atomically, it is whole even if the user is spilled again while reading
+            return spillFiles.read(user.userId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the messages of user " + user.userId, e);
+        }
+    }
+
+    @Override
+    long versionOf(User user) {
+        return user.version;
+    }
+
+    /**
+     * Spills users if the write took the messages in memory over the budget.
+     */
+    @Override
+    void afterWrite() {
+        relieveMemory();
+    }
+
+    @Override
+    void create(Message message) throws MessageExistException {
+        String userId = message.getUserId();
+        // The first message of a user "creates" the user
+        User user = userOrCreate(userId);
+        ImmutableTreeMap<String, StoredMessage> messages = load(user);
+
+        if (messages.containsKey(message.getMessageId())) {
+            // Can not create a new message for an existing message id
+            String msg = String.format("A message with id %s already " +
+                            "exist. Choose a unique message id and try again.",
+                    message.getMessageId());
+            throw new MessageExistException(userId, message.getMessageId(), msg);
+        }
+        long bytes = StoredMessage.approximateBytes(message);
+        reserve(user, bytes);
+        StoredMessage created = new StoredMessage(message, 0, nextVersion());
+        boolean stored = false;
+        try {
+            for (MessageStoreListener listener : listeners) {
+                listener.onCreate(created);
+            }
+            store(user, messages.with(created.getMessageId(), created), created.version(), bytes);
+            messageCount.increment();
+            stored = true;
+        } finally {
+            if (!stored) {
+                totalBytes.addAndGet(-bytes);
+            }
+        }
+    }
+
+    @Override
+    void update(Message message) throws UserNotFoundException, MessageNotFoundException {
+        String userId = message.getUserId();
+        User user = userOrThrow(userId, "Can not get message for non existing user: %s.");
+        ImmutableTreeMap<String, StoredMessage> messages = load(user);
+
+        StoredMessage existing = messages.get(message.getMessageId());
+        if (Objects.isNull(existing)) {
+            // Can not update an non existing message
+            String msg = String.format("A message must exist to be updated. Message %s does not " +
+                    "exist.", message.getMessageId());
+            throw new MessageNotFoundException(userId, message.getMessageId(), msg);
+        }
+        long bytes = StoredMessage.approximateBytes(message) - existing.approximateBytes();
+        reserve(user, bytes);
+        StoredMessage updated = new StoredMessage(message, 0, nextVersion());
+        boolean stored = false;
+        try {
+            for (MessageStoreListener listener : listeners) {
+                listener.onUpdate(updated);
+            }
+            store(user, messages.with(updated.getMessageId(), updated), updated.version(), bytes);
+            stored = true;
+        } finally {
+            if (!stored) {
+                totalBytes.addAndGet(-bytes);
+            }
+        }
+    }
+
+    @Override
+    Message delete(Message message) throws UserNotFoundException, MessageNotFoundException {
+        String userId = message.getUserId();
+        User user = userOrThrow(userId, "Can not delete message for non existing user: %s.");
+        ImmutableTreeMap<String, StoredMessage> messages = load(user);
+
+        StoredMessage deletedMessage = messages.get(message.getMessageId());
+        if (Objects.isNull(deletedMessage)) {
+            // Can not delete an non existing message
+            String msg = String.format("A message must exist to be deleted. Message %s does not " +
+                    "exist.", message.getMessageId());
+            throw new MessageNotFoundException(userId, message.getMessageId(), msg);
+        }
+        for (MessageStoreListener listener : listeners) {
+            listener.onDelete(deletedMessage);
+        }
+        long bytes = -deletedMessage.approximateBytes();
+        store(user, messages.without(deletedMessage.getMessageId()), nextVersion(), bytes);
+        totalBytes.addAndGet(bytes);
+        messageCount.decrement();
+        return deletedMessage;
+    }
+
+    // The write lock of the user must be held by the caller, the quotas are checked before a listener is called
+    private void reserve(User user, long bytes) {
+        if (bytes <= 0) {
+            totalBytes.addAndGet(bytes);
+            return;
+        }
+        if (userQuotaBytes > 0 && user.bytes + bytes > userQuotaBytes) {
+            throw new QuotaExceededException(user.userId, String.format("The messages of user %s would take " +
+                    "%d bytes, the quota is %d bytes.", user.userId, user.bytes + bytes, userQuotaBytes));
+        }
+        long total = totalBytes.addAndGet(bytes);
+        if (totalQuotaBytes > 0 && total > totalQuotaBytes) {
+            totalBytes.addAndGet(-bytes);
+            throw new QuotaExceededException(user.userId, String.format("The store is full, the messages " +
+                    "would take %d bytes and the quota is %d bytes.", total, totalQuotaBytes));
+        }
+    }
+
+    // The write lock of the user must be held by the caller
+    private void store(User user, ImmutableTreeMap<String, StoredMessage> messages, long version, long bytes) {
+        user.messages = messages;
+        user.version = version;
+        user.bytes += bytes;
+        residentBytes.addAndGet(bytes);
+        appliedWrites.incrementAndGet();
+    }
+
+    @Override
+    public long getVersion() {
+        return appliedWrites.get();
+    }
+
+    @Override
+    public long messageCount() {
+        return messageCount.sum();
+    }
+
+    /**
+     * @return An estimate of the memory used by the messages in memory, the spilled ones are not counted.
+     */
+    @Override
+    public long approximateBytes() {
+        return residentBytes.get();
+    }
+
+    /**
+     * @return An estimate of the bytes of all messages, the number the total quota is checked against.
+     */
+    public long totalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * @return The number of users whose messages are in memory.
+     */
+    public int residentUserCount() {
+        synchronized (residentUsers) {
+            return residentUsers.size();
+        }
+    }
+
+    /**
+     * @return The number of times a user has been spilled to disk.
+     */
+    public long spillCount() {
+        return spills.sum();
+    }
+
+    /**
+     * @return The number of times a spilled user has been read back into memory.
+     */
+    public long faultCount() {
+        return faults.sum();
+    }
+
+    /**
+     * @return The messages of the user in memory, read back in if it has been spilled.
+     */
+    private ImmutableTreeMap<String, StoredMessage> resident(User user) {
+        ImmutableTreeMap<String, StoredMessage> messages = user.messages;
+        if (messages != null) {
+            touch(user);
+            return messages;
+        }
+        ReentrantLock lock = stripeFor(user.userId);
+        lock.lock();
+        try {
+            messages = load(user);
+        } finally {
+            lock.unlock();
+        }
+        relieveMemory();
+        return messages;
+    }
+
+    // The write lock of the user must be held by the caller
+    private ImmutableTreeMap<String, StoredMessage> load(User user) {
+        ImmutableTreeMap<String, StoredMessage> messages = user.messages;
+        if (messages != null) {
+            touch(user);
+            return messages;
+        }
+        messages = ImmutableTreeMap.empty();
+        try {
+            for (StoredMessage message : spillFiles.read(user.userId)) {
+                messages = messages.with(message.getMessageId(), message);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the messages of user " + user.userId, e);
+        }
+        user.messages = messages;
+        residentBytes.addAndGet(user.bytes);
+        synchronized (residentUsers) {
+            residentUsers.put(user.userId, user);
+        }
+        faults.increment();
+        return messages;
+    }
+
+    private void touch(User user) {
+        synchronized (residentUsers) {
+            // Moves it last in access order, unless it has just been spilled
+            residentUsers.get(user.userId);
+        }
+    }
+
+    /**
+     * Spill the least recently used users until the messages in memory take
+     * less than 90% of the budget. No write lock may be held by the caller.
+     */
+    private void relieveMemory() {
+        if (residentBytes.get() <= memoryBytes || !spilling.tryLock()) {
+            // Within the budget, or another writer is at it
+            return;
+        }
+        try {
+            long target = memoryBytes - memoryBytes / 10;
+            while (residentBytes.get() > target) {
+                User eldest;
+                synchronized (residentUsers) {
+                    Iterator<User> leastRecentlyUsed = residentUsers.values().iterator();
+                    if (!leastRecentlyUsed.hasNext()) {
+                        return;
+                    }
+                    eldest = leastRecentlyUsed.next();
+                }
+                if (!spill(eldest)) {
+                    return;
+                }
+            }
+        } finally {
+            spilling.unlock();
+        }
+    }
+
+    private boolean spill(User user) {
+        ReentrantLock lock = stripeFor(user.userId);
+        lock.lock();
+        try {
+            ImmutableTreeMap<String, StoredMessage> messages = user.messages;
+            if (messages != null) {
+                if (user.spilledVersion != user.version) {
+                    spillFiles.write(user.userId, messages.values());
+                    user.spilledVersion = user.version;
+                }
+                user.messages = null;
+                residentBytes.addAndGet(-user.bytes);
+                spills.increment();
+            }
+            synchronized (residentUsers) {
+                residentUsers.remove(user.userId);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not spill the messages of user {}, keeping them in memory: {}", user.userId,
+                    e.toString());
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A user and its messages, which are either in memory or in its spill file.
+     */
+    static final class User {
+        final String userId;
+        // Written under the write lock of the user, null while the messages are only on disk
+        volatile ImmutableTreeMap<String, StoredMessage> messages = ImmutableTreeMap.empty();
+        volatile long version;
+        // Guarded by the write lock of the user
+        long bytes;
+        // The version the spill file has, guarded by the write lock of the user
+        long spilledVersion = -1;
+
+        User(String userId) {
+            this.userId = userId;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package se.axeto.msgboardpoc.service;
+
+import se.axeto.msgboardpoc.model.MessageImpl;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The disk tier of <code>TieredMessageServiceImpl</code>, the messages of a
+ * user that has been spilled out of memory in a file of its own.
+ *
+ * <p>
+ * The files are a cache, not a copy of the store that survives a restart,
+ * they are neither forced to disk nor kept when the store is created again.
+ * A file is named by the SHA-256 of the user id, which is also written in
+ * the file and checked when it is read.
+ * </p>
+ *
+ * <p>
+ * Format: magic (int), format version (int), user id and message count (int)
+ * followed by the version (long), message id, message text, time to live
+ * in seconds (long, 0 if none) and expiry time in milliseconds since the
+ * epoch (long, 0 if none) of each message and the CRC32 (long) of everything
+ * before it. Strings are written as their UTF-8 length (int)
+ * followed by the UTF-8 bytes.
+ * </p>
+ */
+class UserSpillFiles {
+
+    private static final int MAGIC = 0x4d535546;
+    private static final int FORMAT_VERSION = 2;
+    private static final String SUFFIX = ".spill";
+
+    private final Path directory;
+
+    /**
+     * @param directory where to keep the files, the files of an earlier run are removed.
+     */
+    UserSpillFiles(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX) || name.endsWith(SUFFIX + ".tmp")) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write, or replace, the file of a user.
+     *
+     * @param messages the messages of the user, in message id order.
+     */
+    void write(String userId, Collection<StoredMessage> messages) throws IOException {
+        Path file = fileOf(userId);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temporary)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream, 1 << 16),
+                    new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, userId);
+            out.writeInt(messages.size());
+            for (StoredMessage message : messages) {
+                out.writeLong(message.version());
+                writeString(out, message.getMessageId());
+                writeString(out, message.getMessage());
+                out.writeLong(message.getTtlSeconds() == null ? 0 : message.getTtlSeconds());
+                out.writeLong(message.getExpiresAtMillis() == null ? 0 : message.getExpiresAtMillis());
+            }
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The messages of the user, in the order they were written.
+     */
+    List<StoredMessage> read(String userId) throws IOException {
+        Path file = fileOf(userId);
+        try (InputStream stream = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(stream, 1 << 16),
+                    new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !userId.equals(readString(in))) {
+                throw new IOException("Not the spill file of user " + userId + ": " + file);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt spill file " + file);
+            }
+            List<StoredMessage> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long version = in.readLong();
+                String messageId = readString(in);
+                String text = readString(in);
+                long ttlSeconds = in.readLong();
+                long expiresAtMillis = in.readLong();
+                messages.add(new StoredMessage(new MessageImpl(userId, messageId, text,
+                        ttlSeconds == 0 ? null : ttlSeconds), 0, version,
+                        expiresAtMillis == 0 ? null : expiresAtMillis));
+            }
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum) {
+                throw new IOException("Checksum mismatch in spill file " + file);
+            }
+            return messages;
+        }
+    }
+
+    private Path fileOf(String userId) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(userId.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(2 * hash.length + SUFFIX.length());
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return directory.resolve(name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
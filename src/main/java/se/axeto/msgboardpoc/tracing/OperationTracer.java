@@ -0,0 +1,83 @@
+package se.axeto.msgboardpoc.tracing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Entry and exit tracing of one service operation.
+ *
+ * <p>
+ * Every operation logs to its own logger, <code>se.axeto.msgboardpoc.trace.&lt;operation&gt;</code>,
+ * at TRACE level, so tracing can be turned on for a single operation at
+ * runtime, e.g. through the actuator <code>loggers</code> endpoint. When the
+ * level is off a call costs a level check and allocates nothing. Collections
+ * and maps are traced by their size, not their content.
+ * </p>
+ */
+public final class OperationTracer {
+
+    private static final String LOGGER_PREFIX = "se.axeto.msgboardpoc.trace.";
+
+    private final Logger logger;
+
+    private OperationTracer(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static OperationTracer forOperation(String operation) {
+        return new OperationTracer(LoggerFactory.getLogger(LOGGER_PREFIX + operation));
+    }
+
+    public boolean isEnabled() {
+        return logger.isTraceEnabled();
+    }
+
+    public void enter() {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Enter");
+        }
+    }
+
+    public void enter(Object argument) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Enter {}", describe(argument));
+        }
+    }
+
+    public void enter(Object argument1, Object argument2) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Enter {}, {}", describe(argument1), describe(argument2));
+        }
+    }
+
+    public void exit() {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Exit");
+        }
+    }
+
+    public void exit(Object result) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Exit {}", describe(result));
+        }
+    }
+
+    public void failed(Exception e) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Failed", e);
+        }
+    }
+
+    private static Object describe(Object value) {
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).size() + " elements";
+        }
+        if (value instanceof Map) {
+            return ((Map<?, ?>) value).size() + " entries";
+        }
+        return value;
+    }
+}
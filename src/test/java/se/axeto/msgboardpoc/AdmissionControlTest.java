@@ -0,0 +1,150 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import se.axeto.msgboardpoc.admission.ClientAddressResolver;
+import se.axeto.msgboardpoc.admission.ConcurrencyLimitInterceptor;
+import se.axeto.msgboardpoc.admission.RateLimitExceededException;
+import se.axeto.msgboardpoc.admission.SharedSecretInterceptor;
+import se.axeto.msgboardpoc.admission.TokenBucketRateLimiter;
+
+import javax.servlet.DispatcherType;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AdmissionControlTest {
+
+    private final AtomicLong nanoTime = new AtomicLong(123_456_789L);
+
+    @Test
+    void acquireExpectBurstThenRateAndRetryAfter() {
+        // 10 per second, 100 ms per token
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 5, 1024, nanoTime::get);
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertEquals(0, limiter.tryAcquire("Doris"));
+        }
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.tryAcquire("Doris"));
+        RateLimitExceededException e = assertThrows(RateLimitExceededException.class,
+                () -> limiter.acquire("Doris"));
+        Assertions.assertEquals(1, e.getRetryAfterSeconds());
+
+        // Other keys have their own buckets
+        Assertions.assertEquals(0, limiter.tryAcquire("Olga"));
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(250));
+        Assertions.assertEquals(0, limiter.tryAcquire("Doris"));
+        Assertions.assertEquals(0, limiter.tryAcquire("Doris"));
+        Assertions.assertTrue(limiter.tryAcquire("Doris") > 0);
+
+        // A bucket never holds more than the burst
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertEquals(0, limiter.tryAcquire("Doris"));
+        }
+        Assertions.assertTrue(limiter.tryAcquire("Doris") > 0);
+    }
+
+    @Test
+    void concurrentAcquireExpectExactlyBurstAdmitted() throws Exception {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 1000, 1024, nanoTime::get);
+        AtomicInteger admitted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?>[] futures = new Future<?>[8];
+            for (int t = 0; t < futures.length; t++) {
+                futures[t] = executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 1000; i++) {
+                        if (limiter.tryAcquire("Karl-Ove") == 0) {
+                            admitted.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(1000, admitted.get());
+    }
+
+    @Test
+    void forwardedRequestsExpectClientOfTheTrustedProxies() {
+        ClientAddressResolver forwardedFor = new ClientAddressResolver("X-Forwarded-For",
+                Arrays.asList("10.0.0.1", "10.0.0.2"));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.1");
+        request.addHeader("X-Forwarded-For", "192.0.2.7, 198.51.100.3");
+        request.addHeader("X-Forwarded-For", "10.0.0.2");
+        Assertions.assertEquals("198.51.100.3", forwardedFor.resolve(request));
+
+        // What a client puts in the header is not taken from anyone else
+        request.setRemoteAddr("198.51.100.3");
+        Assertions.assertEquals("198.51.100.3", forwardedFor.resolve(request));
+        request.setRemoteAddr("10.0.0.1");
+        request.removeHeader("X-Forwarded-For");
+        Assertions.assertEquals("10.0.0.1", forwardedFor.resolve(request));
+
+        ClientAddressResolver forwarded = new ClientAddressResolver("Forwarded", Collections.singleton("10.0.0.1"));
+        request.addHeader("Forwarded", "for=192.0.2.7;proto=https, for=\"[2001:db8::17]:4711\";by=10.0.0.1");
+        Assertions.assertEquals("2001:db8::17", forwarded.resolve(request));
+
+        ClientAddressResolver none = new ClientAddressResolver("", Collections.emptyList());
+        Assertions.assertEquals("10.0.0.1", none.resolve(request));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ClientAddressResolver("X-Forwarded-For", Collections.emptyList()));
+    }
+
+    @Test
+    void requestsWithoutTheSharedSecretExpectForbidden() throws Exception {
+        SharedSecretInterceptor interceptor = new SharedSecretInterceptor("msgboard.cluster.secret", "Shikasta");
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse forbidden = new MockHttpServletResponse();
+        Assertions.assertFalse(interceptor.preHandle(request, forbidden, null));
+        Assertions.assertEquals(403, forbidden.getStatus());
+
+        request.addHeader(SharedSecretInterceptor.SECRET_HEADER, "Shikast");
+        Assertions.assertFalse(interceptor.preHandle(request, new MockHttpServletResponse(), null));
+        request.removeHeader(SharedSecretInterceptor.SECRET_HEADER);
+        request.addHeader(SharedSecretInterceptor.SECRET_HEADER, "Shikasta");
+        Assertions.assertTrue(interceptor.preHandle(request, new MockHttpServletResponse(), null));
+
+        assertThrows(IllegalArgumentException.class, () -> new SharedSecretInterceptor("msgboard.cluster.secret", ""));
+    }
+
+    @Test
+    void preHandleOverLimitExpect429UntilARequestCompletes() throws Exception {
+        ConcurrencyLimitInterceptor interceptor = new ConcurrencyLimitInterceptor(2, 0);
+        MockHttpServletRequest first = new MockHttpServletRequest();
+        MockHttpServletRequest second = new MockHttpServletRequest();
+        Assertions.assertTrue(interceptor.preHandle(first, new MockHttpServletResponse(), null));
+        Assertions.assertTrue(interceptor.preHandle(second, new MockHttpServletResponse(), null));
+        Assertions.assertEquals(2, interceptor.inFlight());
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        Assertions.assertFalse(interceptor.preHandle(new MockHttpServletRequest(), rejected, null));
+        Assertions.assertEquals(429, rejected.getStatus());
+        Assertions.assertEquals("1", rejected.getHeader("Retry-After"));
+
+        // The async dispatch of a streamed response was admitted with its request
+        first.setDispatcherType(DispatcherType.ASYNC);
+        Assertions.assertTrue(interceptor.preHandle(first, new MockHttpServletResponse(), null));
+
+        interceptor.afterCompletion(second, new MockHttpServletResponse(), null, null);
+        // Released once only
+        interceptor.afterCompletion(second, new MockHttpServletResponse(), null, null);
+        Assertions.assertEquals(1, interceptor.inFlight());
+        Assertions.assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), null));
+    }
+}
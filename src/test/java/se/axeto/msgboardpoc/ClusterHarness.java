@@ -0,0 +1,76 @@
+package se.axeto.msgboardpoc;
+
+import se.axeto.msgboardpoc.cluster.ConsistentHashRing;
+import se.axeto.msgboardpoc.cluster.PartitionedMessageService;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cluster of nodes in one JVM. Every node has its own store and its own
+ * routing layer, like a node started with <code>msgboard.cluster.node-id</code>,
+ * but the nodes call each other's stores directly instead of over HTTP.
+ */
+public class ClusterHarness implements AutoCloseable {
+
+    static final int VIRTUAL_NODES = 128;
+
+    private final ConsistentHashRing ring;
+    private final Map<String, ConcurrentMessageServiceImpl> stores = new LinkedHashMap<>();
+    private final Map<String, PartitionedMessageService> routers = new HashMap<>();
+    private final ExecutorService scatterExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * @param nodeCount the number of nodes, named <code>node0</code>, <code>node1</code> and so on.
+     */
+    public ClusterHarness(int nodeCount) {
+        List<String> nodeIds = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            nodeIds.add("node" + i);
+        }
+        this.ring = new ConsistentHashRing(nodeIds, VIRTUAL_NODES);
+        for (String nodeId : nodeIds) {
+            stores.put(nodeId, new ConcurrentMessageServiceImpl(4));
+        }
+        Map<String, MessageService> nodes = new HashMap<>(stores);
+        for (String nodeId : nodeIds) {
+            routers.put(nodeId, new PartitionedMessageService(ring, nodes, scatterExecutor));
+        }
+    }
+
+    public ConsistentHashRing ring() {
+        return ring;
+    }
+
+    public List<String> nodeIds() {
+        return ring.getNodes();
+    }
+
+    /**
+     * @return The local store of a node, without the routing.
+     */
+    public ConcurrentMessageServiceImpl store(String nodeId) {
+        return stores.get(nodeId);
+    }
+
+    /**
+     * @return The MessageService that a node serves its API from.
+     */
+    public MessageService node(String nodeId) {
+        return routers.get(nodeId);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        scatterExecutor.shutdownNow();
+        scatterExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,414 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.*;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageIdPage;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.model.MessagePage;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Stress tests that hammer the message service from many threads and verify
+ * that the exception semantics hold under contention.
+ */
+public class ConcurrentMessageServiceTest {
+
+    private static final int THREADS = 16;
+    private static final int USERS = 8;
+    private static final int MESSAGES_PER_USER = 500;
+
+    private MessageService messageService;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void beforeEach() {
+        messageService = new ConcurrentMessageServiceImpl(4);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        messageService = null;
+    }
+
+    @Test
+    void concurrentCreateOfSameMessageExpectOneWinner() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        runOnAllThreads(thread -> {
+            for (int u = 0; u < USERS; u++) {
+                for (int m = 0; m < MESSAGES_PER_USER; m++) {
+                    try {
+                        messageService.createMessage(
+                                new MessageImpl("user" + u, "msg" + m, "from thread " + thread));
+                        created.incrementAndGet();
+                    } catch (MessageExistException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        Assertions.assertEquals(USERS * MESSAGES_PER_USER, created.get());
+        Assertions.assertEquals((THREADS - 1) * USERS * MESSAGES_PER_USER, rejected.get());
+        Assertions.assertEquals(USERS * MESSAGES_PER_USER, messageService.getAllMessages().size());
+    }
+
+    @Test
+    void concurrentCreateOfDistinctMessagesExpectNoLostWrites() throws Exception {
+        runOnAllThreads(thread -> {
+            for (int u = 0; u < USERS; u++) {
+                for (int m = 0; m < MESSAGES_PER_USER; m++) {
+                    messageService.createMessage(
+                            new MessageImpl("user" + u, thread + "-" + m, "message " + m));
+                }
+            }
+        });
+
+        Assertions.assertEquals(THREADS * USERS * MESSAGES_PER_USER, messageService.getAllMessages().size());
+        for (int u = 0; u < USERS; u++) {
+            Assertions.assertEquals(THREADS * MESSAGES_PER_USER,
+                    messageService.getUserMessages("user" + u).size());
+        }
+    }
+
+    @Test
+    void concurrentDeleteOfSameMessageExpectOneWinner() throws Exception {
+        populate();
+        AtomicInteger deleted = new AtomicInteger();
+        AtomicInteger notFound = new AtomicInteger();
+
+        runOnAllThreads(thread -> {
+            for (int u = 0; u < USERS; u++) {
+                for (int m = 0; m < MESSAGES_PER_USER; m++) {
+                    try {
+                        messageService.deleteMessage(new MessageImpl("user" + u, "msg" + m, ""));
+                        deleted.incrementAndGet();
+                    } catch (MessageNotFoundException e) {
+                        notFound.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        Assertions.assertEquals(USERS * MESSAGES_PER_USER, deleted.get());
+        Assertions.assertEquals((THREADS - 1) * USERS * MESSAGES_PER_USER, notFound.get());
+        Assertions.assertTrue(messageService.getAllMessages().isEmpty());
+    }
+
+    @Test
+    void concurrentUpdateAndDeleteExpectNoResurrectedMessages() throws Exception {
+        populate();
+
+        // Half of the threads update while the other half deletes, an update
+        // must never bring back a message that has already been deleted.
+        runOnAllThreads(thread -> {
+            for (int u = 0; u < USERS; u++) {
+                for (int m = 0; m < MESSAGES_PER_USER; m++) {
+                    MessageImpl message = new MessageImpl("user" + u, "msg" + m, "updated by " + thread);
+                    try {
+                        if (thread % 2 == 0) {
+                            messageService.updateMessage(message);
+                        } else {
+                            messageService.deleteMessage(message);
+                        }
+                    } catch (MessageNotFoundException e) {
+                        // Expected once the message has been deleted
+                    }
+                }
+            }
+        });
+
+        Assertions.assertTrue(messageService.getAllMessages().isEmpty());
+        for (int u = 0; u < USERS; u++) {
+            final String userId = "user" + u;
+            assertThrows(MessageNotFoundException.class, () -> {
+                messageService.getMessage(new MessageImpl(userId, "msg0", ""));
+            });
+        }
+    }
+
+    @Test
+    void updateAndDeleteForUnknownUserExpectUserNotFound() throws Exception {
+        runOnAllThreads(thread -> {
+            assertThrows(UserNotFoundException.class, () -> {
+                messageService.updateMessage(new MessageImpl("nobody" + thread, "msg", "text"));
+            });
+            assertThrows(UserNotFoundException.class, () -> {
+                messageService.deleteMessage(new MessageImpl("nobody" + thread, "msg", ""));
+            });
+        });
+    }
+
+    @Test
+    void pageThroughAllMessagesExpectCreationOrder() {
+        populate();
+        // Deleted messages must not show up in any page
+        assertDoesNotThrow(() -> { messageService.deleteMessage(new MessageImpl("user0", "msg0", "")); });
+
+        List<Message> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            MessagePage page = messageService.getMessages(cursor, 64);
+            Assertions.assertTrue(page.getMessages().size() <= 64);
+            paged.addAll(page.getMessages());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        Assertions.assertEquals(USERS * MESSAGES_PER_USER - 1, paged.size());
+        Assertions.assertEquals("msg1", paged.get(0).getMessageId());
+        Assertions.assertEquals("user" + (USERS - 1), paged.get(paged.size() - 1).getUserId());
+        assertThrows(IllegalArgumentException.class, () -> { messageService.getMessages("not-a-cursor", 10); });
+    }
+
+    @Test
+    void writesExpectUserAndMessageVersionsToIncrease() throws Exception {
+        populate();
+        MessageImpl msg0 = new MessageImpl("user0", "msg0", "");
+        long userVersion = messageService.getUserVersion("user0");
+        long messageVersion = messageService.getMessageVersion(msg0);
+        Assertions.assertTrue(messageVersion <= userVersion);
+
+        // A write to another user leaves the versions of user0 alone
+        messageService.updateMessage(new MessageImpl("user1", "msg0", "changed"));
+        Assertions.assertEquals(userVersion, messageService.getUserVersion("user0"));
+
+        messageService.updateMessage(new MessageImpl("user0", "msg0", "changed"));
+        Assertions.assertTrue(messageService.getMessageVersion(msg0) > messageVersion);
+        Assertions.assertEquals(messageService.getMessageVersion(msg0), messageService.getUserVersion("user0"));
+
+        // Deleting another message changes the user, not msg0
+        long updatedVersion = messageService.getMessageVersion(msg0);
+        messageService.deleteMessage(new MessageImpl("user0", "msg1", ""));
+        Assertions.assertTrue(messageService.getUserVersion("user0") > updatedVersion);
+        Assertions.assertEquals(updatedVersion, messageService.getMessageVersion(msg0));
+
+        assertThrows(UserNotFoundException.class, () -> { messageService.getUserVersion("nobody"); });
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessageVersion(new MessageImpl("user0", "msg1", ""));
+        });
+    }
+
+    @Test
+    void concurrentWritesExpectUserVersionNeverToGoBack() throws Exception {
+        populate();
+        AtomicInteger regressions = new AtomicInteger();
+        runOnAllThreads(thread -> {
+            long last = 0;
+            for (int i = 0; i < 1000; i++) {
+                if (thread % 2 == 0) {
+                    messageService.updateMessage(new MessageImpl("user0", "msg" + thread, "v" + i));
+                }
+                long version = messageService.getUserVersion("user0");
+                if (version < last) {
+                    regressions.incrementAndGet();
+                }
+                last = version;
+            }
+        });
+        Assertions.assertEquals(0, regressions.get());
+    }
+
+    @Test
+    void concurrentNewUsersExpectEveryListedUserFound() throws Exception {
+        int writers = THREADS / 2;
+        AtomicInteger done = new AtomicInteger();
+        runOnAllThreads(thread -> {
+            if (thread % 2 == 0) {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        messageService.createMessage(new MessageImpl("new" + thread + "-" + i, "msg", "message"));
+                    }
+                } finally {
+                    done.incrementAndGet();
+                }
+                return;
+            }
+            for (int i = 0; done.get() < writers; i++) {
+                if (i % 10 == 0) {
+                    // Every user it lists has messages, created or not yet
+                    Assertions.assertTrue(messageService.getData().values().stream().allMatch(Objects::nonNull));
+                }
+                for (String userId : messageService.getAllUsers()) {
+                    messageService.getUserMessageIds(userId);
+                }
+            }
+        });
+        Assertions.assertEquals(writers * 1000, messageService.getAllUsers().size());
+    }
+
+    @Test
+    void pageThroughMessageIdsWithPrefixExpectSortedAndWritesBeforeCursorIgnored() throws Exception {
+        populate();
+        List<String> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            MessageIdPage page = messageService.getUserMessageIds("user0", "msg1", cursor, 7);
+            Assertions.assertTrue(page.getMessageIds().size() <= 7);
+            paged.addAll(page.getMessageIds());
+            cursor = page.getNextCursor();
+            // Writes before the cursor don't move the following pages
+            messageService.deleteMessage(new MessageImpl("user0", paged.get(0), ""));
+            messageService.createMessage(new MessageImpl("user0", paged.get(0), "again"));
+        } while (cursor != null);
+
+        // msg1, msg10..msg19, msg100..msg199
+        Assertions.assertEquals(111, paged.size());
+        List<String> sorted = new ArrayList<>(paged);
+        sorted.sort(null);
+        Assertions.assertEquals(sorted, paged);
+        Assertions.assertEquals("msg1", paged.get(0));
+        Assertions.assertEquals("msg199", paged.get(paged.size() - 1));
+
+        Assertions.assertEquals(USERS, messageService.getAllUsers().size());
+        Assertions.assertEquals("user0", messageService.getAllUsers().iterator().next());
+        Assertions.assertEquals(MESSAGES_PER_USER, messageService.getUserMessageIds("user1").size());
+        Assertions.assertEquals("message 7", messageService.getData().get("user3").get("msg7"));
+        assertThrows(UserNotFoundException.class, () -> {
+            messageService.getUserMessageIds("nobody", null, null, 10);
+        });
+    }
+
+    @Test
+    void snapshotsExpectUnchangedByLaterWrites() throws Exception {
+        populate();
+        Map<String, Message> userMessages = messageService.getUserMessages("user0");
+        Collection<Message> allMessages = messageService.getAllMessages();
+        Collection<String> messageIds = messageService.getUserMessageIds("user0");
+
+        messageService.updateMessage(new MessageImpl("user0", "msg0", "changed"));
+        messageService.deleteMessage(new MessageImpl("user0", "msg1", ""));
+        messageService.createMessage(new MessageImpl("user0", "new", "new"));
+
+        Assertions.assertEquals("message 0", userMessages.get("msg0").getMessage());
+        Assertions.assertTrue(userMessages.containsKey("msg1"));
+        Assertions.assertFalse(userMessages.containsKey("new"));
+        Assertions.assertEquals(MESSAGES_PER_USER, userMessages.size());
+        Assertions.assertEquals(MESSAGES_PER_USER, messageIds.size());
+        Assertions.assertEquals(USERS * MESSAGES_PER_USER, allMessages.size());
+        Assertions.assertEquals("message 0", allMessages.iterator().next().getMessage());
+        assertThrows(UnsupportedOperationException.class, () -> userMessages.remove("msg0"));
+
+        Assertions.assertEquals("changed", messageService.getUserMessages("user0").get("msg0").getMessage());
+        Assertions.assertFalse(messageService.getUserMessages("user0").containsKey("msg1"));
+    }
+
+    @Test
+    void randomCreatesAndDeletesExpectSameContentAsTreeMap() throws Exception {
+        Random random = new Random(42);
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            String messageId = "msg" + random.nextInt(2000);
+            if (expected.containsKey(messageId)) {
+                messageService.deleteMessage(new MessageImpl("user", messageId, ""));
+                expected.remove(messageId);
+            } else {
+                messageService.createMessage(new MessageImpl("user", messageId, "text " + i));
+                expected.put(messageId, "text " + i);
+            }
+        }
+
+        Assertions.assertEquals(new ArrayList<>(expected.keySet()),
+                new ArrayList<>(messageService.getUserMessageIds("user")));
+        Map<String, String> texts = new TreeMap<>();
+        messageService.getUserMessages("user").forEach((messageId, message) -> texts.put(messageId, message.getMessage()));
+        Assertions.assertEquals(expected, texts);
+        Assertions.assertEquals(expected.size(), messageService.getAllMessages().size());
+    }
+
+    @Test
+    void applyBatchExpectPerItemResultsAndUserOrderKept() throws Exception {
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+
+        List<BatchOperation> operations = new ArrayList<>();
+        operations.add(new BatchOperation(BatchOperation.Type.CREATE, "Olga", "Nobel", "The Nobel price"));
+        operations.add(new BatchOperation(BatchOperation.Type.CREATE, "Doris", "Martha", "Again"));
+        operations.add(new BatchOperation(BatchOperation.Type.UPDATE, "Olga", "Nobel", "Updated in the batch"));
+        operations.add(new BatchOperation(BatchOperation.Type.DELETE, "Doris", "Martha", null));
+        operations.add(new BatchOperation(BatchOperation.Type.UPDATE, "Doris", "Martha", "Already deleted"));
+        operations.add(new BatchOperation(BatchOperation.Type.DELETE, "nobody", "msg", null));
+
+        List<BatchResult> results = messageService.applyBatch(operations);
+
+        Assertions.assertEquals(operations.size(), results.size());
+        int[] expectedStatus = {200, 409, 200, 200, 404, 404};
+        for (int i = 0; i < expectedStatus.length; i++) {
+            Assertions.assertEquals(i, results.get(i).getIndex());
+            Assertions.assertEquals(expectedStatus[i], results.get(i).getStatus(), results.get(i).toString());
+        }
+        Assertions.assertEquals("Updated in the batch",
+                messageService.getMessage(new MessageImpl("Olga", "Nobel", "")).getMessage());
+        Assertions.assertTrue(messageService.getUserMessages("Doris").isEmpty());
+    }
+
+    @Test
+    void concurrentBatchesExpectNoLostWrites() throws Exception {
+        runOnAllThreads(thread -> {
+            List<BatchOperation> operations = new ArrayList<>();
+            for (int u = 0; u < USERS; u++) {
+                for (int m = 0; m < MESSAGES_PER_USER; m++) {
+                    operations.add(new BatchOperation(BatchOperation.Type.CREATE,
+                            "user" + u, thread + "-" + m, "message " + m));
+                }
+            }
+            for (BatchResult result : messageService.applyBatch(operations)) {
+                Assertions.assertEquals(200, result.getStatus());
+            }
+        });
+
+        Assertions.assertEquals(THREADS * USERS * MESSAGES_PER_USER, messageService.getAllMessages().size());
+    }
+
+    private void populate() {
+        for (int u = 0; u < USERS; u++) {
+            for (int m = 0; m < MESSAGES_PER_USER; m++) {
+                final MessageImpl message = new MessageImpl("user" + u, "msg" + m, "message " + m);
+                assertDoesNotThrow(() -> { messageService.createMessage(message); });
+            }
+        }
+    }
+
+    private void runOnAllThreads(ThreadTask task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run(thread);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,139 @@
+package se.axeto.msgboardpoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.jupiter.api.*;
+import se.axeto.msgboardpoc.api.ContentEncoding;
+import se.axeto.msgboardpoc.api.EncodedViewCache;
+import se.axeto.msgboardpoc.api.WireFormat;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+public class EncodedViewCacheTest {
+
+    private ConcurrentMessageServiceImpl messageService;
+    private EncodedViewCache viewCache;
+    private final AtomicInteger reads = new AtomicInteger();
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        messageService = new ConcurrentMessageServiceImpl(4);
+        viewCache = new EncodedViewCache(new ObjectMapper(), new ObjectMapper(new CBORFactory()), 1 << 20);
+        messageService.addListener(viewCache);
+
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        messageService.createMessage(new MessageImpl("Olga", "Flights", "Flights"));
+    }
+
+    @Test
+    void repeatedGetsExpectOneReadAndTheSameBytes() throws Exception {
+        byte[] first = getUser("Doris");
+        byte[] second = getUser("Doris");
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, reads.get());
+
+        Assertions.assertSame(getAll(), getAll());
+        Assertions.assertEquals(2, reads.get());
+    }
+
+    @Test
+    void writeToUserExpectOnlyItsViewAndAllMessagesRead() throws Exception {
+        getUser("Doris");
+        getUser("Olga");
+        getAll();
+        Assertions.assertEquals(3, viewCache.size());
+
+        messageService.updateMessage(new MessageImpl("Doris", "Martha", "Martha Quest, updated"));
+        Assertions.assertEquals(1, viewCache.size());
+
+        reads.set(0);
+        getUser("Olga");
+        Assertions.assertEquals(0, reads.get());
+        Assertions.assertTrue(new String(getUser("Doris"), "UTF-8").contains("Martha Quest, updated"));
+        getAll();
+        Assertions.assertEquals(2, reads.get());
+    }
+
+    @Test
+    void viewCachedAtOlderVersionExpectReadAgain() throws Exception {
+        // Read while a write is in progress, after the invalidation and before the new version
+        long before = messageService.getUserVersion("Doris");
+        messageService.updateMessage(new MessageImpl("Doris", "Martha", "Martha Quest, updated"));
+        viewCache.get("Doris", before, () -> "outdated");
+
+        Assertions.assertTrue(new String(getUser("Doris"), "UTF-8").contains("Martha Quest, updated"));
+        // And the outdated view may not replace the newer one
+        viewCache.get("Doris", before, () -> "outdated");
+        reads.set(0);
+        getUser("Doris");
+        Assertions.assertEquals(0, reads.get());
+    }
+
+    @Test
+    void formatsExpectCachedApartAndInvalidatedTogether() throws Exception {
+        long version = messageService.getUserVersion("Doris");
+        byte[] json = getUser("Doris");
+        byte[] cbor = viewCache.get("Doris", WireFormat.CBOR, version, () -> {
+            reads.incrementAndGet();
+            return messageService.getUserMessages("Doris");
+        });
+        Assertions.assertNotSame(json, cbor);
+        Assertions.assertEquals(2, reads.get());
+        Assertions.assertEquals(2, viewCache.size());
+        Assertions.assertSame(cbor, viewCache.get("Doris", WireFormat.CBOR, version, () -> "not read"));
+
+        messageService.deleteMessage(new MessageImpl("Doris", "Martha", ""));
+        Assertions.assertEquals(0, viewCache.size());
+    }
+
+    @Test
+    void gzippedViewExpectCompressedOncePerVersion() throws Exception {
+        long version = messageService.getUserVersion("Doris");
+        byte[] json = getUser("Doris");
+        byte[] gzipped = viewCache.getGzipped("Doris", WireFormat.JSON, version, json);
+        Assertions.assertArrayEquals(json, new GZIPInputStream(new ByteArrayInputStream(gzipped)).readAllBytes());
+        Assertions.assertSame(gzipped, viewCache.getGzipped("Doris", WireFormat.JSON, version, json));
+        Assertions.assertEquals(2, viewCache.size());
+
+        messageService.updateMessage(new MessageImpl("Doris", "Martha", "Martha Quest, updated"));
+        Assertions.assertEquals(0, viewCache.size());
+        long updated = messageService.getUserVersion("Doris");
+        Assertions.assertNotSame(gzipped, viewCache.getGzipped("Doris", WireFormat.JSON, updated, getUser("Doris")));
+    }
+
+    @Test
+    void acceptEncodingExpectGzipOnlyWhenAccepted() {
+        Assertions.assertTrue(ContentEncoding.acceptsGzip("gzip"));
+        Assertions.assertTrue(ContentEncoding.acceptsGzip("deflate, GZIP;q=0.5, br"));
+        Assertions.assertTrue(ContentEncoding.acceptsGzip("*"));
+        Assertions.assertFalse(ContentEncoding.acceptsGzip(null));
+        Assertions.assertFalse(ContentEncoding.acceptsGzip("identity"));
+        Assertions.assertFalse(ContentEncoding.acceptsGzip("br, gzip;q=0"));
+        Assertions.assertFalse(ContentEncoding.acceptsGzip("*, gzip; q=0.0"));
+    }
+
+    @Test
+    void unversionedViewExpectNeverCached() {
+        viewCache.get(EncodedViewCache.ALL_MESSAGES, MessageService.NO_VERSION, () -> "unversioned");
+        Assertions.assertEquals(0, viewCache.size());
+    }
+
+    private byte[] getUser(String userId) throws Exception {
+        return viewCache.get(userId, messageService.getUserVersion(userId), () -> {
+            reads.incrementAndGet();
+            return messageService.getUserMessages(userId);
+        });
+    }
+
+    private byte[] getAll() {
+        return viewCache.get(EncodedViewCache.ALL_MESSAGES, messageService.getVersion(), () -> {
+            reads.incrementAndGet();
+            return messageService.getAllMessages();
+        });
+    }
+}
@@ -0,0 +1,49 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The REST API on the <code>inmemory</code> store, which keeps no versions.
+ */
+@SpringBootTest(properties = "msgboard.store=inmemory")
+@AutoConfigureMockMvc
+public class InMemoryMessageControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Test
+    void noVersionExpectNoETagAndNeverNotModified() throws Exception {
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+
+        mockMvc.perform(get("/api/v1/message/Doris"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+        mockMvc.perform(get("/api/v1/message/Doris/Martha"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+
+        // Not even for a client that claims to have every version
+        mockMvc.perform(get("/api/v1/message/Doris").header(HttpHeaders.IF_NONE_MATCH, "*"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.Martha.message").value("Martha Quest"));
+        mockMvc.perform(get("/api/v1/message/Doris/Martha").header(HttpHeaders.IF_NONE_MATCH, "*"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("Martha Quest"));
+    }
+}
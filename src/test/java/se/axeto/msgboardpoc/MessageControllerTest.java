@@ -0,0 +1,326 @@
+package se.axeto.msgboardpoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The REST API on the default <code>concurrent</code> store, without a
+ * server. The context is shared by the tests, every test has users of its own.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class MessageControllerTest {
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void userMessagesExpectNotModifiedUntilWritten() throws Exception {
+        messageService.createMessage(new MessageImpl("etag-doris", "Martha", "Martha Quest"));
+
+        String etag = mockMvc.perform(get("/api/v1/message/etag-doris"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/api/v1/message/etag-doris").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(content().bytes(new byte[0]));
+
+        messageService.createMessage(new MessageImpl("etag-doris", "Grass", "The Grass is Singing"));
+        String written = mockMvc.perform(get("/api/v1/message/etag-doris").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.Grass.message").value("The Grass is Singing"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotEquals(etag, written);
+        mockMvc.perform(get("/api/v1/message/etag-doris").header(HttpHeaders.IF_NONE_MATCH, written))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void messageExpectNotModifiedUntilWritten() throws Exception {
+        messageService.createMessage(new MessageImpl("etag-olga", "Martha", "Martha Quest"));
+        messageService.createMessage(new MessageImpl("etag-olga", "Grass", "The Grass is Singing"));
+
+        String etag = mockMvc.perform(get("/api/v1/message/etag-olga/Martha"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("Martha Quest"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotNull(etag);
+        mockMvc.perform(get("/api/v1/message/etag-olga/Martha").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        // A write to another message of the user leaves the message as it is
+        messageService.updateMessage(new MessageImpl("etag-olga", "Grass", "The Grass is Singing, again"));
+        mockMvc.perform(get("/api/v1/message/etag-olga/Martha").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        messageService.updateMessage(new MessageImpl("etag-olga", "Martha", "Martha Quest, updated"));
+        mockMvc.perform(get("/api/v1/message/etag-olga/Martha").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("Martha Quest, updated"))
+                .andExpect(header().string(HttpHeaders.ETAG, not(etag)));
+    }
+
+    @Test
+    void formatsExpectETagsOfTheirOwn() throws Exception {
+        messageService.createMessage(new MessageImpl("etag-martha", "Grass", "The Grass is Singing"));
+
+        for (String path : List.of("/api/v1/message/etag-martha", "/api/v1/message/etag-martha/Grass")) {
+            String json = mockMvc.perform(get(path))
+                    .andExpect(status().isOk())
+                    .andExpect(varies(HttpHeaders.ACCEPT))
+                    .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+            // Not the JSON the client has
+            String cbor = mockMvc.perform(get(path).accept(MediaType.APPLICATION_CBOR)
+                    .header(HttpHeaders.IF_NONE_MATCH, json))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                    .andExpect(varies(HttpHeaders.ACCEPT))
+                    .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+            Assertions.assertNotNull(cbor);
+            Assertions.assertNotEquals(json, cbor);
+
+            mockMvc.perform(get(path).accept(MediaType.APPLICATION_CBOR).header(HttpHeaders.IF_NONE_MATCH, cbor))
+                    .andExpect(status().isNotModified())
+                    .andExpect(varies(HttpHeaders.ACCEPT));
+            mockMvc.perform(get(path).header(HttpHeaders.IF_NONE_MATCH, cbor))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(header().string(HttpHeaders.ETAG, json));
+        }
+
+        // A stream of the messages is yet another body
+        String json = mockMvc.perform(get("/api/v1/message/etag-martha"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/api/v1/message/etag-martha").accept(NDJSON).header(HttpHeaders.IF_NONE_MATCH, json))
+                .andExpect(request().asyncStarted());
+    }
+
+    @Test
+    void gzipExpectETagOfItsOwn() throws Exception {
+        // Large enough to be compressed
+        messageService.createMessage(new MessageImpl("etag-anna", "Golden", "The Golden Notebook. ".repeat(100)));
+        String path = "/api/v1/message/etag-anna";
+
+        String gzip = mockMvc.perform(get(path).header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(varies(HttpHeaders.ACCEPT_ENCODING))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        // Not the compressed body the client has
+        String identity = mockMvc.perform(get(path).header(HttpHeaders.IF_NONE_MATCH, gzip))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(jsonPath("$.Golden.messageId").value("Golden"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotNull(gzip);
+        Assertions.assertNotEquals(gzip, identity);
+
+        mockMvc.perform(get(path).header(HttpHeaders.ACCEPT_ENCODING, "gzip").header(HttpHeaders.IF_NONE_MATCH, gzip))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, gzip))
+                .andExpect(varies(HttpHeaders.ACCEPT_ENCODING));
+        mockMvc.perform(get(path).header(HttpHeaders.IF_NONE_MATCH, identity))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get(path).header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .header(HttpHeaders.IF_NONE_MATCH, identity))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"));
+    }
+
+    @Test
+    void writesExpectAnsweredWithoutAsyncProcessing() throws Exception {
+        // The write pipeline is off by default
+        String martha = objectMapper.writeValueAsString(new MessageImpl("sync-doris", "Martha", "Martha Quest"));
+        mockMvc.perform(post("/api/v1/message").contentType(MediaType.APPLICATION_JSON).content(martha))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isOk());
+        mockMvc.perform(post("/api/v1/message").contentType(MediaType.APPLICATION_JSON).content(martha))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isConflict());
+
+        String updated = objectMapper.writeValueAsString(new MessageImpl("sync-doris", "Martha", "A Proper Marriage"));
+        mockMvc.perform(put("/api/v1/message").contentType(MediaType.APPLICATION_JSON).content(updated))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isOk());
+        Assertions.assertEquals("A Proper Marriage",
+                messageService.getMessage(new MessageImpl("sync-doris", "Martha", "")).getMessage());
+
+        mockMvc.perform(delete("/api/v1/message").contentType(MediaType.APPLICATION_JSON).content(updated))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isOk());
+        mockMvc.perform(delete("/api/v1/message").contentType(MediaType.APPLICATION_JSON).content(updated))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void searchExpectWrittenMessagesFound() throws Exception {
+        // The search index is a listener of the store, registered by the application context
+        messageService.createMessage(new MessageImpl("search-doris", "Martha", "Martha crosses the veld"));
+
+        mockMvc.perform(get("/api/v1/message/search").param("q", "veld"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].userId").value("search-doris"))
+                .andExpect(jsonPath("$[0].messageId").value("Martha"));
+    }
+
+    @Test
+    void writesToAUserExpectLimitedPerClient() throws Exception {
+        // An address of its own, the rest of the tests share another bucket
+        RequestPostProcessor client = request -> {
+            request.setRemoteAddr("192.0.2.17");
+            return request;
+        };
+        int created = 0;
+        MvcResult limited = null;
+        while (limited == null && created < 1000) {
+            MessageImpl message = new MessageImpl("limited", "Martha-" + created, "Martha Quest");
+            MvcResult result = mockMvc.perform(post("/api/v1/message").with(client)
+                    .contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(message)))
+                    .andReturn();
+            if (result.getResponse().getStatus() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                limited = result;
+            } else {
+                Assertions.assertEquals(HttpStatus.OK.value(), result.getResponse().getStatus());
+                created++;
+            }
+        }
+        // The burst of the client for the user, and what it earned while writing
+        Assertions.assertNotNull(limited);
+        Assertions.assertTrue(created >= 100 && created < 1000, "Created " + created);
+        Assertions.assertNotNull(limited.getResponse().getHeader(HttpHeaders.RETRY_AFTER));
+
+        // Other clients of the user and the writes of the client to other users have their own buckets
+        String grass = objectMapper.writeValueAsString(new MessageImpl("limited", "Grass", "The Grass is Singing"));
+        mockMvc.perform(post("/api/v1/message").contentType(MediaType.APPLICATION_JSON).content(grass))
+                .andExpect(status().isOk());
+        String unlimited = objectMapper.writeValueAsString(new MessageImpl("unlimited", "Grass", "Another user"));
+        mockMvc.perform(post("/api/v1/message").with(client).contentType(MediaType.APPLICATION_JSON)
+                .content(unlimited))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void streamUserMessagesExpectOneMessagePerLine() throws Exception {
+        messageService.createMessage(new MessageImpl("stream-doris", "Martha", "Martha Quest"));
+        messageService.createMessage(new MessageImpl("stream-doris", "Marriage", "A Proper Marriage"));
+        messageService.createMessage(new MessageImpl("stream-doris", "Ripple", "A Ripple from the Storm"));
+
+        List<MessageImpl> messages = readNdjson(streamed("/api/v1/message/stream-doris"));
+        Assertions.assertEquals(3, messages.size());
+        // In message id order
+        Assertions.assertEquals("Marriage", messages.get(0).getMessageId());
+        Assertions.assertEquals("Martha Quest", messages.get(1).getMessage());
+        Assertions.assertEquals("Ripple", messages.get(2).getMessageId());
+    }
+
+    @Test
+    void streamAllMessagesExpectEveryMessage() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            messageService.createMessage(new MessageImpl("stream-olga-" + i % 3, "m" + i, "Message " + i));
+        }
+
+        long streamed = readNdjson(streamed("/api/v1/message/all")).stream()
+                .filter(message -> message.getUserId().startsWith("stream-olga-"))
+                .count();
+        Assertions.assertEquals(300, streamed);
+    }
+
+    @Test
+    void streamBatchExpectOneResultPerLine() throws Exception {
+        String operations = "{\"op\":\"CREATE\",\"userId\":\"batch-doris\",\"messageId\":\"Martha\"," +
+                "\"message\":\"Martha Quest\"}\n" +
+                "{\"op\":\"CREATE\",\"userId\":\"batch-doris\",\"messageId\":\"Martha\"," +
+                "\"message\":\"Again\"}\n";
+        MvcResult started = mockMvc.perform(post("/api/v1/message/batch").contentType(NDJSON).content(operations))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        started.getAsyncResult();
+        String body = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.valueOf(NDJSON)))
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        String[] lines = body.split("\n");
+        Assertions.assertEquals(2, lines.length);
+        Assertions.assertEquals(200, objectMapper.readTree(lines[0]).get("status").asInt());
+        Assertions.assertEquals(409, objectMapper.readTree(lines[1]).get("status").asInt());
+    }
+
+    /**
+     * A response that varies with a request header, listed on its own or with others.
+     */
+    private static ResultMatcher varies(String requestHeader) {
+        return result -> {
+            List<String> vary = result.getResponse().getHeaders(HttpHeaders.VARY);
+            Assertions.assertTrue(vary.stream()
+                    .flatMap(value -> Arrays.stream(value.split(",")))
+                    .anyMatch(value -> value.trim().equalsIgnoreCase(requestHeader)), "Vary: " + vary);
+        };
+    }
+
+    /**
+     * @return The body of a streamed GET, once it has been written.
+     */
+    private String streamed(String path) throws Exception {
+        MvcResult started = mockMvc.perform(get(path).accept(NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        started.getAsyncResult();
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.valueOf(NDJSON)))
+                .andReturn();
+        return result.getResponse().getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    private List<MessageImpl> readNdjson(String body) throws Exception {
+        Assertions.assertTrue(body.endsWith("\n"));
+        List<MessageImpl> messages = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            messages.add(objectMapper.readValue(line, MessageImpl.class));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,140 @@
+package se.axeto.msgboardpoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.*;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.push.EventSink;
+import se.axeto.msgboardpoc.push.MessageEventBroadcaster;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MessageEventBroadcasterTest {
+
+    private static final int SUBSCRIBER_QUEUE_SIZE = 16;
+
+    private ConcurrentMessageServiceImpl messageService;
+    private MessageEventBroadcaster broadcaster;
+
+    @BeforeEach
+    void beforeEach() {
+        messageService = new ConcurrentMessageServiceImpl(4);
+        broadcaster = new MessageEventBroadcaster(new ObjectMapper(), 20, 100, 10_000,
+                SUBSCRIBER_QUEUE_SIZE, 2, 60);
+        messageService.addListener(broadcaster);
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.close();
+    }
+
+    @Test
+    void writesExpectEventsInBatchesInOrder() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        broadcaster.subscribe(sink);
+
+        for (int m = 0; m < 500; m++) {
+            messageService.createMessage(new MessageImpl("Doris", "msg" + m, "Message " + m));
+        }
+        messageService.updateMessage(new MessageImpl("Doris", "msg0", "Updated"));
+        messageService.deleteMessage(new MessageImpl("Doris", "msg1", ""));
+
+        Assertions.assertTrue(sink.awaitSequence(502));
+        Assertions.assertEquals(502, sink.eventCount());
+        Assertions.assertTrue(sink.batches.size() < 502, "Expected micro-batches, got " + sink.batches.size());
+        Assertions.assertTrue(sink.batches.get(sink.batches.size() - 1).contains("DELETED"));
+    }
+
+    @Test
+    void slowSubscriberExpectDisconnectedWithoutStallingOthers() throws Exception {
+        RecordingSink fast = new RecordingSink();
+        RecordingSink slow = new RecordingSink();
+        slow.blocked = new CountDownLatch(1);
+        broadcaster.subscribe(fast);
+        broadcaster.subscribe(slow);
+
+        for (int m = 0; m < 100; m++) {
+            messageService.createMessage(new MessageImpl("Doris", "msg" + m, "Message " + m));
+            // One batch per write, more than fit in the queue of the slow subscriber, however slow the senders are
+            Assertions.assertTrue(fast.awaitSequence(m + 1));
+        }
+
+        Assertions.assertTrue(fast.awaitSequence(100));
+        Assertions.assertEquals(1, broadcaster.subscriberCount());
+
+        // Closed once the send it is stuck in returns
+        slow.blocked.countDown();
+        Assertions.assertTrue(slow.closed.await(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(slow.lastSequence < 100);
+    }
+
+    @Test
+    void cancelExpectSinkClosedOnceAndNoMoreEvents() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        MessageEventBroadcaster.Subscription subscription = broadcaster.subscribe(sink);
+        subscription.cancel();
+        subscription.cancel();
+
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        Thread.sleep(100);
+
+        Assertions.assertEquals(0, sink.closed.getCount());
+        Assertions.assertEquals(1, sink.closeCalls);
+        Assertions.assertTrue(sink.batches.isEmpty());
+        Assertions.assertEquals(0, broadcaster.subscriberCount());
+    }
+
+    private static final class RecordingSink implements EventSink {
+        final List<String> batches = new CopyOnWriteArrayList<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile CountDownLatch blocked;
+        volatile long lastSequence;
+        volatile int closeCalls;
+
+        @Override
+        public void send(long lastSequence, String events) throws IOException {
+            if (blocked != null) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            Assertions.assertTrue(lastSequence > this.lastSequence);
+            batches.add(events);
+            this.lastSequence = lastSequence;
+        }
+
+        @Override
+        public void heartbeat() {
+        }
+
+        @Override
+        public void close() {
+            closeCalls++;
+            closed.countDown();
+        }
+
+        int eventCount() {
+            int count = 0;
+            for (String batch : batches) {
+                count += batch.split("sequence", -1).length - 1;
+            }
+            return count;
+        }
+
+        boolean awaitSequence(long sequence) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (lastSequence < sequence && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            return lastSequence >= sequence;
+        }
+    }
+}
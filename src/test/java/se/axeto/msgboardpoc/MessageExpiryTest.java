@@ -0,0 +1,162 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.expiry.MessageExpiry;
+import se.axeto.msgboardpoc.expiry.TimingWheel;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+import se.axeto.msgboardpoc.service.ListenableMessageStore;
+import se.axeto.msgboardpoc.service.MessageService;
+import se.axeto.msgboardpoc.service.OffHeapMessageServiceImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MessageExpiryTest {
+
+    @Test
+    void timersExpectFiredInOrderNeverEarlyAndAtMostATickLate() {
+        TimingWheel<Long> wheel = new TimingWheel<>(10, 0);
+        Random random = new Random(42);
+        List<Long> pending = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            // From the first level up to days away
+            long deadline = (long) Math.pow(10, 1 + random.nextDouble() * 7);
+            pending.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+        Assertions.assertEquals(10_000, wheel.size());
+
+        List<Long> fired = new ArrayList<>();
+        long now = 0;
+        while (wheel.size() > 0) {
+            now += 1 + random.nextInt(5000);
+            long at = now;
+            List<Long> firedNow = new ArrayList<>();
+            wheel.advance(now, timer -> {
+                Assertions.assertTrue(timer.getDeadlineMillis() <= at);
+                firedNow.add(timer.getValue());
+            });
+            fired.addAll(firedNow);
+            pending.removeAll(firedNow);
+            for (Long deadline : pending) {
+                Assertions.assertTrue(deadline > now - 10);
+            }
+        }
+        Assertions.assertEquals(10_000, fired.size());
+        // In the order of their ticks
+        for (int i = 1; i < fired.size(); i++) {
+            Assertions.assertTrue((fired.get(i - 1) + 9) / 10 <= (fired.get(i) + 9) / 10);
+        }
+    }
+
+    @Test
+    void cancelledTimersExpectNotFired() {
+        TimingWheel<String> wheel = new TimingWheel<>(100, 1000);
+        TimingWheel.Timer<String> soon = wheel.schedule(1050, "soon");
+        TimingWheel.Timer<String> later = wheel.schedule(500_000, "later");
+        wheel.schedule(100_000_000, "much later");
+        Assertions.assertTrue(wheel.cancel(soon));
+        Assertions.assertTrue(wheel.cancel(later));
+        Assertions.assertFalse(wheel.cancel(later));
+
+        List<String> fired = new ArrayList<>();
+        Assertions.assertEquals(0, wheel.advance(99_999_999, timer -> fired.add(timer.getValue())));
+        Assertions.assertEquals(1, wheel.advance(100_000_000, timer -> fired.add(timer.getValue())));
+        Assertions.assertEquals(Collections.singletonList("much later"), fired);
+        Assertions.assertEquals(0, wheel.size());
+
+        // A deadline in the past is due on the next tick
+        wheel.schedule(0, "past");
+        Assertions.assertEquals(0, wheel.advance(100_000_099, timer -> fired.add(timer.getValue())));
+        Assertions.assertEquals(1, wheel.advance(100_000_100, timer -> fired.add(timer.getValue())));
+    }
+
+    @Test
+    void messagesWithTtlExpectDeletedThroughTheStore() throws Exception {
+        ConcurrentMessageServiceImpl store = new ConcurrentMessageServiceImpl();
+        AtomicLong clock = new AtomicLong();
+        MessageExpiry expiry = new MessageExpiry(() -> store, 100, clock::get);
+        store.createMessage(new MessageImpl("Doris", "before", "Created before the listener", 5L));
+        store.addListener(expiry);
+
+        store.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest", 10L));
+        store.createMessage(new MessageImpl("Doris", "Shikasta", "Re: Colonised Planet 5", 10L));
+        store.createMessage(new MessageImpl("Doris", "Grass", "The Grass is Singing", 10L));
+        store.createMessage(new MessageImpl("Doris", "forever", "Does not expire"));
+        Assertions.assertEquals(4, expiry.scheduledCount());
+
+        clock.set(4000);
+        store.updateMessage(new MessageImpl("Doris", "Shikasta", "Renewed", 10L));
+        store.updateMessage(new MessageImpl("Doris", "Grass", "No longer expires"));
+        Assertions.assertEquals(3, expiry.scheduledCount());
+
+        clock.set(5000);
+        Assertions.assertEquals(1, expiry.expire());
+        assertThrows(MessageNotFoundException.class,
+                () -> store.getMessage(new MessageImpl("Doris", "before", "")));
+
+        clock.set(10_000);
+        store.deleteMessage(new MessageImpl("Doris", "Martha", ""));
+        Assertions.assertEquals(0, expiry.expire());
+        Assertions.assertEquals(1, expiry.scheduledCount());
+
+        clock.set(14_000);
+        Assertions.assertEquals(1, expiry.expire());
+        Assertions.assertEquals(0, expiry.scheduledCount());
+        Assertions.assertEquals(2, store.getUserMessages("Doris").size());
+        Assertions.assertEquals("No longer expires", store.getMessage(new MessageImpl("Doris", "Grass", ""))
+                .getMessage());
+        assertThrows(MessageNotFoundException.class,
+                () -> store.getMessage(new MessageImpl("Doris", "Shikasta", "")));
+    }
+
+    @Test
+    void messagesWrittenWhenDueExpectKept() throws Exception {
+        writtenWhenDueExpectKept(new ConcurrentMessageServiceImpl());
+        writtenWhenDueExpectKept(new OffHeapMessageServiceImpl());
+    }
+
+    private <S extends MessageService & ListenableMessageStore> void writtenWhenDueExpectKept(S store)
+            throws Exception {
+        AtomicLong clock = new AtomicLong();
+        AtomicBoolean written = new AtomicBoolean();
+        // Updated once the timer is due, before the expiry deletes it
+        MessageExpiry expiry = new MessageExpiry(() -> {
+            if (written.compareAndSet(false, true)) {
+                try {
+                    store.updateMessage(new MessageImpl("Doris", "Martha", "Renewed", 60L));
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+            return store;
+        }, 100, clock::get);
+        store.addListener(expiry);
+        store.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest", 10L));
+
+        clock.set(10_000);
+        Assertions.assertEquals(0, expiry.expire());
+        Assertions.assertTrue(written.get());
+        Assertions.assertEquals("Renewed", store.getMessage(new MessageImpl("Doris", "Martha", "")).getMessage());
+        Assertions.assertEquals(1, expiry.scheduledCount());
+
+        clock.set(70_000);
+        Assertions.assertEquals(1, expiry.expire());
+        assertThrows(MessageNotFoundException.class,
+                () -> store.getMessage(new MessageImpl("Doris", "Martha", "")));
+    }
+
+    @Test
+    void nonPositiveTtlExpectRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new MessageImpl("Doris", "Martha", "Martha Quest", 0L));
+    }
+}
@@ -0,0 +1,104 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.*;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.search.MessageSearchIndex;
+import se.axeto.msgboardpoc.search.SearchHit;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class MessageSearchIndexTest {
+
+    private ConcurrentMessageServiceImpl messageService;
+    private MessageSearchIndex searchIndex;
+
+    @BeforeEach
+    void beforeEach() {
+        messageService = new ConcurrentMessageServiceImpl(4);
+        searchIndex = new MessageSearchIndex();
+        messageService.addListener(searchIndex);
+    }
+
+    @Test
+    void searchExpectCaseAndPunctuationIgnoredAndAllTermsRequired() throws Exception {
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest, a novel."));
+        messageService.createMessage(new MessageImpl("Doris", "Gräs", "Gräset sjunger: a NOVEL about Africa"));
+        messageService.createMessage(new MessageImpl("Olga", "Flights", "Flights, fragments of travel"));
+
+        Assertions.assertEquals(Set.of("Martha", "Gräs"), new HashSet<>(messageIds(searchIndex.search("novel", 10))));
+        Assertions.assertEquals(ids("Gräs"), messageIds(searchIndex.search("GRÄSET novel", 10)));
+        Assertions.assertEquals(ids(), messageIds(searchIndex.search("novel travel", 10)));
+        Assertions.assertEquals(ids(), messageIds(searchIndex.search("unknown", 10)));
+        Assertions.assertEquals(ids(), messageIds(searchIndex.search(" ,.; ", 10)));
+    }
+
+    @Test
+    void searchExpectMoreOccurrencesInShorterTextsFirstAndAtMostLimitHits() throws Exception {
+        messageService.createMessage(new MessageImpl("user", "long", "book and a lot of other words about nothing"));
+        messageService.createMessage(new MessageImpl("user", "short", "book"));
+        messageService.createMessage(new MessageImpl("user", "repeated", "book book book and more"));
+
+        List<SearchHit> hits = searchIndex.search("book", 10);
+        Assertions.assertEquals(ids("repeated", "short", "long"), messageIds(hits));
+        Assertions.assertTrue(hits.get(0).getScore() > hits.get(1).getScore());
+        Assertions.assertEquals(ids("repeated", "short"), messageIds(searchIndex.search("book", 2)));
+    }
+
+    @Test
+    void updateAndDeleteExpectOnlyCurrentTextsFound() throws Exception {
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        messageService.updateMessage(new MessageImpl("Doris", "Martha", "The golden notebook"));
+        Assertions.assertEquals(ids(), messageIds(searchIndex.search("quest", 10)));
+        Assertions.assertEquals(ids("Martha"), messageIds(searchIndex.search("notebook", 10)));
+
+        messageService.deleteMessage(new MessageImpl("Doris", "Martha", ""));
+        Assertions.assertEquals(ids(), messageIds(searchIndex.search("notebook", 10)));
+        Assertions.assertEquals(0, searchIndex.size());
+    }
+
+    @Test
+    void manyUpdatesExpectIndexCompactedAndResultsKept() throws Exception {
+        for (int m = 0; m < 100; m++) {
+            messageService.createMessage(new MessageImpl("user", "msg" + m, "common start " + m));
+        }
+        // Enough rewrites to renumber the documents a few times
+        for (int round = 0; round < 2000; round++) {
+            for (int m = 0; m < 100; m++) {
+                messageService.updateMessage(new MessageImpl("user", "msg" + m, "common round" + round + " " + m));
+            }
+        }
+
+        Assertions.assertEquals(100, searchIndex.size());
+        Assertions.assertEquals(100, searchIndex.search("common", 1000).size());
+        Assertions.assertEquals(ids(), messageIds(searchIndex.search("start", 10)));
+        Assertions.assertEquals(ids("msg42"), messageIds(searchIndex.search("round1999 42", 10)));
+    }
+
+    @Test
+    void registerAfterWritesExpectExistingMessagesIndexed() throws Exception {
+        ConcurrentMessageServiceImpl store = new ConcurrentMessageServiceImpl(4);
+        store.createMessage(new MessageImpl("Olga", "Flights", "Flights"));
+        MessageSearchIndex lateIndex = new MessageSearchIndex();
+        store.addListener(lateIndex);
+        store.createMessage(new MessageImpl("Olga", "Books", "The books of Jacob"));
+
+        Assertions.assertEquals(ids("Flights"), messageIds(lateIndex.search("flights", 10)));
+        Assertions.assertEquals(ids("Books"), messageIds(lateIndex.search("jacob", 10)));
+    }
+
+    private static List<String> ids(String... messageIds) {
+        return List.of(messageIds);
+    }
+
+    private static List<String> messageIds(List<SearchHit> hits) {
+        List<String> messageIds = new ArrayList<>();
+        for (SearchHit hit : hits) {
+            messageIds.add(hit.getMessageId());
+        }
+        return messageIds;
+    }
+}
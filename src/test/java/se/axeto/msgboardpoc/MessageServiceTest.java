@@ -5,11 +5,15 @@ import se.axeto.msgboardpoc.exceptions.MessageExistException;
 import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
 import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
 import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageIdPage;
 import se.axeto.msgboardpoc.model.MessageImpl;
 import se.axeto.msgboardpoc.service.InMemoryMessageServiceImpl;
 import se.axeto.msgboardpoc.service.MessageService;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
@@ -223,4 +227,34 @@ public class MessageServiceTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    void getAllUsersExpectSorted() {
+        Assertions.assertEquals(List.of(DORIS_LESSING, KARL_OVE_KNAUSGÅRD, OLGA_TOKARCZUK),
+                new ArrayList<>(this.messageService.getAllUsers()));
+    }
+
+    @Test
+    void getUserMessageIdsExpectSortedPages() {
+        Collection<String> ids = assertDoesNotThrow(() -> this.messageService.getUserMessageIds(KARL_OVE_KNAUSGÅRD));
+        Assertions.assertEquals(6, ids.size());
+        Assertions.assertEquals(MY_STRUGGLE_1, ids.iterator().next());
+
+        MessageIdPage first = assertDoesNotThrow(() ->
+                this.messageService.getUserMessageIds(DORIS_LESSING, "A ", null, 1));
+        Assertions.assertEquals(List.of("A Proper Marriage"), first.getMessageIds());
+        MessageIdPage last = assertDoesNotThrow(() ->
+                this.messageService.getUserMessageIds(DORIS_LESSING, "A ", first.getNextCursor(), 1));
+        Assertions.assertEquals(List.of("A Ripple from the Storm"), last.getMessageIds());
+        Assertions.assertNull(last.getNextCursor());
+
+        assertThrows(UserNotFoundException.class, () -> { this.messageService.getUserMessageIds("Nobody"); });
+    }
+
+    @Test
+    void getDataExpectAllTexts() {
+        Map<String, Map<String, String>> data = this.messageService.getData();
+        Assertions.assertEquals(3, data.size());
+        Assertions.assertEquals(MARTHA_QUEST_MESSAGE, data.get(DORIS_LESSING).get(MARTHA_QUEST));
+        Assertions.assertEquals(6, data.get(KARL_OVE_KNAUSGÅRD).size());
+    }
+}
@@ -0,0 +1,91 @@
+package se.axeto.msgboardpoc;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.metrics.MeteredMessageService;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MeteredMessageServiceTest {
+
+    private MeterRegistry meterRegistry;
+    private ConcurrentMessageServiceImpl store;
+    private MeteredMessageService messageService;
+
+    @BeforeEach
+    void beforeEach() {
+        meterRegistry = new SimpleMeterRegistry();
+        store = new ConcurrentMessageServiceImpl();
+        messageService = new MeteredMessageService(store, meterRegistry);
+    }
+
+    @Test
+    void operationsExpectTimedPerOperation() throws Exception {
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        messageService.createMessage(new MessageImpl("Doris", "Grass", "The Grass is Singing"));
+        messageService.updateMessage(new MessageImpl("Doris", "Martha", "Martha Quest, updated"));
+        Assertions.assertEquals("Martha Quest, updated",
+                messageService.getMessage(new MessageImpl("Doris", "Martha", "")).getMessage());
+
+        Assertions.assertEquals(2, timerCount("createMessage"));
+        Assertions.assertEquals(1, timerCount("updateMessage"));
+        Assertions.assertEquals(1, timerCount("getMessage"));
+        Assertions.assertEquals(0, timerCount("deleteMessage"));
+        Assertions.assertTrue(meterRegistry.get("msgboard.store.operation").tag("operation", "createMessage")
+                .timer().totalTime(TimeUnit.NANOSECONDS) > 0);
+
+        // The size of the wrapped store
+        Assertions.assertEquals(1, meterRegistry.get("msgboard.store.users").gauge().value());
+        Assertions.assertEquals(2, meterRegistry.get("msgboard.store.messages").gauge().value());
+    }
+
+    @Test
+    void failuresExpectThrownAndCountedByType() throws Exception {
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+
+        MessageExistException exists = assertThrows(MessageExistException.class, () -> {
+            messageService.createMessage(new MessageImpl("Doris", "Martha", "Again"));
+        });
+        Assertions.assertNotNull(exists.getMessage());
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.deleteMessage(new MessageImpl("Doris", "Grass", ""));
+        });
+        assertThrows(UserNotFoundException.class, () -> {
+            messageService.getUserMessages("Olga");
+        });
+        assertThrows(IllegalArgumentException.class, () -> {
+            messageService.getMessages("not a cursor", 10);
+        });
+
+        Assertions.assertEquals(1, exceptionCount("createMessage", "MessageExistException"));
+        Assertions.assertEquals(1, exceptionCount("deleteMessage", "MessageNotFoundException"));
+        Assertions.assertEquals(1, exceptionCount("getUserMessages", "UserNotFoundException"));
+        Assertions.assertEquals(1, exceptionCount("getMessages", "IllegalArgumentException"));
+        Assertions.assertEquals(0, exceptionCount("createMessage", "other"));
+        // A failed operation is timed too
+        Assertions.assertEquals(2, timerCount("createMessage"));
+        Assertions.assertEquals(1, timerCount("deleteMessage"));
+        // Nothing changed in the store
+        Assertions.assertEquals("Martha Quest", store.getMessage(new MessageImpl("Doris", "Martha", ""))
+                .getMessage());
+    }
+
+    private long timerCount(String operation) {
+        return meterRegistry.get("msgboard.store.operation").tag("operation", operation).timer().count();
+    }
+
+    private double exceptionCount(String operation, String exception) {
+        return meterRegistry.get("msgboard.store.exceptions").tag("operation", operation)
+                .tag("exception", exception).counter().count();
+    }
+}
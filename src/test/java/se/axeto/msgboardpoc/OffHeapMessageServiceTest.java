@@ -0,0 +1,136 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.*;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.service.OffHeapMessageServiceImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OffHeapMessageServiceTest {
+
+    private OffHeapMessageServiceImpl messageService;
+
+    @BeforeEach
+    void beforeEach() {
+        messageService = new OffHeapMessageServiceImpl(4);
+    }
+
+    @Test
+    void createUpdateDeleteExpectSameSemanticsAsOnHeap() throws Exception {
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        messageService.createMessage(new MessageImpl("Doris", "Gräs", "Gräset sjunger"));
+
+        assertThrows(MessageExistException.class, () -> {
+            messageService.createMessage(new MessageImpl("Doris", "Martha", "Again"));
+        });
+        assertThrows(UserNotFoundException.class, () -> {
+            messageService.updateMessage(new MessageImpl("Olga", "Nobel", "The Nobel price"));
+        });
+
+        messageService.updateMessage(new MessageImpl("Doris", "Martha", "Martha Quest, updated"));
+        Assertions.assertEquals("Martha Quest, updated",
+                messageService.getMessage(new MessageImpl("Doris", "Martha", "")).getMessage());
+        Assertions.assertEquals("Gräset sjunger",
+                messageService.getUserMessages("Doris").get("Gräs").getMessage());
+
+        Message deleted = messageService.deleteMessage(new MessageImpl("Doris", "Gräs", ""));
+        Assertions.assertEquals("Gräset sjunger", deleted.getMessage());
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessage(new MessageImpl("Doris", "Gräs", ""));
+        });
+        Assertions.assertEquals(1, messageService.getAllMessages().size());
+    }
+
+    @Test
+    void writesExpectVersionsKeptWithTheRecords() throws Exception {
+        MessageImpl martha = new MessageImpl("Doris", "Martha", "");
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        long created = messageService.getMessageVersion(martha);
+        Assertions.assertEquals(created, messageService.getUserVersion("Doris"));
+
+        messageService.updateMessage(new MessageImpl("Doris", "Martha", "Martha Quest, updated"));
+        long updated = messageService.getMessageVersion(martha);
+        Assertions.assertTrue(updated > created);
+
+        messageService.createMessage(new MessageImpl("Doris", "Gräs", "Gräset sjunger"));
+        messageService.deleteMessage(new MessageImpl("Doris", "Gräs", ""));
+        Assertions.assertTrue(messageService.getUserVersion("Doris") > updated);
+        Assertions.assertEquals(updated, messageService.getMessageVersion(martha));
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessageVersion(new MessageImpl("Doris", "Gräs", ""));
+        });
+    }
+
+    @Test
+    void rewriteManyTimesExpectFreedSpaceReused() throws Exception {
+        for (int m = 0; m < 1000; m++) {
+            messageService.createMessage(new MessageImpl("user", "msg" + m, "message " + m));
+        }
+        long reserved = messageService.offHeapBytes();
+
+        for (int round = 0; round < 20; round++) {
+            for (int m = 0; m < 1000; m++) {
+                messageService.updateMessage(new MessageImpl("user", "msg" + m, "round " + round));
+            }
+            for (int m = 0; m < 1000; m += 2) {
+                messageService.deleteMessage(new MessageImpl("user", "msg" + m, ""));
+                messageService.createMessage(new MessageImpl("user", "msg" + m, "recreated " + round));
+            }
+        }
+
+        Assertions.assertEquals(reserved, messageService.offHeapBytes());
+        Assertions.assertEquals(1000, messageService.getUserMessages("user").size());
+        Assertions.assertEquals("round 19",
+                messageService.getMessage(new MessageImpl("user", "msg1", "")).getMessage());
+    }
+
+    @Test
+    void readWhileWritingExpectOnlyCommittedValues() throws Exception {
+        for (int m = 0; m < 100; m++) {
+            messageService.createMessage(new MessageImpl("user", "msg" + m, "v0"));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<?>> readers = new ArrayList<>();
+        try {
+            for (int t = 0; t < 3; t++) {
+                readers.add(executor.submit(() -> {
+                    while (running.get()) {
+                        for (int m = 0; m < 100; m++) {
+                            String text = messageService.getMessage(new MessageImpl("user", "msg" + m, ""))
+                                    .getMessage();
+                            Assertions.assertTrue(text.startsWith("v"), text);
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            // Texts of changing lengths move the records between size classes
+            for (int round = 1; round < 200; round++) {
+                for (int m = 0; m < 100; m++) {
+                    final MessageImpl message = new MessageImpl("user", "msg" + m,
+                            "v" + "x".repeat((round * 7 + m) % 300));
+                    assertDoesNotThrow(() -> { messageService.updateMessage(message); });
+                }
+            }
+        } finally {
+            running.set(false);
+            for (Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import se.axeto.msgboardpoc.admission.SharedSecretInterceptor;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The partition API of a node of a cluster of one.
+ */
+@SpringBootTest(properties = {"msgboard.cluster.node-id=node0", "msgboard.cluster.nodes=node0=http://localhost:8080",
+        "msgboard.cluster.secret=Shikasta"})
+@AutoConfigureMockMvc
+public class PartitionApiTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void requestsWithoutTheClusterSecretExpectForbidden() throws Exception {
+        mockMvc.perform(get("/internal/v1/partition/users"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/internal/v1/partition/users").header(SharedSecretInterceptor.SECRET_HEADER, "Grass"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/internal/v1/partition/users").header(SharedSecretInterceptor.SECRET_HEADER, "Shikasta"))
+                .andExpect(status().isOk());
+
+        // The message API is for the clients
+        mockMvc.perform(get("/api/v1/message/all"))
+                .andExpect(status().isOk());
+    }
+}
@@ -0,0 +1,202 @@
+package se.axeto.msgboardpoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import se.axeto.msgboardpoc.cluster.ConsistentHashRing;
+import se.axeto.msgboardpoc.cluster.PartitionController;
+import se.axeto.msgboardpoc.cluster.PartitioningPostProcessor;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.UserNotFoundException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.model.MessagePage;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+import se.axeto.msgboardpoc.service.InMemoryMessageServiceImpl;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PartitionedMessageServiceTest {
+
+    private static final int USERS = 300;
+
+    private ClusterHarness cluster;
+
+    @BeforeEach
+    void beforeEach() {
+        cluster = new ClusterHarness(3);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        cluster.close();
+    }
+
+    @Test
+    void writesThroughAnyNodeExpectUsersOnTheirNodeAndReadableFromAll() throws Exception {
+        List<String> nodeIds = cluster.nodeIds();
+        for (int u = 0; u < USERS; u++) {
+            cluster.node(nodeIds.get(u % nodeIds.size()))
+                    .createMessage(new MessageImpl("user" + u, "first", "From user " + u));
+        }
+
+        int storedUsers = 0;
+        for (String nodeId : nodeIds) {
+            MessageService store = cluster.store(nodeId);
+            Assertions.assertFalse(store.getAllUsers().isEmpty());
+            for (String user : store.getAllUsers()) {
+                Assertions.assertEquals(nodeId, cluster.ring().nodeFor(user));
+            }
+            storedUsers += store.getAllUsers().size();
+        }
+        Assertions.assertEquals(USERS, storedUsers);
+
+        for (String nodeId : nodeIds) {
+            MessageService node = cluster.node(nodeId);
+            Assertions.assertEquals(USERS, node.getAllMessages().size());
+            Assertions.assertEquals(USERS, node.getData().size());
+            List<String> users = new ArrayList<>(node.getAllUsers());
+            Assertions.assertEquals(USERS, users.size());
+            for (int i = 1; i < users.size(); i++) {
+                Assertions.assertTrue(users.get(i - 1).compareTo(users.get(i)) < 0);
+            }
+            Assertions.assertEquals("From user 7", node.getMessage(new MessageImpl("user7", "first", "")).getMessage());
+        }
+
+        // The version of all messages is the same on every node and changes with a write to any of them
+        long version = cluster.node("node0").getVersion();
+        Assertions.assertEquals(version, cluster.node("node2").getVersion());
+        cluster.store("node1").createMessage(new MessageImpl("user1", "second", "Straight to the store"));
+        Assertions.assertTrue(cluster.node("node0").getVersion() > version);
+    }
+
+    @Test
+    void restartedNodeExpectHigherVersions() throws Exception {
+        MessageService store = new ConcurrentMessageServiceImpl();
+        store.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        PartitionController started = partitionController(store, 1_600_000_000_000L);
+
+        // The same writes after a restart a second later, the store has the same versions
+        MessageService restarted = new ConcurrentMessageServiceImpl();
+        restarted.createMessage(new MessageImpl("Doris", "Grass", "The Grass is Singing"));
+        Assertions.assertEquals(store.getUserVersion("Doris"), restarted.getUserVersion("Doris"));
+        PartitionController restartedController = partitionController(restarted, 1_600_000_001_000L);
+
+        Assertions.assertTrue(restartedController.getUserVersion("Doris") > started.getUserVersion("Doris"));
+        Assertions.assertTrue(restartedController.getMessageVersion("Doris", "Grass") >
+                started.getMessageVersion("Doris", "Martha"));
+        Assertions.assertTrue(restartedController.getVersion() > started.getVersion());
+        Assertions.assertEquals(MessageService.NO_VERSION,
+                partitionController(new InMemoryMessageServiceImpl(new HashMap<>()), 1_600_000_000_000L).getVersion());
+    }
+
+    private static PartitionController partitionController(MessageService store, long startMillis) {
+        PartitioningPostProcessor partitioning = new PartitioningPostProcessor("node0",
+                "node0=http://localhost:8080", ClusterHarness.VIRTUAL_NODES, 1000, "secret",
+                new DefaultListableBeanFactory().getBeanProvider(ObjectMapper.class));
+        partitioning.postProcessAfterInitialization(store, "messageService");
+        return new PartitionController(partitioning, startMillis);
+    }
+
+    @Test
+    void failuresOnTheOwningNodeExpectThrownByTheRoutingNode() throws Exception {
+        MessageService node0 = cluster.node("node0");
+        MessageService node1 = cluster.node("node1");
+        node0.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+
+        assertThrows(MessageExistException.class,
+                () -> node1.createMessage(new MessageImpl("Doris", "Martha", "Again")));
+        assertThrows(MessageNotFoundException.class,
+                () -> node1.updateMessage(new MessageImpl("Doris", "Grass", "The Grass Is Singing")));
+        assertThrows(UserNotFoundException.class, () -> node1.getUserMessages("Olga"));
+
+        node1.updateMessage(new MessageImpl("Doris", "Martha", "Martha Quest, updated"));
+        Assertions.assertEquals("Martha Quest, updated", node0.getUserMessages("Doris").get("Martha").getMessage());
+        Assertions.assertEquals(node0.getUserVersion("Doris"), node1.getUserVersion("Doris"));
+    }
+
+    @Test
+    void batchOverNodesExpectResultsInBatchOrder() throws Exception {
+        cluster.node("node0").createMessage(new MessageImpl("user5", "taken", "Taken"));
+
+        List<BatchOperation> operations = new ArrayList<>();
+        for (int u = 0; u < 20; u++) {
+            operations.add(new BatchOperation(BatchOperation.Type.CREATE, "user" + u, "batched", "Batched " + u));
+        }
+        operations.add(new BatchOperation(BatchOperation.Type.CREATE, "user5", "taken", "Conflict"));
+        operations.add(new BatchOperation(BatchOperation.Type.DELETE, "user6", "missing", null));
+
+        List<BatchResult> results = cluster.node("node2").applyBatch(operations);
+        Assertions.assertEquals(operations.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            Assertions.assertEquals(i, results.get(i).getIndex());
+        }
+        for (int u = 0; u < 20; u++) {
+            Assertions.assertEquals(200, results.get(u).getStatus());
+        }
+        Assertions.assertEquals(409, results.get(20).getStatus());
+        Assertions.assertEquals(404, results.get(21).getStatus());
+        Assertions.assertEquals(21, cluster.node("node1").getAllMessages().size());
+    }
+
+    @Test
+    void pagesOverNodesExpectAllMessagesOnceInOrder() throws Exception {
+        MessageService node = cluster.node("node1");
+        for (int u = 0; u < 50; u++) {
+            node.createMessage(new MessageImpl("user" + u, "first", "First"));
+            node.createMessage(new MessageImpl("user" + u, "second", "Second"));
+        }
+
+        List<Message> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            MessagePage page = node.getMessages(cursor, 7);
+            Assertions.assertTrue(page.getMessages().size() <= 7);
+            paged.addAll(page.getMessages());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        List<Message> all = new ArrayList<>(node.getAllMessages());
+        Assertions.assertEquals(100, paged.size());
+        for (int i = 0; i < all.size(); i++) {
+            Assertions.assertSame(all.get(i), paged.get(i));
+        }
+        assertThrows(IllegalArgumentException.class, () -> node.getMessages("7", 7));
+        assertThrows(IllegalArgumentException.class, () -> node.getMessages("3:", 7));
+    }
+
+    @Test
+    void addNodeExpectOnlyUsersOfTheNewNodeToMove() {
+        ConsistentHashRing three = new ConsistentHashRing(Arrays.asList("node0", "node1", "node2"), 128);
+        ConsistentHashRing four = new ConsistentHashRing(Arrays.asList("node0", "node1", "node2", "node3"), 128);
+
+        int users = 30_000;
+        Map<String, Integer> shares = new HashMap<>();
+        int moved = 0;
+        for (int u = 0; u < users; u++) {
+            String user = "user" + u;
+            String before = three.nodeFor(user);
+            String after = four.nodeFor(user);
+            shares.merge(before, 1, Integer::sum);
+            if (!before.equals(after)) {
+                Assertions.assertEquals("node3", after);
+                moved++;
+            }
+        }
+        // A quarter of the users should move to the new node
+        Assertions.assertTrue(moved > users * 0.18 && moved < users * 0.32, "Moved " + moved);
+        for (int share : shares.values()) {
+            Assertions.assertTrue(share > users / 3 * 0.8 && share < users / 3 * 1.2, "Share " + shares);
+        }
+    }
+}
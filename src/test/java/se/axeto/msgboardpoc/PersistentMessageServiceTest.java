@@ -0,0 +1,236 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.*;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.expiry.MessageExpiry;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.persistence.Snapshots;
+import se.axeto.msgboardpoc.persistence.WriteAheadLog;
+import se.axeto.msgboardpoc.service.PersistentMessageServiceImpl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PersistentMessageServiceTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private Path directory;
+    private WriteAheadLog log;
+    private PersistentMessageServiceImpl messageService;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("msgboard-wal");
+        messageService = open();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        messageService.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void crashExpectWritesReplayed() throws Exception {
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        messageService.createMessage(new MessageImpl("Doris", "Marriage", "A Proper Marriage"));
+        messageService.createMessage(new MessageImpl("Olga", "Nobel", "The Nobel price"));
+        messageService.updateMessage(new MessageImpl("Doris", "Martha", "Martha Quest, updated"));
+        messageService.deleteMessage(new MessageImpl("Doris", "Marriage", ""));
+
+        crash();
+        assertExpectedState();
+
+        // Closing takes a snapshot, the state must survive a restart from it too
+        reopen();
+        assertExpectedState();
+    }
+
+    @Test
+    void snapshotExpectLogCompactedAndTailReplayed() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            messageService.createMessage(new MessageImpl("user" + (i % 7), "msg" + i, "Message number " + i));
+        }
+        int segmentsBefore = segments().size();
+
+        messageService.snapshot();
+        Assertions.assertTrue(segments().size() < segmentsBefore);
+
+        // Written after the snapshot, only in the log
+        messageService.updateMessage(new MessageImpl("user0", "msg0", "Updated after the snapshot"));
+        messageService.deleteMessage(new MessageImpl("user1", "msg1", ""));
+        messageService.createMessage(new MessageImpl("Olga", "Nobel", "The Nobel price"));
+
+        crash();
+
+        Assertions.assertEquals(500, messageService.getAllMessages().size());
+        Assertions.assertEquals("Updated after the snapshot",
+                messageService.getMessage(new MessageImpl("user0", "msg0", "")).getMessage());
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessage(new MessageImpl("user1", "msg1", ""));
+        });
+    }
+
+    @Test
+    void crashAfterManySegmentsExpectAllWritesReplayed() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            messageService.createMessage(new MessageImpl("user" + (i % 7), "msg" + i, "Message number " + i));
+        }
+        Assertions.assertTrue(segments().size() > 1);
+
+        crash();
+
+        Assertions.assertEquals(500, messageService.getAllMessages().size());
+        Assertions.assertEquals("Message number 499",
+                messageService.getMessage(new MessageImpl("user2", "msg499", "")).getMessage());
+    }
+
+    @Test
+    void crashAfterBatchExpectBatchReplayed() throws Exception {
+        List<BatchOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            operations.add(new BatchOperation(BatchOperation.Type.CREATE, "user" + (i % 7), "msg" + i,
+                    "Message number " + i));
+        }
+        operations.add(new BatchOperation(BatchOperation.Type.DELETE, "user0", "msg0", null));
+        messageService.applyBatch(operations);
+
+        crash();
+
+        Assertions.assertEquals(299, messageService.getAllMessages().size());
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessage(new MessageImpl("user0", "msg0", ""));
+        });
+    }
+
+    @Test
+    void restartAfterTornWriteExpectLogTruncated() throws Exception {
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        messageService.close();
+
+        // Simulate a record that was only partly written when the process died
+        List<Path> segments = segments();
+        Assertions.assertEquals(1, segments.size());
+        try (RandomAccessFile file = new RandomAccessFile(segments.get(segments.size() - 1).toFile(), "rw")) {
+            long end = findEnd(file);
+            file.seek(end);
+            file.writeInt(100);
+            file.writeInt(12345);
+            file.write(new byte[]{1, 2, 3});
+        }
+
+        messageService = open();
+        Assertions.assertEquals(1, messageService.getAllMessages().size());
+
+        // New writes go where the torn record was
+        assertDoesNotThrow(() -> {
+            messageService.createMessage(new MessageImpl("Olga", "Nobel", "The Nobel price"));
+        });
+        reopen();
+        Assertions.assertEquals(2, messageService.getAllMessages().size());
+    }
+
+    @Test
+    void restartExpectMessagesExpiredAtTheirDeadline() throws Exception {
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Expires while stopped", 1L));
+        messageService.createMessage(new MessageImpl("Doris", "Grass", "Expires after the restart", 3600L));
+        messageService.createMessage(new MessageImpl("Doris", "forever", "Does not expire"));
+        long expiresAt = messageService.getMessage(new MessageImpl("Doris", "Grass", "")).getExpiresAtMillis();
+        messageService.snapshot();
+        // Only in the log
+        messageService.createMessage(new MessageImpl("Olga", "Nobel", "Expires while stopped", 1L));
+
+        Thread.sleep(1100);
+        crash();
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessage(new MessageImpl("Doris", "Martha", ""));
+        });
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessage(new MessageImpl("Olga", "Nobel", ""));
+        });
+        reopen();
+        Assertions.assertEquals(2, messageService.getAllMessages().size());
+        Message grass = messageService.getMessage(new MessageImpl("Doris", "Grass", ""));
+        Assertions.assertEquals(3600L, grass.getTtlSeconds());
+        Assertions.assertEquals(expiresAt, grass.getExpiresAtMillis());
+        Assertions.assertNull(messageService.getMessage(new MessageImpl("Doris", "forever", "")).getExpiresAtMillis());
+
+        // The time to live doesn't start over, more than a second of it has passed
+        AtomicLong clock = new AtomicLong();
+        MessageExpiry expiry = new MessageExpiry(() -> messageService, 100, clock::get);
+        messageService.addListener(expiry);
+        Assertions.assertEquals(1, expiry.scheduledCount());
+        clock.set(3_599_000);
+        Assertions.assertEquals(1, expiry.expire());
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessage(new MessageImpl("Doris", "Grass", ""));
+        });
+    }
+
+    private void assertExpectedState() throws Exception {
+        Assertions.assertEquals(2, messageService.getAllMessages().size());
+        Assertions.assertEquals("Martha Quest, updated",
+                messageService.getMessage(new MessageImpl("Doris", "Martha", "")).getMessage());
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessage(new MessageImpl("Doris", "Marriage", ""));
+        });
+        assertThrows(MessageExistException.class, () -> {
+            messageService.createMessage(new MessageImpl("Olga", "Nobel", "Again"));
+        });
+    }
+
+    private PersistentMessageServiceImpl open() throws IOException {
+        log = new WriteAheadLog(directory.resolve("wal"), SEGMENT_SIZE, 5);
+        return new PersistentMessageServiceImpl(log, new Snapshots(directory.resolve("snapshot")), true, 0);
+    }
+
+    private void reopen() throws IOException {
+        messageService.close();
+        messageService = open();
+    }
+
+    /**
+     * Restart without the snapshot that closing the service takes.
+     */
+    private void crash() throws IOException {
+        log.close();
+        messageService = open();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("wal"))) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static long findEnd(RandomAccessFile file) throws IOException {
+        long offset = 0;
+        while (true) {
+            file.seek(offset);
+            int length = file.readInt();
+            if (length == 0) {
+                return offset;
+            }
+            offset += 2 * Integer.BYTES + length;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package se.axeto.msgboardpoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.pipeline.WritePipeline;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The single writes of the REST API through the write pipeline.
+ */
+@SpringBootTest(properties = "msgboard.pipeline.enabled=true")
+@AutoConfigureMockMvc
+public class PipelinedMessageControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void writesExpectAnsweredOnceApplied() throws Exception {
+        String martha = objectMapper.writeValueAsString(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        mockMvc.perform(asyncDispatch(applied(post("/api/v1/message").contentType(MediaType.APPLICATION_JSON)
+                .header(WritePipeline.ACK_HEADER, "applied").content(martha))))
+                .andExpect(status().isOk());
+        Assertions.assertEquals("Martha Quest",
+                messageService.getMessage(new MessageImpl("Doris", "Martha", "")).getMessage());
+
+        // A failed write is answered with the status it would get in a batch
+        mockMvc.perform(asyncDispatch(applied(post("/api/v1/message").contentType(MediaType.APPLICATION_JSON)
+                .content(martha))))
+                .andExpect(status().isConflict());
+        String grass = objectMapper.writeValueAsString(new MessageImpl("Doris", "Grass", "The Grass is Singing"));
+        mockMvc.perform(asyncDispatch(applied(put("/api/v1/message").contentType(MediaType.APPLICATION_JSON)
+                .content(grass))))
+                .andExpect(status().isNotFound());
+    }
+
+    private MvcResult applied(RequestBuilder write) throws Exception {
+        MvcResult started = mockMvc.perform(write)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        started.getAsyncResult();
+        return started;
+    }
+}
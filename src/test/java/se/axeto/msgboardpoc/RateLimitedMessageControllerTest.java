@@ -0,0 +1,61 @@
+package se.axeto.msgboardpoc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultMatcher;
+import se.axeto.msgboardpoc.model.MessageImpl;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The rate limit of the REST API behind a reverse proxy, MockMvc requests come
+ * from 127.0.0.1.
+ */
+@SpringBootTest(properties = {"msgboard.ratelimit.requests-per-second=0.001", "msgboard.ratelimit.burst=2",
+        "msgboard.ratelimit.client-address-header=X-Forwarded-For", "msgboard.ratelimit.trusted-proxies=127.0.0.1"})
+@AutoConfigureMockMvc
+public class RateLimitedMessageControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void writesExpectLimitedPerUserAndClient() throws Exception {
+        create("192.0.2.7", "Doris", "Martha", status().isOk());
+        create("192.0.2.7", "Doris", "Grass", status().isOk());
+        create("192.0.2.7", "Doris", "Shikasta", status().isTooManyRequests());
+
+        // Neither another client of the proxy nor another user share the bucket
+        create("192.0.2.8", "Doris", "Shikasta", status().isOk());
+        create("192.0.2.7", "Olga", "Flights", status().isOk());
+    }
+
+    @Test
+    void readsExpectLimitedPerClient() throws Exception {
+        mockMvc.perform(get("/api/v1/message/all").header("X-Forwarded-For", "198.51.100.3"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/v1/message/search?q=Martha").header("X-Forwarded-For", "198.51.100.3"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/v1/message/all").header("X-Forwarded-For", "198.51.100.3"))
+                .andExpect(status().isTooManyRequests());
+        mockMvc.perform(get("/api/v1/message/all").header("X-Forwarded-For", "198.51.100.4"))
+                .andExpect(status().isOk());
+    }
+
+    private void create(String client, String userId, String messageId, ResultMatcher expected) throws Exception {
+        mockMvc.perform(post("/api/v1/message").contentType(MediaType.APPLICATION_JSON)
+                .header("X-Forwarded-For", client)
+                .content(objectMapper.writeValueAsString(new MessageImpl(userId, messageId, "Text of " + messageId))))
+                .andExpect(expected);
+    }
+}
@@ -0,0 +1,33 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import se.axeto.msgboardpoc.admission.SharedSecretInterceptor;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The replication API of a leader.
+ */
+@SpringBootTest(properties = {"msgboard.replication.role=leader", "msgboard.replication.secret=Shikasta"})
+@AutoConfigureMockMvc
+public class ReplicationApiTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void requestsWithoutTheReplicationSecretExpectForbidden() throws Exception {
+        mockMvc.perform(get("/internal/v1/replication/snapshot"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/internal/v1/replication/snapshot").header(SharedSecretInterceptor.SECRET_HEADER, "Grass"))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/internal/v1/replication/snapshot")
+                .header(SharedSecretInterceptor.SECRET_HEADER, "Shikasta"))
+                .andExpect(status().isOk());
+    }
+}
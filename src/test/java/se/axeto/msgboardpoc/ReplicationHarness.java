@@ -0,0 +1,65 @@
+package se.axeto.msgboardpoc;
+
+import se.axeto.msgboardpoc.replication.ReplicationFollower;
+import se.axeto.msgboardpoc.replication.ReplicationLog;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A leader and its followers in one JVM. Every follower has its own store and
+ * reads the log of the leader directly instead of over HTTP, like a node
+ * started with <code>msgboard.replication.role=follower</code>.
+ */
+public class ReplicationHarness implements AutoCloseable {
+
+    static final int BATCH_SIZE = 100;
+    static final long POLL_WAIT_MILLIS = 100;
+
+    private final ConcurrentMessageServiceImpl leaderStore = new ConcurrentMessageServiceImpl(4);
+    private final ReplicationLog log;
+    private final List<ReplicationFollower> followers = new ArrayList<>();
+
+    /**
+     * @param logSize the number of writes the leader keeps for the followers.
+     */
+    public ReplicationHarness(int logSize) {
+        this.log = new ReplicationLog(logSize);
+        log.attach(leaderStore);
+    }
+
+    /**
+     * @return The store of the leader, the one to write to.
+     */
+    public ConcurrentMessageServiceImpl leader() {
+        return leaderStore;
+    }
+
+    public ReplicationLog log() {
+        return log;
+    }
+
+    /**
+     * Start a follower with an empty store.
+     */
+    public ReplicationFollower startFollower() {
+        return startFollower(new ConcurrentMessageServiceImpl(4));
+    }
+
+    /**
+     * Start a follower of a store that may have messages already.
+     */
+    public ReplicationFollower startFollower(ConcurrentMessageServiceImpl store) {
+        ReplicationFollower follower = new ReplicationFollower(store, log, BATCH_SIZE, POLL_WAIT_MILLIS);
+        followers.add(follower);
+        return follower;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (ReplicationFollower follower : followers) {
+            follower.close();
+        }
+    }
+}
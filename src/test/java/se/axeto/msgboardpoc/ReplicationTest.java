@@ -0,0 +1,178 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.*;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.replication.LogTruncatedException;
+import se.axeto.msgboardpoc.replication.Mutation;
+import se.axeto.msgboardpoc.replication.ReplicaSnapshot;
+import se.axeto.msgboardpoc.replication.ReplicationFollower;
+import se.axeto.msgboardpoc.replication.ReplicationLog;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+import se.axeto.msgboardpoc.service.MessageService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ReplicationTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private ReplicationHarness replication;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        replication.close();
+    }
+
+    @Test
+    void writesOnLeaderExpectReadableOnEveryFollowerAtTheirToken() throws Exception {
+        replication = new ReplicationHarness(1000);
+        MessageService leader = replication.leader();
+        List<ReplicationFollower> followers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            followers.add(replication.startFollower());
+        }
+
+        for (int u = 0; u < 50; u++) {
+            leader.createMessage(new MessageImpl("user" + u, "first", "First of " + u));
+            leader.createMessage(new MessageImpl("user" + u, "second", "Second of " + u));
+        }
+        leader.updateMessage(new MessageImpl("user7", "first", "Updated"));
+        leader.deleteMessage(new MessageImpl("user8", "second", ""));
+        long token = replication.log().position();
+        Assertions.assertEquals(102, token);
+
+        for (ReplicationFollower follower : followers) {
+            Assertions.assertTrue(follower.awaitPosition(token, TIMEOUT_MILLIS));
+            Assertions.assertTrue(follower.isInSync());
+        }
+        for (ReplicationFollower follower : followers) {
+            Assertions.assertFalse(follower.awaitPosition(token + 1, 50));
+        }
+
+        leader.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        for (ReplicationFollower follower : followers) {
+            Assertions.assertTrue(follower.awaitPosition(replication.log().position(), TIMEOUT_MILLIS));
+        }
+    }
+
+    @Test
+    void followerStartedLateExpectSameMessagesAsLeader() throws Exception {
+        replication = new ReplicationHarness(10);
+        MessageService leader = replication.leader();
+        for (int m = 0; m < 100; m++) {
+            leader.createMessage(new MessageImpl("user" + m % 7, "message" + m, "Text " + m));
+        }
+
+        // Has a message the leader doesn't, one with another text and misses the rest
+        ConcurrentMessageServiceImpl stale = new ConcurrentMessageServiceImpl(4);
+        stale.createMessage(new MessageImpl("user0", "gone", "Not on the leader"));
+        stale.createMessage(new MessageImpl("user1", "message1", "Old text"));
+        ReplicationFollower follower = replication.startFollower(stale);
+
+        // More writes than the log keeps while the follower starts
+        for (int m = 0; m < 100; m++) {
+            leader.updateMessage(new MessageImpl("user" + m % 7, "message" + m, "Updated " + m));
+        }
+        leader.applyBatch(List.of(new BatchOperation(BatchOperation.Type.DELETE, "user3", "message3", null),
+                new BatchOperation(BatchOperation.Type.CREATE, "user3", "message3", "Created again")));
+
+        Assertions.assertTrue(follower.awaitPosition(replication.log().position(), TIMEOUT_MILLIS));
+        Assertions.assertEquals(leader.getData(), stale.getData());
+    }
+
+    @Test
+    void readLogExpectWritesInOrderOrTruncated() throws Exception {
+        replication = new ReplicationHarness(4);
+        ReplicationLog log = replication.log();
+        String epoch = log.getEpoch();
+        Assertions.assertTrue(log.read(epoch, 0, 10, 10).isEmpty());
+
+        MessageService leader = replication.leader();
+        leader.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest"));
+        leader.updateMessage(new MessageImpl("Doris", "Martha", "A Proper Marriage"));
+        leader.deleteMessage(new MessageImpl("Doris", "Martha", ""));
+
+        List<Mutation> mutations = log.read(epoch, 0, 2, 0);
+        Assertions.assertEquals(2, mutations.size());
+        Assertions.assertEquals(1, mutations.get(0).getPosition());
+        Assertions.assertEquals(BatchOperation.Type.CREATE, mutations.get(0).getOp());
+        Assertions.assertEquals("A Proper Marriage", mutations.get(1).getMessage());
+        Assertions.assertEquals(BatchOperation.Type.DELETE, log.read(epoch, 2, 10, 0).get(0).getOp());
+
+        for (int m = 0; m < 4; m++) {
+            leader.createMessage(new MessageImpl("Doris", "message" + m, "Text"));
+        }
+        assertThrows(LogTruncatedException.class, () -> log.read(epoch, 2, 10, 0));
+        assertThrows(LogTruncatedException.class, () -> log.read(epoch, 8, 10, 0));
+        assertThrows(LogTruncatedException.class, () -> log.read("other", 7, 10, 0));
+        Assertions.assertEquals(4, log.read(epoch, 3, 10, 0).size());
+
+        ReplicaSnapshot snapshot = log.snapshot();
+        Assertions.assertEquals(7, snapshot.getPosition());
+        Assertions.assertEquals(4, snapshot.getMessages().size());
+    }
+
+    @Test
+    void snapshotWhileWritingExpectLeaderAtItsPosition() throws Exception {
+        replication = new ReplicationHarness(100_000);
+        ConcurrentMessageServiceImpl leader = replication.leader();
+        ReplicationLog log = replication.log();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> writers = new ArrayList<>();
+        List<ReplicaSnapshot> snapshots = new ArrayList<>();
+        try {
+            for (int w = 0; w < 4; w++) {
+                String userId = "user" + w;
+                writers.add(executor.submit(() -> {
+                    // Rounds creating, updating and deleting 50 messages, ending with them created
+                    for (int m = 0; m < 6050; m++) {
+                        MessageImpl message = new MessageImpl(userId, "message" + m % 50, "Text " + m);
+                        switch (m / 50 % 3) {
+                            case 0:
+                                leader.createMessage(message);
+                                break;
+                            case 1:
+                                leader.updateMessage(message);
+                                break;
+                            default:
+                                leader.deleteMessage(message);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            while (!writers.stream().allMatch(Future::isDone)) {
+                snapshots.add(log.snapshot());
+                Thread.sleep(5);
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every snapshot with the writes after its position is the leader
+        for (ReplicaSnapshot snapshot : snapshots) {
+            ConcurrentMessageServiceImpl replica = new ConcurrentMessageServiceImpl(4);
+            for (Message message : snapshot.getMessages()) {
+                replica.createMessage(message);
+            }
+            List<BatchOperation> after = new ArrayList<>();
+            for (Mutation mutation : log.read(log.getEpoch(), snapshot.getPosition(), Integer.MAX_VALUE, 0)) {
+                after.add(new BatchOperation(mutation.getOp(), mutation.getUserId(), mutation.getMessageId(),
+                        mutation.getMessage()));
+            }
+            replica.applyBatch(after);
+            Assertions.assertEquals(leader.getData(), replica.getData());
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.*;
+import se.axeto.msgboardpoc.exceptions.MessageExistException;
+import se.axeto.msgboardpoc.exceptions.MessageNotFoundException;
+import se.axeto.msgboardpoc.exceptions.QuotaExceededException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.Message;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.model.MessagePage;
+import se.axeto.msgboardpoc.service.MessageStoreListener;
+import se.axeto.msgboardpoc.service.TieredMessageServiceImpl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TieredMessageServiceTest {
+
+    // 200 bytes of overhead and two bytes per character of "userNN", "mNN" and the text
+    private static final String TEXT = String.join("", Collections.nCopies(100, "x"));
+    private static final long MESSAGE_BYTES = 200 + 2 * (6 + 3 + TEXT.length());
+
+    private Path directory;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("msgboard-spill");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void overMemoryBudgetExpectLeastRecentlyUsedSpilledAndReadBackIn() throws Exception {
+        TieredMessageServiceImpl messageService = new TieredMessageServiceImpl(directory, 20 * MESSAGE_BYTES, 0,
+                0, 4);
+        for (int u = 0; u < 10; u++) {
+            for (int m = 0; m < 5; m++) {
+                messageService.createMessage(new MessageImpl(user(u), "m0" + m, TEXT));
+            }
+            // Keep user00 in use
+            messageService.getMessage(new MessageImpl(user(0), "m00", ""));
+        }
+        Assertions.assertTrue(messageService.approximateBytes() <= 20 * MESSAGE_BYTES);
+        Assertions.assertEquals(50 * MESSAGE_BYTES, messageService.totalBytes());
+        Assertions.assertEquals(50, messageService.messageCount());
+        Assertions.assertTrue(messageService.spillCount() > 0);
+        Assertions.assertTrue(messageService.residentUserCount() < 10);
+        Assertions.assertEquals(0, messageService.faultCount());
+
+        // Every message can be read, the spilled users from disk
+        Assertions.assertEquals(50, messageService.getAllMessages().size());
+        Assertions.assertEquals(50, new ArrayList<>(messageService.getAllMessages()).size());
+        Assertions.assertEquals(0, messageService.faultCount());
+        List<Message> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            MessagePage page = messageService.getMessages(cursor, 7);
+            paged.addAll(page.getMessages());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        Assertions.assertEquals(50, paged.size());
+        Assertions.assertEquals(user(9), paged.get(49).getUserId());
+
+        // user01 was spilled first, user00 never
+        Assertions.assertEquals(5, messageService.getUserMessages(user(1)).size());
+        Assertions.assertEquals(1, messageService.faultCount());
+        messageService.updateMessage(new MessageImpl(user(1), "m00", "Updated"));
+        messageService.getUserMessages(user(0));
+        Assertions.assertEquals(1, messageService.faultCount());
+
+        // Cycling through every user spills and reads them back, the update included
+        for (int round = 0; round < 3; round++) {
+            for (int u = 0; u < 10; u++) {
+                Assertions.assertEquals(5, messageService.getUserMessages(user(u)).size());
+            }
+        }
+        Assertions.assertTrue(messageService.approximateBytes() <= 20 * MESSAGE_BYTES);
+        Assertions.assertEquals("Updated", messageService.getMessage(new MessageImpl(user(1), "m00", ""))
+                .getMessage());
+        Assertions.assertEquals(50, messageService.getData().values().stream().mapToInt(m -> m.size()).sum());
+    }
+
+    @Test
+    void writesToSpilledUsersExpectSameSemanticsAsInMemory() throws Exception {
+        TieredMessageServiceImpl messageService = new TieredMessageServiceImpl(directory, 1, 0, 0, 4);
+        messageService.createMessage(new MessageImpl("Doris", "Martha", "Martha Quest", 60L));
+        messageService.createMessage(new MessageImpl("Doris", "Gräs", "Gräset sjunger"));
+        long version = messageService.getUserVersion("Doris");
+
+        // Everything is spilled after every write
+        Assertions.assertEquals(0, messageService.approximateBytes());
+        assertThrows(MessageExistException.class, () -> {
+            messageService.createMessage(new MessageImpl("Doris", "Martha", "Again"));
+        });
+        Assertions.assertEquals(version, messageService.getUserVersion("Doris"));
+        Assertions.assertEquals(version, messageService.getMessageVersion(new MessageImpl("Doris", "Gräs", "")));
+        Assertions.assertEquals(Long.valueOf(60), messageService.getMessage(new MessageImpl("Doris", "Martha", ""))
+                .getTtlSeconds());
+
+        Message deleted = messageService.deleteMessage(new MessageImpl("Doris", "Gräs", ""));
+        Assertions.assertEquals("Gräset sjunger", deleted.getMessage());
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessage(new MessageImpl("Doris", "Gräs", ""));
+        });
+        Assertions.assertEquals(Arrays.asList("Martha"), new ArrayList<>(messageService.getUserMessageIds("Doris")));
+        Assertions.assertEquals(1, messageService.getAllMessages().size());
+        Assertions.assertEquals(0, messageService.approximateBytes());
+    }
+
+    @Test
+    void quotasExpectWritesRejectedAndNothingStored() throws Exception {
+        TieredMessageServiceImpl messageService = new TieredMessageServiceImpl(directory, 1 << 20,
+                3 * MESSAGE_BYTES, 5 * MESSAGE_BYTES, 4);
+        for (int m = 0; m < 3; m++) {
+            messageService.createMessage(new MessageImpl(user(0), "m0" + m, TEXT));
+        }
+        QuotaExceededException userQuota = assertThrows(QuotaExceededException.class, () -> {
+            messageService.createMessage(new MessageImpl(user(0), "m03", TEXT));
+        });
+        Assertions.assertEquals(user(0), userQuota.getUser());
+        assertThrows(QuotaExceededException.class, () -> {
+            messageService.updateMessage(new MessageImpl(user(0), "m00", TEXT + "x"));
+        });
+        // Shorter is fine
+        messageService.updateMessage(new MessageImpl(user(0), "m00", "x"));
+
+        List<BatchResult> results = messageService.applyBatch(Arrays.asList(
+                new BatchOperation(BatchOperation.Type.CREATE, user(1), "m00", TEXT),
+                new BatchOperation(BatchOperation.Type.CREATE, user(1), "m01", TEXT),
+                new BatchOperation(BatchOperation.Type.CREATE, user(1), "m02", TEXT)));
+        Assertions.assertEquals(200, results.get(0).getStatus());
+        Assertions.assertEquals(200, results.get(1).getStatus());
+        // The store is full
+        Assertions.assertEquals(507, results.get(2).getStatus());
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.getMessage(new MessageImpl(user(1), "m02", ""));
+        });
+        Assertions.assertEquals(5, messageService.messageCount());
+
+        messageService.deleteMessage(new MessageImpl(user(0), "m01", ""));
+        messageService.createMessage(new MessageImpl(user(1), "m02", TEXT));
+    }
+
+    @Test
+    void writesExpectVersionChangedOnlyOnceVisible() throws Exception {
+        TieredMessageServiceImpl messageService = new TieredMessageServiceImpl(directory, 20 * MESSAGE_BYTES, 0, 0, 4);
+        // A reader during a write, e.g. the listener of another user, sees the version before it
+        List<Long> versions = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        messageService.addListener(new MessageStoreListener() {
+            @Override
+            public void onCreate(Message message) {
+                versions.add(messageService.getVersion());
+                sizes.add(messageService.getAllMessages().size());
+            }
+
+            @Override
+            public void onDelete(Message message) {
+                versions.add(messageService.getVersion());
+                sizes.add(messageService.getAllMessages().size());
+            }
+        });
+
+        messageService.createMessage(new MessageImpl(user(0), "m00", TEXT));
+        long created = messageService.getVersion();
+        messageService.createMessage(new MessageImpl(user(1), "m00", TEXT));
+        long createdAgain = messageService.getVersion();
+        messageService.deleteMessage(new MessageImpl(user(0), "m00", ""));
+
+        Assertions.assertEquals(List.of(0L, created, createdAgain), versions);
+        Assertions.assertEquals(List.of(0, 1, 2), sizes);
+        Assertions.assertTrue(0 < created && created < createdAgain && createdAgain < messageService.getVersion());
+
+        // A failed write leaves it as it is
+        long version = messageService.getVersion();
+        assertThrows(MessageNotFoundException.class, () -> {
+            messageService.deleteMessage(new MessageImpl(user(0), "m00", ""));
+        });
+        Assertions.assertEquals(version, messageService.getVersion());
+    }
+
+    @Test
+    void concurrentWritersAndReadersExpectNoLostWrites() throws Exception {
+        TieredMessageServiceImpl messageService = new TieredMessageServiceImpl(directory, 30 * MESSAGE_BYTES, 0,
+                0, 8);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        String userId = user((thread * 7 + i) % 40);
+                        String messageId = thread + String.format("%02x", i);
+                        messageService.createMessage(new MessageImpl(userId, messageId, TEXT));
+                        Assertions.assertEquals(TEXT, messageService.getMessage(
+                                new MessageImpl(userId, messageId, "")).getMessage());
+                        if (i % 3 == 0) {
+                            messageService.deleteMessage(new MessageImpl(userId, messageId, ""));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // 67 of every 200 are deleted
+        Assertions.assertEquals(8 * 133, messageService.messageCount());
+        Assertions.assertEquals(8 * 133, messageService.getAllMessages().stream().count());
+        int total = 0;
+        for (int u = 0; u < 40; u++) {
+            total += messageService.getUserMessages(user(u)).size();
+        }
+        Assertions.assertEquals(8 * 133, total);
+        Assertions.assertEquals(8 * 133 * MESSAGE_BYTES, messageService.totalBytes());
+    }
+
+    private static String user(int u) {
+        return String.format("user%02d", u);
+    }
+}
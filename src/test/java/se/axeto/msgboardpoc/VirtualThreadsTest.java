@@ -0,0 +1,31 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.*;
+import se.axeto.msgboardpoc.execution.VirtualThreads;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class VirtualThreadsTest {
+
+    @Test
+    void newExecutorExpectVirtualThreadsOnlyWhenTheJvmHasThem() throws Exception {
+        boolean java21 = Runtime.version().feature() >= 21;
+        Assertions.assertEquals(java21, VirtualThreads.isSupported());
+        if (!java21) {
+            assertThrows(IllegalStateException.class, VirtualThreads::newVirtualThreadPerTaskExecutor);
+            return;
+        }
+
+        ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        try {
+            Object virtual = executor.submit(() ->
+                    Thread.class.getMethod("isVirtual").invoke(Thread.currentThread())).get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(Boolean.TRUE, virtual);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package se.axeto.msgboardpoc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import se.axeto.msgboardpoc.admission.RateLimitExceededException;
+import se.axeto.msgboardpoc.model.BatchOperation;
+import se.axeto.msgboardpoc.model.BatchResult;
+import se.axeto.msgboardpoc.model.MessageImpl;
+import se.axeto.msgboardpoc.persistence.Snapshots;
+import se.axeto.msgboardpoc.persistence.WriteAheadLog;
+import se.axeto.msgboardpoc.pipeline.AckMode;
+import se.axeto.msgboardpoc.pipeline.MpscRingBuffer;
+import se.axeto.msgboardpoc.pipeline.WritePipeline;
+import se.axeto.msgboardpoc.service.ConcurrentMessageServiceImpl;
+import se.axeto.msgboardpoc.service.PersistentMessageServiceImpl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WritePipelineTest {
+
+    @Test
+    void manyProducersExpectEveryElementTakenOnceInOrder() throws Exception {
+        MpscRingBuffer<long[]> buffer = new MpscRingBuffer<>(100);
+        Assertions.assertEquals(128, buffer.capacity());
+        int producers = 4;
+        int perProducer = 20_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                for (long i = 0; i < perProducer; i++) {
+                    long[] element = {producer, i};
+                    while (!buffer.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long[] next = new long[producers];
+        int taken = 0;
+        while (taken < producers * perProducer) {
+            taken += buffer.drain(element -> {
+                Assertions.assertEquals(next[(int) element[0]]++, element[1]);
+            }, 50);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertTrue(buffer.isEmpty());
+        Assertions.assertEquals(0, buffer.size());
+
+        // Full until the consumer has taken something
+        MpscRingBuffer<String> small = new MpscRingBuffer<>(2);
+        Assertions.assertTrue(small.offer("Martha"));
+        Assertions.assertTrue(small.offer("Shikasta"));
+        Assertions.assertFalse(small.offer("Grass"));
+        List<String> drained = new ArrayList<>();
+        Assertions.assertEquals(1, small.drain(drained::add, 1));
+        Assertions.assertTrue(small.offer("Grass"));
+        Assertions.assertEquals(2, small.drain(drained::add, 10));
+        Assertions.assertEquals(List.of("Martha", "Shikasta", "Grass"), drained);
+    }
+
+    @Test
+    void writesExpectAppliedInOrderWithTheStatusOfABatch() throws Exception {
+        ConcurrentMessageServiceImpl store = new ConcurrentMessageServiceImpl();
+        WritePipeline pipeline = new WritePipeline(store, 64, 8, 1000);
+        try {
+            List<CompletableFuture<BatchResult>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                BatchOperation.Type type = i == 0 ? BatchOperation.Type.CREATE : BatchOperation.Type.UPDATE;
+                results.add(pipeline.submit(new BatchOperation(type, "Doris", "Martha", "Version " + i),
+                        AckMode.APPLIED));
+            }
+            CompletableFuture<BatchResult> duplicate = pipeline.submit(
+                    new BatchOperation(BatchOperation.Type.CREATE, "Doris", "Martha", "Again"), AckMode.DURABLE);
+            CompletableFuture<BatchResult> missing = pipeline.submit(
+                    new BatchOperation(BatchOperation.Type.DELETE, "Doris", "Grass", null), AckMode.APPLIED);
+
+            for (CompletableFuture<BatchResult> result : results) {
+                Assertions.assertEquals(200, result.get(10, TimeUnit.SECONDS).getStatus());
+            }
+            Assertions.assertEquals(409, duplicate.get(10, TimeUnit.SECONDS).getStatus());
+            Assertions.assertEquals(404, missing.get(10, TimeUnit.SECONDS).getStatus());
+            Assertions.assertEquals("Version 99", store.getMessage(new MessageImpl("Doris", "Martha", ""))
+                    .getMessage());
+        } finally {
+            pipeline.close();
+        }
+        assertThrows(IllegalStateException.class, () -> pipeline.submit(
+                new BatchOperation(BatchOperation.Type.CREATE, "Doris", "Grass", "The Grass is Singing"),
+                AckMode.APPLIED));
+    }
+
+    @Test
+    void ackModesExpectDurableAnsweredOnlyOnceForced() throws Exception {
+        Path directory = Files.createTempDirectory("msgboard-pipeline");
+        // Not forced on its own during the test, only when a durable write waits for it
+        WriteAheadLog log = new WriteAheadLog(directory.resolve("wal"), 1 << 20, 60_000);
+        PersistentMessageServiceImpl store = new PersistentMessageServiceImpl(log,
+                new Snapshots(directory.resolve("snapshot")), false, 0);
+        WritePipeline pipeline = new WritePipeline(store, 1024, 64, 1000);
+        try {
+            for (int i = 0; i < 10; i++) {
+                pipeline.submit(new BatchOperation(BatchOperation.Type.CREATE, "Doris", "applied" + i, "Applied"),
+                        AckMode.APPLIED).get(10, TimeUnit.SECONDS);
+            }
+            Assertions.assertEquals(10, store.getUserMessages("Doris").size());
+            Assertions.assertTrue(log.durablePosition() < log.appendedPosition());
+
+            List<CompletableFuture<BatchResult>> durable = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                durable.add(pipeline.submit(new BatchOperation(BatchOperation.Type.CREATE, "Olga", "durable" + i,
+                        "Durable"), AckMode.DURABLE));
+            }
+            for (CompletableFuture<BatchResult> result : durable) {
+                Assertions.assertEquals(200, result.get(10, TimeUnit.SECONDS).getStatus());
+            }
+            // Nothing written since the last one was answered
+            Assertions.assertEquals(log.appendedPosition(), log.durablePosition());
+        } finally {
+            pipeline.close();
+            store.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Test
+    void clusterExpectNotStarted() {
+        // The pipeline would apply the writes of every user to the store of this node
+        assertThrows(IllegalStateException.class, () ->
+                new WritePipeline(64, 8, 1000, "durable", "node0", null));
+    }
+
+    @Test
+    void fullQueueExpectWriteRejected() throws Exception {
+        CountDownLatch applying = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ConcurrentMessageServiceImpl store = new ConcurrentMessageServiceImpl() {
+            @Override
+            public List<BatchResult> applyBatch(List<BatchOperation> operations) {
+                applying.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.applyBatch(operations);
+            }
+        };
+        WritePipeline pipeline = new WritePipeline(store, 2, 1, 10);
+        try {
+            List<CompletableFuture<BatchResult>> results = new ArrayList<>();
+            results.add(pipeline.submit(new BatchOperation(BatchOperation.Type.CREATE, "Doris", "m0", "Blocked"),
+                    AckMode.APPLIED));
+            applying.await();
+            results.add(pipeline.submit(new BatchOperation(BatchOperation.Type.CREATE, "Doris", "m1", "Queued"),
+                    AckMode.APPLIED));
+            results.add(pipeline.submit(new BatchOperation(BatchOperation.Type.CREATE, "Doris", "m2", "Queued"),
+                    AckMode.APPLIED));
+            Assertions.assertEquals(2, pipeline.queuedCount());
+            RateLimitExceededException e = assertThrows(RateLimitExceededException.class, () -> pipeline.submit(
+                    new BatchOperation(BatchOperation.Type.CREATE, "Doris", "m3", "Rejected"), AckMode.APPLIED));
+            Assertions.assertEquals(1, e.getRetryAfterSeconds());
+
+            release.countDown();
+            for (CompletableFuture<BatchResult> result : results) {
+                Assertions.assertEquals(200, result.get(10, TimeUnit.SECONDS).getStatus());
+            }
+            Assertions.assertEquals(3, store.getUserMessages("Doris").size());
+        } finally {
+            release.countDown();
+            pipeline.close();
+        }
+    }
+}